@@ -0,0 +1,245 @@
+package ciliaQ_jnh;
+/** ===============================================================================
+ * CiliaQ, a plugin for imagej - Version 0.2.2
+ *
+ * Copyright (C) 2017-2026 Jan Niklas Hansen
+ * First version: June 30, 2017
+ * This Version: October 17, 2026
+ *
+ * Parts of the code were inherited from MotiQ
+ * (https://github.com/hansenjn/MotiQ).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ *
+ * For any questions please feel free to contact me (jan.hansen@uni-bonn.de).
+* =============================================================================== */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Links the basal bodies detected in the individual frames of a timelapse image into tracks. Frames are added one after another.
+ * 
+ * The last positions of the active tracks are sorted into a uniform grid (cells marginally larger than the maximum linking distance), so that 
+ * only the tracks in the 3x3x3 cells around a basal body are measured. The grid arrays are kept and refilled for each frame.
+ * The cost of a link is (distance / max linking distance)^2 + number of skipped frames, links are chosen by linear assignment 
+ * (see SparseAssignment) and basal bodies without a link start a new track. Tracks that have not been continued for more than 
+ * the maximum gap are closed.
+ * */
+class BasalBodyTracker {
+	private final double maxLinkingDistance, cellSize;
+	private final int maxGapFrames;
+	private final double calibration, voxelDepth;
+	private final int nrOfThreads;
+	
+	private int nrOfTracks = 0;
+	private int lastFrame = -1;
+	
+	/**
+	 * Active tracks: track ID, last frame and last position (calibrated units)
+	 * */
+	private int nrOfActive = 0;
+	private int [] activeTrack = new int [16], activeFrame = new int [16];
+	private double [] activeX = new double [16], activeY = new double [16], activeZ = new double [16];
+	
+	/**
+	 * Grid over the active tracks: cell key of each active track (sorted) and the corresponding active track
+	 * */
+	private long [] gridKeys = new long [16];
+	private int [] gridActive = new int [16];
+	private long [][] gridEntries = new long [16][];
+	
+	/**
+	 * @param maxLinkingDistance: maximum distance between linked basal bodies, in calibration units
+	 * @param maxGapFrames: maximum number of frames that may be skipped by a link
+	 * @param calibration: pixel width and height
+	 * @param voxelDepth: pixel depth
+	 * @param nrOfThreads: number of threads for the assignment
+	 * */
+	public BasalBodyTracker(double maxLinkingDistance, int maxGapFrames, double calibration, double voxelDepth, int nrOfThreads) {
+		if(!(maxLinkingDistance > 0.0)) {
+			throw new IllegalArgumentException("Invalid maximum linking distance " + maxLinkingDistance);
+		}
+		if(maxGapFrames < 0) {
+			throw new IllegalArgumentException("Invalid maximum gap " + maxGapFrames);
+		}
+		this.maxLinkingDistance = maxLinkingDistance;
+		//cells slightly larger than the max linking distance, so that rounding cannot move a pair at the max distance out of neighboring cells
+		this.cellSize = maxLinkingDistance * (1.0 + 1.0E-6);
+		this.maxGapFrames = maxGapFrames;
+		this.calibration = calibration;
+		this.voxelDepth = voxelDepth;
+		this.nrOfThreads = nrOfThreads;
+	}
+	
+	/**
+	 * Link the basal bodies of the next frame to the tracks.
+	 * @param t: the frame of the basal bodies (0 <= t), frames must be added in ascending order
+	 * @param bbs: the basal body centers in frame t (uncalibrated coordinates)
+	 * @return the track ID of each basal body, new tracks are numbered consecutively from 0 on
+	 * */
+	public int [] addFrame(int t, ArrayList<Uncalibrated3DPoint> bbs) {
+		if(t <= lastFrame) {
+			throw new IllegalArgumentException("Frame " + t + " added after frame " + lastFrame);
+		}
+		lastFrame = t;
+		
+		//Close tracks that can no longer be continued
+		int n = 0;
+		for(int a = 0; a < nrOfActive; a++) {
+			if(t - activeFrame [a] - 1 <= maxGapFrames) {
+				activeTrack [n] = activeTrack [a];
+				activeFrame [n] = activeFrame [a];
+				activeX [n] = activeX [a];
+				activeY [n] = activeY [a];
+				activeZ [n] = activeZ [a];
+				n++;
+			}
+		}
+		nrOfActive = n;
+		
+		int [] tracks = new int [bbs.size()];
+		int [] link = new int [bbs.size()];
+		Arrays.fill(link, -1);
+		if(nrOfActive > 0 && bbs.size() > 0) {
+			buildGrid();
+			SparseAssignment assignment = new SparseAssignment(bbs.size(), nrOfActive);
+			for(int bb = 0; bb < bbs.size(); bb++) {
+				addCandidates(assignment, bb, bbs.get(bb), t);
+			}
+			/**
+			 * As in CiliaTracker, the cutoff (maxGapFrames + 2) is above the maximum edge cost (maxGapFrames + 1), so each link
+			 * is cheaper than leaving both partners unmatched and the assignment favors linking many basal bodies.
+			 * */
+			link = assignment.execute(maxGapFrames + 2.0, nrOfThreads);
+		}
+		
+		//Update the active tracks
+		int nrOfContinued = nrOfActive;
+		for(int bb = 0; bb < bbs.size(); bb++) {
+			int a;
+			if(link [bb] >= 0) {
+				a = link [bb];
+			}else {
+				a = nrOfContinued++;
+				ensureActiveCapacity(nrOfContinued);
+				activeTrack [a] = nrOfTracks++;
+			}
+			tracks [bb] = activeTrack [a];
+			activeFrame [a] = t;
+			activeX [a] = bbs.get(bb).x * calibration;
+			activeY [a] = bbs.get(bb).y * calibration;
+			activeZ [a] = bbs.get(bb).z * voxelDepth;
+		}
+		nrOfActive = nrOfContinued;
+		return tracks;
+	}
+	
+	/**
+	 * @return the number of tracks started so far
+	 * */
+	public int getNumberOfTracks() {
+		return nrOfTracks;
+	}
+	
+	private void ensureActiveCapacity(int size) {
+		if(size <= activeTrack.length) {
+			return;
+		}
+		int length = Math.max(size, 2 * activeTrack.length);
+		activeTrack = Arrays.copyOf(activeTrack, length);
+		activeFrame = Arrays.copyOf(activeFrame, length);
+		activeX = Arrays.copyOf(activeX, length);
+		activeY = Arrays.copyOf(activeY, length);
+		activeZ = Arrays.copyOf(activeZ, length);
+	}
+	
+	/**
+	 * Sort the active tracks into the grid, reusing the grid arrays of the previous frame
+	 * */
+	private void buildGrid() {
+		if(gridEntries.length < nrOfActive) {
+			gridEntries = new long [Math.max(nrOfActive, 2 * gridEntries.length)][];
+			gridKeys = new long [gridEntries.length];
+			gridActive = new int [gridEntries.length];
+		}
+		for(int a = 0; a < nrOfActive; a++) {
+			if(gridEntries [a] == null) {
+				gridEntries [a] = new long [2];
+			}
+			gridEntries [a][0] = getCellKey(getCell(activeX [a]), getCell(activeY [a]), getCell(activeZ [a]));
+			gridEntries [a][1] = a;
+		}
+		Arrays.sort(gridEntries, 0, nrOfActive, new Comparator<long []>() {
+			@Override
+			public int compare(long [] p, long [] q) {
+				return Long.compare(p[0], q[0]);
+			}
+		});
+		for(int i = 0; i < nrOfActive; i++) {
+			gridKeys [i] = gridEntries [i][0];
+			gridActive [i] = (int) gridEntries [i][1];
+		}
+	}
+	
+	/**
+	 * Add an edge for each active track within the maximum linking distance of the basal body
+	 * */
+	private void addCandidates(SparseAssignment assignment, int bb, Uncalibrated3DPoint point, int t) {
+		double x = point.x * calibration, y = point.y * calibration, z = point.z * voxelDepth;
+		long cx = getCell(x), cy = getCell(y), cz = getCell(z);
+		for(long dz = -1; dz <= 1; dz++) {
+			for(long dy = -1; dy <= 1; dy++) {
+				for(long dx = -1; dx <= 1; dx++) {
+					long key = getCellKey(cx + dx, cy + dy, cz + dz);
+					for(int i = lowerBound(gridKeys, nrOfActive, key); i < nrOfActive && gridKeys [i] == key; i++) {
+						int a = gridActive [i];
+						double dist = Math.sqrt(Math.pow(x - activeX [a], 2.0) + Math.pow(y - activeY [a], 2.0) + Math.pow(z - activeZ [a], 2.0));
+						if(dist <= maxLinkingDistance) {
+							assignment.addEdge(bb, a, Math.pow(dist / maxLinkingDistance, 2.0) + (t - activeFrame [a] - 1));
+						}
+					}
+				}
+			}
+		}
+	}
+	
+	private long getCell(double value) {
+		return (long) Math.floor(value / cellSize);
+	}
+	
+	/**
+	 * @return a key for the cell, unique for cell coordinates within +/- 2^20
+	 * */
+	private static long getCellKey(long cx, long cy, long cz) {
+		return ((cz & 0x1FFFFF) << 42) | ((cy & 0x1FFFFF) << 21) | (cx & 0x1FFFFF);
+	}
+	
+	/**
+	 * @return the first index i < length with values [i] >= key, length if there is none
+	 * */
+	private static int lowerBound(long [] values, int length, long key) {
+		int lo = 0, hi = length;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(values [mid] < key) {
+				lo = mid + 1;
+			}else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+}
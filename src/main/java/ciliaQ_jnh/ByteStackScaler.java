@@ -0,0 +1,264 @@
+package ciliaQ_jnh;
+/** ===============================================================================
+ * CiliaQ, a plugin for imagej - Version 0.2.2
+ *
+ * Copyright (C) 2017-2026 Jan Niklas Hansen
+ * First version: June 30, 2017
+ * This Version: October 17, 2026
+ *
+ * Parts of the code were inherited from MotiQ
+ * (https://github.com/hansenjn/MotiQ).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ *
+ * For any questions please feel free to contact me (jan.hansen@uni-bonn.de).
+* =============================================================================== */
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+
+/**
+ * Bilinear upscaling of 8-bit stacks without ROI, overlay, or hyperstack dimensions, as used for the binary particle images
+ * that are skeletonized. Output voxels are sampled at the same positions and rounded in the same way as by ScalerJNH,
+ * i.e., ImageProcessor.resize in x and y followed by Resizer.zScale in z, but the output stack is written directly in a single
+ * pass over the output slices: each output slice interpolates between two source slices that are upscaled in x and y only once.
+ * Output slices can be computed by several threads.
+ * */
+class ByteStackScaler {
+	/**
+	 * Minimum number of output voxels to scale a stack with several threads
+	 * */
+	static final int MIN_PARALLEL_VOXELS = 1 << 20;
+	
+	private final ImageStack source;
+	private final int width, height, depth, newWidth, newHeight, newDepth;
+	/** source column and fraction of each output column (x), source row and fraction of each output row (y) */
+	private final int [] x0, y0;
+	private final double [] xFraction, yFraction;
+	private final ImageStack result;
+	
+	private ByteStackScaler(ImageStack source, int newWidth, int newHeight, int newDepth) {
+		this.source = source;
+		this.width = source.getWidth();
+		this.height = source.getHeight();
+		this.depth = source.getSize();
+		this.newWidth = newWidth;
+		this.newHeight = newHeight;
+		this.newDepth = newDepth;
+		
+		x0 = new int [newWidth];
+		xFraction = new double [newWidth];
+		getSourcePositions(width, newWidth, x0, xFraction);
+		y0 = new int [newHeight];
+		yFraction = new double [newHeight];
+		getSourcePositions(height, newHeight, y0, yFraction);
+		
+		result = new ImageStack(newWidth, newHeight);
+		for(int z = 0; z < newDepth; z++) {
+			result.addSlice(source.getSliceLabel(Math.min(z, depth - 1) + 1), new byte [newWidth * newHeight]);
+		}
+	}
+	
+	/**
+	 * Determines the source position of each output pixel along a dimension as ImageProcessor.resize does for bilinear interpolation:
+	 * the output is shifted by a quarter of the scale if the size changes, and positions are clamped to the source
+	 * (the last source position is clamped slightly below the last pixel).
+	 * @param base: array to store the integer part of the source position
+	 * @param fraction: array to store the fractional part of the source position
+	 * */
+	private static void getSourcePositions(int size, int newSize, int [] base, double [] fraction) {
+		double scale = (double) newSize / size;
+		double srcCenter = size / 2.0;
+		double dstCenter = newSize / 2.0;
+		if(newSize != size) {
+			dstCenter += scale / 4.0;
+		}
+		double limit = size - 1.0, limit2 = size - 1.001;
+		for(int i = 0; i < newSize; i++) {
+			double s = (i - dstCenter) / scale + srcCenter;
+			if(s < 0.0) s = 0.0;
+			if(s >= limit) s = limit2;
+			base [i] = (int) s;
+			fraction [i] = s - base [i];
+		}
+	}
+	
+	/**
+	 * @return the upscaled stack in a new ImagePlus with adjusted calibration, 
+	 * or null if the image is not an 8-bit image without ROI, overlay, channels and frames,
+	 * or if it would not be enlarged in all scaled dimensions
+	 * @param scaleX, scaleY, scaleZ: scale factors as for ScalerJNH.getScaled (scaleZ = 1.0: no scaling in z)
+	 * @param nrOfThreads: number of threads for large stacks
+	 * */
+	static ImagePlus scale(ImagePlus imp, double scaleX, double scaleY, double scaleZ, int nrOfThreads) {
+		if(imp.getBitDepth() != 8 || imp.isComposite() || imp.getNChannels() != 1 || imp.getNFrames() != 1
+				|| imp.getRoi() != null || imp.getOverlay() != null || imp.getStack().isVirtual()) {
+			return null;
+		}
+		int width = imp.getWidth(), height = imp.getHeight(), depth = imp.getStackSize();
+		if(!(scaleX > 0.0 && scaleY > 0.0) || width < 2 || height < 2) {
+			return null;
+		}
+		int newWidth = (int) Math.round(width * scaleX);
+		int newHeight = (int) Math.round(height * scaleY);
+		int newDepth = depth;
+		if(scaleZ != 1.0 && scaleZ > 0.0) {
+			newDepth = (int) Math.round(depth * scaleZ);
+		}
+		if(newWidth < width || newHeight < height || newDepth < depth || (newDepth != depth && depth < 2)) {
+			return null;
+		}
+		if((long) newWidth * newHeight > Integer.MAX_VALUE - 8) {
+			return null;
+		}
+		
+		ByteStackScaler scaler = new ByteStackScaler(imp.getStack(), newWidth, newHeight, newDepth);
+		scaler.scale(nrOfThreads);
+		
+		ImagePlus imp2 = new ImagePlus(imp.getTitle(), scaler.result);
+		Calibration cal = imp.getCalibration().copy();
+		if(cal.scaled()) {
+			cal.pixelWidth *= 1.0/scaleX;
+			cal.pixelHeight *= 1.0/scaleY;
+			if(newDepth != depth) {
+				cal.pixelDepth *= (double) depth / newDepth;
+			}
+		}
+		imp2.setCalibration(cal);
+		return imp2;
+	}
+	
+	private void scale(int nrOfThreads) {
+		if(nrOfThreads <= 1 || (long) newWidth * newHeight * newDepth < MIN_PARALLEL_VOXELS || newDepth < 2) {
+			scaleSlices(0, newDepth);
+			return;
+		}
+		nrOfThreads = Math.min(nrOfThreads, newDepth);
+		ExecutorService pool = Executors.newFixedThreadPool(nrOfThreads);
+		try {
+			ArrayList<Future<Object>> tasks = new ArrayList<Future<Object>>(nrOfThreads);
+			for(int part = 0; part < nrOfThreads; part++) {
+				final int from = (int) ((long) newDepth * part / nrOfThreads);
+				final int to = (int) ((long) newDepth * (part + 1) / nrOfThreads);
+				tasks.add(pool.submit(new Callable<Object>() {
+					@Override
+					public Object call() {
+						scaleSlices(from, to);
+						return null;
+					}
+				}));
+			}
+			for(int part = 0; part < nrOfThreads; part++) {
+				try {
+					tasks.get(part).get();
+				}catch(ExecutionException e) {
+					throw new RuntimeException("Scaling failed.", e.getCause());
+				}
+			}
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Scaling was interrupted.", e);
+		}finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Computes output slices, keeping the two source slices upscaled in x and y that the current output slice interpolates between
+	 * @param from: first output slice (0-based)
+	 * @param to: output slice after the last output slice
+	 * */
+	private void scaleSlices(int from, int to) {
+		if(newDepth == depth) {
+			for(int z = from; z < to; z++) {
+				scaleXY(z, (byte []) result.getPixels(z + 1));
+			}
+			return;
+		}
+		
+		int [] z0 = new int [newDepth];
+		double [] zFraction = new double [newDepth];
+		getSourcePositions(depth, newDepth, z0, zFraction);
+		
+		byte [] lower = new byte [newWidth * newHeight], upper = new byte [newWidth * newHeight];
+		int lowerZ = -1;
+		for(int z = from; z < to; z++) {
+			if(z0 [z] != lowerZ) {
+				if(lowerZ >= 0 && z0 [z] == lowerZ + 1) {
+					byte [] temp = lower;
+					lower = upper;
+					upper = temp;
+				}else {
+					scaleXY(z0 [z], lower);
+				}
+				lowerZ = z0 [z];
+				scaleXY(lowerZ + 1, upper);
+			}
+			
+			// interpolation in the xz plane as in ImageProcessor.resize: x is not scaled,
+			// but the last column is clamped slightly below the last pixel
+			byte [] pixels = (byte []) result.getPixels(z + 1);
+			double f = zFraction [z];
+			int last = newWidth - 1;
+			double lastFraction = (newWidth - 1.001) - (newWidth - 2);
+			for(int y = 0, i = 0; y < newHeight; y++) {
+				for(int x = 0; x < last; x++, i++) {
+					int a = lower [i] & 0xff;
+					pixels [i] = (byte) ((int) (a + f * ((upper [i] & 0xff) - a) + 0.5) & 255);
+				}
+				double lowerAverage = (lower [i - 1] & 0xff) + lastFraction * ((lower [i] & 0xff) - (lower [i - 1] & 0xff));
+				double upperAverage = (upper [i - 1] & 0xff) + lastFraction * ((upper [i] & 0xff) - (upper [i - 1] & 0xff));
+				pixels [i] = (byte) ((int) (lowerAverage + f * (upperAverage - lowerAverage) + 0.5) & 255);
+				i++;
+			}
+		}
+	}
+	
+	/**
+	 * Upscales a source slice in x and y (bilinear interpolation as in ImageProcessor.resize), or copies it if the size does not change
+	 * @param z: source slice (0-based)
+	 * @param pixels: output pixels
+	 * */
+	private void scaleXY(int z, byte [] pixels) {
+		byte [] src = (byte []) source.getPixels(z + 1);
+		if(newWidth == width && newHeight == height) {
+			// ImageProcessor.resize returns a copy
+			System.arraycopy(src, 0, pixels, 0, pixels.length);
+			return;
+		}
+		for(int y = 0, i = 0; y < newHeight; y++) {
+			int row = y0 [y] * width;
+			double yf = yFraction [y];
+			for(int x = 0; x < newWidth; x++, i++) {
+				int offset = row + x0 [x];
+				double xf = xFraction [x];
+				int lowerLeft = src [offset] & 0xff;
+				int lowerRight = src [offset + 1] & 0xff;
+				int upperRight = src [offset + width + 1] & 0xff;
+				int upperLeft = src [offset + width] & 0xff;
+				double upperAverage = upperLeft + xf * (upperRight - upperLeft);
+				double lowerAverage = lowerLeft + xf * (lowerRight - lowerLeft);
+				pixels [i] = (byte) ((int) (lowerAverage + yf * (upperAverage - lowerAverage) + 0.5) & 255);
+			}
+		}
+	}
+}
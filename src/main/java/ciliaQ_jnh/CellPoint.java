@@ -81,5 +81,19 @@ class CellPoint{
 	double getSurface(double cal, double zcal){
 		return (cal*cal*(double)xySurface + cal*zcal*(double)xzyzSurface); 
 	}
+	
+	/**
+	 * @return the number of uncovered voxel faces towards z (0 to 2)
+	 * */
+	int getXYSurface(){
+		return xySurface;
+	}
+	
+	/**
+	 * @return the number of uncovered voxel faces towards x and y (0 to 4)
+	 * */
+	int getXZYZSurface(){
+		return xzyzSurface;
+	}
 }
 
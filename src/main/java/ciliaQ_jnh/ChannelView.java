@@ -0,0 +1,194 @@
+package ciliaQ_jnh;
+/** ===============================================================================
+ * CiliaQ, a plugin for imagej - Version 0.2.2
+ *
+ * Copyright (C) 2017-2026 Jan Niklas Hansen
+ * First version: June 30, 2017
+ * This Version: October 17, 2026
+ *
+ * Parts of the code were inherited from MotiQ
+ * (https://github.com/hansenjn/MotiQ).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ *
+ * For any questions please feel free to contact me (jan.hansen@uni-bonn.de).
+* =============================================================================== */
+
+import ij.ImagePlus;
+
+/**
+ * View on one channel (all frames or a single frame) of a hyperstack, referencing the slice pixel arrays of the image instead of copying voxels.
+ * The static methods dispatch on the bit depth of slice pixel arrays and are shared by all classes working on pixel arrays directly.
+ * */
+class ChannelView {
+	static final int TYPE_BYTE = 0, TYPE_SHORT = 1, TYPE_FLOAT = 2, TYPE_INT = 3;
+
+	private final int width, height, slices, frames, type;
+	private final Object [][] pixels;	// [frame][slice]
+
+	/**
+	 * View on all frames of a channel
+	 * @param channel: 1 <= channel <= # channels
+	 * */
+	ChannelView(ImagePlus imp, int channel){
+		this(imp, channel, 1, imp.getNFrames());
+	}
+
+	/**
+	 * View on a single frame of a channel
+	 * @param channel: 1 <= channel <= # channels
+	 * @param frame: 1 <= frame <= # frames
+	 * */
+	ChannelView(ImagePlus imp, int channel, int frame){
+		this(imp, channel, frame, 1);
+	}
+
+	private ChannelView(ImagePlus imp, int channel, int firstFrame, int nrOfFrames){
+		width = imp.getWidth();
+		height = imp.getHeight();
+		slices = imp.getNSlices();
+		frames = nrOfFrames;
+		pixels = new Object [frames][slices];
+		for(int t = 0; t < frames; t++){
+			for(int z = 0; z < slices; z++){
+				pixels [t][z] = imp.getStack().getPixels(imp.getStackIndex(channel, z+1, firstFrame+t));
+			}
+		}
+		type = getPixelType(pixels);
+	}
+
+	int getWidth(){
+		return width;
+	}
+
+	int getHeight(){
+		return height;
+	}
+
+	int getNSlices(){
+		return slices;
+	}
+
+	int getNFrames(){
+		return frames;
+	}
+
+	/**
+	 * @return the slice pixel arrays of the view as [frame][slice] (0-based).
+	 * These are the arrays of the image itself, i.e. modifying them modifies the image.
+	 * */
+	Object [][] getPixels(){
+		return pixels;
+	}
+
+	/**
+	 * @return the pixel array of slice z in frame t (0-based)
+	 * */
+	Object getPixels(int z, int t){
+		return pixels [t][z];
+	}
+
+	/**
+	 * @return the intensity of the pixel with index i = y * width + x in slice z of frame t (0-based), as ImageStack.getVoxel(...)
+	 * */
+	double getValue(int i, int z, int t){
+		return getPixelValue(pixels [t][z], type, i);
+	}
+
+	/**
+	 * @return true if the intensity of the pixel with index i = y * width + x in slice z of frame t (0-based) is > 0
+	 * */
+	boolean isForeground(int i, int z, int t){
+		return isForegroundPixel(pixels [t][z], type, i);
+	}
+
+	/**
+	 * @return the TYPE_... constant of the first slice pixel array in pixels ([frame][slice]), all slices are expected to have the same type
+	 * */
+	static int getPixelType(Object [][] pixels){
+		if(pixels.length == 0 || pixels [0].length == 0)	return TYPE_BYTE;
+		return getPixelType(pixels [0][0]);
+	}
+
+	/**
+	 * @return the TYPE_... constant of a slice pixel array
+	 * */
+	static int getPixelType(Object slice){
+		if(slice instanceof byte [])	return TYPE_BYTE;
+		if(slice instanceof short [])	return TYPE_SHORT;
+		if(slice instanceof float [])	return TYPE_FLOAT;
+		if(slice instanceof int [])		return TYPE_INT;
+		throw new IllegalArgumentException("Unsupported pixel type: " + slice.getClass().getSimpleName());
+	}
+
+	/**
+	 * @return the intensity of the pixel with index i in a slice pixel array of the given type, as ImageStack.getVoxel(...)
+	 * */
+	static double getPixelValue(Object slice, int type, int i){
+		switch(type){
+			case TYPE_BYTE: 	return ((byte []) slice)[i] & 0xff;
+			case TYPE_SHORT: 	return ((short []) slice)[i] & 0xffff;
+			case TYPE_FLOAT: 	return ((float []) slice)[i];
+			default: 			return ((int []) slice)[i] & 0xffffff;
+		}
+	}
+
+	/**
+	 * @return true if the intensity of the pixel is > 0, corresponding to ImageStack.getVoxel(...) > 0.0
+	 * */
+	static boolean isForegroundPixel(Object slice, int type, int i){
+		switch(type){
+			case TYPE_BYTE: 	return (((byte []) slice)[i] & 0xff) != 0;
+			case TYPE_SHORT: 	return (((short []) slice)[i] & 0xffff) != 0;
+			case TYPE_FLOAT: 	return ((float []) slice)[i] > 0.0f;
+			default: 			return (((int []) slice)[i] & 0xffffff) != 0;
+		}
+	}
+
+	/**
+	 * Sets the pixel with index i in a slice pixel array to value, as ImageStack.setVoxel(...)
+	 * */
+	static void setValue(Object slice, int i, double value){
+		switch(getPixelType(slice)){
+			case TYPE_BYTE:
+				if(value < 0.0)	value = 0.0;
+				if(value > 255.0)	value = 255.0;
+				((byte []) slice)[i] = (byte)((int) value);
+				break;
+			case TYPE_SHORT:
+				if(value < 0.0)	value = 0.0;
+				if(value > 65535.0)	value = 65535.0;
+				((short []) slice)[i] = (short)((int) value);
+				break;
+			case TYPE_FLOAT:
+				((float []) slice)[i] = (float) value;
+				break;
+			default:
+				((int []) slice)[i] = (int) value;
+				break;
+		}
+	}
+
+	/**
+	 * Sets the pixel with index i in a slice pixel array of the given type to 0
+	 * */
+	static void clearVoxel(Object slice, int type, int i){
+		switch(type){
+			case TYPE_BYTE: 	((byte []) slice)[i] = 0; break;
+			case TYPE_SHORT: 	((short []) slice)[i] = 0; break;
+			case TYPE_FLOAT: 	((float []) slice)[i] = 0.0f; break;
+			default: 			((int []) slice)[i] = 0; break;
+		}
+	}
+}
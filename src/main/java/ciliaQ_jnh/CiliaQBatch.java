@@ -0,0 +1,317 @@
+package ciliaQ_jnh;
+/** ===============================================================================
+ * CiliaQ, a plugin for imagej - Version 0.2.2
+ *
+ * Copyright (C) 2017-2026 Jan Niklas Hansen
+ * First version: June 30, 2017
+ * This Version: October 17, 2026
+ *
+ * Parts of the code were inherited from MotiQ
+ * (https://github.com/hansenjn/MotiQ).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ *
+ * For any questions please feel free to contact me (jan.hansen@uni-bonn.de).
+* =============================================================================== */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.regex.Pattern;
+
+import ij.IJ;
+import ij.ImagePlus;
+
+/**
+ * Headless batch mode of CiliaQ, e.g. for running CiliaQ on a cluster without a display.
+ * Processes a queue of images with the settings from a "..._CQ.txt" file. Several images are processed concurrently,
+ * while an image is only started if its estimated memory demand fits into the remaining memory budget (see MemoryAdmission).
+ * Images whose estimated demand exceeds the whole budget are skipped.
+ * The status and processing time of each image are written to a tab-separated summary file.
+ *
+ * Usage: java -cp ij.jar:CiliaQ.jar ciliaQ_jnh.CiliaQBatch -settings <..._CQ.txt> [options] <image files or directories>
+ * */
+public class CiliaQBatch {
+	static final String USAGE = "Usage: CiliaQBatch -settings <..._CQ.txt> [options] <image files or directories>\n"
+			+ "Options:\n"
+			+ "	-list <file>				text file listing one image path per line\n"
+			+ "	-images <n>				number of images processed concurrently (default: 1)\n"
+			+ "	-threads <n>				number of threads per image (default: available processors / images)\n"
+			+ "	-memory <MB>				memory budget for all images (default: 80% of the maximum heap size)\n"
+			+ "	-summary <file>				path of the summary file (default: CiliaQ_batch_<date>.txt in the working directory)\n"
+			+ "	-number-format <us|germany>		number format of the output files (default: us)\n"
+			+ "	-compress-point-tables			save skeleton point tables gzip-compressed";
+
+	static final String STATUS_DONE = "done", STATUS_FAILED = "failed", STATUS_SKIPPED = "skipped";
+	private static final Pattern OUTPUT_IMAGE_PATTERN = Pattern.compile(".*_CQ(_\\d{6}_\\d{6})?_(RP|SKL)(_3D)?\\.(tif|tiff|png)", Pattern.CASE_INSENSITIVE);
+
+	private final File settingsFile;
+	private final int nrOfConcurrentImages, nrOfThreadsPerImage;
+	private final int memoryBudget;	// in MB
+	private final boolean germanNumberFormat, compressPointTables;
+	private final MemoryAdmission memory;
+	private final OutputTextFile summary;
+	private final SimpleDateFormat FullDateFormatter = new SimpleDateFormat("yyyy-MM-dd	HH:mm:ss");
+	private final DecimalFormat dformat3 = new DecimalFormat("#0.000", new DecimalFormatSymbols(Locale.US));
+
+	CiliaQBatch(File settingsFile, int nrOfConcurrentImages, int nrOfThreadsPerImage, int memoryBudget,
+			boolean germanNumberFormat, boolean compressPointTables, String summaryPath){
+		this.settingsFile = settingsFile;
+		this.nrOfConcurrentImages = nrOfConcurrentImages;
+		this.nrOfThreadsPerImage = nrOfThreadsPerImage;
+		this.memoryBudget = memoryBudget;
+		this.germanNumberFormat = germanNumberFormat;
+		this.compressPointTables = compressPointTables;
+		memory = new MemoryAdmission(memoryBudget * MemoryAdmission.MB);
+		summary = new OutputTextFile(summaryPath);
+	}
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		String settingsPath = null, summaryPath = null;
+		int nrOfConcurrentImages = 1, nrOfThreads = -1;
+		int memoryBudget = (int)(MemoryAdmission.getDefaultBudget() / MemoryAdmission.MB);
+		boolean germanNumberFormat = false, compressPointTables = false;
+		ArrayList<File> images = new ArrayList<File>();
+		try {
+			for(int i = 0; i < args.length; i++) {
+				if(args[i].equals("-settings")) {
+					settingsPath = args[++i];
+				}else if(args[i].equals("-list")) {
+					addImagesFromList(new File(args[++i]), images);
+				}else if(args[i].equals("-images")) {
+					nrOfConcurrentImages = Integer.parseInt(args[++i]);
+				}else if(args[i].equals("-threads")) {
+					nrOfThreads = Integer.parseInt(args[++i]);
+				}else if(args[i].equals("-memory")) {
+					memoryBudget = Integer.parseInt(args[++i]);
+				}else if(args[i].equals("-summary")) {
+					summaryPath = args[++i];
+				}else if(args[i].equals("-number-format")) {
+					germanNumberFormat = args[++i].toLowerCase().contains("germ");
+				}else if(args[i].equals("-compress-point-tables")) {
+					compressPointTables = true;
+				}else if(args[i].startsWith("-")) {
+					System.out.println("Unknown option " + args[i] + "\n" + USAGE);
+					System.exit(2);
+				}else {
+					addImages(new File(args[i]), images);
+				}
+			}
+		}catch(ArrayIndexOutOfBoundsException e) {
+			System.out.println("Missing value for option " + args[args.length-1] + "\n" + USAGE);
+			System.exit(2);
+		}catch(NumberFormatException e) {
+			System.out.println("Invalid number: " + e.getMessage() + "\n" + USAGE);
+			System.exit(2);
+		}catch(IOException e) {
+			System.out.println("Could not read image list: " + e.getMessage());
+			System.exit(2);
+		}
+
+		if(settingsPath == null || !new File(settingsPath).isFile()) {
+			System.out.println("No valid settings file specified.\n" + USAGE);
+			System.exit(2);
+		}
+		if(images.isEmpty()) {
+			System.out.println("No images specified.\n" + USAGE);
+			System.exit(2);
+		}
+		if(nrOfConcurrentImages < 1)	nrOfConcurrentImages = 1;
+		if(nrOfThreads < 1) {
+			nrOfThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / nrOfConcurrentImages);
+		}
+		if(memoryBudget < 1)	memoryBudget = 1;
+		if(summaryPath == null) {
+			summaryPath = "CiliaQ_batch_" + new SimpleDateFormat("yyMMdd_HHmmss").format(new Date()) + ".txt";
+		}
+
+		CiliaQBatch batch = new CiliaQBatch(new File(settingsPath), nrOfConcurrentImages, nrOfThreads, memoryBudget,
+				germanNumberFormat, compressPointTables, summaryPath);
+		int nrOfFailedImages = batch.process(images);
+		System.out.println("CiliaQ batch finished: " + (images.size() - nrOfFailedImages) + "/" + images.size()
+			+ " images processed, summary saved as " + summaryPath);
+		System.exit(nrOfFailedImages == 0 ? 0 : 1);
+	}
+
+	/**
+	 * Processes all images in the queue
+	 * @return the number of images that failed or were skipped
+	 * */
+	int process(ArrayList<File> images) {
+		summary.append("CiliaQ batch processing	settings: " + settingsFile.getAbsolutePath()
+			+ "	images processed concurrently: " + nrOfConcurrentImages
+			+ "	threads per image: " + nrOfThreadsPerImage
+			+ "	memory budget [MB]: " + memoryBudget);
+		summary.append("File	Status	Start date	Start time	Duration [s]	Estimated memory [MB]	Message");
+		summary.flush();
+
+		ExecutorService pool = Executors.newFixedThreadPool(nrOfConcurrentImages);
+		int nrOfFailedImages = 0;
+		try {
+			ArrayList<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(images.size());
+			for(int i = 0; i < images.size(); i++) {
+				final File image = images.get(i);
+				futures.add(pool.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						return processQueuedImage(image);
+					}
+				}));
+			}
+			for(int i = 0; i < futures.size(); i++) {
+				if(!futures.get(i).get()) {
+					nrOfFailedImages++;
+				}
+			}
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Batch processing was interrupted", e);
+		}catch(ExecutionException e) {
+			throw new RuntimeException("Batch processing failed", e.getCause());
+		}finally {
+			pool.shutdownNow();
+			summary.finish();
+		}
+		return nrOfFailedImages;
+	}
+
+	/**
+	 * Loads the settings, waits until the estimated memory demand of the image fits into the memory budget, and processes the image
+	 * @return true if the image was processed successfully
+	 * */
+	private boolean processQueuedImage(File image) {
+		Date startDate = new Date();
+		long startTime = System.nanoTime();
+		long memoryDemand = 0L;
+		String status = STATUS_FAILED, message = "";
+		boolean admitted = false;
+		ImagePlus imp = null;
+		try {
+			CiliaQMain ciliaQ = new CiliaQMain();
+			ciliaQ.showGUIs = false;
+			ciliaQ.nrOfThreads = nrOfThreadsPerImage;
+			ciliaQ.compressPointTables = compressPointTables;
+			ciliaQ.setNumberFormat(germanNumberFormat ? CiliaQMain.nrFormats[1] : CiliaQMain.nrFormats[0]);
+			if(!ciliaQ.importSettings(settingsFile)) {
+				message = "settings could not be loaded";
+			}else {
+				memoryDemand = MemoryAdmission.estimatePeakMemory(ciliaQ, image);
+				admitted = memory.admit(memoryDemand);
+				if(!admitted) {
+					status = STATUS_SKIPPED;
+					message = "estimated memory demand exceeds the memory budget";
+				}else {
+					startDate = new Date();
+					startTime = System.nanoTime();
+					imp = IJ.openImage(image.getAbsolutePath());
+					if(imp == null) {
+						message = "file is no image";
+					}else {
+						imp.deleteRoi();
+						if(ciliaQ.processImage(imp, image.getName(), image.getAbsoluteFile().getParent() + File.separator, 0, startDate)) {
+							status = STATUS_DONE;
+						}else {
+							message = "reconstruction channel does not exist - analysis cancelled";
+						}
+					}
+				}
+			}
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			message = "interrupted while waiting for memory";
+		}catch(Throwable e) {
+			message = e.getClass().getSimpleName() + (e.getMessage() != null ? ": " + e.getMessage() : "");
+			e.printStackTrace();
+		}finally {
+			if(imp != null) {
+				imp.changes = false;
+				imp.close();
+			}
+			if(admitted) {
+				memory.release(memoryDemand);
+			}
+		}
+		writeStatus(image, status, startDate, System.nanoTime() - startTime, memoryDemand, message);
+		return status.equals(STATUS_DONE);
+	}
+
+	private synchronized void writeStatus(File image, String status, Date startDate, long duration, long memoryDemand, String message) {
+		String line = image.getAbsolutePath() + "	" + status + "	" + FullDateFormatter.format(startDate)
+			+ "	" + dformat3.format(duration / 1.0e9) + "	" + (memoryDemand / MemoryAdmission.MB)
+			+ "	" + message.replace("\t", " ").replace("\n", " ");
+		summary.append(line);
+		summary.flush();
+		System.out.println(line);
+	}
+
+	/**
+	 * Adds a file or all files of a directory (not recursive, sorted by name) to the list of images.
+	 * Text files, zip files, gzip files, hidden files, and result images of earlier CiliaQ runs in the directory are skipped.
+	 * */
+	static void addImages(File file, ArrayList<File> images) {
+		if(file.isDirectory()) {
+			File [] files = file.listFiles();
+			if(files == null)	return;
+			Arrays.sort(files);
+			for(int i = 0; i < files.length; i++) {
+				if(files[i].isFile() && !files[i].isHidden() && !isNoImage(files[i].getName()) && !isCiliaQOutput(files[i].getName())) {
+					images.add(files[i]);
+				}
+			}
+		}else {
+			images.add(file);
+		}
+	}
+
+	/**
+	 * Adds all files or directories listed in a text file (one path per line) to the list of images.
+	 * */
+	static void addImagesFromList(File list, ArrayList<File> images) throws IOException {
+		BufferedReader br = new BufferedReader(new FileReader(list));
+		try {
+			String line;
+			while((line = br.readLine()) != null) {
+				line = line.trim();
+				if(line.length() == 0 || line.startsWith("#"))	continue;
+				addImages(new File(line), images);
+			}
+		}finally {
+			br.close();
+		}
+	}
+
+	/**
+	 * @return true for the result images written by CiliaQ next to the analyzed image ("..._CQ_RP.tif", "..._CQ_SKL.tif", 
+	 * their "_3D" renderings, also with the date added to the name); images from CiliaQ Preparator ("..._CQP.tif") are inputs and not matched
+	 * */
+	static boolean isCiliaQOutput(String name) {
+		return OUTPUT_IMAGE_PATTERN.matcher(name).matches();
+	}
+
+	private static boolean isNoImage(String name) {
+		String lowerCaseName = name.toLowerCase();
+		return lowerCaseName.endsWith(".txt") || lowerCaseName.endsWith(".zip") || lowerCaseName.endsWith(".gz");
+	}
+}
@@ -29,6 +29,7 @@ import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.text.*;
 import javax.swing.UIManager;
 
@@ -69,10 +70,10 @@ public class CiliaQMain implements PlugIn, Measurements {
 	static final String[] bbAssignmentOptions = {"each BB to closest cilium"};
 	static final String[] bbCiliaFilterOptions = {"nothing based on BB-cilia-linking", "BBs without cilia", "cilia without BBs", "cilia without BBs and BBs without cilia"};
 	
-	static SimpleDateFormat NameDateFormatter = new SimpleDateFormat("yyMMdd_HHmmss");
-	static SimpleDateFormat FullDateFormatter = new SimpleDateFormat("yyyy-MM-dd	HH:mm:ss");
-	static SimpleDateFormat FullDateFormatter2 = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-	static SimpleDateFormat YearOnly = new SimpleDateFormat("yyyy");
+	SimpleDateFormat NameDateFormatter = new SimpleDateFormat("yyMMdd_HHmmss");
+	SimpleDateFormat FullDateFormatter = new SimpleDateFormat("yyyy-MM-dd	HH:mm:ss");
+	SimpleDateFormat FullDateFormatter2 = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+	SimpleDateFormat YearOnly = new SimpleDateFormat("yyyy");
 	
 	//Macro-related settings
 	boolean record = false;
@@ -107,6 +108,14 @@ public class CiliaQMain implements PlugIn, Measurements {
 			increaseRangeRegions = true,
 			increaseRangeBB = true;
 	String excludeSelection = excludeOptions [2];
+	
+	//Timelapse tracking
+	boolean trackCilia = false;	// segment each frame and link the cilia by assignment (see CiliaTracker) instead of connecting them in 4D
+	static final double DEFAULT_MAX_LINKING_DISTANCE = 2.0;
+	static final int DEFAULT_MAX_GAP_FRAMES = 1;
+	double maxLinkingDistance = DEFAULT_MAX_LINKING_DISTANCE;	// also used to track basal bodies (see BasalBodyTracker)
+	int maxGapFrames = DEFAULT_MAX_GAP_FRAMES;
+	
 	boolean measureC2 = true,
 			measureC3 = true,
 			measureBasal = false,
@@ -123,15 +132,20 @@ public class CiliaQMain implements PlugIn, Measurements {
 	double gXY = 2.0;
 	double gZ = 0.0;
 	double refDistance = 1.0;
+	boolean adaptiveUpscaling = false;	// choose the upscaling before skeletonization from the cilium extent (see SkeletonUpscaling)
 	
 	//Basal body segmentation based
 	double maxDistanceBBCiliumEnd = 2.0;
 	
 	boolean saveDate = false;	
 	boolean saveSingleCiliaTifs = false, saveSingleCilia3DImages = false, saveOverview3DImages = true;
+	boolean compressPointTables = false;
 	
 	String ChosenNumberFormat = nrFormats[0];
 	
+	//Processing
+	int nrOfThreads = Runtime.getRuntime().availableProcessors();
+	
 public void run(String arg) {
 	dfDialog.setDecimalFormatSymbols(new DecimalFormatSymbols(Locale.US));
 	try  
@@ -252,7 +266,11 @@ public void run(String arg) {
 		gd.setInsets(0,0,0);	gd.addCheckbox("save result image for each individual cilium", saveSingleCiliaTifs);
 		gd.setInsets(0,0,0);	gd.addCheckbox("save 3D visualizations for each individual cilium", saveSingleCilia3DImages);
 		gd.setInsets(0,0,0);	gd.addCheckbox("save 3D visualizations for whole image", saveOverview3DImages);
+		gd.setInsets(0,0,0);	gd.addCheckbox("compress skeleton point tables (gzip)", compressPointTables);
 		gd.setInsets(0,0,0);	gd.addChoice("output number format", nrFormats, nrFormats[0]);
+		
+		gd.setInsets(10,0,0);	gd.addMessage("Processing settings", SubHeadingFont);
+		gd.setInsets(0,0,0);	gd.addNumericField("number of parallel threads: ", nrOfThreads, 0);
 		gd.showDialog();
 		//show Dialog-----------------------------------------------------------------
 
@@ -275,17 +293,14 @@ public void run(String arg) {
 		saveSingleCiliaTifs = gd.getNextBoolean();
 		saveSingleCilia3DImages = gd.getNextBoolean();
 		saveOverview3DImages = gd.getNextBoolean();
+		compressPointTables = gd.getNextBoolean();
 		
-		ChosenNumberFormat = gd.getNextChoice();
-		if(ChosenNumberFormat.equals(nrFormats[0])){ //US-Format
-			dformat6.setDecimalFormatSymbols(new DecimalFormatSymbols(Locale.US));
-			dformat3.setDecimalFormatSymbols(new DecimalFormatSymbols(Locale.US));
-			dformat0.setDecimalFormatSymbols(new DecimalFormatSymbols(Locale.US));
-		}else if (ChosenNumberFormat.equals(nrFormats[1])){
-			dformat6.setDecimalFormatSymbols(new DecimalFormatSymbols(Locale.GERMANY));
-			dformat3.setDecimalFormatSymbols(new DecimalFormatSymbols(Locale.GERMANY));
-			dformat0.setDecimalFormatSymbols(new DecimalFormatSymbols(Locale.GERMANY));
-		}	
+		this.setNumberFormat(gd.getNextChoice());
+		
+		nrOfThreads = (int) gd.getNextNumber();
+		if(nrOfThreads < 1){
+			nrOfThreads = 1;
+		}
 		//read and process variables--------------------------------------------------
 		if (gd.wasCanceled()) return;
 		
@@ -451,7 +466,37 @@ public void run(String arg) {
 					break running;
 				}		
 		//Check for problems
-				
+
+		//Check whether the image can be processed with the available memory
+				long memoryDemand;
+				String estimateNote = "";
+				if(selectedTaskVariant.equals(taskVariant[1])){
+					File file = new File(dir[task] + name[task]);
+					memoryDemand = MemoryAdmission.estimatePeakMemoryFromHeader(this, file);
+					if(memoryDemand < 0L){
+						memoryDemand = MemoryAdmission.estimatePeakMemoryFromFileSize(this, file);
+						estimateNote = " (guessed from the file size)";
+					}
+				}else if(selectedTaskVariant.equals(taskVariant[0])){
+					memoryDemand = MemoryAdmission.estimatePeakMemory(this, WindowManager.getCurrentImage());
+				}else{
+					memoryDemand = MemoryAdmission.estimatePeakMemory(this, allImps[task]);
+				}
+				long availableMemory = MemoryAdmission.getAvailableMemory();
+				if(memoryDemand > availableMemory){
+					if(showGUIs) {
+						progress.notifyMessage("Task " + (task+1) + "/" + tasks + ": Memory may not suffice - estimated demand "
+								+ (memoryDemand / MemoryAdmission.MB) + " MB" + estimateNote + ", available " + (availableMemory / MemoryAdmission.MB)
+								+ " MB! If processing fails, increase the memory available to ImageJ (Edit > Options > Memory & Threads)"
+								+ " or deactivate output images.", ProgressDialog.NOTIFICATION);
+					}else {
+						System.out.println("File " + name[task] + ": Memory may not suffice - estimated demand "
+								+ (memoryDemand / MemoryAdmission.MB) + " MB" + estimateNote + ", available " + (availableMemory / MemoryAdmission.MB)
+								+ " MB!");
+					}
+				}
+		//Check whether the image can be processed with the available memory
+
 		//open Image
 		   	ImagePlus imp;
 		   	try{
@@ -475,175 +520,10 @@ public void run(String arg) {
 				break running;
 			}
 			
-		//Calibrate
-		   	imp.hide();
-			double pixelWidth = imp.getCalibration().pixelWidth;
-			double pixelHeight = imp.getCalibration().pixelHeight; 
-			double pixelDepth = imp.getCalibration().pixelDepth;
-			fps = imp.getCalibration().fps;
-			double frameInterval = imp.getCalibration().frameInterval;
-			String unit = imp.getCalibration().getUnit();	
-			String calTimeUnit = imp.getCalibration().getTimeUnit();
-			if(recalibrate){
-				pixelWidth = calibration;		imp.getCalibration().pixelWidth = pixelWidth;
-				pixelHeight = calibration;		imp.getCalibration().pixelHeight = pixelHeight;
-				pixelDepth = voxelDepth;		imp.getCalibration().pixelDepth = pixelDepth;
-				unit = calibrationDimension;	imp.getCalibration().setUnit(unit);
-				frameInterval = timePerFrame;	imp.getCalibration().frameInterval = frameInterval;
-				calTimeUnit = timeUnit; 		imp.getCalibration().setTimeUnit(calTimeUnit);
-				if(timeUnit.equals(timeFormats[0])){
-					fps = 1.0 / (double)timePerFrame;
-					imp.getCalibration().fps = fps;
-				}else if(timeUnit.equals(timeFormats[1])){
-					fps = 1.0 / (60*(double)timePerFrame);
-					imp.getCalibration().fps = fps;
-				}else if(timeUnit.equals(timeFormats[2])){
-					fps = 1.0 / (60*60*(double)timePerFrame);
-					imp.getCalibration().fps = fps;
-				}else{
-					fps = 1.0 / (24*60*60*(double)timePerFrame);
-					imp.getCalibration().fps = fps;
-				}
-			}else{				
-				calibration = pixelWidth;
-				calibrationDimension = ""+unit;
-				voxelDepth = pixelDepth;
-				if(pixelWidth!=pixelHeight){
-					if(showGUIs){
-						progress.notifyMessage("Task " + (task+1) + "/" + tasks 
-								+ ": x and y calibration in metadata differ - used only x metadata calibration for both, x and y!", ProgressDialog.NOTIFICATION);	
-					}
-				}
-				timePerFrame = frameInterval;
-				if(timePerFrame==0.0){timePerFrame=1.0;}
-				imp.getCalibration().frameInterval = timePerFrame;
-				if(fps==0.0){fps = 1.0;}
-				imp.getCalibration().fps = fps;
-				timeUnit = calTimeUnit;
-			}
-		//Calibrate
-			
-		//check for correctness
-			if(channelReconstruction>imp.getNChannels()){
-				if(showGUIs) {
-					progress.notifyMessage("Task " + (task+1) + "/" + tasks + ": reconstruction channel does not exist - analysis cancelled!", ProgressDialog.ERROR);
-					progress.moveTask(task);
-				}else {
-					IJ.error("Image " + name[task] + ": reconstruction channel does not exist - analysis cancelled!");
-				}
-				break running;
-			}
-			boolean measureC2local = measureC2;
-			if(measureC2 && channelC2>imp.getNChannels()){
-				measureC2local = false;
-				if(showGUIs) {
-					progress.notifyMessage("Task " + (task+1) + "/" + tasks + ": channel A does not exist - skipped channel A parameters!", ProgressDialog.NOTIFICATION);
-				}else {
-					System.out.println("Image " + name[task] + ": channel A does not exist - skipped channel A parameters!");
-				}
-			}
-			boolean measureC3local = measureC3;
-			if(measureC3 && channelC3>imp.getNChannels()){
-				measureC3local = false;
-				if(showGUIs) {
-					progress.notifyMessage("Task " + (task+1) + "/" + tasks + ": channel B does not exist - skipped channel B parameters!", ProgressDialog.NOTIFICATION);
-				}else {
-					System.out.println("Image " + name[task] + ": channel B does not exist - skipped channel A parameters!");
-				}
-			}
-			boolean measureBasalLocal = measureBasal;
-			if(measureBasalLocal && basalStainC>imp.getNChannels()){
-				measureBasalLocal = false;
-				if(showGUIs) {
-					progress.notifyMessage("Task " + (task+1) + "/" + tasks + ": basal channel does not exist - skiped basal channel-based processing!", ProgressDialog.NOTIFICATION);
-				}else {
-					System.out.println("Image " + name[task] + ": basal channel  does not exist - skipped basal channel-based processing!");
-				}
-			}
-			
-		//size-filter images
-			if(measureC2local && minRestSize > 1){
-				this.filterChannel(imp, channelC2, "intensity A", minRestSize, increaseRangeRegions);
-			}			
-			if(measureC3local && minRestSize > 1){
-				this.filterChannel(imp, channelC3, "intensity B", minRestSize, increaseRangeRegions);
-			}
-		//size-filter images
-			
-		//Define Output File Names			
-			String filePrefix;
-			if(name[task].contains(".")){
-				filePrefix = name[task].substring(0,name[task].lastIndexOf(".")) + "_CQ";
-			}else{
-				filePrefix = name[task] + "_CQ";
-			}
-			
-			if(saveDate){
-				filePrefix += "_" + NameDateFormatter.format(startDate);
-			}
-			
-			//Create subfolder to save additional files
-			String subfolderPrefix = "" + dir [task] + filePrefix + System.getProperty("file.separator") + "CQ";
-			if(this.saveSingleCilia3DImages || this.saveSingleCiliaTifs || imp.getNFrames() != 1) {
-				//Create the directory only if really needed
-				try{
-					new File(dir [task] + filePrefix).mkdirs();						
-				}catch(Exception e){
-					if(showGUIs) {
-						progress.notifyMessage("Task " + (task+1) + "/" + tasks + ": Failed to create subfolder to save additional plots! Will save plots into origianl folder!",ProgressDialog.NOTIFICATION);
-					}else {
-						System.out.println("Image " + name[task] + ": Failed to create subfolder to save additional plots! Will save plots into origianl folder!");
-					}				
-				}
-			}
-			
-			filePrefix = dir[task] + filePrefix;
-		//Define Output File Names
-			
-		//Check whether exclude selection matches and customize if needed	
-			String tempExcludeSelection = excludeSelection;
-			if(imp.getNSlices() == 1 && (excludeSelection.equals(excludeOptions [2]) || excludeSelection.equals(excludeOptions [3]))){
-				tempExcludeSelection = excludeOptions [1];
-				if(showGUIs) {
-					progress.notifyMessage("Task " + (task+1) + "/" + tasks + ": This is a 2D image - setting '"
-							+ excludeSelection
-							+ "' was switched to '"
-							+ tempExcludeSelection
-							+ "' for this image, to ensure that cilia can be detected.", ProgressDialog.NOTIFICATION);
-				}else {
-					System.out.println("Image " + name[task] + ": This is a 2D image - setting '"
-							+ excludeSelection
-							+ "' was switched to '"
-							+ tempExcludeSelection
-							+ "' for this image, to ensure that cilia can be detected.");
-				}
-			}
-			
-		//Get cilia data and save them
-			if(imp.getNFrames()!=1){
-				//Timelapse Mode
-				if(showGUIs) {
-					progress.notifyMessage("Timelapse workflow started...", ProgressDialog.LOG);
-				}
-//				if(segmentedBB) {
-//					if(showGUIs) {
-//						progress.notifyMessage("Task " + (task+1) + "/" + tasks + ": deriving basal body parameters from segmented basal body channel is not yet implemented for 4D and can only be applied in non-timelapse analysis - analysis cancelled!", ProgressDialog.ERROR);
-//						progress.moveTask(task);
-//					}else {
-//						IJ.error("Image " + name[task] + ": deriving basal body parameters from segmented basal body channel is not yet implemented for 4D\n and can only be applied in non-time-lapse analysis - analysis cancelled!");
-//					}
-//					break running;
-//				}
-				this.analyzeCiliaIn4DAndSaveResults(imp, measureC2local, measureC3local, measureBasalLocal, name[task], dir[task], startDate, filePrefix, subfolderPrefix, tempExcludeSelection);
-			}else{
-				//Single-frame Mode
-				if(showGUIs) {
-					progress.notifyMessage("Single-timepoint workflow started...", ProgressDialog.LOG);
-				}				
-				this.analyzeCiliaIn3DAndSaveResults(imp, measureC2local, measureC3local, measureBasalLocal, name[task], dir[task], startDate, filePrefix, subfolderPrefix, tempExcludeSelection);
-			}
+		if(!this.processImage(imp, name[task], dir[task], task, startDate)){
+			break running;
+		}
 			
-		//Get cilia data and save them
 	processingDone = true;
 	break running;
 	}	
@@ -656,6 +536,209 @@ public void run(String arg) {
 }
 }
 
+/**
+ * Calibrates the image, filters the intensity channels, and runs the analysis workflow for an image that has been opened already.
+ * Results are saved next to the image file.
+ * @param imp: the opened image (will be modified)
+ * @param name: the file name of the image
+ * @param dir: the directory of the image file, ending with a file separator
+ * @param task: the index of the task, only used for messages in the progress dialog
+ * @param startDate: the time point when processing of the image was started
+ * @return false if the analysis was cancelled because the reconstruction channel does not exist in the image
+ * */
+boolean processImage(ImagePlus imp, String name, String dir, int task, Date startDate){
+	//Calibrate
+	imp.hide();
+	double pixelWidth = imp.getCalibration().pixelWidth;
+	double pixelHeight = imp.getCalibration().pixelHeight; 
+	double pixelDepth = imp.getCalibration().pixelDepth;
+	fps = imp.getCalibration().fps;
+	double frameInterval = imp.getCalibration().frameInterval;
+	String unit = imp.getCalibration().getUnit();	
+	String calTimeUnit = imp.getCalibration().getTimeUnit();
+	if(recalibrate){
+		pixelWidth = calibration;		imp.getCalibration().pixelWidth = pixelWidth;
+		pixelHeight = calibration;		imp.getCalibration().pixelHeight = pixelHeight;
+		pixelDepth = voxelDepth;		imp.getCalibration().pixelDepth = pixelDepth;
+		unit = calibrationDimension;	imp.getCalibration().setUnit(unit);
+		frameInterval = timePerFrame;	imp.getCalibration().frameInterval = frameInterval;
+		calTimeUnit = timeUnit; 		imp.getCalibration().setTimeUnit(calTimeUnit);
+		if(timeUnit.equals(timeFormats[0])){
+			fps = 1.0 / (double)timePerFrame;
+			imp.getCalibration().fps = fps;
+		}else if(timeUnit.equals(timeFormats[1])){
+			fps = 1.0 / (60*(double)timePerFrame);
+			imp.getCalibration().fps = fps;
+		}else if(timeUnit.equals(timeFormats[2])){
+			fps = 1.0 / (60*60*(double)timePerFrame);
+			imp.getCalibration().fps = fps;
+		}else{
+			fps = 1.0 / (24*60*60*(double)timePerFrame);
+			imp.getCalibration().fps = fps;
+		}
+	}else{				
+		calibration = pixelWidth;
+		calibrationDimension = ""+unit;
+		voxelDepth = pixelDepth;
+		if(pixelWidth!=pixelHeight){
+			if(showGUIs){
+				progress.notifyMessage("Task " + (task+1) + "/" + tasks 
+						+ ": x and y calibration in metadata differ - used only x metadata calibration for both, x and y!", ProgressDialog.NOTIFICATION);	
+			}
+		}
+		timePerFrame = frameInterval;
+		if(timePerFrame==0.0){timePerFrame=1.0;}
+		imp.getCalibration().frameInterval = timePerFrame;
+		if(fps==0.0){fps = 1.0;}
+		imp.getCalibration().fps = fps;
+		timeUnit = calTimeUnit;
+	}
+	//Calibrate
+	
+	//check for correctness
+	if(channelReconstruction>imp.getNChannels()){
+		if(showGUIs) {
+			progress.notifyMessage("Task " + (task+1) + "/" + tasks + ": reconstruction channel does not exist - analysis cancelled!", ProgressDialog.ERROR);
+			progress.moveTask(task);
+		}else {
+			IJ.error("Image " + name + ": reconstruction channel does not exist - analysis cancelled!");
+		}
+		return false;
+	}
+	boolean measureC2local = measureC2;
+	if(measureC2 && channelC2>imp.getNChannels()){
+		measureC2local = false;
+		if(showGUIs) {
+			progress.notifyMessage("Task " + (task+1) + "/" + tasks + ": channel A does not exist - skipped channel A parameters!", ProgressDialog.NOTIFICATION);
+		}else {
+			System.out.println("Image " + name + ": channel A does not exist - skipped channel A parameters!");
+		}
+	}
+	boolean measureC3local = measureC3;
+	if(measureC3 && channelC3>imp.getNChannels()){
+		measureC3local = false;
+		if(showGUIs) {
+			progress.notifyMessage("Task " + (task+1) + "/" + tasks + ": channel B does not exist - skipped channel B parameters!", ProgressDialog.NOTIFICATION);
+		}else {
+			System.out.println("Image " + name + ": channel B does not exist - skipped channel A parameters!");
+		}
+	}
+	boolean measureBasalLocal = measureBasal;
+	if(measureBasalLocal && basalStainC>imp.getNChannels()){
+		measureBasalLocal = false;
+		if(showGUIs) {
+			progress.notifyMessage("Task " + (task+1) + "/" + tasks + ": basal channel does not exist - skiped basal channel-based processing!", ProgressDialog.NOTIFICATION);
+		}else {
+			System.out.println("Image " + name + ": basal channel  does not exist - skipped basal channel-based processing!");
+		}
+	}
+	
+	//size-filter images
+	if(measureC2local && minRestSize > 1){
+		this.filterChannel(imp, channelC2, "intensity A", minRestSize, increaseRangeRegions);
+	}			
+	if(measureC3local && minRestSize > 1){
+		this.filterChannel(imp, channelC3, "intensity B", minRestSize, increaseRangeRegions);
+	}
+	//size-filter images
+	
+	//Define Output File Names			
+	String filePrefix;
+	if(name.contains(".")){
+		filePrefix = name.substring(0,name.lastIndexOf(".")) + "_CQ";
+	}else{
+		filePrefix = name + "_CQ";
+	}
+	
+	if(saveDate){
+		filePrefix += "_" + NameDateFormatter.format(startDate);
+	}
+	
+	//Create subfolder to save additional files
+	String subfolderPrefix = "" + dir + filePrefix + System.getProperty("file.separator") + "CQ";
+	if(this.saveSingleCilia3DImages || this.saveSingleCiliaTifs || imp.getNFrames() != 1) {
+		//Create the directory only if really needed
+		try{
+			new File(dir + filePrefix).mkdirs();						
+		}catch(Exception e){
+			if(showGUIs) {
+				progress.notifyMessage("Task " + (task+1) + "/" + tasks + ": Failed to create subfolder to save additional plots! Will save plots into origianl folder!",ProgressDialog.NOTIFICATION);
+			}else {
+				System.out.println("Image " + name + ": Failed to create subfolder to save additional plots! Will save plots into origianl folder!");
+			}				
+		}
+	}
+	
+	filePrefix = dir + filePrefix;
+	//Define Output File Names
+	
+	//Check whether exclude selection matches and customize if needed	
+	String tempExcludeSelection = excludeSelection;
+	if(imp.getNSlices() == 1 && (excludeSelection.equals(excludeOptions [2]) || excludeSelection.equals(excludeOptions [3]))){
+		tempExcludeSelection = excludeOptions [1];
+		if(showGUIs) {
+			progress.notifyMessage("Task " + (task+1) + "/" + tasks + ": This is a 2D image - setting '"
+					+ excludeSelection
+					+ "' was switched to '"
+					+ tempExcludeSelection
+					+ "' for this image, to ensure that cilia can be detected.", ProgressDialog.NOTIFICATION);
+		}else {
+			System.out.println("Image " + name + ": This is a 2D image - setting '"
+					+ excludeSelection
+					+ "' was switched to '"
+					+ tempExcludeSelection
+					+ "' for this image, to ensure that cilia can be detected.");
+		}
+	}
+	
+	//Get cilia data and save them
+	if(imp.getNFrames()!=1){
+		//Timelapse Mode
+		if(showGUIs) {
+			progress.notifyMessage("Timelapse workflow started...", ProgressDialog.LOG);
+		}
+//		if(segmentedBB) {
+//			if(showGUIs) {
+//				progress.notifyMessage("Task " + (task+1) + "/" + tasks + ": deriving basal body parameters from segmented basal body channel is not yet implemented for 4D and can only be applied in non-timelapse analysis - analysis cancelled!", ProgressDialog.ERROR);
+//				progress.moveTask(task);
+//			}else {
+//				IJ.error("Image " + name + ": deriving basal body parameters from segmented basal body channel is not yet implemented for 4D\n and can only be applied in non-time-lapse analysis - analysis cancelled!");
+//			}
+//			break running;
+//		}
+		this.analyzeCiliaIn4DAndSaveResults(imp, measureC2local, measureC3local, measureBasalLocal, name, dir, startDate, filePrefix, subfolderPrefix, tempExcludeSelection);
+	}else{
+		//Single-frame Mode
+		if(showGUIs) {
+			progress.notifyMessage("Single-timepoint workflow started...", ProgressDialog.LOG);
+		}				
+		this.analyzeCiliaIn3DAndSaveResults(imp, measureC2local, measureC3local, measureBasalLocal, name, dir, startDate, filePrefix, subfolderPrefix, tempExcludeSelection);
+	}
+	
+	//Release the skeleton scratch memory kept by this thread for the cilia of this image
+	SkeletonWorkspace.releaseCurrentThread();
+	
+	//Get cilia data and save them
+	return true;
+}
+
+/**
+ * Sets the number format of the output files
+ * @param numberFormat: one of nrFormats
+ * */
+void setNumberFormat(String numberFormat) {
+	ChosenNumberFormat = numberFormat;
+	if(ChosenNumberFormat.equals(nrFormats[0])){ //US-Format
+		dformat6.setDecimalFormatSymbols(new DecimalFormatSymbols(Locale.US));
+		dformat3.setDecimalFormatSymbols(new DecimalFormatSymbols(Locale.US));
+		dformat0.setDecimalFormatSymbols(new DecimalFormatSymbols(Locale.US));
+	}else if (ChosenNumberFormat.equals(nrFormats[1])){
+		dformat6.setDecimalFormatSymbols(new DecimalFormatSymbols(Locale.GERMANY));
+		dformat3.setDecimalFormatSymbols(new DecimalFormatSymbols(Locale.GERMANY));
+		dformat0.setDecimalFormatSymbols(new DecimalFormatSymbols(Locale.GERMANY));
+	}
+}
+
 /**
  * A function that sets all settings based on an option String
  * given when calling this plugin from a Macro.
@@ -755,6 +838,13 @@ private void readSettingsFromMacroString(String macroOptions, boolean logDetecti
 		saveOverview3DImages = false;
 	}
 	
+	if(macroOptions.contains("compress-point-tables")){
+		compressPointTables = true;
+		if(logDetection) IJ.log("detected compressPointTables: " + compressPointTables);
+	}else {
+		compressPointTables = false;
+	}
+	
 
 	if(macroOptions.contains("number-format=")){
 		temp = macroOptions.substring(macroOptions.indexOf("number-format="));
@@ -767,16 +857,18 @@ private void readSettingsFromMacroString(String macroOptions, boolean logDetecti
 		}
 		if(logDetection) IJ.log("detected numberFormat: " + ChosenNumberFormat);
 	}
-	if(ChosenNumberFormat.equals(nrFormats[0])){ //US-Format
-		dformat6.setDecimalFormatSymbols(new DecimalFormatSymbols(Locale.US));
-		dformat3.setDecimalFormatSymbols(new DecimalFormatSymbols(Locale.US));
-		dformat0.setDecimalFormatSymbols(new DecimalFormatSymbols(Locale.US));
-	}else if (ChosenNumberFormat.equals(nrFormats[1])){
-		dformat6.setDecimalFormatSymbols(new DecimalFormatSymbols(Locale.GERMANY));
-		dformat3.setDecimalFormatSymbols(new DecimalFormatSymbols(Locale.GERMANY));
-		dformat0.setDecimalFormatSymbols(new DecimalFormatSymbols(Locale.GERMANY));
-	}
+	this.setNumberFormat(ChosenNumberFormat);
 	
+	//Optional - if not specified, all available processors are used
+	if(macroOptions.contains("threads=")){
+		temp = macroOptions.substring(macroOptions.indexOf("threads="));
+		temp = temp.substring(temp.indexOf("=")+1,temp.indexOf(" "));
+		nrOfThreads = Integer.parseInt(temp);
+		if(nrOfThreads < 1){
+			nrOfThreads = 1;
+		}
+		if(logDetection) IJ.log("detected threads: " + nrOfThreads);
+	}
 
 	if(macroOptions.contains("reconstruction-channel=")){
 		temp = macroOptions.substring(macroOptions.indexOf("reconstruction-channel="));
@@ -958,6 +1050,33 @@ private void readSettingsFromMacroString(String macroOptions, boolean logDetecti
 	}else {
 		increaseRangeCilia = false;
 	}
+	
+	if(macroOptions.contains("track-cilia")){
+		trackCilia = true;
+		if(logDetection) IJ.log("detected track-cilia: " + trackCilia);
+	}else {
+		trackCilia = false;
+	}
+	
+	//The tracking distance and gap are also used to track basal bodies in timelapse images
+	if(macroOptions.contains("max-linking-distance=")){
+		temp = macroOptions.substring(macroOptions.indexOf("max-linking-distance="));
+		temp = temp.substring(temp.indexOf("=")+1,temp.indexOf(" "));
+		maxLinkingDistance = Double.parseDouble(temp);
+		if(logDetection) IJ.log("detected max-linking-distance: " + maxLinkingDistance);
+	}else if(trackCilia) {
+		IJ.error("Macro options missed definition 'max-linking-distance=<a number>'");
+	}
+	
+	if(macroOptions.contains("max-gap-frames=")){
+		temp = macroOptions.substring(macroOptions.indexOf("max-gap-frames="));
+		temp = temp.substring(temp.indexOf("=")+1,temp.indexOf(" "));
+		maxGapFrames = Integer.parseInt(temp);
+		if(logDetection) IJ.log("detected max-gap-frames: " + maxGapFrames);
+	}else if(trackCilia) {
+		IJ.error("Macro options missed definition 'max-gap-frames=<an Integer Number>'");
+	}
+	checkTrackingSettings();
 
 	if(macroOptions.contains("exclude=")){
 		temp = macroOptions.substring(macroOptions.indexOf("exclude="));
@@ -1037,6 +1156,13 @@ private void readSettingsFromMacroString(String macroOptions, boolean logDetecti
 		IJ.error("Macro options missed definition gauss-z=<a number>'");
 	}
 	
+	if(macroOptions.contains("adaptive-upscaling")){
+		adaptiveUpscaling = true;
+		if(logDetection) IJ.log("detected adaptive upscaling: " + adaptiveUpscaling);
+	}else {
+		adaptiveUpscaling = false;
+	}
+	
 	if(macroOptions.contains("distance-curvature=")){
 		temp = macroOptions.substring(macroOptions.indexOf("distance-curvature="));
 		temp = temp.substring(temp.indexOf("=")+1,temp.indexOf(" "));
@@ -1087,9 +1213,14 @@ private String createRecordString() {
 	if(saveOverview3DImages) {
     	recordString += "save-3D-whole-image ";    		
 	}
+	if(compressPointTables) {
+    	recordString += "compress-point-tables ";    		
+	}
 	
 	recordString += "number-format=[" + ChosenNumberFormat + "] ";
 	
+	recordString += "threads=" + nrOfThreads + " ";
+	
 	recordString += "reconstruction-channel=" + (int)channelReconstruction+ " ";
 	
 	if(measureC2) {
@@ -1120,6 +1251,13 @@ private String createRecordString() {
 	if(increaseRangeCilia) {
     	recordString += "increase-range-cilia ";    		
 	}
+	if(trackCilia) {
+		recordString += "track-cilia ";
+	}
+	if(trackCilia || segmentedBB) {
+		recordString += "max-linking-distance=" + dfDialog.format(maxLinkingDistance) + " ";
+		recordString += "max-gap-frames=" + maxGapFrames + " ";
+	}
 	
 	recordString += "exclude=[" + excludeSelection + "] ";
 	
@@ -1133,6 +1271,9 @@ private String createRecordString() {
 	}
 	recordString += "gauss-xy=" + dfDialog.format(gXY) + " ";
 	recordString += "gauss-z=" + dfDialog.format(gZ) + " ";
+	if(adaptiveUpscaling) {
+		recordString += "adaptive-upscaling ";
+	}
 	
 	recordString += "distance-curvature=" + dfDialog.format(refDistance) + " ";
 	
@@ -1162,7 +1303,7 @@ public String getOneRowFooter(Date currentDate){
 
 private void addSettingsBlockToPanel(OutputTextFile tp, Date currentDate, Date startDate, String name, ImagePlus imp, 
 		boolean measureC2local, boolean measureC3local, boolean measureBasalLocal, double [] intensityThresholds,
-		int excludedCilia, int totalCilia, int excludedBBs, int totalBBs){
+		int excludedCilia, int totalCilia, int excludedBBs, int totalBBs, ArrayList<Cilium> skeletonizedCilia){
 	tp.append("Saving date:	" + FullDateFormatter.format(currentDate)
 	+ "	Starting date:	" + FullDateFormatter.format(startDate));
 	tp.append("image name:	" + name);
@@ -1191,14 +1332,23 @@ private void addSettingsBlockToPanel(OutputTextFile tp, Date currentDate, Date s
 	}else{
 		tp.append("");
 	}
+	String trackingSettings = "";
+	if(trackCilia || (measureBasalLocal && segmentedBB)) {
+		//New in v0.2.2: frame-to-frame tracking of cilia and basal bodies in timelapse images
+		trackingSettings = "	Timelapse tracking - track cilia	" + trackCilia
+				+ "	Timelapse tracking - max linking distance [" + calibrationDimension + "]	" + dformat6.format(maxLinkingDistance)
+				+ "	Timelapse tracking - max gap [frames]	" + dformat0.format(maxGapFrames);
+	}
 	if(measureBasalLocal && segmentedBB) {
 		//New in V0.2.0 - BB detection requires more settings here.
 		tp.append("	Minimum cilium size	" + dformat0.format(minSize) + "	Increase range for connecting cilia	" + increaseRangeCilia
-				+ "	Minimum basal body size	" + dformat0.format(minBBSize) + "	Increase range for connecting basal bodies	" + increaseRangeBB);
+				+ "	Minimum basal body size	" + dformat0.format(minBBSize) + "	Increase range for connecting basal bodies	" + increaseRangeBB
+				+ trackingSettings);
 		tp.append("	Additional filtering	" + excludeSelection + " excluded	# excluded:	" + excludedCilia + "	of total #:	" + totalCilia
 			+ "	" + bbCiliaFilterSelection + " excluded	#BBs excluded:	" + excludedBBs + "	of total #BB:	" + totalBBs);
 	}else{
-		tp.append("	Minimum cilium size	" + dformat0.format(minSize) + "	Increase range for connecting cilia	" + increaseRangeCilia);
+		tp.append("	Minimum cilium size	" + dformat0.format(minSize) + "	Increase range for connecting cilia	" + increaseRangeCilia
+				+ trackingSettings);
 		tp.append("	Additional filtering	" + excludeSelection + " excluded	# excluded:	" + excludedCilia + "	of total #:	" + totalCilia);
 	}
 	tp.append("	Minimum size of particles in A or B	" + dformat0.format(minRestSize) 
@@ -1207,7 +1357,14 @@ private void addSettingsBlockToPanel(OutputTextFile tp, Date currentDate, Date s
 		tp.append("	Skeleton analysis - Gauss XY sigma	" + dformat6.format(gXY) 
 		+ "	Skeleton analysis - reference distance [" + calibrationDimension + "]	" + dformat6.format(refDistance) );
 	}else{tp.append("");}
-	if(skeletonize) {tp.append("	Skeleton analysis - Gauss Z sigma	" + dformat6.format(gZ));}else{tp.append("");}
+	if(skeletonize) {
+		String temp = "	Skeleton analysis - Gauss Z sigma	" + dformat6.format(gZ);
+		if(adaptiveUpscaling) {
+			//New in v0.2.2: adaptive upscaling, compared to the fixed upscaling for a subset of cilia
+			temp += "	Skeleton analysis - adaptive upscaling	" + SkeletonUpscaling.getSummary(skeletonizedCilia, dformat6);
+		}
+		tp.append(temp);
+	}else{tp.append("");}
 	tp.append("	Determined intensity thresholds:");
 	if(measureC2local){tp.append("		A	" + dformat6.format(intensityThresholds[channelC2-1]));}else{tp.append("");}
 	if(measureC3local){tp.append("		B	" + dformat6.format(intensityThresholds[channelC3-1]));}else{tp.append("");}
@@ -1235,454 +1392,22 @@ int getMaxIntensity(ImagePlus imp, int task, int tasks){
 
 /**
  * Filter the indicated channel of the image and remove particles below the @param minSize threshold.
+ * Each frame is filtered individually.
  * @param imp: Hyperstack image where one channel represents the )recording of the volume of interest
  * @param c: defines the channel of the Hyperstack image imp, in which the information for the volume of interest is stored 1 < c < number of channels
  * @param particleLabel: the label for the volume of interest which is displayed in the progress dialog while obtaining object information
  * @param increaseRange: defines whether also diagonal pixels should be allowed while Flood Filling
  * */
 void filterChannel(ImagePlus imp, int c, String particleLabel, int minSize, boolean increaseRange){	
-	ImagePlus refImp = imp.duplicate();
-
-	int nrOfPoints = 0;
-	for(int z = 0; z < imp.getNSlices(); z++){
-		for(int t = 0; t < imp.getNFrames(); t++){
-			for(int x = 0; x < imp.getWidth(); x++){
-				for(int y = 0; y < imp.getHeight(); y++){	
-					if(imp.getStack().getVoxel(x, y, imp.getStackIndex(c, z+1, t+1)-1) > 0.0){
-						nrOfPoints++;
-					}
-				}
-			}
-		}		
-	}
-		
-	ArrayList<ArrayList<PartPoint>> particles = new ArrayList<ArrayList<PartPoint>>((int)Math.round((double)nrOfPoints/(double)minSize));
-	
-	int pc100 = nrOfPoints/100; if (pc100==0){pc100 = 1;}
-	int pc1000 = nrOfPoints/1000; if (pc1000==0){pc1000 = 1;}
-	int floodFilledPc = 0, floodFilledPcOld = 0;
-	int[][] floodNodes = new int[nrOfPoints][3];
-	int floodNodeX, floodNodeY, floodNodeZ, floodNodeT, index = 0;
-	ArrayList<PartPoint> preliminaryParticle;
-	
-	searchCells: for(int t = 0; t < imp.getNFrames(); t++){
-		for(int z = 0; z < imp.getNSlices(); z++){
-			for(int x = 0; x < imp.getWidth(); x++){
-				for(int y = 0; y < imp.getHeight(); y++){		
-					if(imp.getStack().getVoxel(x, y, imp.getStackIndex(c, z+1, 1)-1) > 0.0){
-						preliminaryParticle = new ArrayList<PartPoint>(nrOfPoints-floodFilledPc);
-						preliminaryParticle.add(new PartPoint(x, y, z, t, refImp, c));
-						
-						imp.getStack().setVoxel(x, y, imp.getStackIndex(c, z+1, 1)-1, 0.0);
-						floodFilledPc++;
-						
-						//Floodfiller					
-						floodNodeX = x;
-						floodNodeY = y;
-						floodNodeZ = z;
-						floodNodeT = t;
-						 
-						index = 0;
-						 
-						floodNodes[0][0] = floodNodeX;
-						floodNodes[0][1] = floodNodeY;
-						floodNodes[0][2] = floodNodeZ;
-	
-						while (index >= 0){
-							floodNodeX = floodNodes[index][0];
-							floodNodeY = floodNodes[index][1];
-							floodNodeZ = floodNodes[index][2];						
-							index--;            						
-							if ((floodNodeX > 0) 
-									&& imp.getStack().getVoxel(floodNodeX-1, floodNodeY, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1) > 0.0){
-								
-								preliminaryParticle.add(new PartPoint(floodNodeX-1,floodNodeY,floodNodeZ,floodNodeT, refImp, c));
-								imp.getStack().setVoxel(floodNodeX-1, floodNodeY, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1, 0.0);
-								
-								index++;
-								floodFilledPc++;
-								
-								floodNodes[index][0] = floodNodeX-1;
-								floodNodes[index][1] = floodNodeY;
-								floodNodes[index][2] = floodNodeZ;
-							}
-							if ((floodNodeX < (imp.getWidth()-1)) 
-									&& imp.getStack().getVoxel(floodNodeX+1, floodNodeY, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1) > 0.0){
-								
-								preliminaryParticle.add(new PartPoint(floodNodeX+1,floodNodeY,floodNodeZ,floodNodeT, refImp, c));
-								imp.getStack().setVoxel(floodNodeX+1, floodNodeY, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1, 0.0);
-								
-								index++;
-								floodFilledPc++;
-								
-								floodNodes[index][0] = floodNodeX+1;
-								floodNodes[index][1] = floodNodeY;
-								floodNodes[index][2] = floodNodeZ;
-							}
-							if ((floodNodeY > 0) 
-									&& imp.getStack().getVoxel(floodNodeX, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1) > 0.0){
-								
-								preliminaryParticle.add(new PartPoint(floodNodeX,floodNodeY-1,floodNodeZ,floodNodeT, refImp, c));
-								imp.getStack().setVoxel(floodNodeX, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1, 0.0);
-								
-								index++;
-								floodFilledPc++;
-								
-								floodNodes[index][0] = floodNodeX;
-								floodNodes[index][1] = floodNodeY-1;
-								floodNodes[index][2] = floodNodeZ;
-							}                
-							if ((floodNodeY < (imp.getHeight()-1)) 
-									&& imp.getStack().getVoxel(floodNodeX, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1) > 0.0){
-								
-								preliminaryParticle.add(new PartPoint(floodNodeX,floodNodeY+1,floodNodeZ,floodNodeT, refImp, c));
-								imp.getStack().setVoxel(floodNodeX, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1, 0.0);
-								
-								index++;
-								floodFilledPc++;
-								
-								floodNodes[index][0] = floodNodeX;
-								floodNodes[index][1] = floodNodeY+1;
-								floodNodes[index][2] = floodNodeZ;
-							}
-							if ((floodNodeZ > 0) 
-									&& imp.getStack().getVoxel(floodNodeX, floodNodeY, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1) > 0.0){
-								
-								preliminaryParticle.add(new PartPoint(floodNodeX,floodNodeY,floodNodeZ-1,floodNodeT, refImp, c));
-								imp.getStack().setVoxel(floodNodeX, floodNodeY, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1, 0.0);
-								
-								index++;
-								floodFilledPc++;
-								
-								floodNodes[index][0] = floodNodeX;
-								floodNodes[index][1] = floodNodeY;
-								floodNodes[index][2] = floodNodeZ-1;
-							}                
-							if ((floodNodeZ < (imp.getNSlices()-1)) 
-									&& imp.getStack().getVoxel(floodNodeX, floodNodeY, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1) > 0.0){
-								
-								preliminaryParticle.add(new PartPoint(floodNodeX,floodNodeY,floodNodeZ+1,floodNodeT, refImp, c));
-								imp.getStack().setVoxel(floodNodeX, floodNodeY, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1, 0.0);
-								
-								index++;
-								floodFilledPc++;
-								
-								floodNodes[index][0] = floodNodeX;
-								floodNodes[index][1] = floodNodeY;
-								floodNodes[index][2] = floodNodeZ+1;
-							}
-							if(increaseRange){
-								// X, Y
-								if ((floodNodeX > 0) && (floodNodeY > 0)  
-										&& imp.getStack().getVoxel(floodNodeX-1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX-1,floodNodeY-1,floodNodeZ,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX-1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX-1;
-									floodNodes[index][1] = floodNodeY-1;
-									floodNodes[index][2] = floodNodeZ;
-								}
-								if ((floodNodeX < (imp.getWidth()-1)) && (floodNodeY < (imp.getHeight()-1))
-										&& imp.getStack().getVoxel(floodNodeX+1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX+1,floodNodeY+1,floodNodeZ,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX+1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX+1;
-									floodNodes[index][1] = floodNodeY+1;
-									floodNodes[index][2] = floodNodeZ;
-								}
-								if ((floodNodeX < (imp.getWidth()-1)) && (floodNodeY > 0) 
-										&& imp.getStack().getVoxel(floodNodeX+1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX+1,floodNodeY-1,floodNodeZ,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX+1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX+1;
-									floodNodes[index][1] = floodNodeY-1;
-									floodNodes[index][2] = floodNodeZ;
-								}                
-								if ((floodNodeX > 0) && (floodNodeY < (imp.getHeight()-1)) 
-										&& imp.getStack().getVoxel(floodNodeX-1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX-1,floodNodeY+1,floodNodeZ,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX-1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX-1;
-									floodNodes[index][1] = floodNodeY+1;
-									floodNodes[index][2] = floodNodeZ;
-								}
-								// Z-X
-								if ((floodNodeX > 0) && (floodNodeZ > 0)
-										&& imp.getStack().getVoxel(floodNodeX-1, floodNodeY, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX-1,floodNodeY,floodNodeZ-1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX-1, floodNodeY, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX-1;
-									floodNodes[index][1] = floodNodeY;
-									floodNodes[index][2] = floodNodeZ-1;
-								}
-								if ((floodNodeX < (imp.getWidth()-1)) && (floodNodeZ > 0)
-										&& imp.getStack().getVoxel(floodNodeX+1, floodNodeY, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX+1,floodNodeY,floodNodeZ-1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX+1, floodNodeY, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX+1;
-									floodNodes[index][1] = floodNodeY;
-									floodNodes[index][2] = floodNodeZ-1;
-								}
-								if ((floodNodeX > 0) && (floodNodeZ < (imp.getNSlices()-1)) 
-										&& imp.getStack().getVoxel(floodNodeX-1, floodNodeY, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX-1,floodNodeY,floodNodeZ+1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX-1, floodNodeY, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX-1;
-									floodNodes[index][1] = floodNodeY;
-									floodNodes[index][2] = floodNodeZ+1;
-								}
-								if ((floodNodeX < (imp.getWidth()-1)) && (floodNodeZ < (imp.getNSlices()-1)) 
-										&& imp.getStack().getVoxel(floodNodeX+1, floodNodeY, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX+1,floodNodeY,floodNodeZ+1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX+1, floodNodeY, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX+1;
-									floodNodes[index][1] = floodNodeY;
-									floodNodes[index][2] = floodNodeZ+1;
-								} 
-								// Z-Y
-								if ((floodNodeY > 0) && (floodNodeZ > 0)
-										&& imp.getStack().getVoxel(floodNodeX, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX,floodNodeY-1,floodNodeZ-1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX;
-									floodNodes[index][1] = floodNodeY-1;
-									floodNodes[index][2] = floodNodeZ-1;
-								}
-								if ((floodNodeY < (imp.getHeight()-1)) && (floodNodeZ > 0)
-										&& imp.getStack().getVoxel(floodNodeX, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX,floodNodeY+1,floodNodeZ-1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX;
-									floodNodes[index][1] = floodNodeY+1;
-									floodNodes[index][2] = floodNodeZ-1;
-								}
-								if ((floodNodeY > 0) && (floodNodeZ < (imp.getNSlices()-1)) 
-										&& imp.getStack().getVoxel(floodNodeX, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX,floodNodeY-1,floodNodeZ+1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX;
-									floodNodes[index][1] = floodNodeY-1;
-									floodNodes[index][2] = floodNodeZ+1;
-								} 
-								if ((floodNodeY < (imp.getHeight()-1)) && (floodNodeZ < (imp.getNSlices()-1)) 
-										&& imp.getStack().getVoxel(floodNodeX, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX,floodNodeY+1,floodNodeZ+1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX;
-									floodNodes[index][1] = floodNodeY+1;
-									floodNodes[index][2] = floodNodeZ+1;
-								} 
-								// X, Y - Z down
-								if ((floodNodeX > 0) && (floodNodeY > 0) && (floodNodeZ > 0)  
-										&& imp.getStack().getVoxel(floodNodeX-1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1) > 0.0){
-									preliminaryParticle.add(new PartPoint(floodNodeX-1,floodNodeY-1,floodNodeZ-1,floodNodeT,
-											refImp, c));
-									imp.getStack().setVoxel(floodNodeX-1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX-1;
-									floodNodes[index][1] = floodNodeY-1;
-									floodNodes[index][2] = floodNodeZ-1;
-								}
-								if ((floodNodeX < (imp.getWidth()-1)) && (floodNodeY < (imp.getHeight()-1)) && (floodNodeZ > 0)
-										&& imp.getStack().getVoxel(floodNodeX+1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX+1,floodNodeY+1,floodNodeZ-1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX+1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX+1;
-									floodNodes[index][1] = floodNodeY+1;
-									floodNodes[index][2] = floodNodeZ-1;
-								}
-								if ((floodNodeX < (imp.getWidth()-1)) && (floodNodeY > 0) && (floodNodeZ > 0)
-										&& imp.getStack().getVoxel(floodNodeX+1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX+1,floodNodeY-1,floodNodeZ-1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX+1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX+1;
-									floodNodes[index][1] = floodNodeY-1;
-									floodNodes[index][2] = floodNodeZ-1;
-								}                
-								if ((floodNodeX > 0) && (floodNodeY < (imp.getHeight()-1)) && (floodNodeZ > 0)
-										&& imp.getStack().getVoxel(floodNodeX-1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX-1,floodNodeY+1,floodNodeZ-1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX-1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX-1;
-									floodNodes[index][1] = floodNodeY+1;
-									floodNodes[index][2] = floodNodeZ-1;
-								}
-								// X, Y - Z up
-								if ((floodNodeX > 0) && (floodNodeY > 0) && (floodNodeZ < (imp.getNSlices()-1)) 
-										&& imp.getStack().getVoxel(floodNodeX-1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1) > 0.0){
-									preliminaryParticle.add(new PartPoint(floodNodeX-1,floodNodeY-1,floodNodeZ+1,floodNodeT,
-											refImp, c));
-									imp.getStack().setVoxel(floodNodeX-1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX-1;
-									floodNodes[index][1] = floodNodeY-1;
-									floodNodes[index][2] = floodNodeZ+1;
-								}
-								if ((floodNodeX < (imp.getWidth()-1)) && (floodNodeY < (imp.getHeight()-1)) && (floodNodeZ < (imp.getNSlices()-1)) 
-										&& imp.getStack().getVoxel(floodNodeX+1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX+1,floodNodeY+1,floodNodeZ+1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX+1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX+1;
-									floodNodes[index][1] = floodNodeY+1;
-									floodNodes[index][2] = floodNodeZ+1;
-								}
-								if ((floodNodeX < (imp.getWidth()-1)) && (floodNodeY > 0) && (floodNodeZ < (imp.getNSlices()-1)) 
-										&& imp.getStack().getVoxel(floodNodeX+1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX+1,floodNodeY-1,floodNodeZ+1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX+1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX+1;
-									floodNodes[index][1] = floodNodeY-1;
-									floodNodes[index][2] = floodNodeZ+1;
-								}                
-								if ((floodNodeX > 0) && (floodNodeY < (imp.getHeight()-1)) && (floodNodeZ < (imp.getNSlices()-1)) 
-										&& imp.getStack().getVoxel(floodNodeX-1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX-1,floodNodeY+1,floodNodeZ+1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX-1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX-1;
-									floodNodes[index][1] = floodNodeY+1;
-									floodNodes[index][2] = floodNodeZ+1;
-								}
-							}
-						}					
-						//Floodfiller	
-						preliminaryParticle.trimToSize();
-						if(preliminaryParticle.size() >= minSize){
-							particles.add(preliminaryParticle);						
-						}else{
-							preliminaryParticle.clear();
-							preliminaryParticle.trimToSize();
-						}
-						
-						if(floodFilledPc%(pc100)<pc1000){
-							if(showGUIs) {
-								progress.updateBarText("Connecting " + particleLabel + " complete: " + dformat3.format(((double)(floodFilledPc)/(double)(nrOfPoints))*100) + "%");
-								progress.addToBar(0.2*((double)(floodFilledPc-floodFilledPcOld)/(double)(nrOfPoints)));								
-							}
-							floodFilledPcOld = floodFilledPc;
-						}	
-					}				
-				}	
-			}
-			if(floodFilledPc==nrOfPoints){					
-				break searchCells;
-			}
-		}
-	}
+	ParticleLabeler labeler = new ParticleLabeler(imp.getWidth(), imp.getHeight(), imp.getNSlices(), imp.getNFrames(), 
+			ParticleLabeler.getConnectivity(increaseRange), false);
+	labeler.setThreads(nrOfThreads);
 	if(showGUIs) {
-		progress.updateBarText("Connecting " + particleLabel + " complete: " + dformat3.format(((double)(floodFilledPc)/(double)(nrOfPoints))*100) + "%");
-		progress.addToBar(0.2*((double)(floodFilledPc-floodFilledPcOld)/(double)(nrOfPoints)));
-	}	
-	particles.trimToSize();
-	
-	refImp.changes = false;
-	refImp.close();
-	
-	//write back to image
-	{
-		for(int j = 0; j < particles.size();j++){
-			for(int i = 0; i < particles.get(j).size();i++){
-				imp.getStack().setVoxel(particles.get(j).get(i).x,
-						particles.get(j).get(i).y, 
-						imp.getStackIndex(c, particles.get(j).get(i).z+1, 1)-1, 
-						particles.get(j).get(i).intensity);
-			}
-		}
+		labeler.setProgress(progress, "Connecting " + particleLabel, 0.2);
 	}
+	
+	//particles below minSize are directly removed from the image by the labeler
+	labeler.label(new ChannelView(imp, c).getPixels(), minSize, false, true);
 }
 
 /**
@@ -1692,248 +1417,16 @@ void filterChannel(ImagePlus imp, int c, String particleLabel, int minSize, bool
  * @param c: defines the channel of the Hyperstack image imp, in which the ciliary information is stored 1 < c < number of channels
  * */
 ArrayList<ArrayList<CellPoint>> getCiliaObjects (ImagePlus imp, int c){
-	ImagePlus refImp = imp.duplicate();
-	int nrOfPoints = 0;
-	for(int z = 0; z < imp.getNSlices(); z++){
-		for(int x = 0; x < imp.getWidth(); x++){
-			for(int y = 0; y < imp.getHeight(); y++){	
-				if(imp.getStack().getVoxel(x, y, imp.getStackIndex(c, z+1, 1)-1) > 0.0){
-					nrOfPoints++;
-				}
-			}
-		}
-	}
-	
-	ArrayList<ArrayList<CellPoint>> particles = new ArrayList<ArrayList<CellPoint>>((int)Math.round((double)nrOfPoints/(double)minSize));
-	
-	int pc100 = nrOfPoints/100; if (pc100==0){pc100 = 1;}
-	int pc1000 = nrOfPoints/1000; if (pc1000==0){pc1000 = 1;}
-	int floodFilledPc = 0, floodFilledPcOld = 0;
-	int[][] floodNodes = new int[nrOfPoints][3];
-	int floodNodeX, floodNodeY, floodNodeZ, index = 0;
-//	boolean touchesXY, touchesZ;
-	ArrayList<CellPoint> preliminaryParticle;
-//	int [] sliceCounter = new int [imp.getNSlices()];
-	
-	searchCells: for(int z = 0; z < imp.getNSlices(); z++){
-		for(int x = 0; x < imp.getWidth(); x++){
-			for(int y = 0; y < imp.getHeight(); y++){		
-				if(imp.getStack().getVoxel(x, y, imp.getStackIndex(c, z+1, 1)-1) > 0.0){
-//					touchesXY = false;
-//					touchesZ = false;
-					
-					preliminaryParticle = new ArrayList<CellPoint>(nrOfPoints-floodFilledPc);
-					preliminaryParticle.add(new CellPoint(x, y, z, 0, refImp, c));
-					
-					imp.getStack().setVoxel(x, y, imp.getStackIndex(c, z+1, 1)-1, 0.0);
-					
-//					if(x == 0 || x == imp.getWidth()-1)	touchesXY = true;
-//					if(y == 0 || y == imp.getHeight()-1)	touchesXY = true;
-//					if(z == 0 || z == imp.getNSlices()-1)	touchesZ = true;
-					
-					floodFilledPc++;
-					
-					//Floodfiller					
-					floodNodeX = x;
-					floodNodeY = y;
-					floodNodeZ = z;
-					 
-					index = 0;
-					 
-					floodNodes[0][0] = floodNodeX;
-					floodNodes[0][1] = floodNodeY;
-					floodNodes[0][2] = floodNodeZ;
-					
-					while (index >= 0){
-						floodNodeX = floodNodes[index][0];
-						floodNodeY = floodNodes[index][1];
-						floodNodeZ = floodNodes[index][2];						
-						index--;            						
-						if ((floodNodeX > 0) 
-								&& imp.getStack().getVoxel(floodNodeX-1, floodNodeY, imp.getStackIndex(c, (floodNodeZ)+1, 1)-1) > 0.0){
-							
-							preliminaryParticle.add(new CellPoint(floodNodeX-1,floodNodeY,floodNodeZ,0,
-									refImp, c));
-							imp.getStack().setVoxel(floodNodeX-1, floodNodeY, imp.getStackIndex(c, (floodNodeZ)+1, 1)-1, 0.0);
-							
-//							if(floodNodeX-1 == 0 || floodNodeX-1 == imp.getWidth()-1)		touchesXY = true;
-//							if(floodNodeY == 0 || 	floodNodeY == imp.getHeight()-1)	touchesXY = true;
-//							if(floodNodeZ == 0 || 	floodNodeZ == imp.getNSlices()-1)	touchesZ = true;
-							
-							index++;
-							floodFilledPc++;
-							
-							floodNodes[index][0] = floodNodeX-1;
-							floodNodes[index][1] = floodNodeY;
-							floodNodes[index][2] = floodNodeZ;
-						}
-						if ((floodNodeX < (imp.getWidth()-1)) 
-								&& imp.getStack().getVoxel(floodNodeX+1, floodNodeY, imp.getStackIndex(c, (floodNodeZ)+1, 1)-1) > 0.0){
-							
-							preliminaryParticle.add(new CellPoint(floodNodeX+1,floodNodeY,floodNodeZ,0, refImp, c));
-							imp.getStack().setVoxel(floodNodeX+1, floodNodeY, imp.getStackIndex(c, (floodNodeZ)+1, 1)-1, 0.0);
-							
-//							if(floodNodeX+1 == 0 || floodNodeX+1 == imp.getWidth()-1)	touchesXY = true;
-//							if(floodNodeY == 0 || 	floodNodeY == imp.getHeight()-1)	touchesXY = true;
-//							if(floodNodeZ == 0 || 	floodNodeZ == imp.getNSlices()-1)	touchesZ = true;
-							
-							index++;
-							floodFilledPc++;
-							
-							floodNodes[index][0] = floodNodeX+1;
-							floodNodes[index][1] = floodNodeY;
-							floodNodes[index][2] = floodNodeZ;
-						}
-						if ((floodNodeY > 0) 
-								&& imp.getStack().getVoxel(floodNodeX, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ)+1, 1)-1) > 0.0){
-							
-							preliminaryParticle.add(new CellPoint(floodNodeX,floodNodeY-1,floodNodeZ,0, refImp, c));
-							imp.getStack().setVoxel(floodNodeX, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ)+1, 1)-1, 0.0);
-							
-//							if(floodNodeX == 0 || 	floodNodeX == imp.getWidth()-1)	touchesXY = true;
-//							if(floodNodeY-1 == 0 || floodNodeY-1 == imp.getHeight()-1)	touchesXY = true;
-//							if(floodNodeZ == 0 || 	floodNodeZ == imp.getNSlices()-1)	touchesZ = true;
-							
-							index++;
-							floodFilledPc++;
-							
-							floodNodes[index][0] = floodNodeX;
-							floodNodes[index][1] = floodNodeY-1;
-							floodNodes[index][2] = floodNodeZ;
-						}                
-						if ((floodNodeY < (imp.getHeight()-1)) 
-								&& imp.getStack().getVoxel(floodNodeX, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ)+1, 1)-1) > 0.0){
-							
-							preliminaryParticle.add(new CellPoint(floodNodeX,floodNodeY+1,floodNodeZ,0, refImp, c));
-							imp.getStack().setVoxel(floodNodeX, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ)+1, 1)-1, 0.0);
-							
-//							if(floodNodeX == 0 || 	floodNodeX == imp.getWidth()-1)	touchesXY = true;
-//							if(floodNodeY+1 == 0 || floodNodeY+1 == imp.getHeight()-1)	touchesXY = true;
-//							if(floodNodeZ == 0 ||	floodNodeZ == imp.getNSlices()-1)	touchesZ = true;
-							
-							index++;
-							floodFilledPc++;
-							
-							floodNodes[index][0] = floodNodeX;
-							floodNodes[index][1] = floodNodeY+1;
-							floodNodes[index][2] = floodNodeZ;
-						}
-						if ((floodNodeZ > 0) 
-								&& imp.getStack().getVoxel(floodNodeX, floodNodeY, imp.getStackIndex(c, (floodNodeZ-1)+1, 1)-1) > 0.0){
-							
-							preliminaryParticle.add(new CellPoint(floodNodeX,floodNodeY,floodNodeZ-1,0, refImp, c));
-							imp.getStack().setVoxel(floodNodeX, floodNodeY, imp.getStackIndex(c, (floodNodeZ-1)+1, 1)-1, 0.0);
-							
-//							if(floodNodeX == 0 || 	floodNodeX == imp.getWidth()-1)	touchesXY = true;
-//							if(floodNodeY == 0 || 	floodNodeY == imp.getHeight()-1)	touchesXY = true;
-//							if(floodNodeZ-1 == 0 || floodNodeZ-1 == imp.getNSlices()-1)	touchesZ = true;
-							
-							index++;
-							floodFilledPc++;
-							
-							floodNodes[index][0] = floodNodeX;
-							floodNodes[index][1] = floodNodeY;
-							floodNodes[index][2] = floodNodeZ-1;
-						}                
-						if ((floodNodeZ < (imp.getNSlices()-1)) 
-								&& imp.getStack().getVoxel(floodNodeX, floodNodeY, imp.getStackIndex(c, (floodNodeZ+1)+1, 1)-1) > 0.0){
-							
-							preliminaryParticle.add(new CellPoint(floodNodeX,floodNodeY,floodNodeZ+1,0, refImp, c));
-							imp.getStack().setVoxel(floodNodeX, floodNodeY, imp.getStackIndex(c, (floodNodeZ+1)+1, 1)-1, 0.0);
-							
-//							if(floodNodeX == 0 || 	floodNodeX == imp.getWidth()-1)		touchesXY = true;
-//							if(floodNodeY == 0 || 	floodNodeY == imp.getHeight()-1)	touchesXY = true;
-//							if(floodNodeZ+1 == 0 || floodNodeZ+1 == imp.getNSlices()-1)	touchesZ = true;
-							
-							index++;
-							floodFilledPc++;
-							
-							floodNodes[index][0] = floodNodeX;
-							floodNodes[index][1] = floodNodeY;
-							floodNodes[index][2] = floodNodeZ+1;
-						}  
-					}					
-					//Floodfiller
-					preliminaryParticle.trimToSize();
-//					saveParticle = true;
-//					if(excludeSelection.equals(excludeOptions[1])){
-//						if(touchesXY)	saveParticle = false;
-//					}else if(excludeSelection.equals(excludeOptions[2])){
-//						if(touchesXY)	saveParticle = false;
-//						if(touchesZ)	saveParticle = false;
-//					}else if(excludeSelection.equals(excludeOptions[3])){
-//						if(touchesXY)	saveParticle = false;
-//						
-//						//check where most points are located
-//						Arrays.fill(sliceCounter, 0);
-//						for(int i = 0; i < preliminaryParticle.size(); i++){
-//							sliceCounter [preliminaryParticle.get(i).z] ++;
-//						}
-//						if(tools.getMaximumIndex(sliceCounter) == 0 ||
-//								tools.getMaximumIndex(sliceCounter) == imp.getNSlices()-1){
-//							saveParticle = false;
-////							IJ.log("touches xy: " + (particles.size()+1));
-//						}
-//						
-//					}
-					
-//					if(saveParticle 
-//							&& preliminaryParticle.size() >= minPlaqueSize 
-//							&& preliminaryParticle.size() <= maxPlaqueSize){
-					if(preliminaryParticle.size() >= minSize){
-//							&& preliminaryParticle.size() <= maxSize){
-						particles.add(preliminaryParticle);
-						
-						//write back to image
-//						for(int i = 0; i < preliminaryParticle.size();i++){
-//							imp.getStack().setVoxel(preliminaryParticle.get(i).x,
-//									preliminaryParticle.get(i).y, 
-//									imp.getStackIndex(cPl, preliminaryParticle.get(i).z+1, 1)-1, 
-//									preliminaryParticle.get(i).intensity);
-//						}
-					}else{
-						preliminaryParticle.clear();
-						preliminaryParticle.trimToSize();
-					}
-
-					if(floodFilledPc%(pc100)<pc1000){
-						if(showGUIs) {
-							progress.updateBarText("Reconstruction of ciliary structures complete: " + dformat3.format(((double)(floodFilledPc)/(double)(nrOfPoints))*100) + "%");
-							progress.addToBar(0.2*((double)(floodFilledPc-floodFilledPcOld)/(double)(nrOfPoints)));							
-						}
-						floodFilledPcOld = floodFilledPc;
-					}	
-				}				
-			}	
-		}
-		if(floodFilledPc==nrOfPoints){					
-			break searchCells;
-		}
-	}				
-	
-	refImp.changes = false;
-	refImp.close();
-	
+	ParticleLabeler labeler = new ParticleLabeler(imp.getWidth(), imp.getHeight(), imp.getNSlices(), 1, 
+			ParticleLabeler.CONNECTIVITY_6, false);
+	labeler.setThreads(nrOfThreads);
 	if(showGUIs) {
-		progress.updateBarText("Reconstruction of ciliary structures complete: " + dformat3.format(((double)(floodFilledPc)/(double)(nrOfPoints))*100) + "%");
-		progress.addToBar(0.2*((double)(floodFilledPc-floodFilledPcOld)/(double)(nrOfPoints)));
+		labeler.setProgress(progress, "Reconstruction of ciliary structures", 0.2);
 	}
 	
-	particles.trimToSize();
-	
-	//write back to image
-		{
-			for(int j = 0; j < particles.size(); j++){
-				for(int i = 0; i < particles.get(j).size(); i++){
-					imp.getStack().setVoxel(particles.get(j).get(i).x,
-						particles.get(j).get(i).y, 
-						imp.getStackIndex(c, particles.get(j).get(i).z+1, 1)-1, 
-						particles.get(j).get(i).intensity);
-				}
-			}
-		}
-	//write back to image
-	return particles;
+	//only the first frame is analyzed, particles below minSize are removed from the image
+	LabeledParticles labeledParticles = labeler.label(new ChannelView(imp, c, 1).getPixels(), minSize, false, true);
+	return getCellPointLists(imp, c, labeledParticles);
 }//end getCiliaObjects
 
 /**
@@ -1944,21 +1437,18 @@ ArrayList<ArrayList<CellPoint>> getCiliaObjects (ImagePlus imp, int c){
  * @param increaseRange: defines whether also diagonal pixels should be allowed while Flood Filling
  * */
 ArrayList<ArrayList<CellPoint>> getCiliaObjectsTimelapse (ImagePlus imp, int c, boolean increaseRange){
-	ImagePlus refImp = imp.duplicate();
-	int nrOfPoints = 0;
-	for(int z = 0; z < imp.getNSlices(); z++){
-		for(int t = 0; t < imp.getNFrames(); t++){
-			for(int x = 0; x < imp.getWidth(); x++){
-				for(int y = 0; y < imp.getHeight(); y++){	
-					if(imp.getStack().getVoxel(x, y, imp.getStackIndex(c, z+1, t+1)-1) > 0.0){
-						nrOfPoints++;
-					}
-				}
-			}
-		}		
+	ParticleLabeler labeler = new ParticleLabeler(imp.getWidth(), imp.getHeight(), imp.getNSlices(), imp.getNFrames(), 
+			ParticleLabeler.getConnectivity(increaseRange), true);
+	labeler.setThreads(nrOfThreads);
+	Object [][] pixels = new ChannelView(imp, c).getPixels();
+	
+	long nrOfPoints = 0;
+	long [] nrOfPointsPerFrame = labeler.countForeground(pixels);
+	for(int t = 0; t < nrOfPointsPerFrame.length; t++){
+		nrOfPoints += nrOfPointsPerFrame [t];
 	}
 	
-	if(nrOfPoints == imp.getNSlices()*imp.getNFrames()*imp.getWidth()*imp.getHeight()) {
+	if(nrOfPoints == (long)imp.getNSlices()*(long)imp.getNFrames()*(long)imp.getWidth()*(long)imp.getHeight()) {
 		if(showGUIs) {
 			progress.notifyMessageWithTaskNr("ERROR - The channel set for reconstruction (" + c 
 					+ ") is not segmented - make sure to set the correct channel nr for reconstruction in the preferences!", ProgressDialog.ERROR);
@@ -1970,587 +1460,125 @@ ArrayList<ArrayList<CellPoint>> getCiliaObjectsTimelapse (ImagePlus imp, int c,
 	}else if(nrOfPoints == 0) {
 		if(showGUIs) {
 			progress.notifyMessageWithTaskNr("ERROR - The channel for reconstruction (" + c 
-					+ ") is empty - no cilia found!", ProgressDialog.ERROR);
-		}else {
-			System.out.println("ERROR - The channel for reconstruction (" + c 
-					+ ") is empty - no cilia found!");
-		}
-		return new ArrayList<ArrayList<CellPoint>>(0);
-	}
-		
-	ArrayList<ArrayList<CellPoint>> particles = new ArrayList<ArrayList<CellPoint>>((int)Math.round((double)nrOfPoints/(double)minSize));
-	
-	int pc100 = nrOfPoints/100; if (pc100==0){pc100 = 1;}
-	int pc1000 = nrOfPoints/1000; if (pc1000==0){pc1000 = 1;}
-	int floodFilledPc = 0, floodFilledPcOld = 0;
-	int[][] floodNodes = new int[nrOfPoints][4];
-	int floodNodeX, floodNodeY, floodNodeZ, floodNodeT, index = 0;
-//	boolean touchesXY, touchesZ;
-	ArrayList<CellPoint> preliminaryParticle;
-//	int [] sliceCounter = new int [imp.getNSlices()];
-	int [] frameCounter = new int [imp.getNFrames()];
-	boolean keep;
-	
-	searchCells: for(int t = 0; t < imp.getNFrames(); t++){
-		for(int z = 0; z < imp.getNSlices(); z++){
-			for(int x = 0; x < imp.getWidth(); x++){
-				for(int y = 0; y < imp.getHeight(); y++){		
-					if(imp.getStack().getVoxel(x, y, imp.getStackIndex(c, z+1, t+1)-1) > 0.0){
-//						touchesXY = false;
-//						touchesZ = false;
-						
-						preliminaryParticle = new ArrayList<CellPoint>(nrOfPoints-floodFilledPc);
-						preliminaryParticle.add(new CellPoint(x, y, z, t, refImp, c));
-						
-						imp.getStack().setVoxel(x, y, imp.getStackIndex(c, z+1, t+1)-1, 0.0);
-						
-//						if(x == 0 || x == imp.getWidth()-1)		touchesXY = true;
-//						if(y == 0 || y == imp.getHeight()-1)	touchesXY = true;
-//						if(z == 0 || z == imp.getNSlices()-1)	touchesZ = true;
-						
-						floodFilledPc++;
-						
-						//Floodfiller					
-						floodNodeX = x;
-						floodNodeY = y;
-						floodNodeZ = z;
-						floodNodeT = t;
-						 
-						index = 0;
-						 
-						floodNodes[0][0] = floodNodeX;
-						floodNodes[0][1] = floodNodeY;
-						floodNodes[0][2] = floodNodeZ;
-						floodNodes[0][3] = floodNodeT;
-						
-						while (index >= 0){
-							floodNodeX = floodNodes[index][0];
-							floodNodeY = floodNodes[index][1];
-							floodNodeZ = floodNodes[index][2];		
-							floodNodeT = floodNodes[index][3];
-							index--;            						
-							if ((floodNodeX > 0) 
-									&& imp.getStack().getVoxel(floodNodeX-1, floodNodeY, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1) > 0.0){
-								
-								preliminaryParticle.add(new CellPoint(floodNodeX-1,floodNodeY,floodNodeZ,floodNodeT,
-										refImp, c));
-								imp.getStack().setVoxel(floodNodeX-1, floodNodeY, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1, 0.0);
-								
-//								if(floodNodeX-1 == 0 || floodNodeX-1 == imp.getWidth()-1)		touchesXY = true;
-//								if(floodNodeY == 0 || 	floodNodeY == imp.getHeight()-1)	touchesXY = true;
-//								if(floodNodeZ == 0 || 	floodNodeZ == imp.getNSlices()-1)	touchesZ = true;
-								
-								index++;
-								floodFilledPc++;
-								
-								floodNodes[index][0] = floodNodeX-1;
-								floodNodes[index][1] = floodNodeY;
-								floodNodes[index][2] = floodNodeZ;
-								floodNodes[index][3] = floodNodeT;
-							}
-							if ((floodNodeX < (imp.getWidth()-1)) 
-									&& imp.getStack().getVoxel(floodNodeX+1, floodNodeY, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1) > 0.0){
-								
-								preliminaryParticle.add(new CellPoint(floodNodeX+1,floodNodeY,floodNodeZ,floodNodeT, refImp, c));
-								imp.getStack().setVoxel(floodNodeX+1, floodNodeY, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1, 0.0);
-								
-//								if(floodNodeX+1 == 0 || floodNodeX+1 == imp.getWidth()-1)	touchesXY = true;
-//								if(floodNodeY == 0 || 	floodNodeY == imp.getHeight()-1)	touchesXY = true;
-//								if(floodNodeZ == 0 || 	floodNodeZ == imp.getNSlices()-1)	touchesZ = true;
-								
-								index++;
-								floodFilledPc++;
-								
-								floodNodes[index][0] = floodNodeX+1;
-								floodNodes[index][1] = floodNodeY;
-								floodNodes[index][2] = floodNodeZ;
-								floodNodes[index][3] = floodNodeT;
-							}
-							if ((floodNodeY > 0) 
-									&& imp.getStack().getVoxel(floodNodeX, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1) > 0.0){
-								
-								preliminaryParticle.add(new CellPoint(floodNodeX,floodNodeY-1,floodNodeZ,floodNodeT, refImp, c));
-								imp.getStack().setVoxel(floodNodeX, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1, 0.0);
-								
-//								if(floodNodeX == 0 || 	floodNodeX == imp.getWidth()-1)	touchesXY = true;
-//								if(floodNodeY-1 == 0 || floodNodeY-1 == imp.getHeight()-1)	touchesXY = true;
-//								if(floodNodeZ == 0 || 	floodNodeZ == imp.getNSlices()-1)	touchesZ = true;
-								
-								index++;
-								floodFilledPc++;
-								
-								floodNodes[index][0] = floodNodeX;
-								floodNodes[index][1] = floodNodeY-1;
-								floodNodes[index][2] = floodNodeZ;
-								floodNodes[index][3] = floodNodeT;
-							}                
-							if ((floodNodeY < (imp.getHeight()-1)) 
-									&& imp.getStack().getVoxel(floodNodeX, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1) > 0.0){
-								
-								preliminaryParticle.add(new CellPoint(floodNodeX,floodNodeY+1,floodNodeZ,floodNodeT, refImp, c));
-								imp.getStack().setVoxel(floodNodeX, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1, 0.0);
-								
-//								if(floodNodeX == 0 || 	floodNodeX == imp.getWidth()-1)	touchesXY = true;
-//								if(floodNodeY+1 == 0 || floodNodeY+1 == imp.getHeight()-1)	touchesXY = true;
-//								if(floodNodeZ == 0 ||	floodNodeZ == imp.getNSlices()-1)	touchesZ = true;
-								
-								index++;
-								floodFilledPc++;
-								
-								floodNodes[index][0] = floodNodeX;
-								floodNodes[index][1] = floodNodeY+1;
-								floodNodes[index][2] = floodNodeZ;
-								floodNodes[index][3] = floodNodeT;
-							}
-							if ((floodNodeZ > 0) 
-									&& imp.getStack().getVoxel(floodNodeX, floodNodeY, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1) > 0.0){
-								
-								preliminaryParticle.add(new CellPoint(floodNodeX,floodNodeY,floodNodeZ-1,floodNodeT, refImp, c));
-								imp.getStack().setVoxel(floodNodeX, floodNodeY, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1, 0.0);
-								
-//								if(floodNodeX == 0 || 	floodNodeX == imp.getWidth()-1)	touchesXY = true;
-//								if(floodNodeY == 0 || 	floodNodeY == imp.getHeight()-1)	touchesXY = true;
-//								if(floodNodeZ-1 == 0 || floodNodeZ-1 == imp.getNSlices()-1)	touchesZ = true;
-								
-								index++;
-								floodFilledPc++;
-								
-								floodNodes[index][0] = floodNodeX;
-								floodNodes[index][1] = floodNodeY;
-								floodNodes[index][2] = floodNodeZ-1;
-								floodNodes[index][3] = floodNodeT;
-							}                
-							if ((floodNodeZ < (imp.getNSlices()-1)) 
-									&& imp.getStack().getVoxel(floodNodeX, floodNodeY, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1) > 0.0){
-								
-								preliminaryParticle.add(new CellPoint(floodNodeX,floodNodeY,floodNodeZ+1,floodNodeT, refImp, c));
-								imp.getStack().setVoxel(floodNodeX, floodNodeY, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1, 0.0);
-								
-//								if(floodNodeX == 0 || 	floodNodeX == imp.getWidth()-1)		touchesXY = true;
-//								if(floodNodeY == 0 || 	floodNodeY == imp.getHeight()-1)	touchesXY = true;
-//								if(floodNodeZ+1 == 0 || floodNodeZ+1 == imp.getNSlices()-1)	touchesZ = true;
-								
-								index++;
-								floodFilledPc++;
-								
-								floodNodes[index][0] = floodNodeX;
-								floodNodes[index][1] = floodNodeY;
-								floodNodes[index][2] = floodNodeZ+1;
-								floodNodes[index][3] = floodNodeT;
-							} 
-							if ((floodNodeT > 0) 
-									&& imp.getStack().getVoxel(floodNodeX, floodNodeY, imp.getStackIndex(c, floodNodeZ+1, (floodNodeT-1)+1)-1) > 0.0){
-								
-								preliminaryParticle.add(new CellPoint(floodNodeX,floodNodeY,floodNodeZ,floodNodeT-1, refImp, c));
-								imp.getStack().setVoxel(floodNodeX, floodNodeY, imp.getStackIndex(c, floodNodeZ+1, (floodNodeT-1)+1)-1, 0.0);
-								
-//								if(floodNodeX == 0 || 	floodNodeX == imp.getWidth()-1)	touchesXY = true;
-//								if(floodNodeY == 0 || 	floodNodeY == imp.getHeight()-1)	touchesXY = true;
-//								if(floodNodeZ-1 == 0 || floodNodeZ-1 == imp.getNSlices()-1)	touchesZ = true;
-								
-								index++;
-								floodFilledPc++;
-								
-								floodNodes[index][0] = floodNodeX;
-								floodNodes[index][1] = floodNodeY;
-								floodNodes[index][2] = floodNodeZ;
-								floodNodes[index][3] = floodNodeT-1;
-							}                
-							if ((floodNodeT < (imp.getNFrames()-1)) 
-									&& imp.getStack().getVoxel(floodNodeX, floodNodeY, imp.getStackIndex(c, floodNodeZ+1, ((floodNodeT)+1)+1)-1) > 0.0){
-								
-								preliminaryParticle.add(new CellPoint(floodNodeX,floodNodeY,floodNodeZ,(floodNodeT)+1, refImp, c));
-								imp.getStack().setVoxel(floodNodeX, floodNodeY, imp.getStackIndex(c, floodNodeZ+1, ((floodNodeT)+1)+1)-1, 0.0);
-								
-//								if(floodNodeX == 0 || 	floodNodeX == imp.getWidth()-1)		touchesXY = true;
-//								if(floodNodeY == 0 || 	floodNodeY == imp.getHeight()-1)	touchesXY = true;
-//								if(floodNodeZ+1 == 0 || floodNodeZ+1 == imp.getNSlices()-1)	touchesZ = true;
-								
-								index++;
-								floodFilledPc++;
-								
-								floodNodes[index][0] = floodNodeX;
-								floodNodes[index][1] = floodNodeY;
-								floodNodes[index][2] = floodNodeZ;
-								floodNodes[index][3] = (floodNodeT)+1;
-							}
-							if(increaseRange){
-								// X, Y
-								if ((floodNodeX > 0) && (floodNodeY > 0)  
-										&& imp.getStack().getVoxel(floodNodeX-1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1) > 0.0){
-									preliminaryParticle.add(new CellPoint(floodNodeX-1,floodNodeY-1,floodNodeZ,floodNodeT,
-											refImp, c));
-									imp.getStack().setVoxel(floodNodeX-1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX-1;
-									floodNodes[index][1] = floodNodeY-1;
-									floodNodes[index][2] = floodNodeZ;
-									floodNodes[index][3] = floodNodeT;
-								}
-								if ((floodNodeX < (imp.getWidth()-1)) && (floodNodeY < (imp.getHeight()-1))
-										&& imp.getStack().getVoxel(floodNodeX+1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new CellPoint(floodNodeX+1,floodNodeY+1,floodNodeZ,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX+1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX+1;
-									floodNodes[index][1] = floodNodeY+1;
-									floodNodes[index][2] = floodNodeZ;
-									floodNodes[index][3] = floodNodeT;
-								}
-								if ((floodNodeX < (imp.getWidth()-1)) && (floodNodeY > 0) 
-										&& imp.getStack().getVoxel(floodNodeX+1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new CellPoint(floodNodeX+1,floodNodeY-1,floodNodeZ,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX+1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX+1;
-									floodNodes[index][1] = floodNodeY-1;
-									floodNodes[index][2] = floodNodeZ;
-									floodNodes[index][3] = floodNodeT;
-								}                
-								if ((floodNodeX > 0) && (floodNodeY < (imp.getHeight()-1)) 
-										&& imp.getStack().getVoxel(floodNodeX-1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new CellPoint(floodNodeX-1,floodNodeY+1,floodNodeZ,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX-1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX-1;
-									floodNodes[index][1] = floodNodeY+1;
-									floodNodes[index][2] = floodNodeZ;
-									floodNodes[index][3] = floodNodeT;
-								}
-								// Z-X
-								if ((floodNodeX > 0) && (floodNodeZ > 0)
-										&& imp.getStack().getVoxel(floodNodeX-1, floodNodeY, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new CellPoint(floodNodeX-1,floodNodeY,floodNodeZ-1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX-1, floodNodeY, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX-1;
-									floodNodes[index][1] = floodNodeY;
-									floodNodes[index][2] = floodNodeZ-1;
-									floodNodes[index][3] = floodNodeT;
-								}
-								if ((floodNodeX < (imp.getWidth()-1)) && (floodNodeZ > 0)
-										&& imp.getStack().getVoxel(floodNodeX+1, floodNodeY, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new CellPoint(floodNodeX+1,floodNodeY,floodNodeZ-1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX+1, floodNodeY, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX+1;
-									floodNodes[index][1] = floodNodeY;
-									floodNodes[index][2] = floodNodeZ-1;
-									floodNodes[index][3] = floodNodeT;
-								}
-								if ((floodNodeX > 0) && (floodNodeZ < (imp.getNSlices()-1)) 
-										&& imp.getStack().getVoxel(floodNodeX-1, floodNodeY, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new CellPoint(floodNodeX-1,floodNodeY,floodNodeZ+1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX-1, floodNodeY, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX-1;
-									floodNodes[index][1] = floodNodeY;
-									floodNodes[index][2] = floodNodeZ+1;
-									floodNodes[index][3] = floodNodeT;
-								}
-								if ((floodNodeX < (imp.getWidth()-1)) && (floodNodeZ < (imp.getNSlices()-1)) 
-										&& imp.getStack().getVoxel(floodNodeX+1, floodNodeY, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new CellPoint(floodNodeX+1,floodNodeY,floodNodeZ+1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX+1, floodNodeY, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX+1;
-									floodNodes[index][1] = floodNodeY;
-									floodNodes[index][2] = floodNodeZ+1;
-									floodNodes[index][3] = floodNodeT;
-								} 
-								// Z-Y
-								if ((floodNodeY > 0) && (floodNodeZ > 0)
-										&& imp.getStack().getVoxel(floodNodeX, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new CellPoint(floodNodeX,floodNodeY-1,floodNodeZ-1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX;
-									floodNodes[index][1] = floodNodeY-1;
-									floodNodes[index][2] = floodNodeZ-1;
-									floodNodes[index][3] = floodNodeT;
-								}
-								if ((floodNodeY < (imp.getHeight()-1)) && (floodNodeZ > 0)
-										&& imp.getStack().getVoxel(floodNodeX, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new CellPoint(floodNodeX,floodNodeY+1,floodNodeZ-1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX;
-									floodNodes[index][1] = floodNodeY+1;
-									floodNodes[index][2] = floodNodeZ-1;
-									floodNodes[index][3] = floodNodeT;
-								}
-								if ((floodNodeY > 0) && (floodNodeZ < (imp.getNSlices()-1)) 
-										&& imp.getStack().getVoxel(floodNodeX, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new CellPoint(floodNodeX,floodNodeY-1,floodNodeZ+1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX;
-									floodNodes[index][1] = floodNodeY-1;
-									floodNodes[index][2] = floodNodeZ+1;
-									floodNodes[index][3] = floodNodeT;
-								} 
-								if ((floodNodeY < (imp.getHeight()-1)) && (floodNodeZ < (imp.getNSlices()-1)) 
-										&& imp.getStack().getVoxel(floodNodeX, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new CellPoint(floodNodeX,floodNodeY+1,floodNodeZ+1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX;
-									floodNodes[index][1] = floodNodeY+1;
-									floodNodes[index][2] = floodNodeZ+1;
-									floodNodes[index][3] = floodNodeT;
-								} 
-								// X, Y - Z down
-								if ((floodNodeX > 0) && (floodNodeY > 0) && (floodNodeZ > 0)  
-										&& imp.getStack().getVoxel(floodNodeX-1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1) > 0.0){
-									preliminaryParticle.add(new CellPoint(floodNodeX-1,floodNodeY-1,floodNodeZ-1,floodNodeT,
-											refImp, c));
-									imp.getStack().setVoxel(floodNodeX-1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX-1;
-									floodNodes[index][1] = floodNodeY-1;
-									floodNodes[index][2] = floodNodeZ-1;
-									floodNodes[index][3] = floodNodeT;
-								}
-								if ((floodNodeX < (imp.getWidth()-1)) && (floodNodeY < (imp.getHeight()-1)) && (floodNodeZ > 0)
-										&& imp.getStack().getVoxel(floodNodeX+1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new CellPoint(floodNodeX+1,floodNodeY+1,floodNodeZ-1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX+1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX+1;
-									floodNodes[index][1] = floodNodeY+1;
-									floodNodes[index][2] = floodNodeZ-1;
-									floodNodes[index][3] = floodNodeT;
-								}
-								if ((floodNodeX < (imp.getWidth()-1)) && (floodNodeY > 0) && (floodNodeZ > 0)
-										&& imp.getStack().getVoxel(floodNodeX+1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new CellPoint(floodNodeX+1,floodNodeY-1,floodNodeZ-1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX+1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX+1;
-									floodNodes[index][1] = floodNodeY-1;
-									floodNodes[index][2] = floodNodeZ-1;
-									floodNodes[index][3] = floodNodeT;
-								}                
-								if ((floodNodeX > 0) && (floodNodeY < (imp.getHeight()-1)) && (floodNodeZ > 0)
-										&& imp.getStack().getVoxel(floodNodeX-1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new CellPoint(floodNodeX-1,floodNodeY+1,floodNodeZ-1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX-1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX-1;
-									floodNodes[index][1] = floodNodeY+1;
-									floodNodes[index][2] = floodNodeZ-1;
-									floodNodes[index][3] = floodNodeT;
-								}
-								// X, Y - Z up
-								if ((floodNodeX > 0) && (floodNodeY > 0) && (floodNodeZ < (imp.getNSlices()-1)) 
-										&& imp.getStack().getVoxel(floodNodeX-1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1) > 0.0){
-									preliminaryParticle.add(new CellPoint(floodNodeX-1,floodNodeY-1,floodNodeZ+1,floodNodeT,
-											refImp, c));
-									imp.getStack().setVoxel(floodNodeX-1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX-1;
-									floodNodes[index][1] = floodNodeY-1;
-									floodNodes[index][2] = floodNodeZ+1;
-									floodNodes[index][3] = floodNodeT;
-								}
-								if ((floodNodeX < (imp.getWidth()-1)) && (floodNodeY < (imp.getHeight()-1)) && (floodNodeZ < (imp.getNSlices()-1)) 
-										&& imp.getStack().getVoxel(floodNodeX+1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new CellPoint(floodNodeX+1,floodNodeY+1,floodNodeZ+1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX+1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX+1;
-									floodNodes[index][1] = floodNodeY+1;
-									floodNodes[index][2] = floodNodeZ+1;
-									floodNodes[index][3] = floodNodeT;
-								}
-								if ((floodNodeX < (imp.getWidth()-1)) && (floodNodeY > 0) && (floodNodeZ < (imp.getNSlices()-1)) 
-										&& imp.getStack().getVoxel(floodNodeX+1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new CellPoint(floodNodeX+1,floodNodeY-1,floodNodeZ+1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX+1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX+1;
-									floodNodes[index][1] = floodNodeY-1;
-									floodNodes[index][2] = floodNodeZ+1;
-									floodNodes[index][3] = floodNodeT;
-								}                
-								if ((floodNodeX > 0) && (floodNodeY < (imp.getHeight()-1)) && (floodNodeZ < (imp.getNSlices()-1)) 
-										&& imp.getStack().getVoxel(floodNodeX-1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new CellPoint(floodNodeX-1,floodNodeY+1,floodNodeZ+1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX-1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc++;
-									
-									floodNodes[index][0] = floodNodeX-1;
-									floodNodes[index][1] = floodNodeY+1;
-									floodNodes[index][2] = floodNodeZ+1;
-									floodNodes[index][3] = floodNodeT;
-								}
-							}
-						}					
-						//Floodfiller
-						preliminaryParticle.trimToSize();
-//						saveParticle = true;
-//						if(excludeSelection.equals(excludeOptions[1])){
-//							if(touchesXY)	saveParticle = false;
-//						}else if(excludeSelection.equals(excludeOptions[2])){
-//							if(touchesXY)	saveParticle = false;
-//							if(touchesZ)	saveParticle = false;
-//						}else if(excludeSelection.equals(excludeOptions[3])){
-//							if(touchesXY)	saveParticle = false;
-//							
-//							//check where most points are located
-//							Arrays.fill(sliceCounter, 0);
-//							for(int i = 0; i < preliminaryParticle.size(); i++){
-//								sliceCounter [preliminaryParticle.get(i).z] ++;
-//							}
-//							if(tools.getMaximumIndex(sliceCounter) == 0 ||
-//									tools.getMaximumIndex(sliceCounter) == imp.getNSlices()-1){
-//								saveParticle = false;
-////								IJ.log("touches xy: " + (particles.size()+1));
-//							}
-//							
-//						}
-						
-//						if(saveParticle 
-//								&& preliminaryParticle.size() >= minSize 
-//								&& preliminaryParticle.size() <= maxSize){
-						/**
-						 * Test size of particle in all z
-						 * */
-						Arrays.fill(frameCounter, 0);
-						for(int p = 0; p < preliminaryParticle.size(); p++){
-							frameCounter[preliminaryParticle.get(p).t]++;
-						}
-						
-						keep = true;
-						for(int ti = 0; ti < frameCounter.length; ti++){
-							if(frameCounter[ti]<minSize&&frameCounter[ti]!=0){
-								keep = false;
-								break;
-							}
-						}
-						if(keep){
-							particles.add(preliminaryParticle);							
-						}else{
-							preliminaryParticle.clear();
-							preliminaryParticle.trimToSize();
-						}
-
-						if(floodFilledPc%(pc100)<pc1000){
-							if(showGUIs) {
-								progress.updateBarText("Reconstruction of ciliary structures complete: " + dformat3.format(((double)(floodFilledPc)/(double)(nrOfPoints))*100) + "%");
-								progress.addToBar(0.2*((double)(floodFilledPc-floodFilledPcOld)/(double)(nrOfPoints)));								
-							}
-							floodFilledPcOld = floodFilledPc;
-						}	
-					}				
-				}	
-			}
-			if(floodFilledPc==nrOfPoints){					
-				break searchCells;
-			}
-		}	
+					+ ") is empty - no cilia found!", ProgressDialog.ERROR);
+		}else {
+			System.out.println("ERROR - The channel for reconstruction (" + c 
+					+ ") is empty - no cilia found!");
+		}
+		return new ArrayList<ArrayList<CellPoint>>(0);
+	}
+	
+	if(trackCilia && imp.getNFrames() > 1) {
+		return getTrackedCiliaObjects(imp, c, increaseRange);
 	}
-				
-	refImp.changes = false;
-	refImp.close();
 	
 	if(showGUIs) {
-		progress.updateBarText("Reconstruction of ciliary structures complete: " + dformat3.format(((double)(floodFilledPc)/(double)(nrOfPoints))*100) + "%");
-		progress.addToBar(0.2*((double)(floodFilledPc-floodFilledPcOld)/(double)(nrOfPoints)));
+		labeler.setProgress(progress, "Reconstruction of ciliary structures", 0.2);
 	}
-	particles.trimToSize();
 	
-	//write back to image
-		{
-			for(int j = 0; j < particles.size(); j++){
-				for(int i = 0; i < particles.get(j).size(); i++){
-					imp.getStack().setVoxel(particles.get(j).get(i).x,
-						particles.get(j).get(i).y, 
-						imp.getStackIndex(c, particles.get(j).get(i).z+1, 
-						particles.get(j).get(i).t+1)-1, 
-						particles.get(j).get(i).intensity);
-				}
+	/**
+	 * Particles are connected through time (same x,y,z in neighboring frames).
+	 * A particle is removed from the image if it contains less than minSize voxels in any frame where it is present.
+	 * */
+	LabeledParticles labeledParticles = labeler.label(pixels, minSize, true, true);
+	return getCellPointLists(imp, c, labeledParticles);
+}//end getCiliaObjects
+
+/**
+ * New in v0.2.2: alternative to connecting cilia in 4D. Cilia are segmented in each frame separately and linked into tracks by
+ * linear assignment (see CiliaTracker). Frames are processed one after another, so only one frame is labeled at a time.
+ * As for cilia connected in 4D, a tracked cilium is removed from the image if it contains less than minSize voxels in any frame where it is present.
+ * @return a container that contains lists, which each contain the points belonging to an individual tracked cilium
+ * @param imp: Hyperstack image where one channel represents the recording of cilia
+ * @param c: defines the channel of the Hyperstack image imp, in which the ciliary information is stored 1 < c < number of channels
+ * @param increaseRange: defines whether also diagonal pixels should be allowed while Flood Filling
+ * */
+private ArrayList<ArrayList<CellPoint>> getTrackedCiliaObjects (ImagePlus imp, int c, boolean increaseRange){
+	ParticleLabeler labeler = new ParticleLabeler(imp.getWidth(), imp.getHeight(), imp.getNSlices(), 1, 
+			ParticleLabeler.getConnectivity(increaseRange), false);
+	labeler.setThreads(nrOfThreads);
+	CiliaTracker tracker = new CiliaTracker(maxLinkingDistance, maxGapFrames, imp.getCalibration().pixelWidth, 
+			imp.getCalibration().pixelHeight, imp.getCalibration().pixelDepth, imp.getWidth(), imp.getHeight(), nrOfThreads);
+	
+	LabeledParticles labeledParticles;
+	ArrayList<ArrayList<CellPoint>> particles;
+	ArrayList<CellPoint> particle;
+	long voxel;
+	for(int t = 0; t < imp.getNFrames(); t++){
+		if(showGUIs) {
+			progress.updateBarText("Reconstruction of ciliary structures: tracking frame " + (t+1) + "/" + imp.getNFrames());
+		}
+		
+		//minSize is applied to the tracks below
+		labeledParticles = labeler.label(new ChannelView(imp, c, t+1).getPixels(), 0, false, false);
+		particles = new ArrayList<ArrayList<CellPoint>>(labeledParticles.getNumberOfParticles());
+		for(int p = 0; p < labeledParticles.getNumberOfParticles(); p++){
+			particle = new ArrayList<CellPoint>(labeledParticles.getSize(p));
+			for(int i = 0; i < labeledParticles.getSize(p); i++){
+				voxel = labeledParticles.getVoxel(p, i);
+				particle.add(new CellPoint(labeledParticles.getX(voxel), labeledParticles.getY(voxel), 
+						labeledParticles.getZ(voxel), t, imp, c));
+			}
+			particles.add(particle);
+		}
+		tracker.addFrame(t, particles);
+		
+		if(showGUIs) {
+			progress.addToBar(0.2/imp.getNFrames());
+		}
+	}
+	
+	/**
+	 * Test size of tracks in all frames
+	 * */
+	ArrayList<ArrayList<CellPoint>> tracks = tracker.getTracks();
+	ArrayList<ArrayList<CellPoint>> keptTracks = new ArrayList<ArrayList<CellPoint>>(tracks.size());
+	Object [][] pixels = new ChannelView(imp, c).getPixels();
+	int type = ChannelView.getPixelType(pixels);
+	int [] frameCounter = new int [imp.getNFrames()];
+	boolean keep;
+	for(ArrayList<CellPoint> track : tracks){
+		Arrays.fill(frameCounter, 0);
+		for(int p = 0; p < track.size(); p++){
+			frameCounter[track.get(p).t]++;
+		}
+		
+		keep = true;
+		for(int ti = 0; ti < frameCounter.length; ti++){
+			if(frameCounter[ti]<minSize&&frameCounter[ti]!=0){
+				keep = false;
+				break;
+			}
+		}
+		if(keep){
+			keptTracks.add(track);
+		}else{
+			for(CellPoint p : track){
+				ChannelView.clearVoxel(pixels [p.t][p.z], type, p.y * imp.getWidth() + p.x);
 			}
 		}
-	//write back to image
+	}
+	return keptTracks;
+}
+
+/**
+ * @return a list of CellPoints for each labeled particle, intensities and surfaces are read from channel c of imp
+ * */
+private ArrayList<ArrayList<CellPoint>> getCellPointLists(ImagePlus imp, int c, LabeledParticles labeledParticles){
+	ArrayList<ArrayList<CellPoint>> particles = new ArrayList<ArrayList<CellPoint>>(labeledParticles.getNumberOfParticles());
+	ArrayList<CellPoint> particle;
+	long voxel;
+	for(int p = 0; p < labeledParticles.getNumberOfParticles(); p++){
+		particle = new ArrayList<CellPoint>(labeledParticles.getSize(p));
+		for(int i = 0; i < labeledParticles.getSize(p); i++){
+			voxel = labeledParticles.getVoxel(p, i);
+			particle.add(new CellPoint(labeledParticles.getX(voxel), labeledParticles.getY(voxel), 
+					labeledParticles.getZ(voxel), labeledParticles.getT(voxel), imp, c));
+		}
+		particles.add(particle);
+	}
 	return particles;
-}//end getCiliaObjects
+}
 
 
 /**
@@ -2563,25 +1591,18 @@ ArrayList<ArrayList<CellPoint>> getCiliaObjectsTimelapse (ImagePlus imp, int c,
  * @param increaseRange: defines whether also diagonal pixels should be allowed while Flood Filling
  * */
 ArrayList<ArrayList<Uncalibrated3DPoint>> getBBObjectsTimelapse (ImagePlus imp, int c, boolean increaseRange){
-	ImagePlus refImp = imp.duplicate();
-	int nrOfPoints [] = new int [imp.getNFrames()];
-	int totalNrOfPoints = 0;
-	Arrays.fill(nrOfPoints, 0);
-
+	ParticleLabeler labeler = new ParticleLabeler(imp.getWidth(), imp.getHeight(), imp.getNSlices(), imp.getNFrames(), 
+			ParticleLabeler.getConnectivity(increaseRange), false);
+	labeler.setThreads(nrOfThreads);
+	Object [][] pixels = new ChannelView(imp, c).getPixels();
+	
+	long totalNrOfPoints = 0;
+	long nrOfPoints [] = labeler.countForeground(pixels);
 	for(int t = 0; t < imp.getNFrames(); t++){
-		for(int z = 0; z < imp.getNSlices(); z++){
-			for(int x = 0; x < imp.getWidth(); x++){
-				for(int y = 0; y < imp.getHeight(); y++){	
-					if(imp.getStack().getVoxel(x, y, imp.getStackIndex(c, z+1, t+1)-1) > 0.0){
-						nrOfPoints[t] ++;
-					}
-				}
-			}
-		}
 		totalNrOfPoints += nrOfPoints[t];
 	}
 	
-	if(totalNrOfPoints == imp.getNSlices()*imp.getNFrames()*imp.getWidth()*imp.getHeight()) {
+	if(totalNrOfPoints == (long)imp.getNSlices()*(long)imp.getNFrames()*(long)imp.getWidth()*(long)imp.getHeight()) {
 		if(showGUIs) {
 			progress.notifyMessageWithTaskNr("ERROR - The channel set for reconstruction (" + c 
 					+ ") is not segmented - make sure to set the correct channel nr for reconstruction in the preferences!", ProgressDialog.ERROR);
@@ -2601,492 +1622,42 @@ ArrayList<ArrayList<Uncalibrated3DPoint>> getBBObjectsTimelapse (ImagePlus imp,
 		return new ArrayList<ArrayList<Uncalibrated3DPoint>>(0);
 	}
 	
-	ArrayList<ArrayList<ArrayList<PartPoint>>> particles = new ArrayList<ArrayList<ArrayList<PartPoint>>>(imp.getNFrames());
-	for(int t = 0; t < imp.getNFrames(); t++){
-		particles.add(new ArrayList<ArrayList<PartPoint>>((int)Math.round((double)nrOfPoints [t]/(double)minSize)));
-	}
-
-	int floodFilledPc [] = new int [imp.getNFrames()];	
-	int floodNodeX, floodNodeY, floodNodeZ, floodNodeT, index = 0;
-	int[][] floodNodes;
-//	boolean touchesXY, touchesZ;
-	ArrayList<PartPoint> preliminaryParticle;
-	
-	searchCells: for(int t = 0; t < imp.getNFrames(); t++){
-		floodNodes = new int[nrOfPoints[t]][4];
-		
-		for(int z = 0; z < imp.getNSlices(); z++){
-			for(int x = 0; x < imp.getWidth(); x++){
-				for(int y = 0; y < imp.getHeight(); y++){		
-					if(imp.getStack().getVoxel(x, y, imp.getStackIndex(c, z+1, t+1)-1) > 0.0){
-						preliminaryParticle = new ArrayList<PartPoint>(nrOfPoints[t] - floodFilledPc[t]);
-
-						preliminaryParticle.add(new PartPoint(x, y, z, t, refImp, c));
-						
-						imp.getStack().setVoxel(x, y, imp.getStackIndex(c, z+1, t+1)-1, 0.0);
-						
-						floodFilledPc [t]++;
-						
-						//Floodfiller					
-						floodNodeX = x;
-						floodNodeY = y;
-						floodNodeZ = z;
-						floodNodeT = t;
-						 
-						index = 0;
-						 
-						floodNodes[0][0] = floodNodeX;
-						floodNodes[0][1] = floodNodeY;
-						floodNodes[0][2] = floodNodeZ;
-						floodNodes[0][3] = floodNodeT;
-						
-						while (index >= 0){
-							floodNodeX = floodNodes[index][0];
-							floodNodeY = floodNodes[index][1];
-							floodNodeZ = floodNodes[index][2];		
-							floodNodeT = floodNodes[index][3];
-							index--;            						
-							if ((floodNodeX > 0) 
-									&& imp.getStack().getVoxel(floodNodeX-1, floodNodeY, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1) > 0.0){
-								
-								preliminaryParticle.add(new PartPoint(floodNodeX-1,floodNodeY,floodNodeZ,floodNodeT,
-										refImp, c));
-								imp.getStack().setVoxel(floodNodeX-1, floodNodeY, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1, 0.0);
-								
-								index++;
-								floodFilledPc [t]++;
-								
-								floodNodes[index][0] = floodNodeX-1;
-								floodNodes[index][1] = floodNodeY;
-								floodNodes[index][2] = floodNodeZ;
-								floodNodes[index][3] = floodNodeT;
-							}
-							if ((floodNodeX < (imp.getWidth()-1)) 
-									&& imp.getStack().getVoxel(floodNodeX+1, floodNodeY, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1) > 0.0){
-								
-								preliminaryParticle.add(new PartPoint(floodNodeX+1,floodNodeY,floodNodeZ,floodNodeT, refImp, c));
-								imp.getStack().setVoxel(floodNodeX+1, floodNodeY, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1, 0.0);
-								
-								index++;
-								floodFilledPc [t]++;
-								
-								floodNodes[index][0] = floodNodeX+1;
-								floodNodes[index][1] = floodNodeY;
-								floodNodes[index][2] = floodNodeZ;
-								floodNodes[index][3] = floodNodeT;
-							}
-							if ((floodNodeY > 0) 
-									&& imp.getStack().getVoxel(floodNodeX, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1) > 0.0){
-								
-								preliminaryParticle.add(new PartPoint(floodNodeX,floodNodeY-1,floodNodeZ,floodNodeT, refImp, c));
-								imp.getStack().setVoxel(floodNodeX, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1, 0.0);
-								
-								index++;
-								floodFilledPc [t]++;
-								
-								floodNodes[index][0] = floodNodeX;
-								floodNodes[index][1] = floodNodeY-1;
-								floodNodes[index][2] = floodNodeZ;
-								floodNodes[index][3] = floodNodeT;
-							}                
-							if ((floodNodeY < (imp.getHeight()-1)) 
-									&& imp.getStack().getVoxel(floodNodeX, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1) > 0.0){
-								
-								preliminaryParticle.add(new PartPoint(floodNodeX,floodNodeY+1,floodNodeZ,floodNodeT, refImp, c));
-								imp.getStack().setVoxel(floodNodeX, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1, 0.0);
-								
-								index++;
-								floodFilledPc [t]++;
-								
-								floodNodes[index][0] = floodNodeX;
-								floodNodes[index][1] = floodNodeY+1;
-								floodNodes[index][2] = floodNodeZ;
-								floodNodes[index][3] = floodNodeT;
-							}
-							if ((floodNodeZ > 0) 
-									&& imp.getStack().getVoxel(floodNodeX, floodNodeY, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1) > 0.0){
-								
-								preliminaryParticle.add(new PartPoint(floodNodeX,floodNodeY,floodNodeZ-1,floodNodeT, refImp, c));
-								imp.getStack().setVoxel(floodNodeX, floodNodeY, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1, 0.0);
-								
-								index++;
-								floodFilledPc [t]++;
-								
-								floodNodes[index][0] = floodNodeX;
-								floodNodes[index][1] = floodNodeY;
-								floodNodes[index][2] = floodNodeZ-1;
-								floodNodes[index][3] = floodNodeT;
-							}                
-							if ((floodNodeZ < (imp.getNSlices()-1)) 
-									&& imp.getStack().getVoxel(floodNodeX, floodNodeY, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1) > 0.0){
-								
-								preliminaryParticle.add(new PartPoint(floodNodeX,floodNodeY,floodNodeZ+1,floodNodeT, refImp, c));
-								imp.getStack().setVoxel(floodNodeX, floodNodeY, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1, 0.0);
-								
-								index++;
-								floodFilledPc [t]++;
-								
-								floodNodes[index][0] = floodNodeX;
-								floodNodes[index][1] = floodNodeY;
-								floodNodes[index][2] = floodNodeZ+1;
-								floodNodes[index][3] = floodNodeT;
-							}
-							
-							if(increaseRange){
-								// X, Y
-								if ((floodNodeX > 0) && (floodNodeY > 0)  
-										&& imp.getStack().getVoxel(floodNodeX-1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1) > 0.0){
-									preliminaryParticle.add(new PartPoint(floodNodeX-1,floodNodeY-1,floodNodeZ,floodNodeT,
-											refImp, c));
-									imp.getStack().setVoxel(floodNodeX-1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc [t]++;
-									
-									floodNodes[index][0] = floodNodeX-1;
-									floodNodes[index][1] = floodNodeY-1;
-									floodNodes[index][2] = floodNodeZ;
-									floodNodes[index][3] = floodNodeT;
-								}
-								if ((floodNodeX < (imp.getWidth()-1)) && (floodNodeY < (imp.getHeight()-1))
-										&& imp.getStack().getVoxel(floodNodeX+1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX+1,floodNodeY+1,floodNodeZ,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX+1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc [t]++;
-									
-									floodNodes[index][0] = floodNodeX+1;
-									floodNodes[index][1] = floodNodeY+1;
-									floodNodes[index][2] = floodNodeZ;
-									floodNodes[index][3] = floodNodeT;
-								}
-								if ((floodNodeX < (imp.getWidth()-1)) && (floodNodeY > 0) 
-										&& imp.getStack().getVoxel(floodNodeX+1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX+1,floodNodeY-1,floodNodeZ,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX+1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc [t]++;
-									
-									floodNodes[index][0] = floodNodeX+1;
-									floodNodes[index][1] = floodNodeY-1;
-									floodNodes[index][2] = floodNodeZ;
-									floodNodes[index][3] = floodNodeT;
-								}                
-								if ((floodNodeX > 0) && (floodNodeY < (imp.getHeight()-1)) 
-										&& imp.getStack().getVoxel(floodNodeX-1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX-1,floodNodeY+1,floodNodeZ,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX-1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc [t]++;
-									
-									floodNodes[index][0] = floodNodeX-1;
-									floodNodes[index][1] = floodNodeY+1;
-									floodNodes[index][2] = floodNodeZ;
-									floodNodes[index][3] = floodNodeT;
-								}
-								// Z-X
-								if ((floodNodeX > 0) && (floodNodeZ > 0)
-										&& imp.getStack().getVoxel(floodNodeX-1, floodNodeY, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX-1,floodNodeY,floodNodeZ-1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX-1, floodNodeY, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc [t]++;
-									
-									floodNodes[index][0] = floodNodeX-1;
-									floodNodes[index][1] = floodNodeY;
-									floodNodes[index][2] = floodNodeZ-1;
-									floodNodes[index][3] = floodNodeT;
-								}
-								if ((floodNodeX < (imp.getWidth()-1)) && (floodNodeZ > 0)
-										&& imp.getStack().getVoxel(floodNodeX+1, floodNodeY, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX+1,floodNodeY,floodNodeZ-1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX+1, floodNodeY, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc [t]++;
-									
-									floodNodes[index][0] = floodNodeX+1;
-									floodNodes[index][1] = floodNodeY;
-									floodNodes[index][2] = floodNodeZ-1;
-									floodNodes[index][3] = floodNodeT;
-								}
-								if ((floodNodeX > 0) && (floodNodeZ < (imp.getNSlices()-1)) 
-										&& imp.getStack().getVoxel(floodNodeX-1, floodNodeY, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX-1,floodNodeY,floodNodeZ+1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX-1, floodNodeY, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc [t]++;
-									
-									floodNodes[index][0] = floodNodeX-1;
-									floodNodes[index][1] = floodNodeY;
-									floodNodes[index][2] = floodNodeZ+1;
-									floodNodes[index][3] = floodNodeT;
-								}
-								if ((floodNodeX < (imp.getWidth()-1)) && (floodNodeZ < (imp.getNSlices()-1)) 
-										&& imp.getStack().getVoxel(floodNodeX+1, floodNodeY, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX+1,floodNodeY,floodNodeZ+1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX+1, floodNodeY, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc [t]++;
-									
-									floodNodes[index][0] = floodNodeX+1;
-									floodNodes[index][1] = floodNodeY;
-									floodNodes[index][2] = floodNodeZ+1;
-									floodNodes[index][3] = floodNodeT;
-								} 
-								// Z-Y
-								if ((floodNodeY > 0) && (floodNodeZ > 0)
-										&& imp.getStack().getVoxel(floodNodeX, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX,floodNodeY-1,floodNodeZ-1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc [t]++;
-									
-									floodNodes[index][0] = floodNodeX;
-									floodNodes[index][1] = floodNodeY-1;
-									floodNodes[index][2] = floodNodeZ-1;
-									floodNodes[index][3] = floodNodeT;
-								}
-								if ((floodNodeY < (imp.getHeight()-1)) && (floodNodeZ > 0)
-										&& imp.getStack().getVoxel(floodNodeX, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX,floodNodeY+1,floodNodeZ-1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc [t]++;
-									
-									floodNodes[index][0] = floodNodeX;
-									floodNodes[index][1] = floodNodeY+1;
-									floodNodes[index][2] = floodNodeZ-1;
-									floodNodes[index][3] = floodNodeT;
-								}
-								if ((floodNodeY > 0) && (floodNodeZ < (imp.getNSlices()-1)) 
-										&& imp.getStack().getVoxel(floodNodeX, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX,floodNodeY-1,floodNodeZ+1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc [t]++;
-									
-									floodNodes[index][0] = floodNodeX;
-									floodNodes[index][1] = floodNodeY-1;
-									floodNodes[index][2] = floodNodeZ+1;
-									floodNodes[index][3] = floodNodeT;
-								} 
-								if ((floodNodeY < (imp.getHeight()-1)) && (floodNodeZ < (imp.getNSlices()-1)) 
-										&& imp.getStack().getVoxel(floodNodeX, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX,floodNodeY+1,floodNodeZ+1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc [t]++;
-									
-									floodNodes[index][0] = floodNodeX;
-									floodNodes[index][1] = floodNodeY+1;
-									floodNodes[index][2] = floodNodeZ+1;
-									floodNodes[index][3] = floodNodeT;
-								} 
-								// X, Y - Z down
-								if ((floodNodeX > 0) && (floodNodeY > 0) && (floodNodeZ > 0)  
-										&& imp.getStack().getVoxel(floodNodeX-1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1) > 0.0){
-									preliminaryParticle.add(new PartPoint(floodNodeX-1,floodNodeY-1,floodNodeZ-1,floodNodeT,
-											refImp, c));
-									imp.getStack().setVoxel(floodNodeX-1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc [t]++;
-									
-									floodNodes[index][0] = floodNodeX-1;
-									floodNodes[index][1] = floodNodeY-1;
-									floodNodes[index][2] = floodNodeZ-1;
-									floodNodes[index][3] = floodNodeT;
-								}
-								if ((floodNodeX < (imp.getWidth()-1)) && (floodNodeY < (imp.getHeight()-1)) && (floodNodeZ > 0)
-										&& imp.getStack().getVoxel(floodNodeX+1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX+1,floodNodeY+1,floodNodeZ-1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX+1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc [t]++;
-									
-									floodNodes[index][0] = floodNodeX+1;
-									floodNodes[index][1] = floodNodeY+1;
-									floodNodes[index][2] = floodNodeZ-1;
-									floodNodes[index][3] = floodNodeT;
-								}
-								if ((floodNodeX < (imp.getWidth()-1)) && (floodNodeY > 0) && (floodNodeZ > 0)
-										&& imp.getStack().getVoxel(floodNodeX+1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX+1,floodNodeY-1,floodNodeZ-1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX+1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc [t]++;
-									
-									floodNodes[index][0] = floodNodeX+1;
-									floodNodes[index][1] = floodNodeY-1;
-									floodNodes[index][2] = floodNodeZ-1;
-									floodNodes[index][3] = floodNodeT;
-								}                
-								if ((floodNodeX > 0) && (floodNodeY < (imp.getHeight()-1)) && (floodNodeZ > 0)
-										&& imp.getStack().getVoxel(floodNodeX-1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX-1,floodNodeY+1,floodNodeZ-1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX-1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ-1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc [t]++;
-									
-									floodNodes[index][0] = floodNodeX-1;
-									floodNodes[index][1] = floodNodeY+1;
-									floodNodes[index][2] = floodNodeZ-1;
-									floodNodes[index][3] = floodNodeT;
-								}
-								// X, Y - Z up
-								if ((floodNodeX > 0) && (floodNodeY > 0) && (floodNodeZ < (imp.getNSlices()-1)) 
-										&& imp.getStack().getVoxel(floodNodeX-1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1) > 0.0){
-									preliminaryParticle.add(new PartPoint(floodNodeX-1,floodNodeY-1,floodNodeZ+1,floodNodeT,
-											refImp, c));
-									imp.getStack().setVoxel(floodNodeX-1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc [t]++;
-									
-									floodNodes[index][0] = floodNodeX-1;
-									floodNodes[index][1] = floodNodeY-1;
-									floodNodes[index][2] = floodNodeZ+1;
-									floodNodes[index][3] = floodNodeT;
-								}
-								if ((floodNodeX < (imp.getWidth()-1)) && (floodNodeY < (imp.getHeight()-1)) && (floodNodeZ < (imp.getNSlices()-1)) 
-										&& imp.getStack().getVoxel(floodNodeX+1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX+1,floodNodeY+1,floodNodeZ+1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX+1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc [t]++;
-									
-									floodNodes[index][0] = floodNodeX+1;
-									floodNodes[index][1] = floodNodeY+1;
-									floodNodes[index][2] = floodNodeZ+1;
-									floodNodes[index][3] = floodNodeT;
-								}
-								if ((floodNodeX < (imp.getWidth()-1)) && (floodNodeY > 0) && (floodNodeZ < (imp.getNSlices()-1)) 
-										&& imp.getStack().getVoxel(floodNodeX+1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX+1,floodNodeY-1,floodNodeZ+1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX+1, floodNodeY-1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc [t]++;
-									
-									floodNodes[index][0] = floodNodeX+1;
-									floodNodes[index][1] = floodNodeY-1;
-									floodNodes[index][2] = floodNodeZ+1;
-									floodNodes[index][3] = floodNodeT;
-								}                
-								if ((floodNodeX > 0) && (floodNodeY < (imp.getHeight()-1)) && (floodNodeZ < (imp.getNSlices()-1)) 
-										&& imp.getStack().getVoxel(floodNodeX-1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1) > 0.0){
-									
-									preliminaryParticle.add(new PartPoint(floodNodeX-1,floodNodeY+1,floodNodeZ+1,floodNodeT, refImp, c));
-									imp.getStack().setVoxel(floodNodeX-1, floodNodeY+1, imp.getStackIndex(c, (floodNodeZ+1)+1, (floodNodeT)+1)-1, 0.0);
-									
-									index++;
-									floodFilledPc [t]++;
-									
-									floodNodes[index][0] = floodNodeX-1;
-									floodNodes[index][1] = floodNodeY+1;
-									floodNodes[index][2] = floodNodeZ+1;
-									floodNodes[index][3] = floodNodeT;
-								}
-							}
-						}					
-						//Floodfiller
-						preliminaryParticle.trimToSize();
-
-						if(preliminaryParticle.size() >= minSize){
-							particles.get(t).add(preliminaryParticle);							
-						}else{
-							preliminaryParticle.clear();
-							preliminaryParticle.trimToSize();
-						}
-					}				
-				}	
-			}			
-		}
-		
-		if(showGUIs) {
-			progress.updateBarText("Reconstruction basal bodies in frame " 
-					+ (t+1) + " of " + imp.getNFrames()
-					+ " complete.");
-			progress.addToBar(0.2/(double)imp.getNFrames());								
-		}
+	if(showGUIs) {
+		labeler.setProgress(progress, "Reconstruction of basal bodies", 0.2);
 	}
-				
-	refImp.changes = false;
-	refImp.close();
-	
-	particles.trimToSize();
-	
-	//write back to image
-		{	
-			for(int t = 0; t < particles.size(); t++){
-				for(int j = 0; j < particles.get(t).size(); j++){
-					for(int i = 0; i < particles.get(t).get(j).size(); i++){
-						imp.getStack().setVoxel(particles.get(t).get(j).get(i).x,
-							particles.get(t).get(j).get(i).y, 
-							imp.getStackIndex(c, particles.get(t).get(j).get(i).z+1, 
-							particles.get(t).get(j).get(i).t+1)-1, 
-							particles.get(t).get(j).get(i).intensity);
-					}
-				}
-			}			
-		}
-	//write back to image
+	
+	//each frame is labeled individually, particles below minSize are removed from the image
+	LabeledParticles labeledParticles = labeler.label(pixels, minSize, false, true);
 	
 	/*
 	 * Reduce basal bodies to center points
 	 */
-	double centerX, centerY, centerZ;	
-	ArrayList<ArrayList<Uncalibrated3DPoint>> bbs = new ArrayList<ArrayList<Uncalibrated3DPoint>> (particles.size());	
-	for(int t = 0; t < particles.size(); t++){
-		bbs.add(new ArrayList<Uncalibrated3DPoint> (particles.get(t).size()));		
-		for(int j = 0; j < particles.get(t).size(); j++){
-			centerX = 0.0;
-			centerY = 0.0; 
-			centerZ = 0.0;
-			
-			for(int i = 0; i < particles.get(t).get(j).size(); i++){
-				centerX += particles.get(t).get(j).get(i).x;
-				centerY += particles.get(t).get(j).get(i).y; 
-				centerZ += particles.get(t).get(j).get(i).z; 
-			}
-			
-			centerX /= (double) particles.get(t).get(j).size();
-			centerY /= (double) particles.get(t).get(j).size();
-			centerZ /= (double) particles.get(t).get(j).size();
-			
-			bbs.get(t).add(new Uncalibrated3DPoint(centerX,centerY,centerZ));
+	double centerX, centerY, centerZ;
+	long voxel;
+	ArrayList<ArrayList<Uncalibrated3DPoint>> bbs = new ArrayList<ArrayList<Uncalibrated3DPoint>> (imp.getNFrames());	
+	for(int t = 0; t < imp.getNFrames(); t++){
+		bbs.add(new ArrayList<Uncalibrated3DPoint> ());
+	}
+	for(int j = 0; j < labeledParticles.getNumberOfParticles(); j++){
+		centerX = 0.0;
+		centerY = 0.0; 
+		centerZ = 0.0;
+		
+		for(int i = 0; i < labeledParticles.getSize(j); i++){
+			voxel = labeledParticles.getVoxel(j, i);
+			centerX += labeledParticles.getX(voxel);
+			centerY += labeledParticles.getY(voxel); 
+			centerZ += labeledParticles.getZ(voxel); 
 		}
+		
+		centerX /= (double) labeledParticles.getSize(j);
+		centerY /= (double) labeledParticles.getSize(j);
+		centerZ /= (double) labeledParticles.getSize(j);
+		
+		bbs.get(labeledParticles.getT(labeledParticles.getVoxel(j, 0))).add(new Uncalibrated3DPoint(centerX,centerY,centerZ));
+	}
+	for(int t = 0; t < bbs.size(); t++){
+		bbs.get(t).trimToSize();
 	}
 		
 	return bbs;
@@ -3099,114 +1670,35 @@ private double [] getIntensityThresholds(ImagePlus imp, ArrayList<ArrayList<Cell
 	double intensityThresholds [] = new double[imp.getNChannels()]; //for each channel individual
 	Arrays.fill(intensityThresholds, -1.0);
 	//Determine intensity thresholds for each other channel
-	{
-		ImagePlus tempImp;
-		ArrayList<double[]> intensities = new ArrayList<double[]>(25);
-		for(int i = 0; i < 25; i ++){
-			intensities.add(new double [((int)(imp.getWidth()/5.0)+1)*((int)(imp.getHeight()/5.0)+1)*imp.getNSlices()*imp.getNFrames()]);
-		}
-		CellPoint p;
-		int listIndex = 0;
-		int counter [] = new int [25];
-		double allIntensities [] = new double [(int)(25*(((int)(imp.getWidth()/5.0)+1)*((int)(imp.getHeight()/5.0)+1)*imp.getNSlices()*imp.getNFrames())*0.1)+1];
-		int allCounter;
-		for(int c = 1; c <= imp.getNChannels(); c++){
-			if((measureC2 && c == channelC2)
-					|| (measureC3 && c == channelC3)
-					|| (measureBasal && c == basalStainC)){
-				//get image
-				tempImp = getChannel(imp, c);
-				for(int i = 0; i < ciliaParticles.size(); i ++){
-					for(int j = 0; j < ciliaParticles.get(i).size(); j++){
-						p = ciliaParticles.get(i).get(j);
-						tempImp.getStack().setVoxel(p.x, p.y, tempImp.getStackIndex(1, p.z+1, p.t+1)-1, 0.0);
-					}
-				}
-				
-				//initialize intensity arrays
-				for(int i = 0; i < 25; i ++){
-					Arrays.fill(intensities.get(i), Double.MIN_VALUE);
-					counter [i] = 0;
-				}
-				Arrays.fill(allIntensities, 0.0);
-				allCounter = 0;
-								
-				//obtain pixel intensities
-				for(int x = 0; x < tempImp.getWidth(); x++){
-					for(int y = 0; y < tempImp.getHeight(); y++){
-						for(int z = 0; z < tempImp.getNSlices(); z++){
-							for(int t = 0; t < tempImp.getNFrames(); t++){
-								if(tempImp.getStack().getVoxel(x, y, tempImp.getStackIndex(1, z+1, t+1)-1)>0.0){
-									listIndex = 1+(int)((double)x/(double)tempImp.getWidth()*5.0);
-									listIndex += 5*(int)((double)y/(double)tempImp.getHeight()*5.0);
-									listIndex -=1;
-
-									intensities.get(listIndex)[counter[listIndex]] 
-											= tempImp.getStack().getVoxel(x, y, tempImp.getStackIndex(1, z+1, t+1)-1);
-									counter [listIndex] += 1;
-								}
-							}							
-						}						
-					}
-				}
-				tempImp.close();				
-				
-				// calculate thresholds
-				int noOfValues;
-				for(int i = 0; i < 25; i ++){
-					//get nr of values included in top 10%
-					noOfValues = (int)(counter[i]*0.1);
-					if(noOfValues>0){
-						Arrays.sort(intensities.get(i));
-						for(int j = 0; j < noOfValues; j++){
-							allIntensities[allCounter] = intensities.get(i)[counter[i]-1-j];
-							allCounter++;
-						}
-					}					
-				}
-				if(allCounter>1){
-//					IJ.log("avg: " + tools.getAverageOfRange(allIntensities, 0, allCounter-1));
-//					IJ.log("sd: " + tools.getSDOfRange(allIntensities, 0, allCounter-1));
-					intensityThresholds [c-1] = tools.getAverageOfRange(allIntensities, 0, allCounter-1) + 1.5*tools.getSDOfRange(allIntensities, 0, allCounter-1);
-				}else if(allCounter == 1){
-					intensityThresholds [c-1] = allIntensities[0];
-				}else{
-					intensityThresholds [c-1] = 0.0;
-				}		
+	TileThresholdEstimator estimator = null;
+	for(int c = 1; c <= imp.getNChannels(); c++){
+		if((measureC2 && c == channelC2)
+				|| (measureC3 && c == channelC3)
+				|| (measureBasal && c == basalStainC)){
+			if(estimator == null){
+				estimator = new TileThresholdEstimator(imp, ciliaParticles);
 			}
+			intensityThresholds [c-1] = estimator.getThreshold(new ChannelView(imp, c).getPixels());
 		}
-		//Clean up
-		intensities.clear();
-		intensities = null;
-		allIntensities = null;
-		p = null;
-		counter = null;
-	}	
+	}
 	return intensityThresholds;
 }
 
 /**
- * @param channel: 1 <= channel <= # channels
+ * Quantifies the cilia objects in parallel, using up to nrOfThreads worker threads (see Cilium.quantifyAll)
+ * @return list of Cilium objects in the same order as ciliaParticles
  * */
-private static ImagePlus getChannel(ImagePlus imp, int channel){
-	ImagePlus impNew = IJ.createHyperStack("channel image", imp.getWidth(), imp.getHeight(), 1, imp.getNSlices(), imp.getNFrames(), imp.getBitDepth());
-	int index = 0, indexNew = 0;
-	
-	for(int x = 0; x < imp.getWidth(); x++){
-		for(int y = 0; y < imp.getHeight(); y++){
-			for(int s = 0; s < imp.getNSlices(); s++){
-				for(int f = 0; f < imp.getNFrames(); f++){
-					index = imp.getStackIndex(channel, s+1, f+1)-1;
-					indexNew = impNew.getStackIndex(1, s+1, f+1)-1;
-					impNew.getStack().setVoxel(x, y, indexNew, imp.getStack().getVoxel(x, y, index));
-				}					
-			}
+private ArrayList<Cilium> quantifyCilia(final ArrayList<ArrayList<CellPoint>> ciliaParticles, final ImagePlus imp,
+		final boolean measureC2local, final boolean measureC3local, final boolean measureBasalLocal, final double intensityThresholds []){
+	Cilium [] quantified = Cilium.quantifyAll(ciliaParticles, imp, measureC2local, channelC2, measureC3local, channelC3, measureBasalLocal, basalStainC, 
+			channelReconstruction, gXY, gZ, intensityThresholds, progress, skeletonize, showGUIs, nrOfThreads, adaptiveUpscaling, true);
+	ArrayList<Cilium> cilia = new ArrayList<Cilium>(quantified.length);
+	for(int i = 0; i < quantified.length; i++){
+		if(quantified [i] != null){
+			cilia.add(quantified [i]);
 		}
 	}
-	imp.setDisplayRange(0, 4095);
-	
-	impNew.setCalibration(imp.getCalibration());
-	return impNew;
+	return cilia;
 }
 
 /**
@@ -3248,23 +1740,11 @@ private void analyzeCiliaIn3DAndSaveResults(ImagePlus imp, boolean measureC2loca
 		boolean touchesXY, touchesZ;
 		int [] sliceCounter = new int [imp.getNSlices()];
 		
-		cilia.ensureCapacity(ciliaParticles.size());
-		for(int i = 0; i < ciliaParticles.size(); i++){
+		cilia = quantifyCilia(ciliaParticles, imp, measureC2local, measureC3local, measureBasalLocal, intensityThresholds);
+		if(cilia.size()!=ciliaParticles.size()) {
 			if(showGUIs) {
-				progress.updateBarText("Quantifying cilia objects (" + i + "/" + ciliaParticles.size() + " done)");
+				progress.notifyMessage("Error while measuring cilia - " + cilia.size() + " of " + ciliaParticles.size() + " quantified", ProgressDialog.NOTIFICATION);
 			}
-			cilia.add(new Cilium(ciliaParticles.get(i), imp, measureC2local, channelC2, measureC3local, channelC3, measureBasalLocal, basalStainC, 
-					channelReconstruction, gXY, gZ, intensityThresholds, progress, skeletonize, showGUIs));
-			if(cilia.size()!=i+1) {
-				if(showGUIs) {
-					progress.notifyMessage("Error while measuring cilium " + (i+1), ProgressDialog.NOTIFICATION);
-				}
-			}
-			
-			if(showGUIs) {
-				progress.addToBar(0.1/cilia.size());
-				progress.updateBarText("reconstructing cilia... (" + (i+1) + "/" + cilia.size() + ")");
-			}	
 		}
 		
 		ciliaParticles.clear();
@@ -3285,59 +1765,16 @@ private void analyzeCiliaIn3DAndSaveResults(ImagePlus imp, boolean measureC2loca
 			nrOfBBs = bbParticles.size();
 			
 			//Assign cilia and basal bodies next:			
-			double minDist, dist;
-			double sklPoints [][];
-			
-			double matrixDist [][] = new double [cilia.size()][bbParticles.size()];
-			double matrixDistSquared [][] = new double [cilia.size()][bbParticles.size()];
-			Cilium theCilium;
-
 			if(showGUIs) {
 				progress.updateBarText("assigning basal bodies to cilia... compute distances");
 			}
-			for(int bb = 0; bb < bbParticles.size(); bb++){
-				for(int cil = 0; cil < cilia.size(); cil++){
-					theCilium = cilia.get(cil);
-					if(theCilium.sklAvailable) {
-						minDist = Double.POSITIVE_INFINITY;
-						sklPoints = theCilium.getSkeletonPointsForOriginalImage();
-						for(int skl = 0; skl < sklPoints.length; skl++) {
-							dist = getDistance(bbParticles.get(bb).x * theCilium.calibration,
-									bbParticles.get(bb).y * theCilium.calibration,
-									bbParticles.get(bb).z * theCilium.voxelDepth,
-									sklPoints[skl][0],
-									sklPoints[skl][1],
-									sklPoints[skl][2]);
-							if(dist < minDist) {
-								minDist = dist;
-							}
-						}
-						matrixDist [cil][bb] =  minDist;
-					}else {
-						matrixDist [cil][bb] =  getDistance(bbParticles.get(bb).x * theCilium.calibration,
-								bbParticles.get(bb).y * theCilium.calibration,
-								bbParticles.get(bb).z * theCilium.voxelDepth,
-								theCilium.xC,
-								theCilium.yC,
-								theCilium.zC);
-					}
-					
-					// If out of range reset to border to out of range to let out of range connections not matter
-					matrixDistSquared [cil][bb] = matrixDist [cil][bb];
-					if(matrixDistSquared [cil][bb] > maxDistanceBBCiliumEnd) {
-						matrixDistSquared [cil][bb] = maxDistanceBBCiliumEnd;
-					}
-					
-					// Square the distance to push for closer connection
-					matrixDistSquared [cil][bb] = matrixDist [cil][bb] * matrixDist [cil][bb]; 
-				}
-			}
+			double matrixDist [][] = CiliumDistanceMatrix.compute(cilia, bbParticles, nrOfThreads);
 			
 			//Applying HungarianAlgorithm = linear_sum_assignment in python to get best solution
 			if(showGUIs) {
 				progress.updateBarText("assigning basal bodies to cilia... assigning by minimizing linear sum");
 			}
-			int [] bbForCilium = new HungarianAlgorithm(matrixDistSquared).execute();
+			int [] bbForCilium = getBBCiliaAssignment(matrixDist);
 			
 
 			//Now assign BBs to cilia
@@ -3441,25 +1878,25 @@ private void analyzeCiliaIn3DAndSaveResults(ImagePlus imp, boolean measureC2loca
 				touchesXY = false; touchesZ = false;
 				Arrays.fill(sliceCounter, 0);
 				
-				for(int j = 0; j < cilia.get(i).points.length; j++){
-					if(cilia.get(i).points [j][0] == 0.0 
-							|| (int)Math.round(cilia.get(i).points [j][0] / imp.getCalibration().pixelWidth) == imp.getWidth()-1){
+				for(int j = 0; j < cilia.get(i).points.size(); j++){
+					if(cilia.get(i).points.getX(j) == 0 
+							|| cilia.get(i).points.getX(j) == imp.getWidth()-1){
 						touchesXY = true;
 						break;
 					}
-					if(cilia.get(i).points [j][1] == 0.0 
-							|| (int)Math.round(cilia.get(i).points [j][1] / imp.getCalibration().pixelHeight) == imp.getHeight()-1){
+					if(cilia.get(i).points.getY(j) == 0 
+							|| cilia.get(i).points.getY(j) == imp.getHeight()-1){
 						touchesXY = true;
 						break;
 					}
 					if(tempExcludeSelection.equals(excludeOptions[2])
-							&& (cilia.get(i).points [j][2] == 0 
-							|| (int)Math.round(cilia.get(i).points [j][2] / imp.getCalibration().pixelDepth) == imp.getNSlices()-1)){
+							&& (cilia.get(i).points.getZ(j) == 0 
+							|| cilia.get(i).points.getZ(j) == imp.getNSlices()-1)){
 						touchesZ = true;
 						break;
 					}
 					
-					sliceCounter [(int)Math.round(cilia.get(i).points [j][2] / imp.getCalibration().pixelDepth)]++;
+					sliceCounter [cilia.get(i).points.getZ(j)]++;
 				}
 				
 				if(touchesXY){
@@ -3575,7 +2012,7 @@ private void analyzeCiliaIn3DAndSaveResults(ImagePlus imp, boolean measureC2loca
 	OutputTextFile tw2 = new OutputTextFile("");
 	
 	addSettingsBlockToPanel(tw1, currentDate, startDate, name, imp, 
-			measureC2local, measureC3local, measureBasalLocal, intensityThresholds, excludedCilia, totalNrOfDetectedCilia, excludedBBs,nrOfBBs);
+			measureC2local, measureC3local, measureBasalLocal, intensityThresholds, excludedCilia, totalNrOfDetectedCilia, excludedBBs,nrOfBBs, cilia);
 	
 	tw1.append("Results:");				
 	String appendTxt = "File name	";	
@@ -3957,7 +2394,7 @@ private void analyzeCiliaIn4DAndSaveResults(ImagePlus imp, boolean measureC2loca
 		for(int i = 0; i < ciliaParticles.size(); i++){
 			if(showGUIs)	progress.updateBarText("Quantifying cilia (" + i + "/" + ciliaParticles.size() + " done)");
 			timelapseCilia.add(new TimelapseCilium(ciliaParticles.get(i), imp, measureC2local, channelC2, measureC3local, channelC3, measureBasalLocal, basalStainC, 
-					channelReconstruction, gXY, gZ, intensityThresholds, progress, skeletonize, segmentedBB, showGUIs));
+					channelReconstruction, gXY, gZ, intensityThresholds, progress, skeletonize, segmentedBB, showGUIs, nrOfThreads, adaptiveUpscaling));
 			if(timelapseCilia.size()!=i+1) {
 				if(showGUIs) {
 					progress.notifyMessage("Error while measuring cilium " + (i+1)
@@ -3999,98 +2436,136 @@ private void analyzeCiliaIn4DAndSaveResults(ImagePlus imp, boolean measureC2loca
 					return;
 				}
 			}else {
+				/**
+				 * New in v0.2.2: basal bodies are linked into tracks through time (see BasalBodyTracker). 
+				 * A basal body that continues a track keeps the cilium its track was assigned to in the previous frame, 
+				 * as long as it stays within the maximum BB-cilium-distance. Only the remaining cilia and basal bodies are assigned anew.
+				 * Basal bodies without cilium of the same track are combined into one timelapse cilium object.
+				 * */
+				BasalBodyTracker bbTracker = new BasalBodyTracker(maxLinkingDistance, maxGapFrames, 
+						imp.getCalibration().pixelWidth, imp.getCalibration().pixelDepth, nrOfThreads);
+				int [] timelapseCiliumOfBBTrack = new int [0];
+				int [] bbOnlyTimelapseCiliumOfBBTrack = new int [0];
+				
+				//Create a list of cilia with IDs for each timepoint
+				ArrayList<ArrayList<Integer>> ciliaIDsPerFrame = new ArrayList<ArrayList<Integer>>(bbParticles.size());
+				ArrayList<ArrayList<Cilium>> ciliaPerFrame = new ArrayList<ArrayList<Cilium>>(bbParticles.size());
+				for(int t = 0; t < bbParticles.size(); t++) {
+					ciliaIDsPerFrame.add(new ArrayList<Integer>());
+					ciliaPerFrame.add(new ArrayList<Cilium>());
+				}
+				for(int tc = 0; tc < timelapseCilia.size(); tc++) {
+					for(int cil = 0; cil < timelapseCilia.get(tc).cilia.size(); cil++) {
+						ciliaPerFrame.get(timelapseCilia.get(tc).cilia.get(cil).t).add(timelapseCilia.get(tc).cilia.get(cil));
+						ciliaIDsPerFrame.get(timelapseCilia.get(tc).cilia.get(cil).t).add(tc);
+					}
+				}
+				
 				//Iterate over all time points and within each time point assign bbs and cilia
 				for(int t = 0; t < bbParticles.size(); t++) {
+					ArrayList <Cilium> cilia = ciliaPerFrame.get(t);
+					ArrayList <Integer> ciliaIDs = ciliaIDsPerFrame.get(t);
 					
-					//Create a list of cilia with IDs for this timepoint
-					ArrayList <Cilium> cilia = new ArrayList <Cilium>(bbParticles.get(t).size());
-					ArrayList <Integer> ciliaIDs = new ArrayList <Integer>(bbParticles.get(t).size());
-					
-					for(int tc = 0; tc < timelapseCilia.size(); tc++) {
-						for(int cil = 0; cil < timelapseCilia.get(tc).cilia.size(); cil++) {
-							if(timelapseCilia.get(tc).cilia.get(cil).t == t) {
-								cilia.add(timelapseCilia.get(tc).cilia.get(cil));
-								ciliaIDs.add(tc);
-							}
-						}
+					//Link the basal bodies to the basal bodies of previous frames
+					int [] bbTracks = bbTracker.addFrame(t, bbParticles.get(t));
+					if(timelapseCiliumOfBBTrack.length < bbTracker.getNumberOfTracks()) {
+						int oldLength = timelapseCiliumOfBBTrack.length;
+						int newLength = Math.max(bbTracker.getNumberOfTracks(), 2 * oldLength);
+						timelapseCiliumOfBBTrack = Arrays.copyOf(timelapseCiliumOfBBTrack, newLength);
+						bbOnlyTimelapseCiliumOfBBTrack = Arrays.copyOf(bbOnlyTimelapseCiliumOfBBTrack, newLength);
+						Arrays.fill(timelapseCiliumOfBBTrack, oldLength, newLength, -1);
+						Arrays.fill(bbOnlyTimelapseCiliumOfBBTrack, oldLength, newLength, -1);
 					}
 					
-					//Assign cilia and basal bodies next:			
-					double minDist, dist;
-					double sklPoints [][];
-					
-					double matrixDist [][] = new double [cilia.size()][bbParticles.get(t).size()];
-					double matrixDistSquared [][] = new double [cilia.size()][bbParticles.get(t).size()];
-					Cilium theCilium;
-
 					if(showGUIs) {
 						progress.updateBarText("assigning basal bodies to cilia (t "
 								+ t + ")... compute distances");
 					}
+					double matrixDist [][] = CiliumDistanceMatrix.compute(cilia, bbParticles.get(t), nrOfThreads);
 					
-					for(int bb = 0; bb < bbParticles.get(t).size(); bb++){
-						for(int cil = 0; cil < cilia.size(); cil++){
-							theCilium = cilia.get(cil);
-							if(theCilium.sklAvailable) {
-								minDist = Double.POSITIVE_INFINITY;
-								sklPoints = theCilium.getSkeletonPointsForOriginalImage();
-								for(int skl = 0; skl < sklPoints.length; skl++) {
-									dist = getDistance(bbParticles.get(t).get(bb).x * theCilium.calibration,
-											bbParticles.get(t).get(bb).y * theCilium.calibration,
-											bbParticles.get(t).get(bb).z * theCilium.voxelDepth,
-											sklPoints[skl][0],
-											sklPoints[skl][1],
-											sklPoints[skl][2]);
-									if(dist < minDist) {
-										minDist = dist;
-									}
-								}
-								matrixDist [cil][bb] =  minDist;
-							}else {
-								matrixDist [cil][bb] =  getDistance(bbParticles.get(t).get(bb).x * theCilium.calibration,
-										bbParticles.get(t).get(bb).y * theCilium.calibration,
-										bbParticles.get(t).get(bb).z * theCilium.voxelDepth,
-										theCilium.xC,
-										theCilium.yC,
-										theCilium.zC);
+					//Keep the assignments of the previous frames for continued basal body tracks
+					int [] bbForCilium = new int [cilia.size()];
+					Arrays.fill(bbForCilium, -1);
+					boolean bbUsed [] = new boolean [bbParticles.get(t).size()];
+					Arrays.fill(bbUsed,false);
+					{
+						HashMap<Integer,Integer> ciliumOfTimelapseCilium = new HashMap<Integer,Integer>(2 * cilia.size());
+						for(int cil = 0; cil < cilia.size(); cil++) {
+							ciliumOfTimelapseCilium.put(ciliaIDs.get(cil), cil);
+						}
+						for(int bb = 0; bb < bbParticles.get(t).size(); bb++) {
+							int tc = timelapseCiliumOfBBTrack [bbTracks [bb]];
+							if(tc < 0 || !ciliumOfTimelapseCilium.containsKey(tc)) {
+								continue;
 							}
-							
-							// If out of range reset to border to out of range to let out of range connections not matter
-							matrixDistSquared [cil][bb] = matrixDist [cil][bb];
-							if(matrixDistSquared [cil][bb] > maxDistanceBBCiliumEnd) {
-								matrixDistSquared [cil][bb] = maxDistanceBBCiliumEnd;
+							int cil = ciliumOfTimelapseCilium.get(tc);
+							if(bbForCilium [cil] == -1 && matrixDist [cil][bb] <= maxDistanceBBCiliumEnd) {
+								bbForCilium [cil] = bb;
+								bbUsed [bb] = true;
 							}
-							
-							// Square the distance to push for closer connection
-							matrixDistSquared [cil][bb] = matrixDist [cil][bb] * matrixDist [cil][bb]; 
 						}
 					}
 					
-					//Applying HungarianAlgorithm = linear_sum_assignment in python to get best solution
-					if(showGUIs) {
-						progress.updateBarText("assigning basal bodies to cilia... assigning by minimizing linear sum");
+					//Assign the remaining cilia and basal bodies next:
+					ArrayList <Integer> remainingCiliaIndices = new ArrayList <Integer>(cilia.size());
+					for(int cil = 0; cil < cilia.size(); cil++) {
+						if(bbForCilium [cil] == -1) {
+							remainingCiliaIndices.add(cil);
+						}
+					}
+					ArrayList <Integer> remainingBBIndices = new ArrayList <Integer>(bbParticles.get(t).size());
+					for(int bb = 0; bb < bbParticles.get(t).size(); bb++) {
+						if(!bbUsed [bb]) {
+							remainingBBIndices.add(bb);
+						}
+					}
+					if(remainingCiliaIndices.size() > 0 && remainingBBIndices.size() > 0) {
+						double remainingDist [][] = new double [remainingCiliaIndices.size()][remainingBBIndices.size()];
+						for(int i = 0; i < remainingCiliaIndices.size(); i++) {
+							for(int j = 0; j < remainingBBIndices.size(); j++) {
+								remainingDist [i][j] = matrixDist [remainingCiliaIndices.get(i)][remainingBBIndices.get(j)];
+							}
+						}
+						
+						//Applying HungarianAlgorithm = linear_sum_assignment in python to get best solution
+						if(showGUIs) {
+							progress.updateBarText("assigning basal bodies to cilia... assigning by minimizing linear sum");
+						}
+						int [] bbForRemainingCilium = getBBCiliaAssignment(remainingDist);
+						for(int i = 0; i < remainingCiliaIndices.size(); i++) {
+							if(bbForRemainingCilium [i] > -1 && remainingDist [i][bbForRemainingCilium [i]] <= maxDistanceBBCiliumEnd) {
+								bbForCilium [remainingCiliaIndices.get(i)] = remainingBBIndices.get(bbForRemainingCilium [i]);
+								bbUsed [remainingBBIndices.get(bbForRemainingCilium [i])] = true;
+							}
+						}
+					}
+					
+					//Remember the assignment of each basal body track for the next frames
+					for(int bb = 0; bb < bbParticles.get(t).size(); bb++) {
+						timelapseCiliumOfBBTrack [bbTracks [bb]] = -1;
+					}
+					for(int cil = 0; cil < cilia.size(); cil++){
+						if(bbForCilium[cil] > -1) {
+							timelapseCiliumOfBBTrack [bbTracks [bbForCilium[cil]]] = ciliaIDs.get(cil);
+						}
 					}
-					int [] bbForCilium = new HungarianAlgorithm(matrixDistSquared).execute();
 					
 					//Now assign BBs to cilia
 					int nrOfCiliaWithoutBBs = 0;
-					boolean bbUsed [] = new boolean [bbParticles.get(t).size()];
-					Arrays.fill(bbUsed,false);
 					for(int cil = 0; cil < cilia.size(); cil++){
 						if(showGUIs) {
 							progress.updateBarText("assigning basal bodies to cilia... adding basal body to cilium " + (cil+1) + " of " + cilia.size() + "!");
 						}
-						if(bbForCilium[cil] > -1 && matrixDist[cil][bbForCilium[cil]] <= maxDistanceBBCiliumEnd) {
+						if(bbForCilium[cil] > -1) {
 							cilia.get(cil).addBasalBody(bbParticles.get(t).get(bbForCilium[cil]), imp, measureC2local, channelC2, measureC3local, channelC3,
 									channelReconstruction, progress, showGUIs);
 							//TODO check whether this works or we need to edit the object in the timelapse cilium
-							bbUsed[bbForCilium[cil]] = true;
 						}else {
 							nrOfCiliaWithoutBBs ++;
 						}
 					}
 
-					int nrOfBBsWithoutCilia = (bbParticles.get(t).size()-cilia.size()-nrOfCiliaWithoutBBs);			
+					int nrOfBBsWithoutCilia = (bbParticles.get(t).size()-(cilia.size()-nrOfCiliaWithoutBBs));			
 					
 					{// Delete in brackets if works TODO
 						IJ.log("FINAL STATS OF ASSIGNMENTS: " + nrOfCiliaWithoutBBs + " cilia without BB, " 
@@ -4117,11 +2592,15 @@ private void analyzeCiliaIn4DAndSaveResults(ImagePlus imp, boolean measureC2loca
 								if(bbUsed[bb]) {
 									continue;
 								}
-								// ADD the BB without cilium into a cilium and then timelapsecilium object
-								// (May require later linkage)
-								timelapseCilia.add(new TimelapseCilium(new Cilium(bbParticles.get(t).get(bb), imp, measureC2local, channelC2, measureC3local, channelC3, measureBasalLocal, basalStainC, 
-										channelReconstruction, gXY, gZ, intensityThresholds, progress, skeletonize, showGUIs),
-										imp, progress, showGUIs));
+								// ADD the BB without cilium into a cilium and then into the timelapsecilium object of its basal body track
+								Cilium bbOnlyCilium = new Cilium(bbParticles.get(t).get(bb), t, imp, measureC2local, channelC2, measureC3local, channelC3, measureBasalLocal, basalStainC, 
+										channelReconstruction, gXY, gZ, intensityThresholds, progress, skeletonize, showGUIs);
+								if(bbOnlyTimelapseCiliumOfBBTrack [bbTracks [bb]] >= 0) {
+									timelapseCilia.get(bbOnlyTimelapseCiliumOfBBTrack [bbTracks [bb]]).addBBOnlyCilium(bbOnlyCilium);
+								}else {
+									bbOnlyTimelapseCiliumOfBBTrack [bbTracks [bb]] = timelapseCilia.size();
+									timelapseCilia.add(new TimelapseCilium(bbOnlyCilium, imp, progress, showGUIs));
+								}
 							}
 						}
 						
@@ -4141,8 +2620,6 @@ private void analyzeCiliaIn4DAndSaveResults(ImagePlus imp, boolean measureC2loca
 			}
 		}
 		
-		// TODO: Evtl track based on BBs or add improved tracking based on linear assignment
-		
 		// Compute timelapse parameters
 		for(int i = 0; i < timelapseCilia.size(); i++){
 			timelapseCilia.get(i).computeBBParameters();
@@ -4187,24 +2664,24 @@ private void analyzeCiliaIn4DAndSaveResults(ImagePlus imp, boolean measureC2loca
 				touchesXY = false; touchesZ = false;
 				Arrays.fill(sliceCounter, 0);
 				for(int k = 0; k < timelapseCilia.get(i).cilia.size(); k++){
-					for(int j = 0; j < timelapseCilia.get(i).cilia.get(k).points.length; j++){
-						if(timelapseCilia.get(i).cilia.get(k).points [j][0] == 0.0 
-								|| (int)Math.round(timelapseCilia.get(i).cilia.get(k).points [j][0] / imp.getCalibration().pixelWidth) == imp.getWidth()-1){
+					for(int j = 0; j < timelapseCilia.get(i).cilia.get(k).points.size(); j++){
+						if(timelapseCilia.get(i).cilia.get(k).points.getX(j) == 0 
+								|| timelapseCilia.get(i).cilia.get(k).points.getX(j) == imp.getWidth()-1){
 							touchesXY = true;
 							break;
 						}
-						if(timelapseCilia.get(i).cilia.get(k).points [j][1] == 0.0 
-								|| (int)Math.round(timelapseCilia.get(i).cilia.get(k).points [j][1] / imp.getCalibration().pixelHeight) == imp.getHeight()-1){
+						if(timelapseCilia.get(i).cilia.get(k).points.getY(j) == 0 
+								|| timelapseCilia.get(i).cilia.get(k).points.getY(j) == imp.getHeight()-1){
 							touchesXY = true;
 							break;
 						}
 						if(tempExcludeSelection.equals(excludeOptions[2])
-								&& (timelapseCilia.get(i).cilia.get(k).points [j][2] == 0 
-								|| (int)Math.round(timelapseCilia.get(i).cilia.get(k).points [j][2] / imp.getCalibration().pixelDepth) == imp.getNSlices()-1)){
+								&& (timelapseCilia.get(i).cilia.get(k).points.getZ(j) == 0 
+								|| timelapseCilia.get(i).cilia.get(k).points.getZ(j) == imp.getNSlices()-1)){
 							touchesZ = true;
 							break;
 						}						
-						sliceCounter [(int)Math.round(timelapseCilia.get(i).cilia.get(k).points [j][2] / imp.getCalibration().pixelDepth)]++;
+						sliceCounter [timelapseCilia.get(i).cilia.get(k).points.getZ(j)]++;
 					}
 				}
 								
@@ -4284,8 +2761,14 @@ private void analyzeCiliaIn4DAndSaveResults(ImagePlus imp, boolean measureC2loca
 	OutputTextFile tw1 = new OutputTextFile ("");
 	OutputTextFile tw2 = new OutputTextFile ("");
 	
+	ArrayList<Cilium> frameCilia = new ArrayList<Cilium>();
+	for(int i = 0; i < timelapseCilia.size(); i++){
+		if(timelapseCilia.get(i).cilia != null){
+			frameCilia.addAll(timelapseCilia.get(i).cilia);
+		}
+	}
 	addSettingsBlockToPanel(tw1, currentDate, startDate, name, imp, 
-			measureC2local, measureC3local, measureBasalLocal, intensityThresholds, excludedCilia, timelapseCilia.size(),0,0); //TODO Detect and save excluded BBs
+			measureC2local, measureC3local, measureBasalLocal, intensityThresholds, excludedCilia, timelapseCilia.size(),0,0, frameCilia); //TODO Detect and save excluded BBs
 	
 	tw1.append("Averaged results of the time-course analysis:");				
 	String appendTxt = "	";	
@@ -4540,7 +3023,7 @@ public void saveIndividualCiliumKinetics(TimelapseCilium cilium, String ciliumID
 	OutputTextFile tw2 = new OutputTextFile ("");
 	
 	addSettingsBlockToPanel(tw1, currentDate, startDate, name, imp, 
-			measureC2local, measureC3local, measureBasalLocal, intensityThresholds, excludedCilia, totalCilia,excludedBBs,totalBBs);
+			measureC2local, measureC3local, measureBasalLocal, intensityThresholds, excludedCilia, totalCilia,excludedBBs,totalBBs, cilium.cilia);
 	
 	tw1.append("Results for Cilium " + ciliumID + ":");				
 	String appendTxt = "		ID";	
@@ -4933,9 +3416,9 @@ private void saveSkeletonOverviewImagesTimelapse(String savePath, ImagePlus imp,
 	
 	impOut.setDisplayMode(IJ.COMPOSITE);
 	impOut.setC(1);	
-	IJ.run(impOut, "Red", "");			
+	tools.setChannelLut(impOut, Color.red);			
 	impOut.setC(2);	
-	IJ.run(impOut, "Cyan", "");	
+	tools.setChannelLut(impOut, Color.cyan);	
 	
 	impOut.setOverlay(imp.getOverlay());
 	impOut.setCalibration(imp.getCalibration());
@@ -5112,9 +3595,9 @@ private void saveSkeletonOverviewImageNonTimeLapse(String savePath, ImagePlus im
 	
 	impOut.setDisplayMode(IJ.COMPOSITE);
 	impOut.setC(1);	
-	IJ.run(impOut, "Red", "");			
+	tools.setChannelLut(impOut, Color.red);			
 	impOut.setC(2);	
-	IJ.run(impOut, "Cyan", "");	
+	tools.setChannelLut(impOut, Color.cyan);	
 	
 //	impOut.show();
 //	new WaitForUserDialog("impOut").show();
@@ -5488,14 +3971,16 @@ private static ImagePlus getTimePointFor3D(ImagePlus imp, int t){
 	int iMax = (int)Math.round(Math.pow(2.0,impOut.getBitDepth())-1.0);
 	impOut.setCalibration(imp.getCalibration());
 	impOut.setOverlay(imp.getOverlay());
+	ChannelView view;
+	Object outPixels;
+	int nPixels = imp.getWidth()*imp.getHeight();
 	for(int c = 0; c < imp.getNChannels(); c++){
+		view = new ChannelView(imp, c+1, t);
 		for(int s = 0; s < imp.getNSlices(); s++){
-			for(int x = 0; x < imp.getWidth(); x++){
-				for(int y = 0; y < imp.getHeight(); y++){
-					if(imp.getStack().getVoxel(x, y, imp.getStackIndex(c+1, s+1, t)-1)>0.0){
-//						impOut.getStack().setVoxel(x+5, y+5, impOut.getStackIndex(c+1,s+2,1)-1, iMax);
-						impOut.getStack().setVoxel(x, y, impOut.getStackIndex(c+1,s+2,1)-1, iMax);
-					}						
+			outPixels = impOut.getStack().getPixels(impOut.getStackIndex(c+1,s+2,1));
+			for(int i = 0; i < nPixels; i++){
+				if(view.isForeground(i, s, 0)){
+					ChannelView.setValue(outPixels, i, iMax);
 				}
 			}
 		}
@@ -5617,6 +4102,9 @@ private static double [] getColocalizedLengthsOfProfile(double [] intensityProfi
 			gd.setInsets(-23,165,0);gd.addNumericField("", basalStainC, 0);	
 			gd.setInsets(5,0,0);	gd.addNumericField("minimum cilium size [voxel]: ", minSize, 0);
 			gd.setInsets(0,0,0);	gd.addCheckbox("Increase range for connecting cilia", increaseRangeCilia);
+			gd.setInsets(0,0,0);	gd.addCheckbox("Timelapse: track cilia frame to frame (instead of connecting them in 4D)", trackCilia);
+			gd.setInsets(0,0,0);	gd.addNumericField("tracking (cilia and basal bodies): max linking distance [calibration unit] and max gap [frames]: ", maxLinkingDistance, 2);
+			gd.setInsets(-23,55,0);	gd.addNumericField("", maxGapFrames, 0);
 			gd.setInsets(0,0,0);	gd.addChoice("additionally exclude...", excludeOptions, excludeSelection);
 			gd.setInsets(0,0,0);	gd.addNumericField("minimum size of intensity regions (for A and B) [voxel]: ", minRestSize, 0);
 			gd.setInsets(0,0,0);	gd.addCheckbox("Increase range for connecting intensity regions", increaseRangeRegions);	
@@ -5624,6 +4112,7 @@ private static double [] getColocalizedLengthsOfProfile(double [] intensityProfi
 			gd.setInsets(10,0,0);	gd.addCheckbox("Determine skeleton-based results (e.g. length)", skeletonize);
 			gd.setInsets(0,0,0);	gd.addNumericField("before skeletonization: gauss filter XY and Z sigma: ", gXY, 2);
 			gd.setInsets(-23,55,0);	gd.addNumericField("", gZ, 2);
+			gd.setInsets(0,0,0);	gd.addCheckbox("Adaptive upscaling before skeletonization (faster for large cilia)", adaptiveUpscaling);
 			gd.setInsets(0,0,0);	gd.addNumericField("Reference distance for tangents and curvature [calibration unit (e.g. µm)]: ", refDistance, 2);
 			
 			
@@ -5653,6 +4142,9 @@ private static double [] getColocalizedLengthsOfProfile(double [] intensityProfi
 			
 			minSize = (int) gd.getNextNumber();
 			increaseRangeCilia = gd.getNextBoolean();
+			trackCilia = gd.getNextBoolean();
+			maxLinkingDistance = gd.getNextNumber();
+			maxGapFrames = (int) gd.getNextNumber();
 			excludeSelection = gd.getNextChoice();
 			minRestSize = (int) gd.getNextNumber();
 			increaseRangeRegions = gd.getNextBoolean();
@@ -5660,10 +4152,12 @@ private static double [] getColocalizedLengthsOfProfile(double [] intensityProfi
 			skeletonize = gd.getNextBoolean();
 			gXY = (double) gd.getNextNumber();
 			gZ = (double) gd.getNextNumber();
+			adaptiveUpscaling = gd.getNextBoolean();
 			refDistance = (double) gd.getNextNumber();
 				
 			//read and process variables--------------------------------------------------
 			if (gd.wasCanceled()) return false;
+			if (!checkTrackingSettings()) return false;
 			
 		}
 		if(bbCSelection == bbCOptions[2]) {			
@@ -5685,9 +4179,8 @@ private static double [] getColocalizedLengthsOfProfile(double [] intensityProfi
 			gdB.setInsets(0,0,0);	gdB.addMessage("used to remove cilia.", InstructionsFont);
 			
 
-			gdB.setInsets(5,0,0);	gdB.addMessage("IMPORTANT: Basal body tracking is not yet implemented for time lapse images!", InstructionsFont, Color.red);
-			gdB.setInsets(0,0,0);	gdB.addMessage("If you use this method for timelapse images analysis will not be pursued.", InstructionsFont, Color.red);
-			//TODO remove warning when implemented
+			gdB.setInsets(5,0,0);	gdB.addMessage("In timelapse images, basal bodies are tracked through time with the max linking distance and", InstructionsFont);
+			gdB.setInsets(0,0,0);	gdB.addMessage("max gap set for tracking in the previous dialog.", InstructionsFont);
 	
 			gdB.setInsets(5,0,0);	gdB.addNumericField("minimum basal body object size [voxel]: ", minBBSize, 0);
 			gdB.setInsets(0,0,0);	gdB.addCheckbox("Increase range for connecting pixels to form a basal body object", increaseRangeBB);
@@ -5720,6 +4213,30 @@ private static double [] getColocalizedLengthsOfProfile(double [] intensityProfi
 		return true;
 	}
 
+	/**
+	 * Checks that the max linking distance for tracking is > 0 and the max gap is >= 0 frames (see CiliaTracker and BasalBodyTracker).
+	 * Invalid values are reset to the defaults and an error is shown.
+	 * @return false if a value was invalid
+	 */
+	private boolean checkTrackingSettings() {
+		String message = "";
+		if(!(maxLinkingDistance > 0.0)) {
+			message += "The max linking distance for tracking needs to be > 0 but was " + maxLinkingDistance
+					+ " - reset to " + DEFAULT_MAX_LINKING_DISTANCE + ". ";
+			maxLinkingDistance = DEFAULT_MAX_LINKING_DISTANCE;
+		}
+		if(maxGapFrames < 0) {
+			message += "The max gap for tracking needs to be >= 0 frames but was " + maxGapFrames
+					+ " - reset to " + DEFAULT_MAX_GAP_FRAMES + ".";
+			maxGapFrames = DEFAULT_MAX_GAP_FRAMES;
+		}
+		if(message.equals("")) {
+			return true;
+		}
+		IJ.error(message);
+		return false;
+	}
+
 	/**
 	 * Import settings from existing "...CQ.txt" file
 	 */
@@ -5734,7 +4251,14 @@ private static double [] getColocalizedLengthsOfProfile(double [] intensityProfi
 		if(settingsFile.equals(null)) {
 			return false;
 		}	
-		
+		return importSettings(settingsFile);
+	}
+	
+	/**
+	 * Import settings from a given "...CQ.txt" file
+	 * If GUIs are not shown, a missing reference distance (files from versions before v0.1.4) is not requested but left at default.
+	 */
+	boolean importSettings(File settingsFile) {
 		//read preferences
 		boolean readPrefs = false;
 		boolean readToEnd = false;
@@ -5881,6 +4405,33 @@ private static double [] getColocalizedLengthsOfProfile(double [] intensityProfi
 						
 						line = br.readLine();
 						if(line.contains("Minimum cilium size") && line.contains("Increase range for connecting cilia")){
+							if(line.contains("Timelapse tracking - max linking distance")) {
+								//From v0.2.2 on, the tracking settings may follow the cilia and basal body detection settings
+								tempString = line.substring(line.lastIndexOf("	")+1);
+								if(tempString.contains(",") && !tempString.contains("."))	tempString = tempString.replace(",", ".");
+								maxGapFrames = Integer.parseInt(tempString);
+								
+								line = line.substring(0,line.indexOf("	Timelapse tracking - max gap"));
+								tempString = line.substring(line.lastIndexOf("	")+1);
+								if(tempString.contains(",") && !tempString.contains("."))	tempString = tempString.replace(",", ".");
+								maxLinkingDistance = Double.parseDouble(tempString);
+								
+								line = line.substring(0,line.indexOf("	Timelapse tracking - max linking distance"));
+								tempString = line.substring(line.lastIndexOf("	")+1);
+								if(tempString.contains("false")) {
+									trackCilia = false;
+								}else if(tempString.contains("true")) {
+									trackCilia = true;
+								}else {
+									IJ.error("Reading problem - code rp06TR"); break reading;
+								}
+								
+								line = line.substring(0,line.indexOf("	Timelapse tracking - track cilia"));
+								checkTrackingSettings();
+								IJ.log("Timelapse tracking: track cilia = " + trackCilia + ", max linking distance = " + maxLinkingDistance + ", max gap = " + maxGapFrames);
+							}else {
+								trackCilia = false;
+							}
 							if(line.contains("Minimum basal body size") && line.contains("Increase range for connecting basal bodies")){
 								//New in v0.2.0 - reading segmented BB channels
 								tempString = line.substring(line.lastIndexOf("	")+1);
@@ -6063,6 +4614,14 @@ private static double [] getColocalizedLengthsOfProfile(double [] intensityProfi
 							if(!line.contains("Skeleton analysis - Gauss Z sigma")){
 								IJ.error("Reading problem - code rp12"); break reading;
 							}
+							if(line.contains("Skeleton analysis - adaptive upscaling")) {
+								//From v0.2.2 on, the adaptive upscaling and its statistics may follow the Gauss Z sigma
+								adaptiveUpscaling = true;
+								line = line.substring(0,line.indexOf("	Skeleton analysis - adaptive upscaling"));
+							}else {
+								adaptiveUpscaling = false;
+							}
+							IJ.log("Adaptive upscaling = " + adaptiveUpscaling);
 							tempString = line.substring(line.lastIndexOf("	")+1);
 							if(tempString.contains(",") && !tempString.contains("."))	tempString = tempString.replace(",", ".");
 							gZ = Double.parseDouble(tempString);	
@@ -6100,7 +4659,9 @@ private static double [] getColocalizedLengthsOfProfile(double [] intensityProfi
 					}
 				}
 			}
-			if(readToEnd && versionOlderThanV014 && skeletonize) {
+			if(readToEnd && versionOlderThanV014 && skeletonize && !showGUIs) {
+				IJ.log("Settings file was created with a CiliaQ version before v0.1.4 - used default reference distance for tangents and curvature: " + refDistance);
+			}else if(readToEnd && versionOlderThanV014 && skeletonize) {
 				GenericDialog gd = new GenericDialog(PLUGINNAME + " on " + System.getProperty("os.name") + " - missing detection preferences");	
 				//show Dialog-----------------------------------------------------------------
 				//.setInsets(top, left, bottom)
@@ -6148,7 +4709,10 @@ private static double [] getColocalizedLengthsOfProfile(double [] intensityProfi
 	 * */
 	private void saveSkeletonPoints(ArrayList<Cilium> cilia, String dir, String name, String path, Date date) {
 		// create file
-		OutputTextFile tp =new OutputTextFile("");
+		if(compressPointTables) {
+			path += ".gz";
+		}
+		OutputTextFile tp = new OutputTextFile(path, compressPointTables);
 		
 		// write file
 		{
@@ -6234,7 +4798,7 @@ private static double [] getColocalizedLengthsOfProfile(double [] intensityProfi
 		}
 						
 		// save file
-		if(!tp.saveAndFinish(path)) {
+		if(!tp.finish()) {
 			if(showGUIs) {
 				progress.notifyMessage("IO ERROR when saving file " + path, ProgressDialog.ERROR);
 			}else {
@@ -6250,7 +4814,10 @@ private static double [] getColocalizedLengthsOfProfile(double [] intensityProfi
 	 * */
 	private void saveTimelapseSkeletonPoints(ArrayList<TimelapseCilium> tlCilia, String dir, String name, String path, Date date) {
 		// create file
-		OutputTextFile tp =new OutputTextFile("");
+		if(compressPointTables) {
+			path += ".gz";
+		}
+		OutputTextFile tp = new OutputTextFile(path, compressPointTables);
 		
 		// write file
 		{
@@ -6341,7 +4908,7 @@ private static double [] getColocalizedLengthsOfProfile(double [] intensityProfi
 		}
 						
 		// save file
-		if(!tp.saveAndFinish(path)) {
+		if(!tp.finish()) {
 			if(showGUIs)	progress.notifyMessage("IO ERROR when saving file " + path, ProgressDialog.ERROR);
 		}
 	}
@@ -6453,6 +5020,28 @@ private static double [] getColocalizedLengthsOfProfile(double [] intensityProfi
 		return al;
 	}
 	
+	/**
+	 * Assign basal bodies to cilia by the Hungarian algorithm. The cost of linking a basal body to a cilium is the squared distance,
+	 * to push for closer connections. As before v0.2.2, the squared distances of all pairs are used and the maximum distance 
+	 * is only applied when accepting the links (the matrix is padded to a square, so as many pairs as possible are matched).
+	 * @param matrixDist: distances between cilia (rows) and basal bodies (columns), see CiliumDistanceMatrix
+	 * @return the basal body matched to each cilium, -1 if none
+	 * */
+	private static int [] getBBCiliaAssignment(double [][] matrixDist) {
+		int [] bbForCilium = new int [matrixDist.length];
+		Arrays.fill(bbForCilium, -1);
+		if(matrixDist.length == 0 || matrixDist[0].length == 0) {
+			return bbForCilium;
+		}
+		double matrixDistSquared [][] = new double [matrixDist.length][matrixDist[0].length];
+		for(int cil = 0; cil < matrixDist.length; cil++) {
+			for(int bb = 0; bb < matrixDist[0].length; bb++) {
+				matrixDistSquared [cil][bb] = matrixDist [cil][bb] * matrixDist [cil][bb];
+			}
+		}
+		return new HungarianAlgorithm(matrixDistSquared).execute();
+	}
+	
 	/**
 	 * @return 3D distance between two points with coordinates (x,y,z)
 	 * @param pX, pY, pZ (double values for x,y,z)
@@ -0,0 +1,306 @@
+package ciliaQ_jnh;
+/** ===============================================================================
+ * CiliaQ, a plugin for imagej - Version 0.2.2
+ *
+ * Copyright (C) 2017-2026 Jan Niklas Hansen
+ * First version: June 30, 2017
+ * This Version: October 17, 2026
+ *
+ * Parts of the code were inherited from MotiQ
+ * (https://github.com/hansenjn/MotiQ).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ *
+ * For any questions please feel free to contact me (jan.hansen@uni-bonn.de).
+* =============================================================================== */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Links the cilia segmented in the individual frames of a timelapse image into tracks. Frames are added one after another,
+ * so only the particles of the current frame and the last position of the active tracks need to be kept in memory.
+ * 
+ * A particle may be linked to an active track if it overlaps the last particle of the track or if the centroids are not 
+ * farther apart than the maximum linking distance. The cost of a link is ((distance / max linking distance)^2, at most 1)
+ * * (1 - overlap as intersection over union) + number of skipped frames. Links are chosen by linear assignment (see SparseAssignment),
+ * particles without a link start a new track. Tracks that have not been continued for more than the maximum gap are closed.
+ * */
+class CiliaTracker {
+	private final double maxLinkingDistance;
+	private final int maxGapFrames;
+	private final double pixelWidth, pixelHeight, voxelDepth;
+	private final long width, height;
+	private final int nrOfThreads;
+	
+	/**
+	 * the points of all tracks
+	 * */
+	private final ArrayList<ArrayList<CellPoint>> tracks = new ArrayList<ArrayList<CellPoint>>();
+	private ArrayList<ActiveTrack> activeTracks = new ArrayList<ActiveTrack>();
+	private int lastFrame = -1;
+	
+	/**
+	 * The last particle of a track that may still be continued
+	 * */
+	private static class ActiveTrack {
+		int track;
+		int frame;
+		double x, y, z;
+		/**
+		 * voxel keys of the particle, ascending
+		 * */
+		long [] voxels;
+	}
+	
+	/**
+	 * @param maxLinkingDistance: maximum distance between the centroids of linked particles that do not overlap, in calibration units
+	 * @param maxGapFrames: maximum number of frames that may be skipped by a link
+	 * @param pixelWidth, pixelHeight: image calibration
+	 * @param voxelDepth: image calibration in z
+	 * @param width, height: image dimensions in pixels
+	 * @param nrOfThreads: number of threads for the assignment
+	 * */
+	public CiliaTracker(double maxLinkingDistance, int maxGapFrames, double pixelWidth, double pixelHeight, double voxelDepth,
+			int width, int height, int nrOfThreads) {
+		if(!(maxLinkingDistance > 0.0)) {
+			throw new IllegalArgumentException("Invalid maximum linking distance " + maxLinkingDistance);
+		}
+		if(maxGapFrames < 0) {
+			throw new IllegalArgumentException("Invalid maximum gap " + maxGapFrames);
+		}
+		this.maxLinkingDistance = maxLinkingDistance;
+		this.maxGapFrames = maxGapFrames;
+		this.pixelWidth = pixelWidth;
+		this.pixelHeight = pixelHeight;
+		this.voxelDepth = voxelDepth;
+		this.width = width;
+		this.height = height;
+		this.nrOfThreads = nrOfThreads;
+	}
+	
+	/**
+	 * Link the particles of the next frame to the tracks. The point lists are added to the tracks, not copied.
+	 * @param t: the frame of the particles (0 <= t), frames must be added in ascending order
+	 * @param particles: a list of points for each particle in frame t
+	 * */
+	public void addFrame(int t, ArrayList<ArrayList<CellPoint>> particles) {
+		if(t <= lastFrame) {
+			throw new IllegalArgumentException("Frame " + t + " added after frame " + lastFrame);
+		}
+		lastFrame = t;
+		
+		//Close tracks that can no longer be continued
+		ArrayList<ActiveTrack> candidates = new ArrayList<ActiveTrack>(activeTracks.size());
+		for(int i = 0; i < activeTracks.size(); i++) {
+			if(t - activeTracks.get(i).frame - 1 <= maxGapFrames) {
+				candidates.add(activeTracks.get(i));
+			}
+		}
+		
+		ActiveTrack [] current = new ActiveTrack [particles.size()];
+		for(int p = 0; p < particles.size(); p++) {
+			current [p] = getActiveTrack(particles.get(p), t);
+		}
+		
+		int [] link = new int [particles.size()];
+		Arrays.fill(link, -1);
+		if(candidates.size() > 0 && current.length > 0) {
+			link = getLinks(current, candidates, t);
+		}
+		
+		ArrayList<ActiveTrack> continued = new ArrayList<ActiveTrack>(candidates.size() + current.length);
+		boolean [] linked = new boolean [candidates.size()];
+		for(int p = 0; p < current.length; p++) {
+			if(link [p] >= 0) {
+				current [p].track = candidates.get(link [p]).track;
+				tracks.get(current [p].track).addAll(particles.get(p));
+				linked [link [p]] = true;
+			}else {
+				current [p].track = tracks.size();
+				tracks.add(particles.get(p));
+			}
+			continued.add(current [p]);
+		}
+		for(int i = 0; i < candidates.size(); i++) {
+			if(!linked [i]) {
+				continued.add(candidates.get(i));
+			}
+		}
+		activeTracks = continued;
+	}
+	
+	/**
+	 * @return a list of points for each track, in the order in which the tracks were started
+	 * */
+	public ArrayList<ArrayList<CellPoint>> getTracks(){
+		return tracks;
+	}
+	
+	private ActiveTrack getActiveTrack(ArrayList<CellPoint> particle, int t) {
+		ActiveTrack a = new ActiveTrack();
+		a.frame = t;
+		a.voxels = new long [particle.size()];
+		double x = 0.0, y = 0.0, z = 0.0;
+		CellPoint p;
+		for(int i = 0; i < particle.size(); i++) {
+			p = particle.get(i);
+			x += p.x;
+			y += p.y;
+			z += p.z;
+			a.voxels [i] = p.x + p.y * width + p.z * width * height;
+		}
+		Arrays.sort(a.voxels);
+		if(particle.size() > 0) {
+			a.x = x / particle.size() * pixelWidth;
+			a.y = y / particle.size() * pixelHeight;
+			a.z = z / particle.size() * voxelDepth;
+		}
+		return a;
+	}
+	
+	/**
+	 * @return the candidate linked to each particle, -1 if none
+	 * */
+	private int [] getLinks(ActiveTrack [] current, final ArrayList<ActiveTrack> candidates, int t) {
+		final int nrOfCandidates = candidates.size();
+		
+		//Overlap: voxel keys of all candidates, encoded as key * nrOfCandidates + candidate and sorted
+		int nrOfVoxels = 0;
+		for(int i = 0; i < nrOfCandidates; i++) {
+			nrOfVoxels += candidates.get(i).voxels.length;
+		}
+		long [] candidateVoxels = new long [nrOfVoxels];
+		nrOfVoxels = 0;
+		for(int i = 0; i < nrOfCandidates; i++) {
+			long [] voxels = candidates.get(i).voxels;
+			for(int v = 0; v < voxels.length; v++) {
+				candidateVoxels [nrOfVoxels++] = voxels [v] * nrOfCandidates + i;
+			}
+		}
+		Arrays.sort(candidateVoxels);
+		
+		//Distance: candidates sorted by x
+		final ActiveTrack [] byX = new ActiveTrack [nrOfCandidates];
+		final int [] byXIndex = new int [nrOfCandidates];
+		final double [] xs = new double [nrOfCandidates];
+		{
+			Integer [] order = new Integer [nrOfCandidates];
+			for(int i = 0; i < nrOfCandidates; i++) {
+				order [i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return Double.compare(candidates.get(a).x, candidates.get(b).x);
+				}
+			});
+			for(int i = 0; i < nrOfCandidates; i++) {
+				byXIndex [i] = order [i];
+				byX [i] = candidates.get(order [i]);
+				xs [i] = byX [i].x;
+			}
+		}
+		
+		SparseAssignment assignment = new SparseAssignment(current.length, nrOfCandidates);
+		int [] overlap = new int [nrOfCandidates];
+		int [] touched = new int [nrOfCandidates];
+		boolean [] isCandidate = new boolean [nrOfCandidates];
+		int nrOfTouched;
+		for(int p = 0; p < current.length; p++) {
+			nrOfTouched = 0;
+			
+			//Candidates overlapping the particle
+			long [] voxels = current [p].voxels;
+			for(int v = 0; v < voxels.length; v++) {
+				int i = lowerBound(candidateVoxels, voxels [v] * nrOfCandidates);
+				for(; i < candidateVoxels.length && candidateVoxels [i] / nrOfCandidates == voxels [v]; i++) {
+					int c = (int)(candidateVoxels [i] % nrOfCandidates);
+					if(!isCandidate [c]) {
+						isCandidate [c] = true;
+						touched [nrOfTouched++] = c;
+					}
+					overlap [c]++;
+				}
+			}
+			
+			//Candidates within the maximum linking distance
+			for(int i = lowerBound(xs, current [p].x - maxLinkingDistance); i < nrOfCandidates && xs [i] <= current [p].x + maxLinkingDistance; i++) {
+				int c = byXIndex [i];
+				if(!isCandidate [c] && getDistance(current [p], byX [i]) <= maxLinkingDistance) {
+					isCandidate [c] = true;
+					touched [nrOfTouched++] = c;
+				}
+			}
+			
+			for(int k = 0; k < nrOfTouched; k++) {
+				int c = touched [k];
+				ActiveTrack a = candidates.get(c);
+				double distanceCost = Math.min(1.0, Math.pow(getDistance(current [p], a) / maxLinkingDistance, 2.0));
+				double iou = 0.0;
+				if(overlap [c] > 0) {
+					iou = overlap [c] / (double)(voxels.length + a.voxels.length - overlap [c]);
+				}
+				assignment.addEdge(p, c, distanceCost * (1.0 - iou) + (t - a.frame - 1));
+				overlap [c] = 0;
+				isCandidate [c] = false;
+			}
+		}
+		
+		/**
+		 * Leaving a particle and a track both unmatched costs the cutoff (maxGapFrames + 2). Edge costs are at most maxGapFrames + 1,
+		 * so each link saves at least 1 compared to leaving its partners unmatched, and the assignment maximizes the summed savings
+		 * (cutoff - edge cost) of its links. It thus favors linking many pairs: two links with costs a and b are preferred over a single
+		 * link with cost c that leaves the other partners unmatched whenever a + b < c + cutoff.
+		 * */
+		return assignment.execute(maxGapFrames + 2.0, nrOfThreads);
+	}
+	
+	private static double getDistance(ActiveTrack a, ActiveTrack b) {
+		return Math.sqrt(Math.pow(a.x - b.x, 2.0) + Math.pow(a.y - b.y, 2.0) + Math.pow(a.z - b.z, 2.0));
+	}
+	
+	/**
+	 * @return the first index i with values [i] >= key
+	 * */
+	private static int lowerBound(long [] values, long key) {
+		int lo = 0, hi = values.length;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(values [mid] < key) {
+				lo = mid + 1;
+			}else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+	
+	/**
+	 * @return the first index i with values [i] >= key
+	 * */
+	private static int lowerBound(double [] values, double key) {
+		int lo = 0, hi = values.length;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(values [mid] < key) {
+				lo = mid + 1;
+			}else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+}
@@ -25,6 +25,7 @@ package ciliaQ_jnh;
  * For any questions please feel free to contact me (jan.hansen@uni-bonn.de).
 * =============================================================================== */
 
+import java.awt.Color;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.util.ArrayList;
@@ -32,6 +33,11 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import ciliaQ_skeleton_analysis.AnalyzeSkeleton_;
 import ciliaQ_skeleton_analysis.Point;
@@ -52,7 +58,7 @@ class Cilium{
 		
 	double xC = 0.0, yC = 0.0, zC = 0.0; // will be calibrated, not in Px
 	int t; //0 <= t < nFrames
-	double [][] points;	// [pointID][0=x,1=y,2=z,3=intensity,4=coveredSurface, 5 = C2, 6 = C3]
+	CiliumVoxels points;	// x, y, z (px), intensity, surface, C2 and C3 intensity of each voxel
 	
 	int voxels = 0, 
 		surfaceVoxels = 0,
@@ -120,10 +126,32 @@ class Cilium{
 	double orientationVector [];
 	double bendingIndex = Double.NaN;
 	
+	//Upscaling before skeletonization (see SkeletonUpscaling)
+	int upscalingXY = SkeletonUpscaling.FIXED_FACTOR,
+		upscalingZ = SkeletonUpscaling.FIXED_FACTOR;
+	long skeletonizationTime = 0L,			// in ns, upscaling to skeleton analysis
+		referenceSkeletonizationTime = 0L;	// in ns, for the fixed factors, only if upscalingValidated
+	double upscaledLength = Double.NaN,		// largest shortest path of the skeleton before adding the basal body
+		referenceLength = Double.NaN;		// largest shortest path of the skeleton for the fixed factors, only if upscalingValidated
+	boolean upscalingValidated = false;
+	
 	public Cilium(ArrayList<CellPoint> ciliaPoints, ImagePlus imp, 
 			boolean measureC2, int channel2, boolean measureC3, int channel3, boolean measureBasalBody, int channelBasalBody,
 			int channelReconstruction, double gXY, double gZ, double intensityThresholds [], ProgressDialog progress,
 			boolean skeletonize, boolean showGUIs){
+		this(ciliaPoints, imp, measureC2, channel2, measureC3, channel3, measureBasalBody, channelBasalBody,
+				channelReconstruction, gXY, gZ, intensityThresholds, progress, skeletonize, showGUIs, 1, false);
+	}
+	
+	/**
+	 * @param skeletonThreads: number of threads used for thinning the cilium, should be 1 if several cilia are quantified concurrently
+	 * @param adaptiveUpscaling: choose the upscaling factors before skeletonization from the cilium extent (see SkeletonUpscaling), 
+	 * otherwise the cilium is upscaled 3-fold
+	 * */
+	public Cilium(ArrayList<CellPoint> ciliaPoints, ImagePlus imp, 
+			boolean measureC2, int channel2, boolean measureC3, int channel3, boolean measureBasalBody, int channelBasalBody,
+			int channelReconstruction, double gXY, double gZ, double intensityThresholds [], ProgressDialog progress,
+			boolean skeletonize, boolean showGUIs, int skeletonThreads, boolean adaptiveUpscaling){
 		ciliumAvailable = true;
 		
 		bitDepth = imp.getBitDepth();
@@ -136,14 +164,12 @@ class Cilium{
 		volume = voxels * calibration * calibration * voxelDepth;
 		sphereRadius = Math.pow((double)((volume*3.0)/(4.0*Math.PI)), (double)1/3.0);
 		
-		points = new double [voxels][7];	
-		//[pointID][0=x,1=y,2=z,3=intensity,4=surface, 5= C2 intensity, 6 = C3 intensity]
+		points = new CiliumVoxels(ciliaPoints, measureC2, measureC3);
 		
 		{
 			CellPoint p;
+			double value;
 			for(int i = 0; i < voxels; i++){
-				Arrays.fill(points [i], 0.0);
-				
 				p = ciliaPoints.get(i);
 				if(i==0){
 					t = p.t;
@@ -156,56 +182,55 @@ class Cilium{
 						}
 					}
 				}
-				points [i][0] = p.x * calibration;
-				xC += points [i][0];
+				xC += p.x * calibration;
 				if(p.x < xMin) xMin = p.x;
 				if(p.x > xMax) xMax = p.x;
 				
-				points [i][1] = p.y * calibration;
-				yC += points [i][1];
+				yC += p.y * calibration;
 				if(p.y < yMin) yMin = p.y;
 				if(p.y > yMax) yMax = p.y;
 				
-				points [i][2] = p.z * voxelDepth;
-				zC += points [i][2];
+				zC += p.z * voxelDepth;
 				if(p.z < zMin) zMin = p.z;
 				if(p.z > zMax) zMax = p.z;
 				
-				points [i][3] = p.intensity;				
-				if(points [i][3] > maxCiliumIntensity) maxCiliumIntensity = points [i][3];
-				if(points [i][3] < minCiliumIntensity) minCiliumIntensity = points [i][3];			
-				averageCiliumIntensity += points [i][3];
+				value = points.getIntensity(i);				
+				if(value > maxCiliumIntensity) maxCiliumIntensity = value;
+				if(value < minCiliumIntensity) minCiliumIntensity = value;			
+				averageCiliumIntensity += value;
 				
 				if(measureC2){
-					points [i][5] = imp.getStack().getVoxel(p.x, p.y, imp.getStackIndex(channel2, (p.z)+1, (p.t)+1)-1);
-					if(points [i][5] > maxC2Intensity) maxC2Intensity = points [i][5];
-					if(points [i][5] < minC2Intensity) minC2Intensity = points [i][5];
-					averageC2Intensity += points [i][5];
-					if(points [i][5] != 0.0){
+					value = imp.getStack().getVoxel(p.x, p.y, imp.getStackIndex(channel2, (p.z)+1, (p.t)+1)-1);
+					points.setIntensityC2(i, value);
+					if(value > maxC2Intensity) maxC2Intensity = value;
+					if(value < minC2Intensity) minC2Intensity = value;
+					averageC2Intensity += value;
+					if(value != 0.0){
 						colocalizedVolumeC2 += calibration * calibration * voxelDepth;
-						if(points [i][5] > intensityThresholds[channel2-1]){
+						if(value > intensityThresholds[channel2-1]){
 							colocalizedCompToBGVolumeC2 += calibration * calibration * voxelDepth;
 						}
 					}					
 				}
 				
 				if(measureC3){
-					points [i][6] = imp.getStack().getVoxel(p.x, p.y, imp.getStackIndex(channel3, (p.z)+1, (p.t)+1)-1);
-					if(points [i][6] > maxC3Intensity) maxC3Intensity = points [i][6];
-					if(points [i][6] < minC3Intensity) minC3Intensity = points [i][6];
-					averageC3Intensity += points [i][6];
-					if(points [i][6] != 0.0){
+					value = imp.getStack().getVoxel(p.x, p.y, imp.getStackIndex(channel3, (p.z)+1, (p.t)+1)-1);
+					points.setIntensityC3(i, value);
+					if(value > maxC3Intensity) maxC3Intensity = value;
+					if(value < minC3Intensity) minC3Intensity = value;
+					averageC3Intensity += value;
+					if(value != 0.0){
 						colocalizedVolumeC3 += calibration * calibration * voxelDepth;
-						if(points [i][6] > intensityThresholds[channel3-1]){
+						if(value > intensityThresholds[channel3-1]){
 							colocalizedCompToBGVolumeC3 += calibration * calibration * voxelDepth;
 						}
 					}					
 				}
 								
-				points [i][4] = p.getSurface(calibration, voxelDepth);
-				if(points [i][4] > 0.0){
+				value = points.getSurface(i, calibration, voxelDepth);
+				if(value > 0.0){
 					surfaceVoxels++;
-					surface += points [i][4];
+					surface += value;
 				}
 			}
 		}
@@ -233,12 +258,12 @@ class Cilium{
 		}	
 		
 		for(int i = 0; i < voxels; i++){
-			SDCiliumIntensity += Math.pow(points [i][3] - averageCiliumIntensity, 2.0);			
+			SDCiliumIntensity += Math.pow(points.getIntensity(i) - averageCiliumIntensity, 2.0);			
 			if(measureC2){
-				SDC2Intensity += Math.pow(points [i][5] - averageC2Intensity, 2.0);
+				SDC2Intensity += Math.pow(points.getIntensityC2(i) - averageC2Intensity, 2.0);
 			}
 			if(measureC3){
-				SDC3Intensity += Math.pow(points [i][6] - averageC3Intensity, 2.0);
+				SDC3Intensity += Math.pow(points.getIntensityC3(i) - averageC3Intensity, 2.0);
 			}
 		}
 		SDCiliumIntensity /= voxels-1.0;
@@ -258,13 +283,93 @@ class Cilium{
 		Arrays.fill(orientationVector, Double.NaN);
 		if(skeletonize){
 			this.reconstructSkeleton(gXY, gZ, measureBasalBody, channelBasalBody, imp, 
-					measureC2, channel2, measureC3, channel3, channelReconstruction, progress, showGUIs);
+					measureC2, channel2, measureC3, channel3, channelReconstruction, progress, showGUIs, skeletonThreads, adaptiveUpscaling);
 		}
 		
 		//determine maxTenPercent Data
 		this.determineMaxTenPercentIntensityValues(measureC2, measureC3);
 	}
 	
+	/**
+	 * Creates the Cilium objects for several particles, particles are quantified concurrently with up to nrOfThreads threads.
+	 * Each Cilium only reads from imp and creates its own particle image for skeletonization, so particles are independent.
+	 * If only a single particle is quantified, its skeleton is computed with nrOfThreads threads instead.
+	 * @param particles: the points of each particle, empty particles are skipped
+	 * @param reportToBar: if true (and showGUIs), the progress bar of the ProgressDialog is advanced for each particle
+	 * @return array with the Cilium object of each particle, null for empty particles
+	 * */
+	static Cilium [] quantifyAll(ArrayList<ArrayList<CellPoint>> particles, final ImagePlus imp,
+			final boolean measureC2, final int channel2, final boolean measureC3, final int channel3, final boolean measureBasalBody, final int channelBasalBody,
+			final int channelReconstruction, final double gXY, final double gZ, final double intensityThresholds [], final ProgressDialog progress,
+			final boolean skeletonize, final boolean showGUIs, int nrOfThreads, final boolean adaptiveUpscaling, boolean reportToBar){
+		Cilium [] quantified = new Cilium [particles.size()];
+		int nonEmpty = 0;
+		for(int i = 0; i < particles.size(); i++){
+			if(particles.get(i).size()!=0){
+				nonEmpty++;
+			}
+		}
+		reportToBar = reportToBar && showGUIs;
+		
+		if(nrOfThreads <= 1 || nonEmpty <= 1){
+			for(int i = 0; i < particles.size(); i++){
+				if(particles.get(i).size()==0){
+					continue;
+				}
+				if(reportToBar)	progress.updateBarText("Quantifying cilia objects (" + i + "/" + particles.size() + " done)");
+				quantified [i] = new Cilium(particles.get(i), imp, measureC2, channel2, measureC3, channel3, measureBasalBody, channelBasalBody,
+						channelReconstruction, gXY, gZ, intensityThresholds, progress, skeletonize, showGUIs, nrOfThreads, adaptiveUpscaling);
+				if(reportToBar) {
+					progress.addToBar(0.1/(i+1));
+					progress.updateBarText("reconstructing cilia... (" + (i+1) + "/" + particles.size() + ")");
+				}
+			}
+			return quantified;
+		}
+		
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(nrOfThreads, nonEmpty));
+		try{
+			ArrayList<Future<Cilium>> tasks = new ArrayList<Future<Cilium>>(particles.size());
+			for(int i = 0; i < particles.size(); i++){
+				if(particles.get(i).size()==0){
+					tasks.add(null);
+					continue;
+				}
+				final ArrayList<CellPoint> particlePoints = particles.get(i);
+				tasks.add(pool.submit(new Callable<Cilium>(){
+					@Override
+					public Cilium call() {
+						return new Cilium(particlePoints, imp, measureC2, channel2, measureC3, channel3, measureBasalBody, channelBasalBody,
+								channelReconstruction, gXY, gZ, intensityThresholds, progress, skeletonize, showGUIs, 1, adaptiveUpscaling);
+					}
+				}));
+			}
+			
+			//Collect results in the order of the particles
+			for(int i = 0; i < tasks.size(); i++){
+				if(tasks.get(i) == null){
+					continue;
+				}
+				if(reportToBar)	progress.updateBarText("Quantifying cilia objects (" + i + "/" + particles.size() + " done)");
+				try{
+					quantified [i] = tasks.get(i).get();
+				}catch(ExecutionException e){
+					throw new RuntimeException("Quantifying particle " + (i+1) + " failed.", e.getCause());
+				}
+				if(reportToBar) {
+					progress.addToBar(0.1/(i+1));
+					progress.updateBarText("reconstructing cilia... (" + (i+1) + "/" + particles.size() + ")");
+				}
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Quantifying particles was interrupted.", e);
+		}finally{
+			pool.shutdownNow();
+		}
+		return quantified;
+	}
+	
 	/**
 	 * Create a Cilium object that has only a basal body and no cilium
 	 * Implemented from Version v0.2.0 on
@@ -288,7 +393,23 @@ class Cilium{
 			boolean measureC2, int channel2, boolean measureC3, int channel3, boolean measureBasalBody, int channelBasalBody,
 			int channelReconstruction, double gXY, double gZ, double intensityThresholds [], ProgressDialog progress,
 			boolean skeletonize, boolean showGUIs){
+		this(basalBodyWithoutCilium, 0, imp, measureC2, channel2, measureC3, channel3, measureBasalBody, channelBasalBody,
+				channelReconstruction, gXY, gZ, intensityThresholds, progress, skeletonize, showGUIs);
+	}
+	
+	/**
+	 * Create a Cilium object that has only a basal body and no cilium, in a given frame of a timelapse image
+	 * New in v0.2.2
+	 * @param basalBodyWithoutCilium: The basal body to be added without cilium
+	 * @param frame: the frame of the basal body (0 <= frame < nFrames), intensities are measured in this frame
+	 * For all other parameters see Cilium(Uncalibrated3DPoint, ImagePlus, ...)
+	 */
+	public Cilium(Uncalibrated3DPoint basalBodyWithoutCilium, int frame, ImagePlus imp, 
+			boolean measureC2, int channel2, boolean measureC3, int channel3, boolean measureBasalBody, int channelBasalBody,
+			int channelReconstruction, double gXY, double gZ, double intensityThresholds [], ProgressDialog progress,
+			boolean skeletonize, boolean showGUIs){
 		
+		t = frame;
 		bitDepth = imp.getBitDepth();
 		cal = imp.getCalibration().copy();
 		
@@ -315,7 +436,72 @@ class Cilium{
 	 * */
 	private void reconstructSkeleton(double gXY, double gZ, boolean measureBasalBody, int basalBodyC, ImagePlus imp, 
 			boolean measureC2, int channel2, boolean measureC3, int channel3, int channelReconstruction,
-			ProgressDialog progress, boolean showGUIs){
+			ProgressDialog progress, boolean showGUIs, int skeletonThreads, boolean adaptiveUpscaling){
+		int fixedFactorZ = SkeletonUpscaling.FIXED_FACTOR;
+		if(zMax - zMin == 0) {
+			fixedFactorZ = 1;
+		}
+		upscalingXY = SkeletonUpscaling.FIXED_FACTOR;
+		upscalingZ = fixedFactorZ;
+		if(adaptiveUpscaling) {
+			upscalingXY = SkeletonUpscaling.getFactorXY(this);
+			upscalingZ = SkeletonUpscaling.getFactorZ(this, upscalingXY);
+			upscalingValidated = SkeletonUpscaling.isValidated(this);
+		}
+		
+		if(upscalingValidated && (upscalingXY != SkeletonUpscaling.FIXED_FACTOR || upscalingZ != fixedFactorZ)) {
+			//Skeletonize with the fixed factors for comparison
+			long startTime = System.nanoTime();
+			ImagePlus referenceImp = createSkeletonImage(gXY, gZ, SkeletonUpscaling.FIXED_FACTOR, fixedFactorZ, skeletonThreads);
+			AnalyzeSkeleton_ referenceSkel = new AnalyzeSkeleton_();
+			AnalyzeSkeleton_.calculateShortestPath = true;
+			referenceSkel.setup("", referenceImp);
+			SkeletonResult referenceRes = referenceSkel.run(AnalyzeSkeleton_.NONE, false, true, null, true, false);
+			referenceSkeletonizationTime = System.nanoTime() - startTime;
+			if(referenceRes.getNumOfTrees() == 1) {
+				referenceLength = referenceRes.getShortestPathList().get(0);
+			}
+			referenceImp.changes = false;
+			referenceImp.close();
+		}
+		
+		long startTime = System.nanoTime();
+		ImagePlus particleImp = createSkeletonImage(gXY, gZ, upscalingXY, upscalingZ, skeletonThreads);
+		
+		AnalyzeSkeleton_ skel = new AnalyzeSkeleton_();
+		AnalyzeSkeleton_.calculateShortestPath = true;
+		skel.setup("", particleImp);
+		
+		//Hints for programming: run(int pruneIndex, boolean pruneEnds, boolean shortPath, ImagePlus origIP, boolean silent, boolean verbose)
+		SkeletonResult sklRes = skel.run(AnalyzeSkeleton_.NONE, false, true, null, true, false);
+		skeletonizationTime = System.nanoTime() - startTime;
+		foundSkl = sklRes.getNumOfTrees();
+		if(foundSkl == 1){
+			upscaledLength = sklRes.getShortestPathList().get(0);
+			ArrayList<ciliaQ_skeleton_analysis.Point>[] shortestPath = skel.getShortestPathPoints();	//Skl Points are integers
+			
+			//From v0.1.6 on, for simplicity, this command gives the coordinates matching to the original image
+			sklPointList = getSortedList(shortestPath, sklRes, measureBasalBody, basalBodyC, imp, progress, particleImp, gXY, gZ);
+		}
+		if(upscalingValidated && upscalingXY == SkeletonUpscaling.FIXED_FACTOR && upscalingZ == fixedFactorZ) {
+			referenceSkeletonizationTime = skeletonizationTime;
+			referenceLength = upscaledLength;
+		}
+		
+		determineSkeletonParameters(imp, measureC2, channel2, measureC3, channel3, channelReconstruction, sklRes);
+		
+		particleImp.changes = false;
+		particleImp.close();
+	}
+	
+	/**
+	 * Creates a binary image of the cilium, upscales and blurs it, and skeletonizes it
+	 * @param factorXY: upscaling factor in x and y
+	 * @param factorZ: upscaling factor in z (ignored if the cilium is located in a single slice)
+	 * @param skeletonThreads: number of threads used for thinning
+	 * @return the skeletonized image
+	 * */
+	private ImagePlus createSkeletonImage(double gXY, double gZ, int factorXY, int factorZ, int skeletonThreads){
 		int width = xMax - xMin + 1 + 4 + (int) Math.round(gXY*5.0),
 			height = yMax - yMin + 1 + 4 + (int) Math.round(gXY*5.0),
 			slices = zMax - zMin + 1 + 2 + (int) Math.round(gZ*5.0);
@@ -328,8 +514,8 @@ class Cilium{
 			particleImp = IJ.createImage("Particle image", "8-bit", width, height, 1, 1, 1);
 			particleImp.setCalibration(cal);
 			for(int i = 0; i < voxels; i++){
-				particleImp.getStack().setVoxel((int)Math.round(points [i][0] / calibration) - xMin + 2 + (int) Math.round(gXY*2.5),
-						(int)Math.round(points [i][1] / calibration) - yMin + 2 + (int) Math.round(gXY*2.5),
+				particleImp.getStack().setVoxel(points.getX(i) - xMin + 2 + (int) Math.round(gXY*2.5),
+						points.getY(i) - yMin + 2 + (int) Math.round(gXY*2.5),
 						0,
 						255.0);
 			}			
@@ -343,8 +529,10 @@ class Cilium{
 //				new WaitForUserDialog("Test").show();
 //				particleImp.hide();
 				
-				ScalerJNH scaler = new ScalerJNH();
-				particleImp = scaler.getScaled(particleImp, 3.0, 3.0, 1.0);
+				if(factorXY != 1) {
+					ScalerJNH scaler = new ScalerJNH();
+					particleImp = scaler.getScaled(particleImp, factorXY, factorXY, 1.0, skeletonThreads);
+				}
 				
 //				particleImp.show();
 //				new WaitForUserDialog("Test").show();
@@ -357,7 +545,7 @@ class Cilium{
 			
 			//Gaussfilter
 				if(!(gXY == 0)){
-					particleImp.getProcessor().blurGaussian(3.0*gXY);
+					particleImp.getProcessor().blurGaussian(factorXY*gXY);
 //					particleImp.show();
 //					new WaitForUserDialog("Post Gauss!").show();
 //					particleImp.hide();
@@ -367,9 +555,9 @@ class Cilium{
 			particleImp = IJ.createImage("Particle image", "8-bit", width, height, 1, slices, 1);
 			particleImp.setCalibration(cal);
 			for(int i = 0; i < voxels; i++){
-				particleImp.getStack().setVoxel((int)Math.round(points [i][0] / calibration) - xMin + 2 + (int) Math.round(gXY*2.5),
-						(int)Math.round(points [i][1] / calibration) - yMin + 2 + (int) Math.round(gXY*2.5),
-						(int)Math.round(points [i][2] / voxelDepth) - zMin + 1 + (int) Math.round(gZ*2.5),
+				particleImp.getStack().setVoxel(points.getX(i) - xMin + 2 + (int) Math.round(gXY*2.5),
+						points.getY(i) - yMin + 2 + (int) Math.round(gXY*2.5),
+						points.getZ(i) - zMin + 1 + (int) Math.round(gZ*2.5),
 						255.0);
 			}
 						
@@ -382,8 +570,10 @@ class Cilium{
 //				new WaitForUserDialog("Test").show();
 //				particleImp.hide();
 				
-				ScalerJNH scaler = new ScalerJNH();
-				particleImp = scaler.getScaled(particleImp, 3.0, 3.0, 3.0);
+				if(factorXY != 1 || factorZ != 1) {
+					ScalerJNH scaler = new ScalerJNH();
+					particleImp = scaler.getScaled(particleImp, factorXY, factorXY, factorZ, skeletonThreads);
+				}
 				
 //				particleImp.show();
 //				new WaitForUserDialog("Test").show();
@@ -396,9 +586,13 @@ class Cilium{
 			
 			//Gaussfilter
 				if(!(gXY == 0 && gZ == 0)){
+					//Same result and sigmas (rounded to one decimal) as the "Gaussian Blur 3D..." command applied before v0.2.2,
+					//but called directly since the command is not thread-safe
 					DecimalFormat gaussformat = new DecimalFormat("#0.0");
 					gaussformat.setDecimalFormatSymbols(new DecimalFormatSymbols(Locale.US));
-					IJ.run(particleImp, "Gaussian Blur 3D...", "x=" + gaussformat.format(3*gXY) + " y=" + gaussformat.format(3*gXY) + " z=" + gaussformat.format(3*gZ));
+					double sigmaXY = Double.parseDouble(gaussformat.format(factorXY*gXY)),
+						sigmaZ = Double.parseDouble(gaussformat.format(factorZ*gZ));
+					SeparableGaussianBlur.blur(particleImp.getStack(), sigmaXY, sigmaXY, sigmaZ);
 //					particleImp.show();
 //					new WaitForUserDialog("Post Gauss!").show();
 //					particleImp.hide();
@@ -408,30 +602,15 @@ class Cilium{
 			
 		Skeletonize3D_ skelProc = new Skeletonize3D_();
 		skelProc.setup("", particleImp);
+		skelProc.setNumberOfThreads(skeletonThreads);
+		skelProc.setUseSimplePointTable(true);
+		skelProc.setWorkspace(SkeletonWorkspace.get().getThinningWorkspace());
 		skelProc.run(particleImp.getProcessor());
 //		
 //		particleImp.show();
 //		new WaitForUserDialog("Test 3!").show();
 //		particleImp.hide();
-		
-		AnalyzeSkeleton_ skel = new AnalyzeSkeleton_();
-		skel.calculateShortestPath = true;
-		skel.setup("", particleImp);
-		
-		//Hints for programming: run(int pruneIndex, boolean pruneEnds, boolean shortPath, ImagePlus origIP, boolean silent, boolean verbose)
-		SkeletonResult sklRes = skel.run(AnalyzeSkeleton_.NONE, false, true, null, true, false);
-		foundSkl = sklRes.getNumOfTrees();
-		if(foundSkl == 1){
-			ArrayList<ciliaQ_skeleton_analysis.Point>[] shortestPath = skel.getShortestPathPoints();	//Skl Points are integers
-			
-			//From v0.1.6 on, for simplicity, this command gives the coordinates matching to the original image
-			sklPointList = getSortedList(shortestPath, sklRes, measureBasalBody, basalBodyC, imp, progress, particleImp, gXY, gZ);
-		}
-		
-		determineSkeletonParameters(imp, measureC2, channel2, measureC3, channel3, channelReconstruction, sklRes);
-		
-		particleImp.changes = false;
-		particleImp.close();
+		return particleImp;
 	}
 	
 	private boolean determineSkeletonParameters(ImagePlus imp,
@@ -578,28 +757,35 @@ class Cilium{
 			this.bbCenterIntensityC2 = getInterpolatedIntensity2D(imp,
 					new SklPoint (pointBB.x*calibration, pointBB.y*calibration, pointBB.z*calibration),
 					channelC2);
-			this.bbIntensityRadius1C2 = this.getIntensityWithinRadius(imp,
-					channelC2, 
-					pointBB.x*calibration, pointBB.y*calibration, pointBB.z*calibration,
-					1.0);			
-			this.bbIntensityRadius2C2 = this.getIntensityInRing(imp,
-					channelC2, 
-					pointBB.x*calibration, pointBB.y*calibration, pointBB.z*calibration,
-					1.0, 2.0);
 		}
 		if(measureC3) {
 			this.bbCenterIntensityC3 = getInterpolatedIntensity2D(imp,
 					new SklPoint (pointBB.x*calibration, pointBB.y*calibration, pointBB.z*calibration),
 					channelC3);
-			this.bbIntensityRadius1C3 = this.getIntensityWithinRadius(imp,
-					channelC3, 
-					pointBB.x*calibration, pointBB.y*calibration, pointBB.z*calibration,
-					1.0);
-			this.bbIntensityRadius2C3 = this.getIntensityInRing(imp,
-					channelC3, 
+		}
+		
+		//Intensities within 1 and 1-2 calibration units are measured for both channels in one pass (changed in v0.2.2)
+		if(measureC2 || measureC3) {
+			int [] channels;
+			if(measureC2 && measureC3) {
+				channels = new int [] {channelC2, channelC3};
+			}else if(measureC2) {
+				channels = new int [] {channelC2};
+			}else {
+				channels = new int [] {channelC3};
+			}
+			double [][] intensities = this.getIntensitiesAroundPoint(imp, channels,
 					pointBB.x*calibration, pointBB.y*calibration, pointBB.z*calibration,
 					1.0, 2.0);
-		}	
+			if(measureC2) {
+				this.bbIntensityRadius1C2 = intensities [0][0];
+				this.bbIntensityRadius2C2 = intensities [0][1];
+			}
+			if(measureC3) {
+				this.bbIntensityRadius1C3 = intensities [channels.length-1][0];
+				this.bbIntensityRadius2C3 = intensities [channels.length-1][1];
+			}
+		}
 		
 		return true;
 	}
@@ -618,35 +804,7 @@ class Cilium{
 	 * New in CiliaQ v0.2.0
 	 */
 	private double getIntensityWithinRadius(ImagePlus imp, int channel, double pointX, double pointY, double pointZ, double radius) {
-		double intensity = 0.0;
-		int ct = 0;
-		for(int iz = (int) Math.round((pointZ - radius)/ voxelDepth); iz <= (int) Math.round((pointZ + radius)/ voxelDepth); iz++){
-			for(int ix = (int) Math.round((pointX - radius)/ calibration); ix <= (int) Math.round((pointX + radius)/ calibration); ix++){
-				for(int iy = (int) Math.round((pointY - radius)/ calibration); iy <= (int) Math.round((pointY + radius)/ calibration); iy++){
-					if(getDistance(new SklPoint(ix*calibration,iy*calibration,iz*voxelDepth), new SklPoint(pointX,pointY,pointZ)) <= radius){
-						if(ix >= 0 && ix < imp.getWidth() && iy >= 0 && iy < imp.getHeight() 
-								&& imp.getStackIndex(channel, iz+1, t+1) >= 0 
-								&& imp.getStackIndex(channel, iz+1, t+1) < imp.getStackSize()){
-							
-							// TEMPORARY LOG FOR CHECKING - TODO REMOVE
-//							IJ.log("Measure around [" + pointX + "," + pointY + "," + pointZ 
-//									+ "]: Add coordinate [" + ix + "," + iy + "," + iz 
-//									+ "] = [" + ix*calibration + "," + iy*calibration + "," + iz*voxelDepth + "] with intensity " 
-//									+ imp.getStack().getVoxel(ix,iy,imp.getStackIndex(channel, iz+1, t+1)-1)
-//									+ " (Radius: " + radius 
-//									+ ", Dist: " 
-//									+ getDistance(new SklPoint(ix*calibration,iy*calibration,iz*voxelDepth), new SklPoint(pointX,pointY,pointZ)) + ")");
-							
-							intensity += imp.getStack().getVoxel(ix,iy,imp.getStackIndex(channel, iz+1, t+1)-1);
-							ct++;
-						}							
-					}
-				}
-			}
-		}
-		intensity /= (double)ct;
-	
-		return intensity;
+		return this.getIntensitiesAroundPoint(imp, new int [] {channel}, pointX, pointY, pointZ, radius, radius) [0][0];
 	}
 	
 	/**
@@ -666,35 +824,70 @@ class Cilium{
 	private double getIntensityInRing(ImagePlus imp, int channel, 
 			double pointX, double pointY, double pointZ,
 			double innerRadius, double outerRadius) {
-		double intensity = 0.0;
-		int ct = 0;
-		for(int iz = (int) Math.round((pointZ - outerRadius)/ voxelDepth); iz <= (int) Math.round((pointZ + outerRadius)/ voxelDepth); iz++){
-			for(int ix = (int) Math.round((pointX - outerRadius)/ calibration); ix <= (int) Math.round((pointX + outerRadius)/ calibration); ix++){
-				for(int iy = (int) Math.round((pointY - outerRadius)/ calibration); iy <= (int) Math.round((pointY + outerRadius)/ calibration); iy++){
-						if(getDistance(new SklPoint(ix*calibration,iy*calibration,iz*voxelDepth), new SklPoint(pointX,pointY,pointZ)) >= innerRadius){
-							if(getDistance(new SklPoint(ix*calibration,iy*calibration,iz*voxelDepth), new SklPoint(pointX,pointY,pointZ)) <= outerRadius){
-								if(ix >= 0 && ix < imp.getWidth() && iy >= 0 && iy < imp.getHeight() 
-										&& imp.getStackIndex(channel, iz+1, t+1) >= 0 
-										&& imp.getStackIndex(channel, iz+1, t+1) < imp.getStackSize()){
-								// TEMPORARY LOG FOR CHECKING - TODO REMOVE
-//								IJ.log("Measure in ring around [" + pointX + "," + pointY + "," + pointZ 
-//										+ "]: Add coordinate [" + ix + "," + iy + "," + iz 
-//										+ "] = [" + ix*calibration + "," + iy*calibration + "," + iz*voxelDepth + "] with intensity " 
-//										+ imp.getStack().getVoxel(ix,iy,imp.getStackIndex(channel, iz+1, t+1)-1)
-//										+" (Radii: " + innerRadius + ", " + outerRadius + ", dist: " 
-//										+ getDistance(new SklPoint(ix*calibration,iy*calibration,iz*voxelDepth), new SklPoint(pointX,pointY,pointZ)) + ")");
-								
-								intensity += imp.getStack().getVoxel(ix,iy,imp.getStackIndex(channel, iz+1, t+1)-1);
-								ct++;
-							}
-						}							
-					}
-				}
+		return this.getIntensitiesAroundPoint(imp, new int [] {channel}, pointX, pointY, pointZ, innerRadius, outerRadius) [0][1];
+	}
+	
+	/**
+	 * Measure the average intensities within a sphere and within a ring around a point of interest for several channels
+	 * in a single pass over the voxels of a precomputed stencil (see IntensityStencil), reading the slice pixel arrays directly.
+	 * Voxels are included if their distance to the point is within the radii, as in the former scans of the enclosing cube,
+	 * and if they are located within the image.
+	 * @param imp: The image to measure in.
+	 * @param channels: the channels to measure in. 1 <= channel <= nr of channels.
+	 * @param pointX: the x coordinate of the point to measure around, specified in calibrated units.
+	 * @param pointY: the y coordinate of the point to measure around, specified in calibrated units.
+	 * @param pointZ: the z/slice coordinate of the point to measure around, specified in calibrated units.
+	 * @param innerRadius: the radius of the sphere and the minimum radius of the ring, specified in calibrated units.
+	 * @param outerRadius: the maximum radius of the ring, specified in calibrated units.
+	 * @return for each channel the average pixel intensity within the sphere [0] and within the ring [1]
+	 * 
+	 * New in CiliaQ v0.2.2
+	 */
+	private double [][] getIntensitiesAroundPoint(ImagePlus imp, int [] channels, 
+			double pointX, double pointY, double pointZ,
+			double innerRadius, double outerRadius) {
+		IntensityStencil stencil = IntensityStencil.get(Math.max(innerRadius, outerRadius), calibration, voxelDepth);
+		ChannelView [] views = new ChannelView [channels.length];
+		for(int c = 0; c < channels.length; c++) {
+			views [c] = new ChannelView(imp, channels [c], t+1);
+		}
+		
+		double [][] intensities = new double [channels.length][2];
+		int ctSphere = 0, ctRing = 0;
+		int width = imp.getWidth(), height = imp.getHeight(), slices = imp.getNSlices();
+		int cx = (int) Math.round(pointX / calibration), 
+				cy = (int) Math.round(pointY / calibration), 
+				cz = (int) Math.round(pointZ / voxelDepth);
+		int ix, iy, iz, index;
+		double dist, value;
+		boolean inSphere, inRing;
+		for(int s = 0; s < stencil.size(); s++) {
+			ix = cx + stencil.dx [s];
+			iy = cy + stencil.dy [s];
+			iz = cz + stencil.dz [s];
+			if(ix < 0 || ix >= width || iy < 0 || iy >= height || iz < 0 || iz >= slices) {
+				continue;
+			}
+			dist = Math.sqrt(Math.pow(ix*calibration-pointX,2.0)+Math.pow(iy*calibration-pointY,2.0)+Math.pow(iz*voxelDepth-pointZ,2.0));
+			inSphere = dist <= innerRadius;
+			inRing = dist >= innerRadius && dist <= outerRadius;
+			if(!inSphere && !inRing) {
+				continue;
 			}
+			index = iy * width + ix;
+			for(int c = 0; c < channels.length; c++) {
+				value = views [c].getValue(index, iz, 0);
+				if(inSphere)	intensities [c][0] += value;
+				if(inRing)	intensities [c][1] += value;
+			}
+			if(inSphere)	ctSphere++;
+			if(inRing)	ctRing++;
 		}
-		intensity /= (double)ct;
-	
-		return intensity;
+		for(int c = 0; c < channels.length; c++) {
+			intensities [c][0] /= (double) ctSphere;
+			intensities [c][1] /= (double) ctRing;
+		}
+		return intensities;
 	}
 	
 	/**
@@ -902,14 +1095,14 @@ class Cilium{
 	 * Determine the Intensity of the Ten Percent of voxels with Max Intensity
 	 * */
 	private void determineMaxTenPercentIntensityValues(boolean measureC2, boolean measureC3){
-		double values [] = getColumnOf2DArray(points, 3);
+		double values [] = points.getIntensities();
 		maxTenPercentCiliumIntensity = getMaxTenPercent(values);
 		if(measureC2){
-			values = getColumnOf2DArray(points, 5);
+			values = points.getIntensitiesC2();
 			maxTenPercentC2Intensity = getMaxTenPercent(values);
 		}
 		if(measureC3){
-			values = getColumnOf2DArray(points, 6);
+			values = points.getIntensitiesC3();
 			maxTenPercentC3Intensity = getMaxTenPercent(values);
 		}		
 		values = null;
@@ -941,9 +1134,9 @@ class Cilium{
 		
 		//count points 
 		int nPoints = shortestPath[chosenShortestPath].size();
-		SklPoint startEnd = new SklPoint(Math.round(sklRes.getSpStartPosition()[chosenShortestPath][0] / calibration * 3.0),
-				Math.round(sklRes.getSpStartPosition()[chosenShortestPath][1] / calibration * 3.0),
-				Math.round(sklRes.getSpStartPosition()[chosenShortestPath][2] / voxelDepth * 3.0));
+		SklPoint startEnd = new SklPoint(Math.round(sklRes.getSpStartPosition()[chosenShortestPath][0] / calibration * upscalingXY),
+				Math.round(sklRes.getSpStartPosition()[chosenShortestPath][1] / calibration * upscalingXY),
+				Math.round(sklRes.getSpStartPosition()[chosenShortestPath][2] / voxelDepth * upscalingZ));
 //		if(showGUIs)	progress.notifyMessage("start " + startEnd.x + " " + startEnd.y + " " + startEnd.z, ProgressDialog.LOG);
 		if(nPoints == 0 || startEnd.equals(null)){
 			return null;
@@ -1043,9 +1236,9 @@ class Cilium{
 
 		//remove modification by upscaling
 		for(int i = 0; i < list.size(); i++){
-			list.get(i).x /= 3.0;
-			list.get(i).y /= 3.0;
-			list.get(i).z /= 3.0;			
+			list.get(i).x /= upscalingXY;
+			list.get(i).y /= upscalingXY;
+			list.get(i).z /= upscalingZ;			
 			
 			//Correct coordinates (remove extra added space in particle image)
 			list.get(i).x += (xMin - 2 - (int) Math.round(gXY*2.5));
@@ -1251,13 +1444,13 @@ class Cilium{
 		//draw cilium
 		for(int i = 0; i < voxels; i++){
 			//[pointID][0=x,1=y,2=z,3=intensity,4=surface, 5=coveredSurface, 6 = coloc (if so 1, else 0)]
-			imp.getStack().setVoxel((int)Math.round(points [i][0] / calibration)+2-xCorr,
-					(int)Math.round(points [i][1] / calibration)+2-yCorr, 
-					imp.getStackIndex(1,(int)Math.round(points [i][2] / voxelDepth)+1-zCorr+1,1)-1,	//getStackIndex(int channel,int slice,int frame);
-					points [i][3]);
+			imp.getStack().setVoxel(points.getX(i)+2-xCorr,
+					points.getY(i)+2-yCorr, 
+					imp.getStackIndex(1,points.getZ(i)+1-zCorr+1,1)-1,	//getStackIndex(int channel,int slice,int frame);
+					points.getIntensity(i));
 		}
 		imp.setC(1);	
-		IJ.run(imp, "Cyan", "");
+		tools.setChannelLut(imp, Color.cyan);
 		imp.setDisplayRange(0, 4095);
 		
 		//draw skeleton
@@ -1270,7 +1463,7 @@ class Cilium{
 //				IJ.log("p" + sklPointList.get(i).x / calibration + "-" + sklPointList.get(i).y / calibration + "-" + sklPointList.get(i).z / voxelDepth);
 			}
 			imp.setC(2);	
-			IJ.run(imp, "Grays", "");
+			tools.setChannelLut(imp, Color.white);
 			imp.setDisplayRange(0, 4095);
 		}
 		
@@ -1278,13 +1471,13 @@ class Cilium{
 		if(minC2Intensity != Double.POSITIVE_INFINITY){
 			for(int i = 0; i < voxels; i++){
 				//[pointID][0=x,1=y,2=z,3=intensity,4=surface, 5=coveredSurface, 6 = coloc (if so 1, else 0)]
-				imp.getStack().setVoxel((int)Math.round(points [i][0] / calibration)+2-xCorr,
-						(int)Math.round(points [i][1] / calibration)+2-yCorr, 
-						imp.getStackIndex(cIndex,(int)Math.round(points [i][2] / voxelDepth)+1-zCorr+1,1)-1,	//getStackIndex(int channel,int slice,int frame);
-						points [i][5]);
+				imp.getStack().setVoxel(points.getX(i)+2-xCorr,
+						points.getY(i)+2-yCorr, 
+						imp.getStackIndex(cIndex,points.getZ(i)+1-zCorr+1,1)-1,	//getStackIndex(int channel,int slice,int frame);
+						points.getIntensityC2(i));
 			}
 			imp.setC(cIndex);	
-			IJ.run(imp, "Green", "");
+			tools.setChannelLut(imp, Color.green);
 			imp.setDisplayRange(0, 4095);
 		}
 		
@@ -1292,12 +1485,12 @@ class Cilium{
 		if(minC3Intensity != Double.POSITIVE_INFINITY){
 			for(int i = 0; i < voxels; i++){
 				//[pointID][0=x,1=y,2=z,3=intensity,4=surface, 5=coveredSurface, 6 = coloc (if so 1, else 0)]	
-				int z = imp.getStackIndex(cIndex,(int)Math.round(points [i][2] / voxelDepth)+1-zCorr+1,1)-1;	//getStackIndex(int channel,int slice,int frame);
-				imp.getStack().setVoxel((int)Math.round(points [i][0] / calibration)+2-xCorr,
-						(int)Math.round(points [i][1] / calibration)+2-yCorr, z, points [i][6]);
+				int z = imp.getStackIndex(cIndex,points.getZ(i)+1-zCorr+1,1)-1;	//getStackIndex(int channel,int slice,int frame);
+				imp.getStack().setVoxel(points.getX(i)+2-xCorr,
+						points.getY(i)+2-yCorr, z, points.getIntensityC3(i));
 			}
 			imp.setC(cIndex);	
-			IJ.run(imp, "Red", "");
+			tools.setChannelLut(imp, Color.red);
 			imp.setDisplayRange(0, 4095);
 			cIndex++;
 		}		
@@ -1335,14 +1528,6 @@ class Cilium{
 		return (average / (double)(endIndex-startIndex+1));		
 	}
 	
-	private static double [] getColumnOf2DArray (double [][] array, int column){
-		double [] colArray = new double [array.length];
-		for(int i = 0; i < array.length; i++){
-			colArray [i] = array [i][column];
-		}
-		return colArray;
-	}
-	
 	/**
 	 * Create Image
 	 * used from 23.04.2019 in time-lapse mode
@@ -1376,13 +1561,13 @@ class Cilium{
 		//draw cilium
 		for(int i = 0; i < voxels; i++){
 			//[pointID][0=x,1=y,2=z,3=intensity,4=surface, 5=coveredSurface, 6 = coloc (if so 1, else 0)]
-			imp.getStack().setVoxel((int)Math.round(points [i][0] / calibration)+2-xCorr,
-					(int)Math.round(points [i][1] / calibration)+2-yCorr, 
-					imp.getStackIndex(1,(int)Math.round(points [i][2] / voxelDepth)+1-zCorr+1,1)-1,		//getStackIndex(int channel,int slice,int frame);
-					points [i][3]);
+			imp.getStack().setVoxel(points.getX(i)+2-xCorr,
+					points.getY(i)+2-yCorr, 
+					imp.getStackIndex(1,points.getZ(i)+1-zCorr+1,1)-1,		//getStackIndex(int channel,int slice,int frame);
+					points.getIntensity(i));
 		}
 		imp.setC(1);	
-		IJ.run(imp, "Cyan", "");
+		tools.setChannelLut(imp, Color.cyan);
 		imp.setDisplayRange(0, 4095);
 		
 		//draw skeleton
@@ -1395,19 +1580,19 @@ class Cilium{
 			}				
 		}
 		imp.setC(2);	
-		IJ.run(imp, "Grays", "");
+		tools.setChannelLut(imp, Color.white);
 		imp.setDisplayRange(0, maxValue);
 		
 		int cIndex = 3;
 		if(minC2Intensity != Double.POSITIVE_INFINITY){
 			for(int i = 0; i < voxels; i++){
 				//[pointID][0=x,1=y,2=z,3=intensity,4=surface, 5=coveredSurface, 6 = coloc (if so 1, else 0)]	
-				int z = imp.getStackIndex(cIndex,(int)Math.round(points [i][2] / voxelDepth)+1-zCorr+1,1)-1;	//getStackIndex(int channel,int slice,int frame);
-				imp.getStack().setVoxel((int)Math.round(points [i][0] / calibration)+2-xCorr,
-						(int)Math.round(points [i][1] / calibration)+2-yCorr, z, points [i][5]);
+				int z = imp.getStackIndex(cIndex,points.getZ(i)+1-zCorr+1,1)-1;	//getStackIndex(int channel,int slice,int frame);
+				imp.getStack().setVoxel(points.getX(i)+2-xCorr,
+						points.getY(i)+2-yCorr, z, points.getIntensityC2(i));
 			}
 			imp.setC(cIndex);	
-			IJ.run(imp, "Green", "");
+			tools.setChannelLut(imp, Color.green);
 			imp.setDisplayRange(0, 4095);
 		}
 		
@@ -1415,12 +1600,12 @@ class Cilium{
 		if(minC3Intensity != Double.POSITIVE_INFINITY){
 			for(int i = 0; i < voxels; i++){
 				//[pointID][0=x,1=y,2=z,3=intensity,4=surface, 5=coveredSurface, 6 = coloc (if so 1, else 0)]	
-				int z = imp.getStackIndex(cIndex,(int)Math.round(points [i][2] / voxelDepth)+1-zCorr+1,1)-1;	//getStackIndex(int channel,int slice,int frame);
-				imp.getStack().setVoxel((int)Math.round(points [i][0] / calibration)+2-xCorr,
-						(int)Math.round(points [i][1] / calibration)+2-yCorr, z, points [i][6]);
+				int z = imp.getStackIndex(cIndex,points.getZ(i)+1-zCorr+1,1)-1;	//getStackIndex(int channel,int slice,int frame);
+				imp.getStack().setVoxel(points.getX(i)+2-xCorr,
+						points.getY(i)+2-yCorr, z, points.getIntensityC3(i));
 			}
 			imp.setC(cIndex);	
-			IJ.run(imp, "Red", "");
+			tools.setChannelLut(imp, Color.red);
 			//Possible colors
 //			IJ.run(imp, "Red", "");
 //			IJ.run(imp, "Green", "");
@@ -0,0 +1,141 @@
+package ciliaQ_jnh;
+/** ===============================================================================
+ * CiliaQ, a plugin for imagej - Version 0.2.2
+ *
+ * Copyright (C) 2017-2026 Jan Niklas Hansen
+ * First version: June 30, 2017
+ * This Version: October 17, 2026
+ *
+ * Parts of the code were inherited from MotiQ
+ * (https://github.com/hansenjn/MotiQ).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ *
+ * For any questions please feel free to contact me (jan.hansen@uni-bonn.de).
+* =============================================================================== */
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Distances between basal bodies and cilia for linking basal bodies to cilia. The distance of a basal body to a cilium is the
+ * distance to the closest skeleton point of the cilium, or to the center of the cilium if no skeleton is available
+ * (calibrated units, basal body coordinates calibrated with the calibration of the cilium). 
+ * 
+ * The values are computed with the same operations as before v0.2.2, so that the Hungarian algorithm gets the same cost matrix,
+ * but the skeleton points of each cilium are copied only once (instead of once per basal body) and cilia are processed in parallel.
+ * */
+class CiliumDistanceMatrix {
+	/**
+	 * Minimum number of cilia x basal bodies to compute the distances with several threads
+	 * */
+	static final int MIN_PARALLEL_PAIRS = 10000;
+	
+	private CiliumDistanceMatrix() {
+	}
+	
+	/**
+	 * @param cilia: the cilia (rows)
+	 * @param bbParticles: the basal bodies (columns, uncalibrated coordinates)
+	 * @param nrOfThreads: number of threads to process cilia in parallel
+	 * @return the distance between each cilium and basal body, [cilium][basal body]
+	 * */
+	static double [][] compute(final ArrayList<Cilium> cilia, final ArrayList<Uncalibrated3DPoint> bbParticles, int nrOfThreads) {
+		final double [][] matrixDist = new double [cilia.size()][bbParticles.size()];
+		if(nrOfThreads <= 1 || cilia.size() < 2 || (long) cilia.size() * bbParticles.size() < MIN_PARALLEL_PAIRS) {
+			for(int cil = 0; cil < cilia.size(); cil++) {
+				fillRow(cilia.get(cil), bbParticles, matrixDist [cil]);
+			}
+			return matrixDist;
+		}
+		
+		final AtomicInteger nextCilium = new AtomicInteger(0);
+		int threads = Math.min(nrOfThreads, cilia.size());
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			ArrayList<Future<Object>> tasks = new ArrayList<Future<Object>>(threads);
+			for(int thread = 0; thread < threads; thread++) {
+				tasks.add(pool.submit(new Callable<Object>() {
+					@Override
+					public Object call() {
+						for(int cil = nextCilium.getAndIncrement(); cil < cilia.size(); cil = nextCilium.getAndIncrement()) {
+							fillRow(cilia.get(cil), bbParticles, matrixDist [cil]);
+						}
+						return null;
+					}
+				}));
+			}
+			for(int thread = 0; thread < threads; thread++) {
+				try {
+					tasks.get(thread).get();
+				}catch(ExecutionException e) {
+					throw new RuntimeException("Computing basal body distances failed.", e.getCause());
+				}
+			}
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Computing basal body distances was interrupted.", e);
+		}finally {
+			pool.shutdownNow();
+		}
+		return matrixDist;
+	}
+	
+	/**
+	 * Fill the distances of one cilium to all basal bodies
+	 * */
+	private static void fillRow(Cilium theCilium, ArrayList<Uncalibrated3DPoint> bbParticles, double [] row) {
+		double sklPoints [][] = null;
+		if(theCilium.sklAvailable) {
+			sklPoints = theCilium.getSkeletonPointsForOriginalImage();
+		}
+		for(int bb = 0; bb < bbParticles.size(); bb++) {
+			Uncalibrated3DPoint bbPoint = bbParticles.get(bb);
+			if(theCilium.sklAvailable) {
+				double minDist = Double.POSITIVE_INFINITY;
+				for(int skl = 0; skl < sklPoints.length; skl++) {
+					double dist = getDistance(bbPoint.x * theCilium.calibration,
+							bbPoint.y * theCilium.calibration,
+							bbPoint.z * theCilium.voxelDepth,
+							sklPoints[skl][0],
+							sklPoints[skl][1],
+							sklPoints[skl][2]);
+					if(dist < minDist) {
+						minDist = dist;
+					}
+				}
+				row [bb] = minDist;
+			}else {
+				row [bb] = getDistance(bbPoint.x * theCilium.calibration,
+						bbPoint.y * theCilium.calibration,
+						bbPoint.z * theCilium.voxelDepth,
+						theCilium.xC,
+						theCilium.yC,
+						theCilium.zC);
+			}
+		}
+	}
+	
+	/**
+	 * @return 3D distance between two points, computed as in CiliaQMain
+	 * */
+	private static double getDistance(double pX, double pY, double pZ, double qX, double qY, double qZ) {
+		return Math.sqrt(Math.pow(pX-qX,2.0)+Math.pow(pY-qY,2.0)+Math.pow(pZ-qZ,2.0));
+	}
+}
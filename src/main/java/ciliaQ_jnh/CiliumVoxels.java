@@ -0,0 +1,169 @@
+package ciliaQ_jnh;
+/** ===============================================================================
+ * CiliaQ, a plugin for imagej - Version 0.2.2
+ *
+ * Copyright (C) 2017-2026 Jan Niklas Hansen
+ * First version: June 30, 2017
+ * This Version: October 17, 2026
+ *
+ * Parts of the code were inherited from MotiQ
+ * (https://github.com/hansenjn/MotiQ).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ *
+ * For any questions please feel free to contact me (jan.hansen@uni-bonn.de).
+* =============================================================================== */
+
+import java.util.ArrayList;
+
+/**
+ * Column-wise storage of the voxels of one Cilium (one array per property instead of one array per voxel).
+ * Coordinates are stored in pixel units relative to the minimum coordinate of the cilium (max. extent 65535 px),
+ * intensities as float (exact for 8-, 16- and 32-bit images), and the numbers of uncovered voxel faces in one byte.
+ * Intensities of channel A / B are only stored if they are measured, otherwise 0.0 is returned.
+ * */
+class CiliumVoxels {
+	private final int size;
+	private final int xOrigin, yOrigin, zOrigin;
+	private final short [] x, y, z;
+	private final float [] intensity;
+	private final float [] intensityC2, intensityC3;
+	private final byte [] surface; // upper 4 bit: free faces in z, lower 4 bit: free faces in x and y
+
+	/**
+	 * @param ciliaPoints: the points of the cilium, intensity and surface are taken from the CellPoints
+	 * @param storeC2: allocate storage for intensities in channel A
+	 * @param storeC3: allocate storage for intensities in channel B
+	 * */
+	CiliumVoxels(ArrayList<CellPoint> ciliaPoints, boolean storeC2, boolean storeC3){
+		size = ciliaPoints.size();
+		int xMin = Integer.MAX_VALUE, yMin = Integer.MAX_VALUE, zMin = Integer.MAX_VALUE;
+		CellPoint p;
+		for(int i = 0; i < size; i++){
+			p = ciliaPoints.get(i);
+			if(p.x < xMin) xMin = p.x;
+			if(p.y < yMin) yMin = p.y;
+			if(p.z < zMin) zMin = p.z;
+		}
+		xOrigin = size == 0 ? 0 : xMin;
+		yOrigin = size == 0 ? 0 : yMin;
+		zOrigin = size == 0 ? 0 : zMin;
+
+		x = new short [size];
+		y = new short [size];
+		z = new short [size];
+		intensity = new float [size];
+		surface = new byte [size];
+		intensityC2 = storeC2 ? new float [size] : null;
+		intensityC3 = storeC3 ? new float [size] : null;
+
+		for(int i = 0; i < size; i++){
+			p = ciliaPoints.get(i);
+			x [i] = (short)(p.x - xOrigin);
+			y [i] = (short)(p.y - yOrigin);
+			z [i] = (short)(p.z - zOrigin);
+			intensity [i] = (float) p.intensity;
+			surface [i] = (byte)((p.getXYSurface() << 4) | p.getXZYZSurface());
+		}
+	}
+
+	int size(){
+		return size;
+	}
+
+	/**
+	 * @return x coordinate of voxel i in pixel
+	 * */
+	int getX(int i){
+		return xOrigin + (x [i] & 0xffff);
+	}
+
+	/**
+	 * @return y coordinate of voxel i in pixel
+	 * */
+	int getY(int i){
+		return yOrigin + (y [i] & 0xffff);
+	}
+
+	/**
+	 * @return z coordinate (slice index, 0 <= z < number of slices) of voxel i
+	 * */
+	int getZ(int i){
+		return zOrigin + (z [i] & 0xffff);
+	}
+
+	double getIntensity(int i){
+		return intensity [i];
+	}
+
+	double getIntensityC2(int i){
+		if(intensityC2 == null)	return 0.0;
+		return intensityC2 [i];
+	}
+
+	double getIntensityC3(int i){
+		if(intensityC3 == null)	return 0.0;
+		return intensityC3 [i];
+	}
+
+	void setIntensityC2(int i, double value){
+		intensityC2 [i] = (float) value;
+	}
+
+	void setIntensityC3(int i, double value){
+		intensityC3 [i] = (float) value;
+	}
+
+	/**
+	 * @return the uncovered surface of voxel i in calibrated units, as CellPoint.getSurface(...)
+	 * */
+	double getSurface(int i, double cal, double zcal){
+		return (cal*cal*(double)((surface [i] >> 4) & 0x0f) + cal*zcal*(double)(surface [i] & 0x0f));
+	}
+
+	/**
+	 * @return a copy of the intensities of the reconstruction channel
+	 * */
+	double [] getIntensities(){
+		double [] values = new double [size];
+		for(int i = 0; i < size; i++){
+			values [i] = intensity [i];
+		}
+		return values;
+	}
+
+	/**
+	 * @return a copy of the intensities in channel A (all 0.0 if not stored)
+	 * */
+	double [] getIntensitiesC2(){
+		double [] values = new double [size];
+		if(intensityC2 == null)	return values;
+		for(int i = 0; i < size; i++){
+			values [i] = intensityC2 [i];
+		}
+		return values;
+	}
+
+	/**
+	 * @return a copy of the intensities in channel B (all 0.0 if not stored)
+	 * */
+	double [] getIntensitiesC3(){
+		double [] values = new double [size];
+		if(intensityC3 == null)	return values;
+		for(int i = 0; i < size; i++){
+			values [i] = intensityC3 [i];
+		}
+		return values;
+	}
+}
@@ -0,0 +1,92 @@
+package ciliaQ_jnh;
+/** ===============================================================================
+ * CiliaQ, a plugin for imagej - Version 0.2.2
+ *
+ * Copyright (C) 2017-2026 Jan Niklas Hansen
+ * First version: June 30, 2017
+ * This Version: October 17, 2026
+ *
+ * Parts of the code were inherited from MotiQ
+ * (https://github.com/hansenjn/MotiQ).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ *
+ * For any questions please feel free to contact me (jan.hansen@uni-bonn.de).
+* =============================================================================== */
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Voxel offsets around a point that may lie within a radius, used to measure intensities within spheres and rings around 
+ * basal bodies without looping over the enclosing cube. The point is not required to be a voxel center: the offsets are 
+ * relative to the voxel nearest to the point and include every voxel within the radius of any point in that voxel, so that 
+ * the exact distance only needs to be checked for these offsets. 
+ * 
+ * Stencils are cached for each combination of radius and calibration and shared by all threads.
+ * Offsets are sorted by z, then x, then y, the order in which the cube used to be scanned.
+ * */
+class IntensityStencil {
+	private static final ConcurrentHashMap<String, IntensityStencil> STENCILS = new ConcurrentHashMap<String, IntensityStencil>();
+	
+	final int [] dx, dy, dz;
+	
+	private IntensityStencil(double radius, double calibration, double voxelDepth) {
+		int rx = (int) Math.ceil(radius / calibration + 0.5), rz = (int) Math.ceil(radius / voxelDepth + 0.5);
+		int [] x = new int [(2 * rx + 1) * (2 * rx + 1) * (2 * rz + 1)], y = new int [x.length], z = new int [x.length];
+		int n = 0;
+		for(int iz = -rz; iz <= rz; iz++) {
+			for(int ix = -rx; ix <= rx; ix++) {
+				for(int iy = -rx; iy <= rx; iy++) {
+					//minimum distance to a point within the center voxel (with a small tolerance for rounding)
+					double distX = Math.max(0.0, Math.abs(ix) - 0.5 - 1E-6) * calibration,
+							distY = Math.max(0.0, Math.abs(iy) - 0.5 - 1E-6) * calibration,
+							distZ = Math.max(0.0, Math.abs(iz) - 0.5 - 1E-6) * voxelDepth;
+					if(distX * distX + distY * distY + distZ * distZ <= radius * radius) {
+						x [n] = ix;
+						y [n] = iy;
+						z [n] = iz;
+						n++;
+					}
+				}
+			}
+		}
+		dx = Arrays.copyOf(x, n);
+		dy = Arrays.copyOf(y, n);
+		dz = Arrays.copyOf(z, n);
+	}
+	
+	/**
+	 * @param radius: the radius in calibrated units
+	 * @param calibration: pixel width and height
+	 * @param voxelDepth: pixel depth
+	 * @return the (cached) stencil for the radius and calibration
+	 * */
+	static IntensityStencil get(double radius, double calibration, double voxelDepth) {
+		String key = radius + "/" + calibration + "/" + voxelDepth;
+		IntensityStencil stencil = STENCILS.get(key);
+		if(stencil == null) {
+			stencil = new IntensityStencil(radius, calibration, voxelDepth);
+			STENCILS.putIfAbsent(key, stencil);
+		}
+		return stencil;
+	}
+	
+	/**
+	 * @return the number of offsets
+	 * */
+	int size() {
+		return dx.length;
+	}
+}
@@ -0,0 +1,88 @@
+package ciliaQ_jnh;
+/** ===============================================================================
+ * CiliaQ, a plugin for imagej - Version 0.2.2
+ *
+ * Copyright (C) 2017-2026 Jan Niklas Hansen
+ * First version: June 30, 2017
+ * This Version: October 17, 2026
+ *
+ * Parts of the code were inherited from MotiQ
+ * (https://github.com/hansenjn/MotiQ).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ *
+ * For any questions please feel free to contact me (jan.hansen@uni-bonn.de).
+* =============================================================================== */
+
+/**
+ * Particles found by the ParticleLabeler, stored as packed voxel indices.
+ * The voxels of particle p are voxels [start [p]] to voxels [start [p] + size [p] - 1],
+ * each voxel index encodes x, y, z (0 <= z < number of slices), and t (0 <= t < number of frames).
+ * */
+class LabeledParticles {
+	private final long [] voxels;
+	private final int [] start, size;
+	private final int width;
+	private final long sliceSize, frameSize;
+
+	LabeledParticles(long [] voxels, int [] start, int [] size, int width, int height, int slices){
+		this.voxels = voxels;
+		this.start = start;
+		this.size = size;
+		this.width = width;
+		this.sliceSize = (long) width * (long) height;
+		this.frameSize = sliceSize * (long) slices;
+	}
+
+	int getNumberOfParticles(){
+		return start.length;
+	}
+
+	/**
+	 * @return the number of voxels in particle p
+	 * */
+	int getSize(int p){
+		return size [p];
+	}
+
+	/**
+	 * @return the packed index of voxel i of particle p
+	 * */
+	long getVoxel(int p, int i){
+		return voxels [start [p] + i];
+	}
+
+	int getX(long voxel){
+		return (int)(voxel % (long) width);
+	}
+
+	int getY(long voxel){
+		return (int)((voxel % sliceSize) / (long) width);
+	}
+
+	int getZ(long voxel){
+		return (int)((voxel % frameSize) / sliceSize);
+	}
+
+	int getT(long voxel){
+		return (int)(voxel / frameSize);
+	}
+
+	/**
+	 * @return the index of the voxel within its slice pixel array (y * width + x)
+	 * */
+	int getPixelIndex(long voxel){
+		return (int)(voxel % sliceSize);
+	}
+}
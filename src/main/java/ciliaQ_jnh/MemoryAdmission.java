@@ -0,0 +1,233 @@
+package ciliaQ_jnh;
+/** ===============================================================================
+ * CiliaQ, a plugin for imagej - Version 0.2.2
+ *
+ * Copyright (C) 2017-2026 Jan Niklas Hansen
+ * First version: June 30, 2017
+ * This Version: October 17, 2026
+ *
+ * Parts of the code were inherited from MotiQ
+ * (https://github.com/hansenjn/MotiQ).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ *
+ * For any questions please feel free to contact me (jan.hansen@uni-bonn.de).
+* =============================================================================== */
+
+import java.io.File;
+
+import ij.ImagePlus;
+import ij.io.FileInfo;
+import ij.io.Opener;
+
+/**
+ * Admission control for processing images under a memory budget.
+ * The peak memory demand of an image is estimated from its dimensions and bit depth and the outputs enabled in the settings,
+ * and a task is only started when the estimated demand fits into the part of the budget not reserved by other tasks.
+ * */
+class MemoryAdmission {
+	static final long MB = 1024L*1024L;
+	/**
+	 * Fixed demand per image (ImageJ objects, result tables, 3D rendering, histograms)
+	 * */
+	static final long BASE_DEMAND = 64L*MB;
+	/**
+	 * Demand per thread for upscaling and skeletonizing a single cilium
+	 * */
+	static final long SKELETON_DEMAND_PER_THREAD = 16L*MB;
+	/**
+	 * Assumed fraction of voxels in segmented channels that are foreground
+	 * */
+	static final double FOREGROUND_FRACTION = 0.02;
+	/**
+	 * Demand per foreground voxel of the reconstruction channel (CellPoint object, list reference, and labeling key)
+	 * */
+	static final long BYTES_PER_CILIUM_VOXEL = 80L;
+
+	private final long budget;
+	private long reserved = 0L;
+
+	/**
+	 * @param budget: memory in bytes that may be reserved by all tasks together
+	 * */
+	MemoryAdmission(long budget){
+		this.budget = budget;
+	}
+
+	/**
+	 * @return 80% of the maximum heap size in bytes
+	 * */
+	static long getDefaultBudget(){
+		return (long)(Runtime.getRuntime().maxMemory() * 0.8);
+	}
+
+	/**
+	 * @return the memory in bytes that may still be allocated on the heap, i.e. the maximum heap size minus the memory in use.
+	 * The garbage collector is not run, so memory in use may include garbage and the value is a lower bound.
+	 * */
+	static long getAvailableMemory(){
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+	}
+
+	long getBudget(){
+		return budget;
+	}
+
+	/**
+	 * Waits until the demand fits into the budget next to the demands of the tasks already admitted, and reserves it.
+	 * @param demand: the estimated demand in bytes
+	 * @return false if the demand exceeds the whole budget, i.e. the task can never be admitted
+	 * */
+	synchronized boolean admit(long demand) throws InterruptedException {
+		if(demand > budget) return false;
+		while(reserved + demand > budget){
+			wait();
+		}
+		reserved += demand;
+		return true;
+	}
+
+	/**
+	 * Releases the demand reserved by an admitted task
+	 * */
+	synchronized void release(long demand){
+		reserved -= demand;
+		notifyAll();
+	}
+
+	/**
+	 * The open image is already part of the memory in use and is not counted, only the duplicate that is processed.
+	 * @param settings: the settings used for processing
+	 * @return the estimated additional peak memory demand in bytes for processing a duplicate of an image that is already open
+	 * */
+	static long estimatePeakMemory(CiliaQMain settings, ImagePlus imp){
+		int bytesPerPixel = imp.getBitDepth() == 24 ? 4 : imp.getBitDepth() / 8;
+		return estimatePeakMemory(settings, imp.getWidth(), imp.getHeight(), imp.getNChannels(), imp.getNSlices(), imp.getNFrames(),
+				bytesPerPixel);
+	}
+
+	/**
+	 * Estimates the demand from the header of a TIFF file without loading the pixels. If the header cannot be read
+	 * (e.g. other file formats), the file size is taken as the size of a single-channel 16-bit image, which is only a guess.
+	 * @param settings: the settings used for processing
+	 * @return the estimated peak memory demand in bytes for opening and processing the image file
+	 * */
+	static long estimatePeakMemory(CiliaQMain settings, File file){
+		long demand = estimatePeakMemoryFromHeader(settings, file);
+		if(demand < 0L){
+			demand = estimatePeakMemoryFromFileSize(settings, file);
+		}
+		return demand;
+	}
+
+	/**
+	 * @param settings: the settings used for processing
+	 * @return the estimated peak memory demand in bytes for opening and processing the image file, based on the image dimensions
+	 * in the TIFF header, or -1 if the file is no TIFF file or its header could not be read
+	 * */
+	static long estimatePeakMemoryFromHeader(CiliaQMain settings, File file){
+		String name = file.getName().toLowerCase();
+		if(!name.endsWith(".tif") && !name.endsWith(".tiff")){
+			return -1L;
+		}
+		try{
+			FileInfo [] info = Opener.getTiffFileInfo(file.getAbsolutePath());
+			if(info != null && info.length > 0 && info [0].width > 0 && info [0].height > 0){
+				int nImages = info.length > 1 ? info.length : Math.max(1, info [0].nImages);
+				int channels = Math.max(1, getDescriptionValue(info [0].description, "channels="));
+				int frames = Math.max(1, getDescriptionValue(info [0].description, "frames="));
+				int slices = Math.max(1, nImages / channels / frames);
+				int bytesPerPixel = info [0].getBytesPerPixel();
+				if(bytesPerPixel == 3)	bytesPerPixel = 4;	//RGB images are stored as int
+				return estimatePeakMemory(settings, info [0].width, info [0].height, channels, slices, frames,
+						Math.max(1, bytesPerPixel));
+			}
+		}catch(Exception e){
+			//header could not be read
+		}
+		return -1L;
+	}
+
+	/**
+	 * Guesses the demand by taking the file size as the size of a single-channel 16-bit image
+	 * @param settings: the settings used for processing
+	 * @return the guessed peak memory demand in bytes for opening and processing the image file
+	 * */
+	static long estimatePeakMemoryFromFileSize(CiliaQMain settings, File file){
+		long voxels = Math.max(1L, file.length() / 2L);
+		return estimatePeakMemory(settings, (int) Math.min(voxels, Integer.MAX_VALUE), 1, 1, 1, 1, 2);
+	}
+
+	/**
+	 * Estimates the peak memory demand in bytes: the image that is processed, the cilium voxel lists,
+	 * the labeling of the channels, the threshold estimation, skeletonization, and the enabled output images.
+	 * */
+	static long estimatePeakMemory(CiliaQMain settings, int width, int height, int channels, int slices, int frames,
+			int bytesPerPixel){
+		long voxelsPerChannel = (long) width * (long) height * (long) slices * (long) frames;
+		long imageSize = voxelsPerChannel * (long) channels * (long) bytesPerPixel;
+		long demand = BASE_DEMAND;
+
+		//image
+		demand += imageSize;
+
+		//labeling (visited bits) and cilium voxels of the reconstruction channel
+		demand += voxelsPerChannel / 8L;
+		demand += (long)(voxelsPerChannel * FOREGROUND_FRACTION) * BYTES_PER_CILIUM_VOXEL;
+
+		//intensity thresholds: tile histograms, or tile value arrays for 32-bit images
+		if(settings.measureC2 || settings.measureC3){
+			if(bytesPerPixel == 4){
+				demand += voxelsPerChannel * 4L;
+			}else{
+				demand += 25L * 65536L * 4L;
+			}
+		}
+
+		if(settings.skeletonize){
+			demand += settings.nrOfThreads * SKELETON_DEMAND_PER_THREAD;
+			//skeleton overview image: 2 channels, 8-bit
+			demand += voxelsPerChannel * 2L;
+		}
+
+		//overview 3D image: masked duplicate of the image, duplicated again for rendering
+		if(settings.saveOverview3DImages){
+			demand += 2L * imageSize;
+		}else if(frames > 1){
+			//single time points are extracted for the 3D visualization of timelapse skeletons
+			demand += imageSize / frames;
+		}
+
+		//images of single cilia are bounded by the cilium, the 3D visualizations of single cilia are rendered one by one
+		if(settings.saveSingleCiliaTifs || settings.saveSingleCilia3DImages){
+			demand += 16L*MB;
+		}
+		return demand;
+	}
+
+	/**
+	 * @return the value of a key (e.g. "channels=") in an ImageJ TIFF description, or 0 if not present
+	 * */
+	private static int getDescriptionValue(String description, String key){
+		if(description == null || !description.contains(key))	return 0;
+		String value = description.substring(description.indexOf(key) + key.length());
+		if(value.contains("\n"))	value = value.substring(0, value.indexOf("\n"));
+		try{
+			return Integer.parseInt(value.trim());
+		}catch(NumberFormatException e){
+			return 0;
+		}
+	}
+}
@@ -29,40 +29,126 @@
 
 package ciliaQ_jnh;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
 
+/**
+ * Text file that is written line by line. Lines are separated by a line break, one line break at the end of the file is omitted.
+ * If the output path is known when the first line is appended, lines are streamed into the file through a buffered writer,
+ * otherwise they are collected in memory and written when saving the file.
+ * Optionally, the file is compressed with gzip (the path should then end with ".gz").
+ * */
 class OutputTextFile {
-	String path;	
-	FileWriter writer = null;
-	String output;
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	String path;
+	private final boolean gzip;
+	private Writer writer = null;
+	private String writerPath = null;
+	private StringBuilder output = null;
+	private boolean empty = true, failed = false;
+	private int pendingLineBreaks = 0;
 	
 	public OutputTextFile(String outputPath) {
-		output = "";
-		path = outputPath;		
+		this(outputPath, false);
+	}
+	
+	/**
+	 * @param outputPath: path of the file, may be empty if the path is only specified when saving the file
+	 * @param gzip: set true to write a gzip-compressed file
+	 * */
+	public OutputTextFile(String outputPath, boolean gzip) {
+		path = outputPath;
+		this.gzip = gzip;
 	}
 	
 	public void append(String text) {
-		output += (text + "\n");
+		if(failed) return;
+		try {
+			if(writer == null && output == null) {
+				if(path.length() == 0) {
+					output = new StringBuilder();
+				}else {
+					writer = openWriter(path);
+					writerPath = path;
+				}
+			}
+			if(!empty) pendingLineBreaks++;
+			empty = false;
+			
+			//line breaks at the end of the text are held back since one trailing line break is removed from the file
+			int end = text.length();
+			while(end > 0 && text.charAt(end-1) == '\n') {
+				end--;
+			}
+			if(end == 0) {
+				pendingLineBreaks += text.length();
+				return;
+			}
+			write(pendingLineBreaks, text.substring(0, end));
+			pendingLineBreaks = text.length() - end;
+		} catch (IOException e) {
+			e.printStackTrace();
+			failed = true;
+		}
 	}
 	
+	/**
+	 * Completes the file
+	 * @return false if no text was appended, no path was specified, or the file could not be written
+	 * */
 	public boolean finish() {
-		if(output.length() == 0) return false;
+		if(empty) return false;
 		if(path.length() == 0) return false;
 		
-		output = output.replaceAll("\n$", "");
-				
+		boolean saved = !failed;
 		try {
-			writer = new FileWriter(new File(path));
-			writer.write(output);
-			writer.close();
+			if(saved && pendingLineBreaks > 1) {
+				write(pendingLineBreaks - 1, "");
+			}
+			if(writer != null) {
+				writer.close();
+				if(saved && !writerPath.equals(path)) {
+					File target = new File(path);
+					if(target.exists()) target.delete();
+					saved = new File(writerPath).renameTo(target);
+				}
+			}else if(saved) {
+				writer = openWriter(path);
+				writer.write(output.toString());
+				writer.close();
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
+			saved = false;
 		}
-		output = "";
+		writer = null;
+		writerPath = null;
+		output = null;
+		empty = true;
+		pendingLineBreaks = 0;
+		failed = false;
 		path = "";
-		return true;
+		return saved;
+	}
+	
+	/**
+	 * Writes the lines appended so far into the file, if the file is streamed
+	 * */
+	public void flush() {
+		if(writer == null || failed) return;
+		try {
+			writer.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+			failed = true;
+		}
 	}
 	
 	public boolean saveAndFinish(String outputPath) {
@@ -73,4 +159,27 @@ class OutputTextFile {
 	public void changePath(String newOutputPath) {
 		path = newOutputPath;
 	}
+	
+	private void write(int lineBreaks, String text) throws IOException {
+		for(int i = 0; i < lineBreaks; i++) {
+			if(writer != null) {
+				writer.write('\n');
+			}else {
+				output.append('\n');
+			}
+		}
+		if(writer != null) {
+			writer.write(text);
+		}else {
+			output.append(text);
+		}
+	}
+	
+	private Writer openWriter(String filePath) throws IOException {
+		OutputStream stream = new FileOutputStream(new File(filePath));
+		if(gzip) {
+			stream = new GZIPOutputStream(stream, BUFFER_SIZE);
+		}
+		return new BufferedWriter(new OutputStreamWriter(stream), BUFFER_SIZE);
+	}
 }
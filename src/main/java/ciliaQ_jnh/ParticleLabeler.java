@@ -0,0 +1,716 @@
+package ciliaQ_jnh;
+/** ===============================================================================
+ * CiliaQ, a plugin for imagej - Version 0.2.2
+ *
+ * Copyright (C) 2017-2026 Jan Niklas Hansen
+ * First version: June 30, 2017
+ * This Version: October 17, 2026
+ *
+ * Parts of the code were inherited from MotiQ
+ * (https://github.com/hansenjn/MotiQ).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ *
+ * For any questions please feel free to contact me (jan.hansen@uni-bonn.de).
+* =============================================================================== */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Connected component labeling (flood filling) of one channel of a hyperstack, working directly on the slice pixel arrays.
+ * Voxels are addressed by a long index (t * frameSize + z * sliceSize + y * width + x) and visited voxels are tracked in a bitset,
+ * so that no object is allocated per voxel and the image is not modified (unless rejected particles shall be cleared).
+ * The detected particles are returned as a LabeledParticles container of packed voxel indices.
+ * */
+class ParticleLabeler {
+	static final int CONNECTIVITY_6 = 6, CONNECTIVITY_18 = 18, CONNECTIVITY_26 = 26;
+
+	/**
+	 * Frames are only split into z-slabs for parallel labeling if each slab contains at least this number of voxels
+	 * */
+	private static final long MIN_SLAB_VOXELS = 1L << 20;
+
+	private final int width, height, slices, frames;
+	private final long sliceSize, frameSize;
+	private final boolean linkFrames;
+	private final int [] dx, dy, dz;
+
+	private ProgressDialog progress = null;
+	private String progressLabel = "";
+	private double progressShare = 0.0;
+	private long totalForeground = 0, reportedForeground = 0;
+
+	private int threads = 1;
+
+	/**
+	 * @param connectivity: CONNECTIVITY_6 (faces), CONNECTIVITY_18 (faces and edges) or CONNECTIVITY_26 (faces, edges and corners) within a frame
+	 * @param linkFrames: if true, voxels at the same x,y,z position in consecutive frames are connected, i.e. particles are 4D objects
+	 * */
+	public ParticleLabeler(int width, int height, int slices, int frames, int connectivity, boolean linkFrames){
+		this.width = width;
+		this.height = height;
+		this.slices = slices;
+		this.frames = frames;
+		this.sliceSize = (long) width * (long) height;
+		this.frameSize = sliceSize * (long) slices;
+		this.linkFrames = linkFrames;
+
+		/**
+		 * Neighbor offsets, sorted as in the former hand-written flood fillers:
+		 * faces first, then edges (X-Y, Z-X, Z-Y), then corners (Z down, Z up)
+		 * */
+		int [][] offsets = new int [][]{
+			{-1,0,0},{1,0,0},{0,-1,0},{0,1,0},{0,0,-1},{0,0,1},
+			{-1,-1,0},{1,1,0},{1,-1,0},{-1,1,0},
+			{-1,0,-1},{1,0,-1},{-1,0,1},{1,0,1},
+			{0,-1,-1},{0,1,-1},{0,-1,1},{0,1,1},
+			{-1,-1,-1},{1,1,-1},{1,-1,-1},{-1,1,-1},
+			{-1,-1,1},{1,1,1},{1,-1,1},{-1,1,1}};
+		int nrOfNeighbors;
+		if(connectivity == CONNECTIVITY_26){
+			nrOfNeighbors = 26;
+		}else if(connectivity == CONNECTIVITY_18){
+			nrOfNeighbors = 18;
+		}else if(connectivity == CONNECTIVITY_6){
+			nrOfNeighbors = 6;
+		}else{
+			throw new IllegalArgumentException("Connectivity " + connectivity + " is not supported - use 6, 18, or 26.");
+		}
+		dx = new int [nrOfNeighbors];
+		dy = new int [nrOfNeighbors];
+		dz = new int [nrOfNeighbors];
+		for(int n = 0; n < nrOfNeighbors; n++){
+			dx [n] = offsets [n][0];
+			dy [n] = offsets [n][1];
+			dz [n] = offsets [n][2];
+		}
+	}
+
+	/**
+	 * @param increaseRange: the CiliaQ setting whether also diagonal pixels shall be connected
+	 * @return CONNECTIVITY_26 if increaseRange, otherwise CONNECTIVITY_6
+	 * */
+	static int getConnectivity(boolean increaseRange){
+		if(increaseRange)	return CONNECTIVITY_26;
+		return CONNECTIVITY_6;
+	}
+
+	/**
+	 * Let the labeler report its progress as "<label> complete: x%" to the progress dialog
+	 * @param progressDialog: the progress dialog, null = no progress reporting
+	 * @param label: text shown in front of the percentage
+	 * @param share: the fraction of the task bar which shall be filled when labeling is complete
+	 * */
+	void setProgress(ProgressDialog progressDialog, String label, double share){
+		progress = progressDialog;
+		progressLabel = label;
+		progressShare = share;
+	}
+
+	/**
+	 * @return the number of voxels with an intensity > 0 in each frame of the pixel arrays
+	 * */
+	long [] countForeground(Object [][] pixels){
+		int type = ChannelView.getPixelType(pixels);
+		long [] counts = new long [pixels.length];
+		int size = (int) sliceSize;
+		for(int t = 0; t < pixels.length; t++){
+			for(int z = 0; z < pixels[t].length; z++){
+				for(int i = 0; i < size; i++){
+					if(ChannelView.isForegroundPixel(pixels[t][z], type, i))	counts [t]++;
+				}
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Set the number of threads used for labeling. With more than one thread, frames are labeled concurrently
+	 * (large frames are additionally split into z-slabs). Particles crossing slab borders or, if frames are linked,
+	 * frame borders are merged afterwards (union-find), so that the result does not depend on the number of threads.
+	 * */
+	void setThreads(int nrOfThreads){
+		threads = Math.max(1, nrOfThreads);
+	}
+
+	/**
+	 * Find all particles (connected components of voxels with an intensity > 0) in the pixel arrays.
+	 * The particles are sorted by their first voxel in the order (t, z, x, y), i.e., in the order
+	 * in which the former flood fillers have found them, so that particle IDs remain unchanged.
+	 * The voxels of each particle are sorted by their index.
+	 * @param pixels: slice pixel arrays as [frame][slice], see ChannelView.getPixels()
+	 * @param minSize: particles with less voxels are rejected
+	 * @param minSizePerFrame: if true, a particle is rejected if any frame contains more than 0 but less than minSize voxels of the particle
+	 * @param clearRejected: if true, voxels of rejected particles are set to 0 in the pixel arrays
+	 * */
+	LabeledParticles label(final Object [][] pixels, int minSize, boolean minSizePerFrame, boolean clearRejected){
+		final int type = ChannelView.getPixelType(pixels);
+
+		totalForeground = 0;
+		reportedForeground = 0;
+		if(progress != null){
+			long [] counts = countForeground(pixels);
+			for(int t = 0; t < counts.length; t++){
+				totalForeground += counts [t];
+			}
+		}
+
+		/**
+		 * Split the image into blocks {t0, t1, z0, z1} that are labeled independently
+		 * */
+		boolean parallel = threads > 1 && frameSize <= Integer.MAX_VALUE;
+		int slabsPerFrame = 1;
+		ArrayList<int []> blockRanges = new ArrayList<int []>();
+		if(parallel){
+			if(frames < threads){
+				slabsPerFrame = (threads + frames - 1) / frames;
+				slabsPerFrame = (int) Math.min((long) slabsPerFrame, Math.max(1L, frameSize / MIN_SLAB_VOXELS));
+				slabsPerFrame = Math.min(slabsPerFrame, slices);
+			}
+			for(int t = 0; t < frames; t++){
+				for(int s = 0; s < slabsPerFrame; s++){
+					blockRanges.add(new int []{t, t+1, s * slices / slabsPerFrame, (s+1) * slices / slabsPerFrame});
+				}
+			}
+			if(blockRanges.size() == 1)	parallel = false;
+		}else if(linkFrames){
+			blockRanges.add(new int []{0, frames, 0, slices});
+		}else{
+			for(int t = 0; t < frames; t++){
+				blockRanges.add(new int []{t, t+1, 0, slices});
+			}
+		}
+
+		final Block [] blocks = new Block [blockRanges.size()];
+		int [] parent;
+		ForkJoinPool pool = null;
+		try{
+			if(parallel){
+				pool = new ForkJoinPool(threads);
+				ArrayList<ForkJoinTask<Block>> tasks = new ArrayList<ForkJoinTask<Block>>(blocks.length);
+				for(int b = 0; b < blocks.length; b++){
+					final int [] range = blockRanges.get(b);
+					tasks.add(pool.submit(new Callable<Block>(){
+						@Override
+						public Block call() {
+							return labelBlock(pixels, type, range [0], range [1], range [2], range [3], false, false);
+						}
+					}));
+				}
+				for(int b = 0; b < blocks.length; b++){
+					blocks [b] = tasks.get(b).get();
+					addProgress(blocks [b].voxels.length);
+				}
+			}else{
+				for(int b = 0; b < blocks.length; b++){
+					int [] range = blockRanges.get(b);
+					blocks [b] = labelBlock(pixels, type, range [0], range [1], range [2], range [3], linkFrames, progress != null);
+				}
+			}
+
+			int nrOfComponents = 0;
+			for(int b = 0; b < blocks.length; b++){
+				blocks [b].firstComponent = nrOfComponents;
+				nrOfComponents += blocks [b].starts.length;
+			}
+			parent = new int [nrOfComponents];
+			for(int i = 0; i < nrOfComponents; i++){
+				parent [i] = i;
+			}
+
+			/**
+			 * Merge particles that touch each other across slab or frame borders
+			 * */
+			if(parallel && (linkFrames || slabsPerFrame > 1)){
+				final long [][] frameKeys = new long [frames][];
+				ArrayList<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(frames);
+				for(int t = 0; t < frames; t++){
+					final int frame = t;
+					tasks.add(pool.submit(new Runnable(){
+						@Override
+						public void run() {
+							frameKeys [frame] = getSortedFrameKeys(blocks, frame);
+						}
+					}));
+				}
+				for(int t = 0; t < frames; t++){
+					tasks.get(t).get();
+				}
+
+				if(slabsPerFrame > 1){
+					for(int b = 0; b < blocks.length; b++){
+						if(blocks [b].z1 < slices){
+							mergeAcrossSlabBorder(blocks [b], frameKeys [blocks [b].t0], parent);
+						}
+					}
+				}
+				if(linkFrames){
+					for(int t = 0; t + 1 < frames; t++){
+						mergeAcrossFrames(frameKeys [t], frameKeys [t+1], parent);
+					}
+				}
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Labeling particles was interrupted.", e);
+		}catch(ExecutionException e){
+			throw new RuntimeException("Labeling particles failed.", e.getCause());
+		}finally{
+			if(pool != null)	pool.shutdown();
+		}
+
+		/**
+		 * Collect the voxels of merged components into particles
+		 * */
+		int [] particleOf = new int [parent.length];
+		Arrays.fill(particleOf, -1);
+		int nrOfParticles = 0, root;
+		for(int i = 0; i < parent.length; i++){
+			root = find(parent, i);
+			if(particleOf [root] < 0){
+				particleOf [root] = nrOfParticles;
+				nrOfParticles++;
+			}
+			particleOf [i] = particleOf [root];
+		}
+
+		int [] particleSizes = new int [nrOfParticles];
+		long [] particleKeys = new long [nrOfParticles];
+		Arrays.fill(particleKeys, Long.MAX_VALUE);
+		int p, componentSize;
+		long totalVoxels = 0;
+		for(int b = 0; b < blocks.length; b++){
+			for(int k = 0; k < blocks [b].starts.length; k++){
+				p = particleOf [blocks [b].firstComponent + k];
+				componentSize = blocks [b].getComponentSize(k);
+				particleSizes [p] += componentSize;
+				totalVoxels += componentSize;
+				if(blocks [b].keys [k] < particleKeys [p])	particleKeys [p] = blocks [b].keys [k];
+			}
+		}
+
+		int [] particleStarts = new int [nrOfParticles];
+		for(p = 1; p < nrOfParticles; p++){
+			particleStarts [p] = particleStarts [p-1] + particleSizes [p-1];
+		}
+		int [] filled = particleStarts.clone();
+		long [] voxels = new long [(int) totalVoxels];
+		for(int b = 0; b < blocks.length; b++){
+			for(int k = 0; k < blocks [b].starts.length; k++){
+				p = particleOf [blocks [b].firstComponent + k];
+				componentSize = blocks [b].getComponentSize(k);
+				System.arraycopy(blocks [b].voxels, blocks [b].starts [k], voxels, filled [p], componentSize);
+				filled [p] += componentSize;
+			}
+			blocks [b] = null;
+		}
+
+		/**
+		 * Filter particles by size and move retained particles to the front of the voxel array
+		 * */
+		int [] frameCounter = new int [frames];
+		IntList kept = new IntList(nrOfParticles);
+		int nrOfKeptVoxels = 0;
+		boolean keep;
+		for(p = 0; p < nrOfParticles; p++){
+			if(minSizePerFrame){
+				Arrays.fill(frameCounter, 0);
+				for(int i = particleStarts [p]; i < particleStarts [p] + particleSizes [p]; i++){
+					frameCounter [getT(voxels [i])]++;
+				}
+				keep = true;
+				for(int ti = 0; ti < frames; ti++){
+					if(frameCounter [ti] < minSize && frameCounter [ti] != 0){
+						keep = false;
+						break;
+					}
+				}
+			}else{
+				keep = particleSizes [p] >= minSize;
+			}
+
+			if(keep){
+				Arrays.sort(voxels, particleStarts [p], particleStarts [p] + particleSizes [p]);
+				System.arraycopy(voxels, particleStarts [p], voxels, nrOfKeptVoxels, particleSizes [p]);
+				particleStarts [p] = nrOfKeptVoxels;
+				nrOfKeptVoxels += particleSizes [p];
+				kept.add(p);
+			}else if(clearRejected){
+				for(int i = particleStarts [p]; i < particleStarts [p] + particleSizes [p]; i++){
+					ChannelView.clearVoxel(pixels [getT(voxels [i])][getZ(voxels [i])], type, (int)(voxels [i] % sliceSize));
+				}
+			}
+		}
+
+		/**
+		 * Sort particles by their first voxel in (t, z, x, y) order
+		 * */
+		final long [] keptKeys = new long [kept.size()];
+		Integer [] order = new Integer [kept.size()];
+		for(int i = 0; i < order.length; i++){
+			keptKeys [i] = particleKeys [kept.get(i)];
+			order [i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>(){
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Long.compare(keptKeys [a], keptKeys [b]);
+			}
+		});
+
+		int [] sortedStarts = new int [order.length];
+		int [] sortedSizes = new int [order.length];
+		for(int i = 0; i < order.length; i++){
+			sortedStarts [i] = particleStarts [kept.get(order [i])];
+			sortedSizes [i] = particleSizes [kept.get(order [i])];
+		}
+
+		return new LabeledParticles(Arrays.copyOf(voxels, nrOfKeptVoxels), sortedStarts, sortedSizes, width, height, slices);
+	}
+
+	/**
+	 * Flood fill all components within frames t0 to t1-1 and slices z0 to z1-1
+	 * @param link: whether voxels in consecutive frames shall be connected
+	 * @param reportProgress: whether to report progress to the progress dialog (only from the thread owning the dialog)
+	 * */
+	private Block labelBlock(Object [][] pixels, int type, int t0, int t1, int z0, int z1, boolean link, boolean reportProgress){
+		Block block = new Block(t0, t1, z0, z1);
+		LongList voxels = new LongList(1024);
+		LongList stack = new LongList(1024);
+		IntList starts = new IntList(64);
+		LongList keys = new LongList(64);
+
+		long blockSliceSize = sliceSize;
+		long blockFrameSize = sliceSize * (long)(z1 - z0);
+		long [] visited = new long [(int)(((long)(t1 - t0) * blockFrameSize + 63L) >> 6)];
+		long voxel, local, next, key, minKey, processed = 0, reported = 0;
+		int px, py, pz, pt, nx, ny, nz;
+
+		for(int t = t0; t < t1; t++){
+			for(int z = z0; z < z1; z++){
+				for(int y = 0; y < height; y++){
+					for(int x = 0; x < width; x++){
+						if(!ChannelView.isForegroundPixel(pixels[t][z], type, y * width + x))	continue;
+						local = (long)(t - t0) * blockFrameSize + (long)(z - z0) * blockSliceSize + (long)(y * width + x);
+						if((visited [(int)(local >> 6)] & (1L << local)) != 0L)	continue;
+						visited [(int)(local >> 6)] |= (1L << local);
+
+						voxel = getIndex(x, y, z, t);
+						starts.add(voxels.size());
+						voxels.add(voxel);
+						stack.clear();
+						stack.add(voxel);
+						minKey = getScanKey(x, y, z, t);
+
+						//Floodfiller
+						while(stack.size() > 0){
+							voxel = stack.pop();
+							pt = getT(voxel);
+							pz = getZ(voxel);
+							py = getY(voxel);
+							px = getX(voxel);
+							for(int n = 0; n < dx.length; n++){
+								nx = px + dx [n];
+								ny = py + dy [n];
+								nz = pz + dz [n];
+								if(nx < 0 || nx >= width || ny < 0 || ny >= height || nz < z0 || nz >= z1)	continue;
+								if(!ChannelView.isForegroundPixel(pixels[pt][nz], type, ny * width + nx))	continue;
+								local = (long)(pt - t0) * blockFrameSize + (long)(nz - z0) * blockSliceSize + (long)(ny * width + nx);
+								if((visited [(int)(local >> 6)] & (1L << local)) != 0L)	continue;
+								visited [(int)(local >> 6)] |= (1L << local);
+								next = getIndex(nx, ny, nz, pt);
+								voxels.add(next);
+								stack.add(next);
+								key = getScanKey(nx, ny, nz, pt);
+								if(key < minKey)	minKey = key;
+							}
+							if(link){
+								for(int nt = pt - 1; nt <= pt + 1; nt += 2){
+									if(nt < t0 || nt >= t1)	continue;
+									if(!ChannelView.isForegroundPixel(pixels[nt][pz], type, py * width + px))	continue;
+									local = (long)(nt - t0) * blockFrameSize + (long)(pz - z0) * blockSliceSize + (long)(py * width + px);
+									if((visited [(int)(local >> 6)] & (1L << local)) != 0L)	continue;
+									visited [(int)(local >> 6)] |= (1L << local);
+									next = getIndex(px, py, pz, nt);
+									voxels.add(next);
+									stack.add(next);
+									key = getScanKey(px, py, pz, nt);
+									if(key < minKey)	minKey = key;
+								}
+							}
+						}
+						//Floodfiller
+						keys.add(minKey);
+
+						if(reportProgress){
+							processed = voxels.size();
+							if(processed - reported >= totalForeground / 100){
+								addProgress(processed - reported);
+								reported = processed;
+							}
+						}
+					}
+				}
+			}
+		}
+		if(reportProgress){
+			addProgress(voxels.size() - reported);
+		}
+
+		block.voxels = voxels.toArray();
+		block.starts = starts.toArray();
+		block.keys = keys.toArray();
+		return block;
+	}
+
+	/**
+	 * @return the voxels of all blocks of frame t encoded as (index within frame << 32 | component) and sorted
+	 * */
+	private long [] getSortedFrameKeys(Block [] blocks, int t){
+		int count = 0;
+		for(int b = 0; b < blocks.length; b++){
+			if(blocks [b].t0 == t)	count += blocks [b].voxels.length;
+		}
+		long [] frameKeys = new long [count];
+		int i = 0;
+		long frameOffset = (long) t * frameSize;
+		for(int b = 0; b < blocks.length; b++){
+			if(blocks [b].t0 != t)	continue;
+			for(int k = 0; k < blocks [b].starts.length; k++){
+				for(int v = blocks [b].starts [k]; v < blocks [b].starts [k] + blocks [b].getComponentSize(k); v++){
+					frameKeys [i] = ((blocks [b].voxels [v] - frameOffset) << 32) | (long)(blocks [b].firstComponent + k);
+					i++;
+				}
+			}
+		}
+		Arrays.sort(frameKeys);
+		return frameKeys;
+	}
+
+	/**
+	 * @return the component stored for the voxel with the given index within the frame, or -1 if the voxel is not in frameKeys
+	 * */
+	private static int findComponent(long [] frameKeys, long indexInFrame){
+		int i = Arrays.binarySearch(frameKeys, indexInFrame << 32);
+		if(i < 0)	i = -i - 1;
+		if(i < frameKeys.length && (frameKeys [i] >>> 32) == indexInFrame){
+			return (int)(frameKeys [i] & 0xffffffffL);
+		}
+		return -1;
+	}
+
+	/**
+	 * Union components of the block with components in the next slab, which touch the last slice of the block
+	 * */
+	private void mergeAcrossSlabBorder(Block block, long [] frameKeys, int [] parent){
+		int px, py, nx, ny, other;
+		long voxel;
+		for(int k = 0; k < block.starts.length; k++){
+			for(int v = block.starts [k]; v < block.starts [k] + block.getComponentSize(k); v++){
+				voxel = block.voxels [v];
+				if(getZ(voxel) != block.z1 - 1)	continue;
+				px = getX(voxel);
+				py = getY(voxel);
+				for(int n = 0; n < dx.length; n++){
+					if(dz [n] != 1)	continue;
+					nx = px + dx [n];
+					ny = py + dy [n];
+					if(nx < 0 || nx >= width || ny < 0 || ny >= height)	continue;
+					other = findComponent(frameKeys, (long) block.z1 * sliceSize + (long)(ny * width + nx));
+					if(other >= 0)	union(parent, block.firstComponent + k, other);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Union components that contain the same x,y,z position in two consecutive frames
+	 * */
+	private static void mergeAcrossFrames(long [] keysT, long [] keysNextT, int [] parent){
+		int i = 0, j = 0;
+		long a, b;
+		while(i < keysT.length && j < keysNextT.length){
+			a = keysT [i] >>> 32;
+			b = keysNextT [j] >>> 32;
+			if(a < b){
+				i++;
+			}else if(a > b){
+				j++;
+			}else{
+				union(parent, (int)(keysT [i] & 0xffffffffL), (int)(keysNextT [j] & 0xffffffffL));
+				i++;
+				j++;
+			}
+		}
+	}
+
+	private static int find(int [] parent, int i){
+		while(parent [i] != i){
+			parent [i] = parent [parent [i]];
+			i = parent [i];
+		}
+		return i;
+	}
+
+	private static void union(int [] parent, int a, int b){
+		int rootA = find(parent, a), rootB = find(parent, b);
+		if(rootA < rootB){
+			parent [rootB] = rootA;
+		}else if(rootB < rootA){
+			parent [rootA] = rootB;
+		}
+	}
+
+	private void addProgress(long voxels){
+		if(progress == null || totalForeground == 0)	return;
+		reportedForeground += voxels;
+		progress.updateBarText(progressLabel + " complete: "
+				+ constants.df3US.format(((double) reportedForeground / (double) totalForeground) * 100) + "%");
+		progress.addToBar(progressShare * ((double) voxels / (double) totalForeground));
+	}
+
+	private long getIndex(int x, int y, int z, int t){
+		return (long) t * frameSize + (long) z * sliceSize + (long) y * (long) width + (long) x;
+	}
+
+	/**
+	 * @return a key to sort voxels in the order (t, z, x, y)
+	 * */
+	private long getScanKey(int x, int y, int z, int t){
+		return (((long) t * (long) slices + (long) z) * (long) width + (long) x) * (long) height + (long) y;
+	}
+
+	private int getX(long voxel){
+		return (int)(voxel % (long) width);
+	}
+
+	private int getY(long voxel){
+		return (int)((voxel % sliceSize) / (long) width);
+	}
+
+	private int getZ(long voxel){
+		return (int)((voxel % frameSize) / sliceSize);
+	}
+
+	private int getT(long voxel){
+		return (int)(voxel / frameSize);
+	}
+
+	/**
+	 * Components found in one block of frames t0 to t1-1 and slices z0 to z1-1.
+	 * The voxels of component k are voxels [starts [k]] to voxels [starts [k+1]-1].
+	 * */
+	private static class Block {
+		final int t0, t1, z0, z1;
+		long [] voxels;
+		int [] starts;
+		long [] keys;
+		int firstComponent = 0;
+		
+		Block(int t0, int t1, int z0, int z1){
+			this.t0 = t0;
+			this.t1 = t1;
+			this.z0 = z0;
+			this.z1 = z1;
+		}
+		
+		int getComponentSize(int k){
+			if(k + 1 < starts.length)	return starts [k+1] - starts [k];
+			return voxels.length - starts [k];
+		}
+	}
+
+	/**
+	 * Growable list of primitive long values
+	 * */
+	static class LongList {
+		private long [] values;
+		private int size = 0;
+
+		LongList(int capacity){
+			values = new long [Math.max(capacity, 1)];
+		}
+
+		void add(long value){
+			if(size == values.length){
+				values = Arrays.copyOf(values, values.length + (values.length >> 1) + 1);
+			}
+			values [size] = value;
+			size++;
+		}
+
+		long get(int i){
+			return values [i];
+		}
+
+		long pop(){
+			size--;
+			return values [size];
+		}
+
+		int size(){
+			return size;
+		}
+
+		void clear(){
+			size = 0;
+		}
+
+		void truncate(int newSize){
+			size = newSize;
+		}
+
+		long [] toArray(){
+			return Arrays.copyOf(values, size);
+		}
+	}
+
+	/**
+	 * Growable list of primitive int values
+	 * */
+	static class IntList {
+		private int [] values;
+		private int size = 0;
+
+		IntList(int capacity){
+			values = new int [Math.max(capacity, 1)];
+		}
+
+		void add(int value){
+			if(size == values.length){
+				values = Arrays.copyOf(values, values.length + (values.length >> 1) + 1);
+			}
+			values [size] = value;
+			size++;
+		}
+
+		int get(int i){
+			return values [i];
+		}
+
+		int size(){
+			return size;
+		}
+
+		int [] toArray(){
+			return Arrays.copyOf(values, size);
+		}
+	}
+}
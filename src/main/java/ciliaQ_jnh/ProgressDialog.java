@@ -40,6 +40,7 @@ import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.ListModel;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 
 public class ProgressDialog extends javax.swing.JFrame implements ActionListener{
 	String dataLeft [], dataRight[], notifications [];
@@ -199,7 +200,12 @@ public class ProgressDialog extends javax.swing.JFrame implements ActionListener
 //		}	
 	}
 	
-	public void moveTask(int i){		
+	/**
+	 * The state of the dialog (task lists, messages, task fraction) is updated under the lock of the dialog,
+	 * since tasks may report from worker threads. The Swing components are only changed on the event dispatch thread,
+	 * all component updates are therefore passed to SwingUtilities.invokeLater(...) with a snapshot of the state.
+	 * */
+	public synchronized void moveTask(int i){		
 		if(dataRight == null){
 			dataRight = new String [2];
 			dataRight [0] = "" + dataLeft[0];
@@ -231,36 +237,45 @@ public class ProgressDialog extends javax.swing.JFrame implements ActionListener
 				dataLeft[j-1] = dataLeftCopy[j];
 			}			
 		}	
-		ListeLeft.setListData(dataLeft);
-		ListeRight.setListData(dataRight);
-		jScrollPaneLeft.updateUI();
-		jScrollPaneRight.updateUI();
-		bgPanel.updateUI();
+		final String [] left = dataLeft, right = dataRight;
+		SwingUtilities.invokeLater(new Runnable(){
+			@Override
+			public void run(){
+				ListeLeft.setListData(left);
+				ListeRight.setListData(right);
+				jScrollPaneLeft.updateUI();
+				jScrollPaneRight.updateUI();
+				bgPanel.updateUI();
+			}
+		});
 		
 		if(task == tasks){
+			final Color color;
 			if(errorsAvailable){
 				replaceBarText("processing done but some tasks failed (see notifications)!");
-				progressBar.setValue(100); 		
-				progressBar.setStringPainted(true);
-				progressBar.setForeground(Color.red);
+				color = Color.red;
 			}else if(notificationsAvailable){
 				replaceBarText("processing done, but some notifications are available!");
-				progressBar.setValue(100); 
-				progressBar.setStringPainted(true);
-				progressBar.setForeground(new Color(255,130,0));
+				color = new Color(255,130,0);
 			}else{
 				replaceBarText("analysis done!");
-				progressBar.setStringPainted(true);
-				progressBar.setForeground(new Color(0,140,0));
+				color = new Color(0,140,0);
 			}
-			progressBar.setValue(100);
+			SwingUtilities.invokeLater(new Runnable(){
+				@Override
+				public void run(){
+					progressBar.setValue(100); 
+					progressBar.setStringPainted(true);
+					progressBar.setForeground(color);
+				}
+			});
 		}else{
 			taskFraction = 0.0;
 			task++;
 		}
 	}
 	
-	public void notifyMessage(String message, int type){
+	public synchronized void notifyMessage(String message, int type){
 		if(type == ERROR){
 			errorsAvailable = true;
 		}else if(type == NOTIFICATION){
@@ -278,12 +293,18 @@ public class ProgressDialog extends javax.swing.JFrame implements ActionListener
 			}
 			notifications [0] = message;
 		}
-		ListeBottom.setListData(notifications);
-		jScrollPaneBottom.updateUI();
-		bgPanel.updateUI();
+		final String [] messages = notifications;
+		SwingUtilities.invokeLater(new Runnable(){
+			@Override
+			public void run(){
+				ListeBottom.setListData(messages);
+				jScrollPaneBottom.updateUI();
+				bgPanel.updateUI();
+			}
+		});
 	}
 	
-	public void notifyMessageWithTaskNr(String message, int type){
+	public synchronized void notifyMessageWithTaskNr(String message, int type){
 		if(dataRight == null) {
 			notifyMessage("Task 1: " + message,type);
 		}else {
@@ -292,31 +313,47 @@ public class ProgressDialog extends javax.swing.JFrame implements ActionListener
 	}
 	
 	
-	public void addToBar(double addFractionOfTask){
+	public synchronized void addToBar(double addFractionOfTask){
 		taskFraction += addFractionOfTask;
 		if(taskFraction >= 1.0){
 			taskFraction = 0.9;
 		}
-		progressBar.setValue((int)Math.round(((double)(task-1)/tasks)*100.0+taskFraction*(100/tasks)));
-		bgPanel.updateUI();
+		showBarValue((int)Math.round(((double)(task-1)/tasks)*100.0+taskFraction*(100/tasks)));
 	}
 	
-	public void setBar(double fractionOfTask){
+	public synchronized void setBar(double fractionOfTask){
 		taskFraction = fractionOfTask;
 		if(taskFraction > 1.0){
 			taskFraction = 0.9;
 		}
-		progressBar.setValue((int)Math.round(((double)(task-1)/tasks)*100.0+taskFraction*(100/tasks)));
-		bgPanel.updateUI();
+		showBarValue((int)Math.round(((double)(task-1)/tasks)*100.0+taskFraction*(100/tasks)));
 	}
 	
-	public void updateBarText(String text){
-		progressBar.setString("Task " + task + "/" + tasks + ": " + text);
-		bgPanel.updateUI();
+	public synchronized void updateBarText(String text){
+		showBarText("Task " + task + "/" + tasks + ": " + text);
 	}
 	
-	public void replaceBarText(String text){			
-		progressBar.setString(text);
-		bgPanel.updateUI();
+	public synchronized void replaceBarText(String text){			
+		showBarText(text);
+	}
+	
+	private void showBarValue(final int value){
+		SwingUtilities.invokeLater(new Runnable(){
+			@Override
+			public void run(){
+				progressBar.setValue(value);
+				bgPanel.updateUI();
+			}
+		});
+	}
+	
+	private void showBarText(final String text){
+		SwingUtilities.invokeLater(new Runnable(){
+			@Override
+			public void run(){
+				progressBar.setString(text);
+				bgPanel.updateUI();
+			}
+		});
 	}
-}
\ No newline at end of file
+}
@@ -43,7 +43,7 @@ import ij.plugin.*;
 
 public class ScalerJNH{
 	private ImagePlus imp;
-	private static int newWidth, newHeight;
+	private int newWidth, newHeight;
 	private int newDepth;
 	private boolean doZScaling;
 	private static boolean averageWhenDownsizing = true;
@@ -57,6 +57,22 @@ public class ScalerJNH{
 	private int oldDepth;
 
 	public ImagePlus getScaled(ImagePlus impToBeScaled, double scaleX, double scaleY, double scaleZ) {
+		return getScaled(impToBeScaled, scaleX, scaleY, scaleZ, 1);
+	}
+	
+	/**
+	 * Upscaling of 8-bit stacks with bilinear interpolation is done by the ByteStackScaler, 
+	 * all other images are scaled by the generic path copied from ImageJ
+	 * @param nrOfThreads: number of threads used by the ByteStackScaler for large stacks
+	 * */
+	public ImagePlus getScaled(ImagePlus impToBeScaled, double scaleX, double scaleY, double scaleZ, int nrOfThreads) {
+		if(interpolationMethod == ImageProcessor.BILINEAR) {
+			ImagePlus scaled = ByteStackScaler.scale(impToBeScaled, scaleX, scaleY, scaleZ, nrOfThreads);
+			if(scaled != null) {
+				return scaled;
+			}
+		}
+		
 		imp = impToBeScaled;
 		Roi roi = imp.getRoi();
 		ImageProcessor ip = imp.getProcessor();
@@ -0,0 +1,117 @@
+package ciliaQ_jnh;
+/** ===============================================================================
+ * CiliaQ, a plugin for imagej - Version 0.2.2
+ *
+ * Copyright (C) 2017-2026 Jan Niklas Hansen
+ * First version: June 30, 2017
+ * This Version: October 17, 2026
+ *
+ * Parts of the code were inherited from MotiQ
+ * (https://github.com/hansenjn/MotiQ).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ *
+ * For any questions please feel free to contact me (jan.hansen@uni-bonn.de).
+* =============================================================================== */
+
+import ij.ImageStack;
+import ij.plugin.filter.GaussianBlur;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * Separable 3D gaussian blur of image stacks that gives the same result as ij.plugin.GaussianBlur3D.blur
+ * (the "Gaussian Blur 3D..." command), but blurs each direction in a single pass over the whole stack.
+ * GaussianBlur3D blurs every slice in xy and then every xz-plane in z, so ImageJ builds the gaussian kernel and
+ * starts its worker threads once per slice and once per image row. Here all lines of a direction are arranged in one
+ * float image and blurred with a single call of GaussianBlur.blur1Direction, which builds the kernel for the sigma once
+ * and distributes the lines over ImageJ's worker threads (Edit > Options > Memory & Threads).
+ * Each line is blurred by the same code as in GaussianBlur3D and the stack is rounded to its bit depth after the
+ * xy and after the z pass, as GaussianBlur3D does, so the results are identical.
+ * */
+class SeparableGaussianBlur {
+	private SeparableGaussianBlur() {
+	}
+	
+	/**
+	 * Blurs all slices of a stack in place
+	 * @param stack: 8-, 16-, 32-bit, or RGB stack
+	 * @param sigmaX, sigmaY, sigmaZ: sigma in pixels for each dimension, no blurring is applied in dimensions with sigma <= 0
+	 * */
+	static void blur(ImageStack stack, double sigmaX, double sigmaY, double sigmaZ) {
+		final int width = stack.getWidth(), height = stack.getHeight(), depth = stack.getSize();
+		if((long) width * height * depth > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("Stack is too large for blurring: " + width + " x " + height + " x " + depth);
+		}
+		//Same accuracy as in GaussianBlur3D
+		final int bitDepth = stack.getBitDepth();
+		final double accuracy = (bitDepth == 8 || bitDepth == 24) ? 0.002 : 0.0002;
+		final int nChannels = stack.getProcessor(1).getNChannels();
+		final int sliceSize = width * height;
+		GaussianBlur gb = new GaussianBlur();
+		gb.showProgress(false);
+		
+		if(sigmaX > 0 || sigmaY > 0) {
+			ImageProcessor [] slices = new ImageProcessor [depth];
+			for(int z = 0; z < depth; z++) {
+				slices [z] = stack.getProcessor(z+1);
+			}
+			float [] rows = new float [sliceSize * depth];
+			float [] columns = new float [sliceSize * depth];
+			for(int c = 0; c < nChannels; c++) {
+				//Rows of all slices below each other: image width x (height * depth)
+				FloatProcessor fp = null;
+				for(int z = 0; z < depth; z++) {
+					fp = slices [z].toFloat(c, fp);
+					System.arraycopy((float []) fp.getPixels(), 0, rows, z * sliceSize, sliceSize);
+				}
+				if(sigmaX > 0) {
+					gb.blur1Direction(new FloatProcessor(width, height * depth, rows), sigmaX, accuracy, true, 0);
+				}
+				if(sigmaY > 0) {
+					//Columns of all slices next to each other: image (width * depth) x height
+					for(int z = 0; z < depth; z++) {
+						for(int y = 0; y < height; y++) {
+							System.arraycopy(rows, z * sliceSize + y * width, columns, y * width * depth + z * width, width);
+						}
+					}
+					gb.blur1Direction(new FloatProcessor(width * depth, height, columns), sigmaY, accuracy, false, 0);
+					for(int z = 0; z < depth; z++) {
+						for(int y = 0; y < height; y++) {
+							System.arraycopy(columns, y * width * depth + z * width, rows, z * sliceSize + y * width, width);
+						}
+					}
+				}
+				//Round back to the bit depth of the stack, as GaussianBlur does per slice
+				//(a FloatProcessor takes over the new array instead of copying it, so the stack is updated as well)
+				for(int z = 0; z < depth; z++) {
+					float [] slicePixels = new float [sliceSize];
+					System.arraycopy(rows, z * sliceSize, slicePixels, 0, sliceSize);
+					slices [z].setPixels(c, new FloatProcessor(width, height, slicePixels));
+					stack.setPixels(slices [z].getPixels(), z+1);
+				}
+			}
+		}
+		
+		if(sigmaZ > 0) {
+			//Stack order of getVoxels (x fastest, then y, then z) is an image (width * height) x depth, in which each column is a z-line
+			float [] voxels = null;
+			for(int c = 0; c < nChannels; c++) {
+				voxels = stack.getVoxels(0, 0, 0, width, height, depth, voxels, c);
+				gb.blur1Direction(new FloatProcessor(sliceSize, depth, voxels), sigmaZ, accuracy, false, 0);
+				stack.setVoxels(0, 0, 0, width, height, depth, voxels, c);
+			}
+		}
+	}
+}
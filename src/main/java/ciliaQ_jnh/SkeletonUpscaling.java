@@ -0,0 +1,129 @@
+package ciliaQ_jnh;
+/** ===============================================================================
+ * CiliaQ, a plugin for imagej - Version 0.2.2
+ *
+ * Copyright (C) 2017-2026 Jan Niklas Hansen
+ * First version: June 30, 2017
+ * This Version: October 17, 2026
+ *
+ * Parts of the code were inherited from MotiQ
+ * (https://github.com/hansenjn/MotiQ).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ *
+ * For any questions please feel free to contact me (jan.hansen@uni-bonn.de).
+* =============================================================================== */
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+
+/**
+ * Choice of the factors by which a cilium is upscaled before skeletonization.
+ * By default, cilia are upscaled 3-fold in x, y and z (z is not upscaled in 2D images).
+ * In the adaptive mode, the factor in x and y is chosen from the extent of the cilium so that the upscaled cilium spans at least
+ * TARGET_EXTENT pixels, and the factor in z is chosen to make the upscaled voxels as isotropic as possible.
+ * Factors never exceed the fixed factor, so that the adaptive mode never processes more voxels than the fixed mode.
+ * 
+ * To report the effect of the adaptive mode, every VALIDATION_INTERVAL-th cilium (selected by its voxel number) is additionally
+ * skeletonized with the fixed factors and the processing time and length are compared.
+ * */
+class SkeletonUpscaling {
+	static final int FIXED_FACTOR = 3;
+	/**
+	 * Extent [px] that the longest side of a cilium's bounding box shall reach after upscaling in the adaptive mode
+	 * */
+	static final double TARGET_EXTENT = 60.0;
+	static final int VALIDATION_INTERVAL = 10;
+	
+	private SkeletonUpscaling() {
+	}
+	
+	/**
+	 * @return the upscaling factor in x and y for a cilium in the adaptive mode
+	 * */
+	static int getFactorXY(Cilium c) {
+		double extent = Math.max(c.xMax - c.xMin + 1, c.yMax - c.yMin + 1);
+		if(c.zMax - c.zMin != 0) {
+			extent = Math.max(extent, (c.zMax - c.zMin + 1) * c.voxelDepth / c.calibration);
+		}
+		return Math.max(1, Math.min(FIXED_FACTOR, (int) Math.ceil(TARGET_EXTENT / extent)));
+	}
+	
+	/**
+	 * @param factorXY: the upscaling factor in x and y
+	 * @return the upscaling factor in z for a cilium in the adaptive mode, 1 if the cilium is located in a single slice
+	 * */
+	static int getFactorZ(Cilium c, int factorXY) {
+		if(c.zMax - c.zMin == 0) {
+			return 1;
+		}
+		return Math.max(1, Math.min(FIXED_FACTOR, (int) Math.round(factorXY * c.voxelDepth / c.calibration)));
+	}
+	
+	/**
+	 * @return true if the cilium shall additionally be skeletonized with the fixed factors
+	 * */
+	static boolean isValidated(Cilium c) {
+		return c.voxels % VALIDATION_INTERVAL == 0;
+	}
+	
+	/**
+	 * @param cilia: the cilia quantified in the adaptive mode (cilia that were not skeletonized are ignored), may be null
+	 * @param format: the number format for the output
+	 * @return a tab-separated summary of the upscaling factors, the speedup, and the length deviation compared to the fixed mode
+	 * */
+	static String getSummary(ArrayList<Cilium> cilia, DecimalFormat format) {
+		int skeletonized = 0, reduced = 0, validated = 0, compared = 0;
+		long time = 0L, referenceTime = 0L;
+		double deviationSum = 0.0, deviationMax = 0.0;
+		for(int i = 0; cilia != null && i < cilia.size(); i++) {
+			Cilium c = cilia.get(i);
+			if(c.skeletonizationTime == 0L) {
+				continue;
+			}
+			skeletonized++;
+			if(c.upscalingXY < FIXED_FACTOR || (c.zMax - c.zMin != 0 && c.upscalingZ < FIXED_FACTOR)) {
+				reduced++;
+			}
+			if(!c.upscalingValidated) {
+				continue;
+			}
+			validated++;
+			time += c.skeletonizationTime;
+			referenceTime += c.referenceSkeletonizationTime;
+			if(c.referenceLength > 0.0 && !Double.isNaN(c.upscaledLength)) {
+				double deviation = Math.abs(c.upscaledLength - c.referenceLength) / c.referenceLength * 100.0;
+				deviationSum += deviation;
+				deviationMax = Math.max(deviationMax, deviation);
+				compared++;
+			}
+		}
+		String summary = "skeletonized cilia:	" + skeletonized
+				+ "	with reduced upscaling:	" + reduced
+				+ "	validated against fixed " + FIXED_FACTOR + "x upscaling:	" + validated;
+		summary += "	speedup:	";
+		if(time > 0L) {
+			summary += format.format((double) referenceTime / time);
+		}
+		summary += "	mean length deviation [%]:	";
+		if(compared > 0) {
+			summary += format.format(deviationSum / compared);
+		}
+		summary += "	max length deviation [%]:	";
+		if(compared > 0) {
+			summary += format.format(deviationMax);
+		}
+		return summary;
+	}
+}
@@ -0,0 +1,71 @@
+package ciliaQ_jnh;
+/** ===============================================================================
+ * CiliaQ, a plugin for imagej - Version 0.2.2
+ *
+ * Copyright (C) 2017-2026 Jan Niklas Hansen
+ * First version: June 30, 2017
+ * This Version: October 17, 2026
+ *
+ * Parts of the code were inherited from MotiQ
+ * (https://github.com/hansenjn/MotiQ).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ *
+ * For any questions please feel free to contact me (jan.hansen@uni-bonn.de).
+* =============================================================================== */
+
+import ciliaQ_skeletonize3D.ThinningWorkspace;
+
+/**
+ * Scratch memory for thinning the particle images of cilia (see ThinningWorkspace), kept per thread and reused for all cilia
+ * that are processed by the same thread. The scratch volumes only grow to the size of the largest cilium.
+ * Only the thinning is covered: the particle image, its upscaled and blurred version, and the arrays of AnalyzeSkeleton_
+ * are still created per cilium, since ImageJ requires exactly sized pixel arrays for them.
+ * Worker threads of a pool release their workspace when they terminate, the thread that processes an image
+ * needs to call releaseCurrentThread() when the image is done.
+ * */
+class SkeletonWorkspace {
+	private static final ThreadLocal<SkeletonWorkspace> WORKSPACE = new ThreadLocal<SkeletonWorkspace>() {
+		@Override
+		protected SkeletonWorkspace initialValue() {
+			return new SkeletonWorkspace();
+		}
+	};
+	
+	private final ThinningWorkspace thinningWorkspace = new ThinningWorkspace();
+	
+	private SkeletonWorkspace() {
+	}
+	
+	/**
+	 * @return the workspace of the current thread
+	 * */
+	static SkeletonWorkspace get() {
+		return WORKSPACE.get();
+	}
+	
+	/**
+	 * Drops the workspace of the current thread, so that its memory can be collected
+	 * */
+	static void releaseCurrentThread() {
+		WORKSPACE.remove();
+	}
+	
+	/**
+	 * @return scratch memory for Skeletonize3D_
+	 * */
+	ThinningWorkspace getThinningWorkspace() {
+		return thinningWorkspace;
+	}
+}
@@ -0,0 +1,438 @@
+package ciliaQ_jnh;
+/** ===============================================================================
+ * CiliaQ, a plugin for imagej - Version 0.2.2
+ *
+ * Copyright (C) 2017-2026 Jan Niklas Hansen
+ * First version: June 30, 2017
+ * This Version: October 17, 2026
+ *
+ * Parts of the code were inherited from MotiQ
+ * (https://github.com/hansenjn/MotiQ).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ *
+ * For any questions please feel free to contact me (jan.hansen@uni-bonn.de).
+* =============================================================================== */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Linear assignment of rows to columns for sparse cost matrices, in which only some row-column pairs (edges) have an individual cost
+ * and all other pairs have the same cutoff cost. The matching has the same (minimal) total cost as the Hungarian algorithm on the dense matrix
+ * (filled with the cutoff cost and padded to a square matrix), without ever building the dense matrix. If several matchings have the minimal cost,
+ * ties may be resolved differently than by the Hungarian algorithm, possibly with a different number of matched pairs:
+ * 
+ * Pairs with the cutoff cost can be exchanged freely, so only the edges of the matching matter and the assignment decomposes into
+ * independent clusters (connected components of the bipartite graph of edges). Each cluster is solved as a perfect assignment in which every
+ * row and column may alternatively be left unmatched at half the cutoff cost (two unmatched partners together cost as much as
+ * one pair with the cutoff cost), using shortest augmenting paths on the sparse graph. Clusters are solved in parallel.
+ * */
+class SparseAssignment {
+	/**
+	 * Minimum number of edges to solve clusters in parallel
+	 * */
+	static final int MIN_PARALLEL_EDGES = 10000;
+	
+	private final int nrOfRows, nrOfCols;
+	private int nrOfEdges = 0;
+	private int [] edgeRow = new int [16], edgeCol = new int [16];
+	private double [] edgeCost = new double [16];
+	
+	/**
+	 * @param nrOfRows: number of rows of the cost matrix
+	 * @param nrOfCols: number of columns of the cost matrix
+	 * */
+	public SparseAssignment(int nrOfRows, int nrOfCols) {
+		this.nrOfRows = nrOfRows;
+		this.nrOfCols = nrOfCols;
+	}
+	
+	/**
+	 * Add a row-column pair with an individual cost.
+	 * @param cost: a non-negative cost, not larger than the cutoff cost
+	 * */
+	public void addEdge(int row, int col, double cost) {
+		if(row < 0 || row >= nrOfRows || col < 0 || col >= nrOfCols) {
+			throw new IllegalArgumentException("Edge (" + row + ", " + col + ") outside the cost matrix");
+		}
+		if(!(cost >= 0.0) || Double.isInfinite(cost)) {
+			throw new IllegalArgumentException("Invalid cost " + cost);
+		}
+		if(nrOfEdges == edgeRow.length) {
+			edgeRow = Arrays.copyOf(edgeRow, 2 * nrOfEdges);
+			edgeCol = Arrays.copyOf(edgeCol, 2 * nrOfEdges);
+			edgeCost = Arrays.copyOf(edgeCost, 2 * nrOfEdges);
+		}
+		edgeRow [nrOfEdges] = row;
+		edgeCol [nrOfEdges] = col;
+		edgeCost [nrOfEdges] = cost;
+		nrOfEdges++;
+	}
+	
+	/**
+	 * @param cutoffCost: the cost of all row-column pairs without an edge (not smaller than any edge cost), 
+	 * if infinite, as many rows as possible are matched
+	 * @param nrOfThreads: number of threads to solve clusters in parallel
+	 * @return the column matched to each row, -1 if the row is not matched to a column via an edge
+	 * */
+	public int [] execute(double cutoffCost, int nrOfThreads) {
+		final int [] result = new int [nrOfRows];
+		Arrays.fill(result, -1);
+		if(nrOfEdges == 0) {
+			return result;
+		}
+		
+		// Find clusters: rows are nodes 0 to nrOfRows-1, columns are nodes nrOfRows to nrOfRows+nrOfCols-1
+		int [] parent = new int [nrOfRows + nrOfCols];
+		for(int i = 0; i < parent.length; i++) {
+			parent [i] = i;
+		}
+		for(int e = 0; e < nrOfEdges; e++) {
+			int a = findRoot(parent, edgeRow [e]), b = findRoot(parent, nrOfRows + edgeCol [e]);
+			if(a != b) {
+				parent [Math.max(a, b)] = Math.min(a, b);
+			}
+		}
+		
+		// Sort edges by cluster (clusters are ordered by their first row)
+		int [] clusterOfRoot = new int [parent.length];
+		Arrays.fill(clusterOfRoot, -1);
+		int nrOfClusters = 0;
+		int [] edgeCluster = new int [nrOfEdges];
+		int [] clusterSize = new int [nrOfEdges + 1];
+		for(int e = 0; e < nrOfEdges; e++) {
+			int root = findRoot(parent, edgeRow [e]);
+			if(clusterOfRoot [root] == -1) {
+				clusterOfRoot [root] = nrOfClusters;
+				nrOfClusters++;
+			}
+			edgeCluster [e] = clusterOfRoot [root];
+			clusterSize [edgeCluster [e] + 1]++;
+		}
+		final int [] clusterStart = Arrays.copyOf(clusterSize, nrOfClusters + 1);
+		for(int c = 0; c < nrOfClusters; c++) {
+			clusterStart [c + 1] += clusterStart [c];
+		}
+		final int [] clusterEdges = new int [nrOfEdges];
+		int [] next = Arrays.copyOf(clusterStart, nrOfClusters);
+		for(int e = 0; e < nrOfEdges; e++) {
+			clusterEdges [next [edgeCluster [e]]++] = e;
+		}
+		
+		// Number the rows and columns within each cluster in order of appearance
+		int [] localIndex = new int [nrOfRows + nrOfCols];
+		Arrays.fill(localIndex, -1);
+		final int [] localRow = new int [nrOfEdges], localCol = new int [nrOfEdges];
+		final int [] clusterRows = new int [nrOfClusters], clusterCols = new int [nrOfClusters];
+		for(int c = 0; c < nrOfClusters; c++) {
+			for(int i = clusterStart [c]; i < clusterStart [c + 1]; i++) {
+				int e = clusterEdges [i];
+				if(localIndex [edgeRow [e]] == -1) {
+					localIndex [edgeRow [e]] = clusterRows [c]++;
+				}
+				if(localIndex [nrOfRows + edgeCol [e]] == -1) {
+					localIndex [nrOfRows + edgeCol [e]] = clusterCols [c]++;
+				}
+				localRow [i] = localIndex [edgeRow [e]];
+				localCol [i] = localIndex [nrOfRows + edgeCol [e]];
+			}
+		}
+		
+		final int clusters = nrOfClusters;
+		final double cutoff = cutoffCost;
+		if(nrOfThreads <= 1 || clusters == 1 || nrOfEdges < MIN_PARALLEL_EDGES) {
+			for(int c = 0; c < clusters; c++) {
+				solveCluster(clusterEdges, localRow, localCol, clusterStart [c], clusterStart [c + 1],
+						clusterRows [c], clusterCols [c], cutoff, result);
+			}
+			return result;
+		}
+		
+		final AtomicInteger nextCluster = new AtomicInteger(0);
+		ExecutorService pool = Executors.newFixedThreadPool(nrOfThreads);
+		try {
+			ArrayList<Future<Object>> tasks = new ArrayList<Future<Object>>(nrOfThreads);
+			for(int thread = 0; thread < nrOfThreads; thread++) {
+				tasks.add(pool.submit(new Callable<Object>() {
+					@Override
+					public Object call() {
+						for(int c = nextCluster.getAndIncrement(); c < clusters; c = nextCluster.getAndIncrement()) {
+							solveCluster(clusterEdges, localRow, localCol, clusterStart [c], clusterStart [c + 1],
+									clusterRows [c], clusterCols [c], cutoff, result);
+						}
+						return null;
+					}
+				}));
+			}
+			for(int thread = 0; thread < nrOfThreads; thread++) {
+				try {
+					tasks.get(thread).get();
+				}catch(ExecutionException e) {
+					throw new RuntimeException("Assignment failed.", e.getCause());
+				}
+			}
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Assignment was interrupted.", e);
+		}finally {
+			pool.shutdownNow();
+		}
+		return result;
+	}
+	
+	private static int findRoot(int [] parent, int i) {
+		while(parent [i] != i) {
+			parent [i] = parent [parent [i]];
+			i = parent [i];
+		}
+		return i;
+	}
+	
+	/**
+	 * Solve the assignment of one cluster and write the matched columns of its rows into the result
+	 * @param edges: the edges of all clusters, sorted by cluster
+	 * @param localRow: the row of each entry in edges, numbered within its cluster
+	 * @param localCol: the column of each entry in edges, numbered within its cluster
+	 * @param start: first entry of the cluster in edges (inclusive)
+	 * @param end: last entry of the cluster in edges (exclusive)
+	 * @param a: number of rows of the cluster
+	 * @param b: number of columns of the cluster
+	 * */
+	private void solveCluster(int [] edges, int [] localRow, int [] localCol, int start, int end, int a, int b,
+			double cutoffCost, int [] result) {
+		int [] rows = new int [a], cols = new int [b];
+		double edgeCostSum = 0.0;
+		for(int i = start; i < end; i++) {
+			int e = edges [i];
+			rows [localRow [i]] = edgeRow [e];
+			cols [localCol [i]] = edgeCol [e];
+			edgeCostSum += edgeCost [e];
+		}
+		
+		/**
+		 * Cost of leaving a row or column unmatched. With an infinite cutoff, it is larger than any possible
+		 * gain from leaving rows unmatched, so that the matching has maximum size.
+		 * */
+		double unmatchedCost = cutoffCost / 2.0;
+		if(Double.isInfinite(unmatchedCost) || Double.isNaN(unmatchedCost)) {
+			unmatchedCost = edgeCostSum + 1.0;
+		}
+		
+		/**
+		 * Perfect assignment on the extended graph:
+		 * left nodes: rows (0 to a-1) and stand-ins of unmatched columns (a to a+b-1)
+		 * right nodes: columns (0 to b-1) and stand-ins of unmatched rows (b to b+a-1)
+		 * edges: row - column (edge cost), row - its own stand-in (unmatched cost), column stand-in - column (unmatched cost),
+		 * column stand-in - row stand-in for every row-column edge (0, so that a row and a column can both be unmatched)
+		 * */
+		int n = a + b;
+		int [] adjacencyStart = new int [n + 1];
+		for(int i = start; i < end; i++) {
+			adjacencyStart [localRow [i] + 1]++;
+			adjacencyStart [a + localCol [i] + 1]++;
+		}
+		for(int l = 0; l < n; l++) {
+			adjacencyStart [l + 1] += adjacencyStart [l] + 1;
+		}
+		int [] adjacentNode = new int [adjacencyStart [n]];
+		double [] adjacentCost = new double [adjacencyStart [n]];
+		int [] fill = Arrays.copyOf(adjacencyStart, n);
+		for(int i = start; i < end; i++) {
+			int r = localRow [i], c = localCol [i];
+			adjacentNode [fill [r]] = c;
+			adjacentCost [fill [r]++] = edgeCost [edges [i]];
+			adjacentNode [fill [a + c]] = b + r;
+			adjacentCost [fill [a + c]++] = 0.0;
+		}
+		for(int r = 0; r < a; r++) {
+			adjacentNode [fill [r]] = b + r;
+			adjacentCost [fill [r]++] = unmatchedCost;
+		}
+		for(int c = 0; c < b; c++) {
+			adjacentNode [fill [a + c]] = c;
+			adjacentCost [fill [a + c]++] = unmatchedCost;
+		}
+		
+		int [] matchOfRight = solvePerfectAssignment(n, adjacencyStart, adjacentNode, adjacentCost);
+		for(int c = 0; c < b; c++) {
+			if(matchOfRight [c] < a) {
+				result [rows [matchOfRight [c]]] = cols [c];
+			}
+		}
+	}
+	
+	/**
+	 * Minimum cost perfect assignment of n left to n right nodes with non-negative costs, by shortest augmenting paths
+	 * (Dijkstra with node potentials). A perfect assignment must exist.
+	 * @return the left node matched to each right node
+	 * */
+	private static int [] solvePerfectAssignment(int n, int [] adjacencyStart, int [] adjacentNode, double [] adjacentCost) {
+		double [] potentialLeft = new double [n], potentialRight = new double [n];
+		int [] matchOfLeft = new int [n], matchOfRight = new int [n];
+		Arrays.fill(matchOfLeft, -1);
+		Arrays.fill(matchOfRight, -1);
+		
+		double [] dist = new double [n];
+		int [] predecessor = new int [n];
+		boolean [] done = new boolean [n];
+		int [] doneNodes = new int [n];
+		Heap heap = new Heap(adjacentNode.length + 1);
+		
+		for(int source = 0; source < n; source++) {
+			Arrays.fill(dist, Double.POSITIVE_INFINITY);
+			Arrays.fill(done, false);
+			heap.clear();
+			int nrOfDone = 0;
+			int sink = -1;
+			
+			int left = source;
+			double leftDist = 0.0;
+			while(true) {
+				for(int k = adjacencyStart [left]; k < adjacencyStart [left + 1]; k++) {
+					int right = adjacentNode [k];
+					if(done [right]) {
+						continue;
+					}
+					double d = leftDist + adjacentCost [k] - potentialLeft [left] - potentialRight [right];
+					if(d < dist [right]) {
+						dist [right] = d;
+						predecessor [right] = left;
+						heap.push(d, right);
+					}
+				}
+				
+				int right = -1;
+				while(!heap.isEmpty()) {
+					int candidate = heap.pop();
+					if(!done [candidate]) {
+						right = candidate;
+						break;
+					}
+				}
+				if(right == -1) {
+					throw new IllegalStateException("No perfect assignment exists.");
+				}
+				done [right] = true;
+				doneNodes [nrOfDone] = right;
+				nrOfDone++;
+				if(matchOfRight [right] == -1) {
+					sink = right;
+					break;
+				}
+				left = matchOfRight [right];
+				leftDist = dist [right];
+			}
+			
+			// Update potentials, keeping matched edges tight and all reduced costs non-negative
+			double delta = dist [sink];
+			potentialLeft [source] += delta;
+			for(int i = 0; i < nrOfDone; i++) {
+				int right = doneNodes [i];
+				if(right != sink) {
+					potentialLeft [matchOfRight [right]] += delta - dist [right];
+				}
+				potentialRight [right] -= delta - dist [right];
+			}
+			
+			// Augment along the shortest path
+			int right = sink;
+			while(right != -1) {
+				int l = predecessor [right];
+				int previousRight = matchOfLeft [l];
+				matchOfRight [right] = l;
+				matchOfLeft [l] = right;
+				right = previousRight;
+			}
+		}
+		return matchOfRight;
+	}
+	
+	/**
+	 * Binary min-heap of nodes with their distance, entries are not updated but added again
+	 * */
+	private static class Heap {
+		private double [] keys;
+		private int [] nodes;
+		private int size = 0;
+		
+		Heap(int capacity) {
+			keys = new double [capacity];
+			nodes = new int [capacity];
+		}
+		
+		void clear() {
+			size = 0;
+		}
+		
+		boolean isEmpty() {
+			return size == 0;
+		}
+		
+		void push(double key, int node) {
+			if(size == keys.length) {
+				keys = Arrays.copyOf(keys, 2 * size);
+				nodes = Arrays.copyOf(nodes, 2 * size);
+			}
+			int i = size;
+			size++;
+			while(i > 0) {
+				int p = (i - 1) / 2;
+				if(keys [p] <= key) {
+					break;
+				}
+				keys [i] = keys [p];
+				nodes [i] = nodes [p];
+				i = p;
+			}
+			keys [i] = key;
+			nodes [i] = node;
+		}
+		
+		/**
+		 * @return the node with the smallest distance, which is removed from the heap
+		 * */
+		int pop() {
+			int top = nodes [0];
+			size--;
+			double key = keys [size];
+			int node = nodes [size];
+			int i = 0;
+			while(true) {
+				int child = 2 * i + 1;
+				if(child >= size) {
+					break;
+				}
+				if(child + 1 < size && keys [child + 1] < keys [child]) {
+					child++;
+				}
+				if(keys [child] >= key) {
+					break;
+				}
+				keys [i] = keys [child];
+				nodes [i] = nodes [child];
+				i = child;
+			}
+			keys [i] = key;
+			nodes [i] = node;
+			return top;
+		}
+	}
+}
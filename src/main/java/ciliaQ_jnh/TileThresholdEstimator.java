@@ -0,0 +1,233 @@
+package ciliaQ_jnh;
+/** ===============================================================================
+ * CiliaQ, a plugin for imagej - Version 0.2.2
+ *
+ * Copyright (C) 2017-2026 Jan Niklas Hansen
+ * First version: June 30, 2017
+ * This Version: October 17, 2026
+ *
+ * Parts of the code were inherited from MotiQ
+ * (https://github.com/hansenjn/MotiQ).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ *
+ * For any questions please feel free to contact me (jan.hansen@uni-bonn.de).
+* =============================================================================== */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import ij.ImagePlus;
+
+/**
+ * Determines the intensity threshold of a channel from the brightest 10% of the non-cilium voxels in each of 5x5 xy-tiles
+ * (threshold = average + 1.5 x SD of the collected values), directly on the pixel arrays of the image.
+ * Cilium voxels are masked on the fly and the channel is not copied. For 8- and 16-bit images each tile keeps a histogram,
+ * for 32-bit images each tile keeps the intensities of its voxels only.
+ *
+ * The thresholds are identical to the ones of the former implementation that sorted arrays of fixed length
+ * ((int)(width/5)+1)*((int)(height/5)+1)*slices*frames per tile, in which unused entries were set to Double.MIN_VALUE.
+ * Because of this padding, the values collected from a tile start (length - #voxels) ranks below the brightest voxel of the tile
+ * and are Double.MIN_VALUE beyond the darkest voxel of the tile. This is reproduced here.
+ * */
+class TileThresholdEstimator {
+	private static final int TILES = 25;
+
+	private final int width, height, slices, frames;
+	private final int [] tileOfX, tileOfY;
+	private final long paddedLength;
+	private final long [] maskedVoxels;
+
+	/**
+	 * @param imp: the image to be analyzed
+	 * @param ciliaParticles: the cilia, whose voxels are excluded from threshold determination
+	 * */
+	TileThresholdEstimator(ImagePlus imp, ArrayList<ArrayList<CellPoint>> ciliaParticles){
+		width = imp.getWidth();
+		height = imp.getHeight();
+		slices = imp.getNSlices();
+		frames = imp.getNFrames();
+
+		tileOfX = new int [width];
+		for(int x = 0; x < width; x++){
+			tileOfX [x] = (int)((double)x/(double)width*5.0);
+		}
+		tileOfY = new int [height];
+		for(int y = 0; y < height; y++){
+			tileOfY [y] = 5*(int)((double)y/(double)height*5.0);
+		}
+		paddedLength = (long)(((int)(width/5.0)+1)*((int)(height/5.0)+1)) * (long) slices * (long) frames;
+
+		int nrOfVoxels = 0;
+		for(int i = 0; i < ciliaParticles.size(); i++){
+			nrOfVoxels += ciliaParticles.get(i).size();
+		}
+		maskedVoxels = new long [nrOfVoxels];
+		int index = 0;
+		CellPoint p;
+		for(int i = 0; i < ciliaParticles.size(); i++){
+			for(int j = 0; j < ciliaParticles.get(i).size(); j++){
+				p = ciliaParticles.get(i).get(j);
+				maskedVoxels [index] = (((long) p.t * slices + p.z) * height + p.y) * (long) width + p.x;
+				index++;
+			}
+		}
+		Arrays.sort(maskedVoxels);
+	}
+
+	/**
+	 * @param pixels: the slice pixel arrays of the channel as [frame][slice], see ChannelView.getPixels()
+	 * @return the intensity threshold of the channel
+	 * */
+	double getThreshold(Object [][] pixels){
+		int type = ChannelView.getPixelType(pixels);
+		int [] counter = new int [TILES];
+		int [][] histograms = null;
+		float [][] values = null;
+
+		if(type == ChannelView.TYPE_BYTE || type == ChannelView.TYPE_SHORT){
+			histograms = new int [TILES][type == ChannelView.TYPE_BYTE ? 256 : 65536];
+			scan(pixels, type, counter, histograms, null);
+		}else{
+			scan(pixels, type, counter, null, null);
+			values = new float [TILES][];
+			for(int i = 0; i < TILES; i++){
+				values [i] = new float [counter [i]];
+			}
+			Arrays.fill(counter, 0);
+			scan(pixels, type, counter, null, values);
+			for(int i = 0; i < TILES; i++){
+				Arrays.sort(values [i]);
+			}
+		}
+
+		//collect the top 10% of each tile
+		int allCounter = 0;
+		for(int i = 0; i < TILES; i++){
+			allCounter += (int)(counter[i]*0.1);
+		}
+		double allIntensities [] = new double [allCounter];
+		allCounter = 0;
+		int noOfValues;
+		long skipped;
+		for(int i = 0; i < TILES; i++){
+			noOfValues = (int)(counter[i]*0.1);
+			if(noOfValues == 0)	continue;
+			skipped = paddedLength - counter [i];
+			if(histograms != null){
+				int [] histogram = histograms [i];
+				int bin = histogram.length - 1;
+				long remaining = histogram [bin];
+				//skip the padded number of brightest values
+				while(skipped > 0 && bin >= 0){
+					if(remaining > skipped){
+						remaining -= skipped;
+						skipped = 0;
+					}else{
+						skipped -= remaining;
+						bin--;
+						remaining = bin >= 0 ? histogram [bin] : 0;
+					}
+				}
+				for(int j = 0; j < noOfValues; j++){
+					while(remaining == 0 && bin >= 0){
+						bin--;
+						remaining = bin >= 0 ? histogram [bin] : 0;
+					}
+					if(bin < 0){
+						allIntensities [allCounter] = Double.MIN_VALUE;
+					}else{
+						allIntensities [allCounter] = bin;
+						remaining--;
+					}
+					allCounter++;
+				}
+			}else{
+				long index;
+				for(int j = 0; j < noOfValues; j++){
+					index = counter [i] - 1 - skipped - j;
+					if(index < 0){
+						allIntensities [allCounter] = Double.MIN_VALUE;
+					}else{
+						allIntensities [allCounter] = values [i][(int) index];
+					}
+					allCounter++;
+				}
+			}
+		}
+
+		if(allCounter>1){
+			return tools.getAverageOfRange(allIntensities, 0, allCounter-1) + 1.5*tools.getSDOfRange(allIntensities, 0, allCounter-1);
+		}else if(allCounter == 1){
+			return allIntensities[0];
+		}
+		return 0.0;
+	}
+
+	/**
+	 * Assigns all non-masked voxels with an intensity > 0 to their tiles by counting them,
+	 * adding them to the histograms (if not null), or storing them into values (if not null)
+	 * */
+	private void scan(Object [][] pixels, int type, int [] counter, int [][] histograms, float [][] values){
+		int maskIndex = 0;
+		long key = 0;
+		int tile;
+		int intensity = 0;
+		float floatIntensity = 0.0f;
+		boolean foreground;
+		Object slice;
+		for(int t = 0; t < frames; t++){
+			for(int z = 0; z < slices; z++){
+				slice = pixels [t][z];
+				for(int y = 0; y < height; y++){
+					for(int x = 0; x < width; x++, key++){
+						while(maskIndex < maskedVoxels.length && maskedVoxels [maskIndex] < key){
+							maskIndex++;
+						}
+						if(maskIndex < maskedVoxels.length && maskedVoxels [maskIndex] == key){
+							continue;
+						}
+						switch(type){
+							case ChannelView.TYPE_BYTE:
+								intensity = ((byte []) slice)[y*width+x] & 0xff;
+								foreground = intensity != 0;
+								break;
+							case ChannelView.TYPE_SHORT:
+								intensity = ((short []) slice)[y*width+x] & 0xffff;
+								foreground = intensity != 0;
+								break;
+							case ChannelView.TYPE_FLOAT:
+								floatIntensity = ((float []) slice)[y*width+x];
+								foreground = floatIntensity > 0.0f;
+								break;
+							default:
+								floatIntensity = (float)(((int []) slice)[y*width+x] & 0xffffff);
+								foreground = floatIntensity > 0.0f;
+								break;
+						}
+						if(!foreground)	continue;
+
+						tile = tileOfX [x] + tileOfY [y];
+						if(histograms != null){
+							histograms [tile][intensity]++;
+						}else if(values != null){
+							values [tile][counter [tile]] = floatIntensity;
+						}
+						counter [tile]++;
+					}
+				}
+			}
+		}
+	}
+}
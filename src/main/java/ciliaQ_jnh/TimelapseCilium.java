@@ -25,7 +25,9 @@ package ciliaQ_jnh;
  * For any questions please feel free to contact me (jan.hansen@uni-bonn.de).
 * =============================================================================== */
 
+import java.awt.Color;
 import java.util.ArrayList;
+
 import ij.IJ;
 import ij.ImagePlus;
 import ij.measure.Calibration;
@@ -105,7 +107,7 @@ class TimelapseCilium{
 			boolean measureC2, int channel2, boolean measureC3, int channel3, boolean measureBasalBody, int channelBasalBody,
 			int channelReconstruction, double gXY, double gZ, double intensityThresholds [], ProgressDialog progress, 
 			boolean skeletonize, boolean segmentedBB,
-			boolean showGUIs){
+			boolean showGUIs, int nrOfThreads, boolean adaptiveUpscaling){
 		
 		bitDepth = imp.getBitDepth();
 		cal = imp.getCalibration().copy();
@@ -126,17 +128,18 @@ class TimelapseCilium{
 				if(showGUIs)	progress.updateBarText("Timepoint generated in timelapse cilium: " 
 						+ (t+1) + "/" + imp.getNFrames() + ": " + kineticList.get(t).size() + " points");
 			}
+			Cilium [] frameCilia = quantifyFrames(kineticList, imp, measureC2, channel2, measureC3, channel3, measureBasalBody, channelBasalBody,
+					channelReconstruction, gXY, gZ, intensityThresholds, progress, skeletonize, showGUIs, nrOfThreads, adaptiveUpscaling);
+			
 			cilia = new ArrayList<Cilium>(imp.getNFrames());
 			int counter = 0;
 		
 			for(int t = 0; t < imp.getNFrames(); t++){
-				kineticList.get(t).trimToSize();
-				if(kineticList.get(t).size()==0){
+				if(frameCilia [t] == null){
 					continue;
 				}
 				
-				cilia.add(new Cilium(kineticList.get(t), imp, measureC2, channel2, measureC3, channel3, measureBasalBody, channelBasalBody,
-						channelReconstruction, gXY, gZ, intensityThresholds, progress, skeletonize, showGUIs));
+				cilia.add(frameCilia [t]);
 				
 				if(cilia.get(cilia.size()-1).xMax>xMax)	xMax = cilia.get(cilia.size()-1).xMax;
 				if(cilia.get(cilia.size()-1).xMin<xMin)	xMin = cilia.get(cilia.size()-1).xMin;
@@ -260,6 +263,22 @@ class TimelapseCilium{
 		ciliumAvailable = true;
 	}
 	
+	/**
+	 * Creates the Cilium objects of all frames, frames are quantified concurrently if nrOfThreads > 1 (see Cilium.quantifyAll)
+	 * @param kineticList: the points of the cilium in each frame
+	 * @return array with the Cilium object of each frame, null for frames where the cilium does not contain any point
+	 * */
+	private static Cilium [] quantifyFrames(ArrayList<ArrayList<CellPoint>> kineticList, ImagePlus imp, 
+			boolean measureC2, int channel2, boolean measureC3, int channel3, boolean measureBasalBody, int channelBasalBody,
+			int channelReconstruction, double gXY, double gZ, double intensityThresholds [], ProgressDialog progress, 
+			boolean skeletonize, boolean showGUIs, int nrOfThreads, boolean adaptiveUpscaling){
+		for(int t = 0; t < kineticList.size(); t++){
+			kineticList.get(t).trimToSize();
+		}
+		return Cilium.quantifyAll(kineticList, imp, measureC2, channel2, measureC3, channel3, measureBasalBody, channelBasalBody,
+				channelReconstruction, gXY, gZ, intensityThresholds, progress, skeletonize, showGUIs, nrOfThreads, adaptiveUpscaling, false);
+	}
+	
 	/**
 	 * Create timelapse cilium object based on a single basal body
 	 * @param bbOnlyCilium: the basal body cilium object
@@ -277,24 +296,31 @@ class TimelapseCilium{
 		voxelDepth = cal.pixelDepth;
 		frameRate = cal.fps;
 		frames = imp.getNFrames();
-		{
-			cilia = new ArrayList<Cilium>(imp.getNFrames());
-			cilia.add(bbOnlyCilium);
-			
-			if(cilia.get(cilia.size()-1).xMax>xMax)	xMax = cilia.get(cilia.size()-1).xMax;
-			if(cilia.get(cilia.size()-1).xMin<xMin)	xMin = cilia.get(cilia.size()-1).xMin;
-			
-			if(cilia.get(cilia.size()-1).yMax>yMax)	yMax = cilia.get(cilia.size()-1).yMax;
-			if(cilia.get(cilia.size()-1).yMin<yMin)	yMin = cilia.get(cilia.size()-1).yMin;
-			
-			if(cilia.get(cilia.size()-1).zMax>zMax)	zMax = cilia.get(cilia.size()-1).zMax;
-			if(cilia.get(cilia.size()-1).zMin<zMin)	zMin = cilia.get(cilia.size()-1).zMin;
-		}
+		cilia = new ArrayList<Cilium>(imp.getNFrames());
+		addBBOnlyCilium(bbOnlyCilium);
 		
 		sklAvailableInAllFrames = false;
 		ciliumAvailable = false;
 	}
 	
+	/**
+	 * Add the basal body of a later frame to a timelapse cilium object created based on a single basal body
+	 * New in v0.2.2 - basal bodies are tracked through time
+	 * @param bbOnlyCilium: the basal body cilium object, its frame must be later than the frames of all basal bodies added before
+	 */
+	public void addBBOnlyCilium(Cilium bbOnlyCilium){
+		cilia.add(bbOnlyCilium);
+		
+		if(cilia.get(cilia.size()-1).xMax>xMax)	xMax = cilia.get(cilia.size()-1).xMax;
+		if(cilia.get(cilia.size()-1).xMin<xMin)	xMin = cilia.get(cilia.size()-1).xMin;
+		
+		if(cilia.get(cilia.size()-1).yMax>yMax)	yMax = cilia.get(cilia.size()-1).yMax;
+		if(cilia.get(cilia.size()-1).yMin<yMin)	yMin = cilia.get(cilia.size()-1).yMin;
+		
+		if(cilia.get(cilia.size()-1).zMax>zMax)	zMax = cilia.get(cilia.size()-1).zMax;
+		if(cilia.get(cilia.size()-1).zMin<zMin)	zMin = cilia.get(cilia.size()-1).zMin;
+	}
+	
 	public void computeBBParameters() {
 		int counter = 0, bbCounter = 0;
 		sklAvailableInAllFrames = true;
@@ -419,19 +445,19 @@ class TimelapseCilium{
 		}
 		
 		imp.setC(1);	
-		IJ.run(imp, "Cyan", "");
+		tools.setChannelLut(imp, Color.cyan);
 		imp.setDisplayRange(0, 4095);
 				
 		imp.setC(2);	
-		IJ.run(imp, "Grays", "");
+		tools.setChannelLut(imp, Color.white);
 		imp.setDisplayRange(0, 4095);
 			
 		imp.setC(3);	
-		IJ.run(imp, "Green", "");
+		tools.setChannelLut(imp, Color.green);
 		imp.setDisplayRange(0, 4095);
 	
 		imp.setC(4);	
-		IJ.run(imp, "Red", "");
+		tools.setChannelLut(imp, Color.red);
 		imp.setDisplayRange(0, 4095);		
 		
 		return imp;
@@ -28,11 +28,13 @@ package ciliaQ_jnh;
 import java.awt.Color;
 import java.util.Arrays;
 
+import ij.CompositeImage;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.gui.Plot;
 import ij.gui.PlotWindow;
 import ij.gui.WaitForUserDialog;
+import ij.process.LUT;
 
 public class tools{
 	/**
@@ -610,4 +612,18 @@ public class tools{
 	//		double m = (i2-i1)/(x2-x1);
 	//		return i1 + (m * (x-x1));
 		}
+	
+	/**
+	 * Sets a LUT ranging from black to the color for the current channel of imp, as the LUT commands (e.g. "Cyan") of ImageJ do.
+	 * Unlike IJ.run(imp, "Cyan", ""), this does not depend on the global macro and window state and may be used from worker threads.
+	 * @param color: e.g. Color.cyan for "Cyan", Color.white for "Grays"
+	 * */
+	public static void setChannelLut(ImagePlus imp, Color color){
+		LUT lut = LUT.createLutFromColor(color);
+		if(imp.isComposite()){
+			((CompositeImage) imp).setChannelLut(lut);
+		}else{
+			imp.setLut(lut);
+		}
+	}
 }
@@ -37,11 +37,14 @@ import java.awt.AWTEvent;
 import java.awt.Checkbox;
 import java.awt.Font;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.Set;
 
 /**
  * AnalyzeSkeleton_ plugin for ImageJ and Fiji.
@@ -111,8 +114,8 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 	/** working image stack */
 	private ImageStack inputImage = null;
 
-	/** visit flags */
-	private boolean [][][] visited = null;
+	/** index-based skeleton voxels with the tags and visit flags */
+	private SkeletonVoxelGraph voxelGraph = null;
 
 	// Measures
 	/** total number of end points voxels */
@@ -196,6 +199,8 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 
 	/** pruning option */
 	private boolean bPruneCycles = true;
+	/** update the tags of the pruned skeleton locally instead of tagging the whole image again */
+	private boolean incrementalPruning = true;
 
 	 /** dead-end pruning option */
 	public static boolean pruneEnds = DEFAULT_PRUNE_ENDS;
@@ -206,6 +211,19 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 	/** calculate largest shortest path option */
 	public static boolean calculateShortestPath = DEFAULT_CALCULATE_SHORTEST_PATH;
 
+	/** longest shortest path calculation options */
+	public static final String[] longestShortestPathModes = {"Floyd-Warshall (legacy)",
+															 "tree diameter, Floyd-Warshall for cyclic graphs",
+															 "tree diameter, Dijkstra for cyclic graphs"};
+	/** Floyd-Warshall all pairs shortest paths for all graphs */
+	public static final int LSP_WARSHALL = 0;
+	/** tree diameter for acyclic graphs, Floyd-Warshall for cyclic graphs */
+	public static final int LSP_TREE_DIAMETER = 1;
+	/** tree diameter for acyclic graphs, Dijkstra from every vertex for cyclic graphs */
+	public static final int LSP_TREE_DIAMETER_DIJKSTRA = 2;
+	/** longest shortest path calculation option */
+	private int longestShortestPathMode = LSP_TREE_DIAMETER;
+
 	/** array of graphs (one per tree) */
 	private Graph[] graph = null;
 
@@ -471,7 +489,10 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 				resetVisited();
 				// Recalculate analysis over the new image
 				bPruneCycles = false;
-				processSkeleton(this.inputImage);
+				if(incrementalPruning)
+					reprocessPrunedSkeleton();
+				else
+					processSkeleton(this.inputImage);
 			}
 		}
 
@@ -499,7 +520,7 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 			{
 				shortestPathPoints[ i ] = new ArrayList<Point>();
 				// Warshall algorithm including tag positions
-				this.shortestPath = warshallAlgorithm(this.graph[i], shortestPathPoints[ i ]);
+				this.shortestPath = longestShortestPath(this.graph[i], shortestPathPoints[ i ]);
 				shortestPathList.add(this.shortestPath);
 				spStartPosition[i][0] = spx * this.imRef.getCalibration().pixelWidth;
 				spStartPosition[i][1] = spy * this.imRef.getCalibration().pixelHeight;
@@ -598,7 +619,10 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 				resetVisited();
 				// Recalculate analysis over the new image
 				bPruneCycles = false;
-				processSkeleton(this.inputImage);
+				if(incrementalPruning)
+					reprocessPrunedSkeleton();
+				else
+					processSkeleton(this.inputImage);
 			}
 		}
 
@@ -626,7 +650,7 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 			{
 				shortestPathPoints[ i ] = new ArrayList<Point>();
 				// Warshall algorithm including tag positions
-				this.shortestPath = warshallAlgorithm(this.graph[i], shortestPathPoints[ i ]);
+				this.shortestPath = longestShortestPath(this.graph[i], shortestPathPoints[ i ]);
 				shortestPathList.add(this.shortestPath);
 				spStartPosition[i][0] = spx * this.imRef.getCalibration().pixelWidth;
 				spStartPosition[i][1] = spy * this.imRef.getCalibration().pixelHeight;
@@ -698,6 +722,9 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 	{
 		if(debug)
 			IJ.log("Pruning end-point branches...");
+		// voxels to remove from the global lists of end points and slabs
+		final BitSet prunedEndPoints = new BitSet();
+		final BitSet prunedSlabs = new BitSet();
 		for (int t = 0; t < this.numOfTrees; t++)
 		{
 			if(debug)
@@ -705,103 +732,37 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 
 			Graph g = graph[t];
 			ArrayList<Vertex> vertices = g.getVertices();
-			ListIterator<Vertex> vit = vertices.listIterator();
+			ArrayList<Vertex> remainingVertices = new ArrayList<Vertex>(vertices.size());
+			Set<Edge> prunedBranches = Collections.newSetFromMap(new IdentityHashMap<Edge, Boolean>());
 
 			if(debug)
 				IJ.log("Initial number of vertices: " + graph[t].getVertices().size());
 
-			while (vit.hasNext())
+			for (int i = 0; i < vertices.size(); i++)
 			{
-				Vertex v = vit.next();
+				Vertex v = vertices.get(i);
 				// Check if the vertex is an end point
 				if (v.getBranches().size() == 1 && isEndPoint( v.getPoints().get( 0 ), roi) )
 				{
 					if(debug)
 						IJ.log("Pruning branch starting at " + v.getPoints().get(0));
-
-					// Remove end point voxels
-					ArrayList<Point> points = v.getPoints();
-					final int nPoints = points.size();
-
-					for (int i = 0; i < nPoints; i++)
-					{
-						Point p = points.get(i);
-						setPixel(stack, p.x, p.y, p.z, (byte) 0);
-						setPixel(taggedImage, p.x, p.y, p.z, (byte) 0);
-						this.numberOfEndPoints[t]--;
-						this.totalNumberOfEndPoints--;
-						Iterator<Point> pit = this.listOfEndPoints.listIterator();
-						while (pit.hasNext()){
-							Point ep = pit.next();
-							if (ep.equals(p)){
-								pit.remove();
-								break;
-							}
-						}
-					}
-
-					// Remove branch voxels
-					Edge branch = v.getBranches().get(0);
-					points = branch.getSlabs();
-					final int nSlabs = points.size();
-					for (int i = 0; i < nSlabs; i++)
-					{
-						Point p = points.get(i);
-						setPixel(stack, p.x, p.y, p.z, (byte) 0);
-						setPixel(taggedImage, p.x, p.y, p.z, (byte) 0);
-						this.numberOfSlabs[t]--;
-						this.totalNumberOfSlabs--;
-						Iterator<Point> pit = this.listOfSlabVoxels.listIterator();
-						while (pit.hasNext())
-						{
-							Point ep = pit.next();
-							if (ep.equals(p)){
-								pit.remove();
-								break;
-							}
-						}
-					}
-
-					// remove the Edge from the Graph
-					ArrayList<Edge> gEdges = graph[t].getEdges();
-					Iterator<Edge> git = gEdges.listIterator();
-					while (git.hasNext())
-					{
-						Edge e = git.next();
-						if (e.equals(branch))
-						{
-							git.remove();
-							break;
-						}
-					}
-
-					// remove the Edge from the opposite Vertex
-					Vertex opp = branch.getOppositeVertex(v);
-					ArrayList<Edge> oppBranches = opp.getBranches();
-					Iterator<Edge> oppIt = oppBranches.listIterator();
-					while (oppIt.hasNext())
-					{
-						Edge oppBranch = oppIt.next();
-						if (oppBranch.equals(branch))
-						{
-							oppIt.remove();
-							break;
-						}
-					}
-
-					// remove the Edge from the Vertex
-					v.getBranches().remove(0);
-
-					// remove the Vertex from the Graph
-					vit.remove();
+					pruneEndBranch(t, v, stack, taggedImage, prunedEndPoints, prunedSlabs, prunedBranches);
 				}
+				else
+					remainingVertices.add(v);
 			}
 
+			// remove the pruned Edges and Vertices from the Graph
+			removeEdges(g.getEdges(), prunedBranches);
+			vertices.clear();
+			vertices.addAll(remainingVertices);
+
 			if(debug)
 				IJ.log("Final number of vertices: " + graph[t].getVertices().size());
 		}
 
-		return;
+		removePoints(this.listOfEndPoints, prunedEndPoints);
+		removePoints(this.listOfSlabVoxels, prunedSlabs);
 	}
 
 	/**
@@ -819,6 +780,9 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 	{
 		if(debug)
 			IJ.log("Pruning end-point branches...");
+		// voxels to remove from the global lists of end points and slabs
+		final BitSet prunedEndPoints = new BitSet();
+		final BitSet prunedSlabs = new BitSet();
 		for (int t = 0; t < this.numOfTrees; t++)
 		{
 			if(debug)
@@ -826,101 +790,153 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 
 			Graph g = graph[t];
 			ArrayList<Vertex> vertices = g.getVertices();
-			ListIterator<Vertex> vit = vertices.listIterator();
+			ArrayList<Vertex> remainingVertices = new ArrayList<Vertex>(vertices.size());
+			Set<Edge> prunedBranches = Collections.newSetFromMap(new IdentityHashMap<Edge, Boolean>());
 
 			if(debug)
 				IJ.log("Initial number of vertices: " + graph[t].getVertices().size());
 
-			while (vit.hasNext())
+			for (int i = 0; i < vertices.size(); i++)
 			{
-				Vertex v = vit.next();
+				Vertex v = vertices.get(i);
+				// Check if the vertex is an end point
 				if (v.getBranches().size() == 1 && v.getBranches().get(0).getLength() <= length)
 				{
 					if(debug)
 						IJ.log("Pruning branch starting at " + v.getPoints().get(0));
-					// Remove end point voxels
-					ArrayList<Point> points = v.getPoints();
-					final int nPoints = points.size();
+					pruneEndBranch(t, v, stack, taggedImage, prunedEndPoints, prunedSlabs, prunedBranches);
+				}
+				else
+					remainingVertices.add(v);
+			}
 
-					for (int i = 0; i < nPoints; i++)
-					{
-						Point p = points.get(i);
-						setPixel(stack, p.x, p.y, p.z, (byte) 0);
-						setPixel(taggedImage, p.x, p.y, p.z, (byte) 0);
-						this.numberOfEndPoints[t]--;
-						this.totalNumberOfEndPoints--;
-						Iterator<Point> pit = this.listOfEndPoints.listIterator();
-						while (pit.hasNext()){
-							Point ep = pit.next();
-							if (ep.equals(p)){
-								pit.remove();
-								break;
-							}
-						}
-					}
+			// remove the pruned Edges and Vertices from the Graph
+			removeEdges(g.getEdges(), prunedBranches);
+			vertices.clear();
+			vertices.addAll(remainingVertices);
 
-					// Remove branch voxels
-					Edge branch = v.getBranches().get(0);
-					points = branch.getSlabs();
-					final int nSlabs = points.size();
-					for (int i = 0; i < nSlabs; i++)
-					{
-						Point p = points.get(i);
-						setPixel(stack, p.x, p.y, p.z, (byte) 0);
-						setPixel(taggedImage, p.x, p.y, p.z, (byte) 0);
-						this.numberOfSlabs[t]--;
-						this.totalNumberOfSlabs--;
-						Iterator<Point> pit = this.listOfSlabVoxels.listIterator();
-						while (pit.hasNext())
-						{
-							Point ep = pit.next();
-							if (ep.equals(p)){
-								pit.remove();
-								break;
-							}
-						}
-					}
+			if(debug)
+				IJ.log("Final number of vertices: " + graph[t].getVertices().size());
+		}
 
-					// remove the Edge from the Graph
-					ArrayList<Edge> gEdges = graph[t].getEdges();
-					Iterator<Edge> git = gEdges.listIterator();
-					while (git.hasNext())
-					{
-						Edge e = git.next();
-						if (e.equals(branch))
-						{
-							git.remove();
-							break;
-						}
-					}
+		removePoints(this.listOfEndPoints, prunedEndPoints);
+		removePoints(this.listOfSlabVoxels, prunedSlabs);
+	}
 
-					// remove the Edge from the opposite Vertex
-					Vertex opp = branch.getOppositeVertex(v);
-					ArrayList<Edge> oppBranches = opp.getBranches();
-					Iterator<Edge> oppIt = oppBranches.listIterator();
-					while (oppIt.hasNext())
-					{
-						Edge oppBranch = oppIt.next();
-						if (oppBranch.equals(branch))
-						{
-							oppIt.remove();
-							break;
-						}
-					}
+	/**
+	 * Remove an end-point branch from the images and from the Vertex on the
+	 * other side of the branch. The voxels are collected to remove them from
+	 * the global lists, and the branch to remove it from the Graph, after all
+	 * Vertices of the tree have been checked.
+	 *
+	 * @param t tree index
+	 * @param v end-point Vertex with a single branch
+	 * @param stack input skeleton image
+	 * @param taggedImage tagged skeleton image
+	 * @param prunedEndPoints collects the removed Vertex voxels
+	 * @param prunedSlabs collects the removed slab voxels
+	 * @param prunedBranches collects the removed branch
+	 */
+	private void pruneEndBranch(
+			int t,
+			Vertex v,
+			ImageStack stack,
+			ImageStack taggedImage,
+			BitSet prunedEndPoints,
+			BitSet prunedSlabs,
+			Set<Edge> prunedBranches)
+	{
+		// Remove end point voxels
+		ArrayList<Point> points = v.getPoints();
+		final int nPoints = points.size();
+
+		for (int i = 0; i < nPoints; i++)
+		{
+			Point p = points.get(i);
+			setPixel(stack, p.x, p.y, p.z, (byte) 0);
+			setPixel(taggedImage, p.x, p.y, p.z, (byte) 0);
+			final int voxel = removeSkeletonVoxel(p, true);
+			if(voxel >= 0)
+				prunedEndPoints.set(voxel);
+			this.numberOfEndPoints[t]--;
+			this.totalNumberOfEndPoints--;
+		}
 
-					// remove the Edge from the Vertex
-					v.getBranches().remove(0);
+		// Remove branch voxels
+		Edge branch = v.getBranches().get(0);
+		points = branch.getSlabs();
+		final int nSlabs = points.size();
+		for (int i = 0; i < nSlabs; i++)
+		{
+			Point p = points.get(i);
+			setPixel(stack, p.x, p.y, p.z, (byte) 0);
+			setPixel(taggedImage, p.x, p.y, p.z, (byte) 0);
+			final int voxel = removeSkeletonVoxel(p, true);
+			if(voxel >= 0)
+				prunedSlabs.set(voxel);
+			this.numberOfSlabs[t]--;
+			this.totalNumberOfSlabs--;
+		}
 
-					// remove the Vertex from the Graph
-					vit.remove();
-				}
+		prunedBranches.add(branch);
+
+		// remove the Edge from the opposite Vertex
+		Vertex opp = branch.getOppositeVertex(v);
+		ArrayList<Edge> oppBranches = opp.getBranches();
+		Iterator<Edge> oppIt = oppBranches.listIterator();
+		while (oppIt.hasNext())
+		{
+			Edge oppBranch = oppIt.next();
+			if (oppBranch.equals(branch))
+			{
+				oppIt.remove();
+				break;
 			}
+		}
 
-			if(debug)
-				IJ.log("Final number of vertices: " + graph[t].getVertices().size());
+		// remove the Edge from the Vertex
+		v.getBranches().remove(0);
+	}
+
+	/**
+	 * Remove edges from a list, keeping the order of the remaining edges.
+	 *
+	 * @param edges list of edges
+	 * @param removed edges to remove
+	 */
+	private static void removeEdges(ArrayList<Edge> edges, Set<Edge> removed)
+	{
+		if(removed.isEmpty())
+			return;
+		int n = 0;
+		for(int i = 0; i < edges.size(); i++)
+		{
+			final Edge e = edges.get(i);
+			if(!removed.contains(e))
+				edges.set(n++, e);
 		}
+		edges.subList(n, edges.size()).clear();
+	}
 
-		return;
+	/**
+	 * Remove the points of voxels from a list, keeping the order of the remaining points.
+	 *
+	 * @param points list of points
+	 * @param removed voxels (indices in the voxel graph) to remove
+	 */
+	private void removePoints(ArrayList<Point> points, BitSet removed)
+	{
+		if(removed.isEmpty())
+			return;
+		int n = 0;
+		for(int i = 0; i < points.size(); i++)
+		{
+			final Point p = points.get(i);
+			final int voxel = this.voxelGraph.find(p);
+			if(voxel < 0 || !removed.get(voxel))
+				points.set(n++, p);
+		}
+		points.subList(n, points.size()).clear();
 	}
 
 
@@ -962,6 +978,43 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 	public void processSkeleton(ImageStack inputImage2) 
 	{
 		// Initialize  global lists of points
+		initializeVoxelLists();
+
+		// Prepare data: classify voxels and tag them.
+		this.taggedImage = tagImage(inputImage2);
+
+		analyzeTaggedSkeleton(null);
+	} // end method processSkeleton
+
+	// ---------------------------------------------------------------------------
+	/**
+	 * Process the skeleton again after pruning: only the voxels that were
+	 * removed and their neighbors are tagged again, the tagged image and the
+	 * tree image are updated in place, then trees are marked and visited as
+	 * in processSkeleton(ImageStack).
+	 */
+	private void reprocessPrunedSkeleton() 
+	{
+		initializeVoxelLists();
+
+		// Clear the tree labels of all voxels before they are marked again
+		final ImageStack treeImage = this.labeledSkeletons;
+		if(treeImage != null)
+			for(int v = 0; v < this.voxelGraph.size(); v++)
+				setPixel(treeImage, this.voxelGraph.getX(v), this.voxelGraph.getY(v), 
+						this.voxelGraph.getZ(v), 0.0f);
+
+		retagPrunedVoxels();
+
+		analyzeTaggedSkeleton(treeImage);
+	} // end method reprocessPrunedSkeleton
+
+	// ---------------------------------------------------------------------------
+	/**
+	 * Reset the global lists of end point, junction and slab voxels.
+	 */
+	private void initializeVoxelLists() 
+	{
 		this.listOfEndPoints = new ArrayList<Point>();
 		this.listOfJunctionVoxels = new ArrayList<Point>();
 		this.listOfSlabVoxels = new ArrayList<Point>();
@@ -969,11 +1022,17 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 		this.totalNumberOfEndPoints = 0;
 		this.totalNumberOfJunctionVoxels = 0;
 		this.totalNumberOfSlabs = 0;
+	}
 
-
-		// Prepare data: classify voxels and tag them.
-		this.taggedImage = tagImage(inputImage2);
-
+	// ---------------------------------------------------------------------------
+	/**
+	 * Mark trees, divide the voxels by trees, group junctions and visit the 
+	 * trees of the tagged skeleton.
+	 * 
+	 * @param treeImage tree image to reuse (all voxels 0), null to create a new one
+	 */
+	private void analyzeTaggedSkeleton(ImageStack treeImage) 
+	{
 		// Show tags image.
 		if(!bPruneCycles && !silent)
 		{
@@ -981,7 +1040,7 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 		}
 
 		// Mark trees
-		labeledSkeletons = markTrees(taggedImage);
+		labeledSkeletons = markTrees(taggedImage, treeImage);
 
 		if(this.numOfTrees == 0)
 			return;
@@ -1013,7 +1072,7 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 		for(int i = 0; i < this.numOfTrees; i++)
 			visitSkeleton(taggedImage, labeledSkeletons, i+1);
 
-	} // end method processSkeleton
+	} // end method analyzeTaggedSkeleton
 
 	// -----------------------------------------------------------------------
 	/**
@@ -1037,6 +1096,7 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 			if(this.startingSlabTree[iTree].size() == 1)
 			{
 				setPixel(inputImage, this.startingSlabTree[iTree].get(0),(byte) 0);
+				removeSkeletonVoxel(this.startingSlabTree[iTree].get(0), false);
 				pruned = true;
 			}
 			else // For the rest, we do depth-first search to detect the cycles
@@ -1095,6 +1155,7 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 							else 
 								removeCoords = minEdge.getV1().getPoints().get(0);
 							setPixel(inputImage, removeCoords,(byte) 0);
+							removeSkeletonVoxel(removeCoords, false);
 						}
 						else if (pruningMode == AnalyzeSkeleton_.LOWEST_INTENSITY_VOXEL)
 						{
@@ -1173,6 +1234,7 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 		if(debug)
 			IJ.log("Cut loop at coordinates: " + lowestIntensityVoxel);
 		setPixel(inputImage2, lowestIntensityVoxel,(byte) 0);
+		removeSkeletonVoxel(lowestIntensityVoxel, false);
 	}//end method removeLowestIntensityVoxel
 
 	// -----------------------------------------------------------------------
@@ -1260,6 +1322,7 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 		if(debug)
 			IJ.log("Cut loop at coordinates: " + removeCoords);
 		setPixel(inputImage2, removeCoords,(byte) 0);
+		removeSkeletonVoxel(removeCoords, false);
 
 	}// end method cutLowestIntensityBranch
 
@@ -1857,18 +1920,23 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 	 * Color the different trees in the skeleton.
 	 * 
 	 * @param taggedImage
+	 * @param treeImage image to reuse for the output (all voxels 0), null to create a new one
 	 * 
 	 * @return image with every tree tagged with a different number 
 	 */
-	private ImageStack markTrees(ImageStack taggedImage) 
+	private ImageStack markTrees(ImageStack taggedImage, ImageStack treeImage) 
 	{
 		if(debug)
 			IJ.log("=== Mark Trees ===");
 		// Create output image
-		ImageStack outputImage = new ImageStack( this.width, this.height );
-		for (int z = 0; z < depth; z++)
+		ImageStack outputImage = treeImage;
+		if(outputImage == null)
 		{
-			outputImage.addSlice(taggedImage.getSliceLabel(z+1), new FloatProcessor(this.width, this.height));
+			outputImage = new ImageStack( this.width, this.height );
+			for (int z = 0; z < depth; z++)
+			{
+				outputImage.addSlice(taggedImage.getSliceLabel(z+1), new FloatProcessor(this.width, this.height));
+			}
 		}
 
 		this.numOfTrees = 0;
@@ -2381,14 +2449,8 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 	private void resetVisited()
 	{
 		// Reset visited variable
-		this.visited = null;
-		this.visited = new boolean[this.width][this.height][this.depth];
-		/*
-		for(int i = 0; i < this.width; i ++)
-			for(int j = 0; j < this.height; j++)
-				for(int k = 0; k < this.depth; k++)
-					this.visited[i][j][k] = false;
-		*/
+		if(this.voxelGraph != null)
+			this.voxelGraph.resetVisited();
 	}
 
 	// -----------------------------------------------------------------------
@@ -2494,11 +2556,9 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 					Point pj = groupOfJunctions.get(j);
 
 					// Get neighbors and check the slabs or end-points
-					byte[] neighborhood = this.getNeighborhood(this.taggedImage, pj.x, pj.y, pj.z);
-					for(int k = 0; k < 27; k++)
-						if (neighborhood[k] == AnalyzeSkeleton_.SLAB 
-							|| neighborhood[k] == AnalyzeSkeleton_.END_POINT)
-							nBranch++;
+					final int vj = this.voxelGraph.find(pj);
+					if(vj >= 0)
+						nBranch += this.voxelGraph.getNumberOfBranchNeighbors(vj);
 				}
 				// If the junction has only 3 slab/end-point neighbors, then it is a triple point
 				if (nBranch == 3)
@@ -2527,6 +2587,40 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 		          + Math.pow( (point1.z - point2.z), 2)) <= Math.sqrt(3);
 	}
 
+	/* -----------------------------------------------------------------------*/
+	/**
+	 * Get the tag of a voxel.
+	 * 
+	 * @param x x- voxel coordinate
+	 * @param y y- voxel coordinate
+	 * @param z z- voxel coordinate
+	 * @return tag (END_POINT, JUNCTION or SLAB), 0 if the voxel is not part of the skeleton
+	 */
+	private byte getTag(int x, int y, int z) 
+	{
+		final int v = this.voxelGraph.find(x, y, z);
+		return v < 0 ? 0 : this.voxelGraph.getTag(v);
+	}
+
+	/* -----------------------------------------------------------------------*/
+	/**
+	 * Mark a voxel as removed from the skeleton image in the voxel graph.
+	 * 
+	 * @param point voxel coordinates
+	 * @param untag true if the voxel was also removed from the tagged image
+	 * @return index of the voxel in the voxel graph, -1 if it is not a skeleton voxel
+	 */
+	private int removeSkeletonVoxel(Point point, boolean untag) 
+	{
+		final int v = this.voxelGraph.find(point);
+		if(v < 0)
+			return -1;
+		this.voxelGraph.remove(v);
+		if(untag)
+			this.voxelGraph.setTag(v, (byte) 0);
+		return v;
+	}
+
 	/* -----------------------------------------------------------------------*/
 	/**
 	 * Check if the point is slab.
@@ -2536,7 +2630,7 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 	 */
 	private boolean isSlab(Point point) 
 	{
-		return getPixel(this.taggedImage, point.x, point.y, point.z) == AnalyzeSkeleton_.SLAB;
+		return getTag(point.x, point.y, point.z) == AnalyzeSkeleton_.SLAB;
 	}
 
 	/* -----------------------------------------------------------------------*/
@@ -2548,7 +2642,7 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 	 */
 	private boolean isJunction(Point point) 
 	{
-		return getPixel(this.taggedImage, point.x, point.y, point.z) == AnalyzeSkeleton_.JUNCTION;
+		return getTag(point.x, point.y, point.z) == AnalyzeSkeleton_.JUNCTION;
 	}
 
 	/* -----------------------------------------------------------------------*/
@@ -2560,7 +2654,7 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 	 */
 	private boolean isEndPoint(Point point) 
 	{
-		return getPixel(this.taggedImage, point.x, point.y, point.z) == AnalyzeSkeleton_.END_POINT;
+		return getTag(point.x, point.y, point.z) == AnalyzeSkeleton_.END_POINT;
 	}
 
 	/* -----------------------------------------------------------------------*/
@@ -2598,7 +2692,7 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 	 */
 	private boolean isJunction(int x, int y, int z) 
 	{
-		return getPixel(this.taggedImage, x, y, z) == AnalyzeSkeleton_.JUNCTION;
+		return getTag(x, y, z) == AnalyzeSkeleton_.JUNCTION;
 	}
 
 	/* -----------------------------------------------------------------------*/
@@ -2610,26 +2704,11 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 	 */
 	private Point getNextUnvisitedVoxel(Point point) 
 	{
-		Point unvisitedNeighbor = null;
-
-		// Check neighbors status
-		for(int x = -1; x < 2; x++)
-			for(int y = -1; y < 2; y++)
-				for(int z = -1; z < 2; z++)
-				{
-					if(x == 0 && y == 0 && z == 0)
-						continue;
-
-					if(getPixel(this.inputImage, point.x + x, point.y + y, point.z + z) != 0
-						&& isVisited(point.x + x, point.y + y, point.z + z) == false)
-					{
-						unvisitedNeighbor = new Point(point.x + x, point.y + y, point.z + z);
-						break;
-					}
-
-				}
-
-		return unvisitedNeighbor;
+		final int v = this.voxelGraph.find(point);
+		if(v < 0)
+			return null;
+		final int neighbor = this.voxelGraph.getNextUnvisitedNeighbor(v, false);
+		return neighbor < 0 ? null : this.voxelGraph.getPoint(neighbor);
 	}// end getNextUnvisitedVoxel
 
 	/* -----------------------------------------------------------------------*/
@@ -2641,27 +2720,11 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 	 */
 	private Point getNextUnvisitedJunctionVoxel(Point point) 
 	{
-		Point unvisitedNeighbor = null;
-
-		// Check neighbors status
-		for(int x = -1; x < 2; x++)
-			for(int y = -1; y < 2; y++)
-				for(int z = -1; z < 2; z++)
-				{
-					if(x == 0 && y == 0 && z == 0)
-						continue;
-
-					if(getPixel(this.inputImage, point.x + x, point.y + y, point.z + z) != 0
-						&& isVisited(point.x + x, point.y + y, point.z + z) == false 
-						&& isJunction(point.x + x, point.y + y, point.z + z))
-					{
-						unvisitedNeighbor = new Point(point.x + x, point.y + y, point.z + z);
-						break;
-					}
-
-				}
-
-		return unvisitedNeighbor;
+		final int v = this.voxelGraph.find(point);
+		if(v < 0)
+			return null;
+		final int neighbor = this.voxelGraph.getNextUnvisitedNeighbor(v, true);
+		return neighbor < 0 ? null : this.voxelGraph.getPoint(neighbor);
 	}// end getNextUnvisitedJunctionVoxel 
 
 	// -----------------------------------------------------------------------
@@ -2675,30 +2738,11 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 	 */
 	private Point getVisitedJunctionNeighbor(Point point, Vertex exclude) 
 	{
-		Point finalNeighbor = null;
-
-		// Check neighbors status
-		for(int x = -1; x < 2; x++)
-			for(int y = -1; y < 2; y++)
-				for(int z = -1; z < 2; z++)
-				{
-					if(x == 0 && y == 0 && z == 0)
-						continue;
-
-					final Point neighbor = new Point( point.x + x, point.y + y, point.z + z);
-
-					if(getPixel(this.inputImage, neighbor) != 0
-						&& isVisited(neighbor)
-						&& isJunction(neighbor)
-						&& ! exclude.getPoints().contains(neighbor))
-					{
-						finalNeighbor = neighbor;
-						break;
-					}
-
-				}
-
-		return finalNeighbor;
+		final int v = this.voxelGraph.find(point);
+		if(v < 0)
+			return null;
+		final int neighbor = this.voxelGraph.getVisitedJunctionNeighbor(v, exclude);
+		return neighbor < 0 ? null : this.voxelGraph.getPoint(neighbor);
 	}// end getNextUnvisitedJunctionVoxel 
 
 	// -----------------------------------------------------------------------
@@ -2727,7 +2771,10 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 	private boolean isVisited(int x, int y, int z) 
 	{
 		if(x >= 0 && x < this.width && y >= 0 && y < this.height && z >= 0 && z < this.depth)
-			return this.visited[x][y][z];
+		{
+			final int v = this.voxelGraph.find(x, y, z);
+			return v >= 0 && this.voxelGraph.isVisited(v);
+		}
 		return true;
 	}
 
@@ -2743,8 +2790,9 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 	 */
 	private void setVisited(int x, int y, int z, boolean b) 
 	{
-		if(x >= 0 && x < this.width && y >= 0 && y < this.height && z >= 0 && z < this.depth)
-			this.visited[x][y][z] = b;
+		final int v = this.voxelGraph.find(x, y, z);
+		if(v >= 0)
+			this.voxelGraph.setVisited(v, b);
 	}
 
 	/* -----------------------------------------------------------------------*/
@@ -2774,6 +2822,7 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 	{
 		// Create output image
 		ImageStack outputImage = new ImageStack(this.width, this.height, inputImage2.getColorModel());
+		this.voxelGraph = new SkeletonVoxelGraph(inputImage2);
 
 		// Tag voxels
 		for (int z = 0; z < depth; z++)
@@ -2784,7 +2833,7 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 				{
 					if(getPixel(inputImage2, x, y, z) != 0)
 					{
-						int numOfNeighbors = getNumberOfNeighbors(inputImage2, x, y, z);
+						int numOfNeighbors = this.voxelGraph.getNumberOfNeighbors(this.voxelGraph.find(x, y, z));
 						if(numOfNeighbors < 2)
 						{
 							setPixel(outputImage, x, y, z, AnalyzeSkeleton_.END_POINT);
@@ -2815,25 +2864,46 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 
 	/* -----------------------------------------------------------------------*/
 	/**
-	 * Get number of neighbors of a voxel in a 3D image (0 border conditions).
-	 * 
-	 * @param image 3D image (ImageStack)
-	 * @param x x- coordinate
-	 * @param y y- coordinate
-	 * @param z z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding 27-pixels neighborhood (0 if out of image)
+	 * Update the tags of a pruned skeleton: removed voxels are cleared in the
+	 * tagged image, voxels whose number of neighbors changed are tagged again,
+	 * and the lists of end points, junctions and slabs are filled in the same
+	 * order as by tagImage(ImageStack), without scanning the whole image.
 	 */
-	private int getNumberOfNeighbors(ImageStack image, int x, int y, int z)
+	private void retagPrunedVoxels() 
 	{
-		int n = 0;
-		byte[] neighborhood = getNeighborhood(image, x, y, z);
+		final SkeletonVoxelGraph g = this.voxelGraph;
+		final BitSet changed = g.getChanged();
+		for(int v = changed.nextSetBit(0); v >= 0; v = changed.nextSetBit(v + 1))
+		{
+			final byte tag = g.isPresent(v) ? 
+					SkeletonVoxelGraph.getTagByNumberOfNeighbors(g.getNumberOfNeighbors(v)) : 0;
+			g.setTag(v, tag);
+			setPixel(this.taggedImage, g.getX(v), g.getY(v), g.getZ(v), tag);
+		}
+		g.clearChanged();
 
-		for(int i = 0; i < 27; i ++)
-			if(neighborhood[i] != 0)
-				n++;
-		// We return n-1 because neighborhood includes the actual voxel.
-		return (n-1);
-	}// end method getNumberOfNeighbors
+		for(final int v : g.getScanOrder())
+		{
+			if(!g.isPresent(v))
+				continue;
+			final byte tag = g.getTag(v);
+			if(tag == AnalyzeSkeleton_.END_POINT)
+			{
+				this.totalNumberOfEndPoints++;
+				this.listOfEndPoints.add(g.getPoint(v));
+			}
+			else if(tag == AnalyzeSkeleton_.JUNCTION)
+			{
+				this.listOfJunctionVoxels.add(g.getPoint(v));
+				this.totalNumberOfJunctionVoxels++;
+			}
+			else
+			{
+				this.listOfSlabVoxels.add(g.getPoint(v));
+				this.totalNumberOfSlabs++;
+			}
+		}
+	}// end method retagPrunedVoxels
 
 	// -----------------------------------------------------------------------
 	/**
@@ -3282,6 +3352,196 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 	}
 	// end method warshallAlgorithm
 
+	/**
+	 * Set the method to calculate the longest shortest path of each tree
+	 * 
+	 * @param mode LSP_WARSHALL, LSP_TREE_DIAMETER, or LSP_TREE_DIAMETER_DIJKSTRA
+	 */
+	public void setLongestShortestPathMode(int mode)
+	{
+		this.longestShortestPathMode = mode;
+	}
+
+	/**
+	 * Set whether the skeleton is tagged again only around the pruned voxels
+	 * after pruning cycles (default), or by tagging the whole image again
+	 * 
+	 * @param incremental true to update the tags of the pruned skeleton locally
+	 */
+	public void setIncrementalPruning(boolean incremental)
+	{
+		this.incrementalPruning = incremental;
+	}
+
+	/**
+	 * Determine the longest shortest path with the selected method.
+	 * For acyclic graphs, the longest shortest path is the tree diameter, which is found
+	 * in linear time. The path and its length equal the ones of the warshall algorithm:
+	 * the length is summed up in the same order as in the warshall algorithm, and among
+	 * paths of equal length the one with the lowest start and end vertex index is selected.
+	 * Cyclic graphs are handled by the warshall algorithm or by Dijkstra's algorithm
+	 * from every vertex. Graphs with self-loops, edges with non-positive length, or edges
+	 * to vertices outside the graph are always handled by the warshall algorithm.
+	 * 
+	 * @param graph the graph of a tree
+	 * @param shortestPathPoints list to store the longest shortest path points
+	 * @return longest shortest path length
+	 */
+	private double longestShortestPath(Graph graph, ArrayList <Point> shortestPathPoints)
+	{
+		if(this.longestShortestPathMode == LSP_WARSHALL || graph.getVertices().size() < 2)
+			return warshallAlgorithm(graph, shortestPathPoints);
+
+		SparseGraph sparse = SparseGraph.create(graph);
+		if(sparse == null)
+			return warshallAlgorithm(graph, shortestPathPoints);
+
+		if(sparse.isTree())
+			return treeDiameter(sparse, shortestPathPoints);
+		if(this.longestShortestPathMode == LSP_TREE_DIAMETER_DIJKSTRA)
+			return dijkstraAlgorithm(sparse, shortestPathPoints);
+		return warshallAlgorithm(graph, shortestPathPoints);
+	}
+	// end method longestShortestPath
+
+	/**
+	 * Determine the longest shortest path of an acyclic graph (tree diameter).
+	 * 
+	 * Two traversals find the diameter length and both ends s and t. The eccentricity
+	 * of a vertex is its distance to s or t, whichever is larger. Only vertices whose
+	 * eccentricity equals the diameter (up to rounding) can be ends of the longest path,
+	 * so only pairs of these vertices are compared with the lengths that the warshall
+	 * algorithm would calculate.
+	 * 
+	 * @param sparse the graph of a tree
+	 * @param shortestPathPoints list to store the longest shortest path points
+	 * @return longest shortest path length
+	 */
+	private double treeDiameter(SparseGraph sparse, ArrayList <Point> shortestPathPoints)
+	{
+		final int n = sparse.size();
+		double[] distance = new double[n];
+		double[] distanceT = new double[n];
+		int[] parent = new int[n];
+
+		sparse.treeDistances(0, distance, parent);
+		final int s = argMax(distance);
+		sparse.treeDistances(s, distance, parent);
+		final int t = argMax(distance);
+		final double diameter = distance[t];
+		sparse.treeDistances(t, distanceT, parent);
+
+		// candidate ends of the longest path
+		final double minimumEccentricity = diameter * (1.0 - 1.0E-9);
+		int nCandidates = 0;
+		int[] candidates = new int[n];
+		for(int i = 0; i < n; i++)
+			if(Math.max(distance[i], distanceT[i]) >= minimumEccentricity)
+				candidates[nCandidates++] = i;
+
+		// the warshall algorithm selects the first maximum in row-major order,
+		// since lengths are symmetric only pairs a < b need to be compared
+		double maxPath = 0;
+		int[] path = new int[n];
+		int[] longestPath = null;
+		int pathLength;
+		double length;
+		for(int i = 0; i < nCandidates; i++)
+		{
+			sparse.treeDistances(candidates[i], distance, parent);
+			for(int j = i + 1; j < nCandidates; j++)
+			{
+				pathLength = 0;
+				for(int v = candidates[j]; v != -1; v = parent[v])
+					path[pathLength++] = v;
+				length = sparse.warshallPathLength(path, 0, pathLength - 1);
+				if(length > maxPath)
+				{
+					maxPath = length;
+					longestPath = Arrays.copyOf(path, pathLength);
+				}
+			}
+		}
+
+		// trace back the longest shortest path from its end (path[0]) to its start
+		if(longestPath != null)
+		{
+			for(int k = 0; k < longestPath.length - 1; k++)
+				addPathEdge(sparse.getShortestEdge(longestPath[k + 1], longestPath[k]),
+						sparse.getVertex(longestPath[k + 1]), shortestPathPoints);
+			setPathStartPosition(shortestPathPoints);
+		}
+		return maxPath;
+	}
+	// end method treeDiameter
+
+	/**
+	 * Determine the longest shortest path of a cyclic graph by Dijkstra's algorithm from
+	 * every vertex. As in the warshall algorithm, the first maximum in row-major order is
+	 * selected, whereby each pair of vertices is only compared once (the warshall lengths
+	 * are symmetric). Lengths are summed up along the path, so they may differ from the
+	 * ones of the warshall algorithm by rounding, and the selected path may differ from the
+	 * one of the warshall algorithm if there are paths of the same length.
+	 * 
+	 * @param sparse the graph
+	 * @param shortestPathPoints list to store the longest shortest path points
+	 * @return longest shortest path length
+	 */
+	private double dijkstraAlgorithm(SparseGraph sparse, ArrayList <Point> shortestPathPoints)
+	{
+		final int n = sparse.size();
+		double[] distance = new double[n];
+		int[] predecessor = new int[n];
+		int[] longestPredecessor = null;
+		double maxPath = 0;
+		int a = 0;
+		int b = 0;
+
+		for(int i = 0; i < n; i++)
+		{
+			sparse.dijkstra(i, distance, predecessor);
+			boolean found = false;
+			for(int j = i + 1; j < n; j++)
+			{
+				if(distance[j] > maxPath && distance[j] != Double.POSITIVE_INFINITY)
+				{
+					maxPath = distance[j];
+					a = i;
+					b = j;
+					found = true;
+				}
+			}
+			if(found)
+				longestPredecessor = predecessor.clone();
+		}
+
+		// trace back the longest shortest path
+		if(longestPredecessor != null)
+		{
+			while(b != a)
+			{
+				addPathEdge(sparse.getShortestEdge(longestPredecessor[b], b),
+						sparse.getVertex(longestPredecessor[b]), shortestPathPoints);
+				b = longestPredecessor[b];
+			}
+			setPathStartPosition(shortestPathPoints);
+		}
+		return maxPath;
+	}
+	// end method dijkstraAlgorithm
+
+	/**
+	 * @return index of the first maximum value
+	 */
+	private static int argMax(double[] values)
+	{
+		int index = 0;
+		for(int i = 1; i < values.length; i++)
+			if(values[i] > values[index])
+				index = i;
+		return index;
+	}
+
 	/**
 	 * Reconstruction and visualisation of the longest shortest path found by the APSP warshall algorithm
 	 *  
@@ -3339,54 +3599,79 @@ public class AnalyzeSkeleton_ implements PlugInFilter, DialogListener
 				}
 
 			}
-			// add vertex 1 points
-			Vertex v1 = shortestedge.getV2() != predecessor ?
-						shortestedge.getV2() : shortestedge.getV1();
-			for (Point p : v1.getPoints())
-			{
-				if( ! shortestPathPoints.contains( p ))
-				{
-					shortestPathPoints.add(p);
-					//setPixel(this.shortPathImage, p.x, p.y, p.z, SHORTEST_PATH);
-				}
-			}
+			addPathEdge(shortestedge, predecessor, shortestPathPoints);
+
+			// now make the index of the endvertex the index of the predecessor so that the path now goes from
+			// a to predecessor and repeat cycle
+			b = predecessorMatrix[a][b];
+		}
+		setPathStartPosition(shortestPathPoints);
 
-			// add slab points of the shortest edge to the list of points
-			ArrayList<Point> slabs = shortestedge.getSlabs();
-			// reverse order if needed
-			if( shortestedge.getV2() != predecessor )
-				Collections.reverse( slabs );
-			for (Point p : slabs)
+	}
+	// end method reconstructPath
+
+	/**
+	 * Add the points of an edge of the longest shortest path, which is traced back from its end,
+	 * to the list of path points
+	 * 
+	 * @param shortestedge the edge to add
+	 * @param predecessor the vertex of the edge that is closer to the start of the path
+	 * @param shortestPathPoints list of points of the longest shortest path
+	 */
+	private void addPathEdge(Edge shortestedge, Vertex predecessor, ArrayList<Point> shortestPathPoints)
+	{
+		// add vertex 1 points
+		Vertex v1 = shortestedge.getV2() != predecessor ?
+					shortestedge.getV2() : shortestedge.getV1();
+		for (Point p : v1.getPoints())
+		{
+			if( ! shortestPathPoints.contains( p ))
 			{
 				shortestPathPoints.add(p);
-				setPixel(this.shortPathImage, p.x, p.y, p.z, SHORTEST_PATH);
+				//setPixel(this.shortPathImage, p.x, p.y, p.z, SHORTEST_PATH);
 			}
+		}
 
-			// add vertex 2 points too
-			Vertex v2 = shortestedge.getV2() != predecessor ?
-					shortestedge.getV1() : shortestedge.getV2();
-			for (Point p : v2.getPoints())
+		// add slab points of the shortest edge to the list of points
+		ArrayList<Point> slabs = shortestedge.getSlabs();
+		// reverse order if needed
+		if( shortestedge.getV2() != predecessor )
+			Collections.reverse( slabs );
+		for (Point p : slabs)
+		{
+			shortestPathPoints.add(p);
+			setPixel(this.shortPathImage, p.x, p.y, p.z, SHORTEST_PATH);
+		}
+
+		// add vertex 2 points too
+		Vertex v2 = shortestedge.getV2() != predecessor ?
+				shortestedge.getV1() : shortestedge.getV2();
+		for (Point p : v2.getPoints())
+		{
+			if( ! shortestPathPoints.contains( p ))
 			{
-				if( ! shortestPathPoints.contains( p ))
-				{
-					shortestPathPoints.add(p);
-					//setPixel(this.shortPathImage, p.x, p.y, p.z, SHORTEST_PATH);
-				}
+				shortestPathPoints.add(p);
+				//setPixel(this.shortPathImage, p.x, p.y, p.z, SHORTEST_PATH);
 			}
-
-			// now make the index of the endvertex the index of the predecessor so that the path now goes from
-			// a to predecessor and repeat cycle
-			b = predecessorMatrix[a][b];
 		}
+	}
+	// end method addPathEdge
+
+	/**
+	 * Set the start position of the longest shortest path to its first point
+	 * 
+	 * @param shortestPathPoints list of points of the longest shortest path
+	 */
+	private void setPathStartPosition(ArrayList<Point> shortestPathPoints)
+	{
 		if (shortestPathPoints.size() != 0)
 		{
 			this.spx = shortestPathPoints.get(0).x;
 			this.spy = shortestPathPoints.get(0).y;
 			this.spz = shortestPathPoints.get(0).z;
 		}
-
 	}
-	// end method reconstructPath
+	// end method setPathStartPosition
 
 	/**
 	 * Get the stack containing all the trees labeld with their corresponding
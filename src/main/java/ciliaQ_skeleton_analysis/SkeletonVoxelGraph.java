@@ -0,0 +1,381 @@
+/*
+ * #%L
+ * AnalyzeSkeleton_ plugin for ImageJ.
+ * %%
+ * Copyright (C) 2008 - 2016 Ignacio Arganda-Carreras.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ciliaQ_skeleton_analysis;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import ij.ImageStack;
+
+/**
+ * Index-based representation of the voxels of a skeleton image, used by
+ * AnalyzeSkeleton_ to tag and traverse the skeleton without accessing the
+ * image stacks. Voxels are numbered in image order and indexed by image row,
+ * the 26-neighbors of each voxel are stored in compressed adjacency lists, and
+ * the visited and removed flags are kept in bit sets.
+ * <p>
+ * Removing a voxel updates the number of neighbors of the adjacent voxels and
+ * marks them as changed, so that the tags of a pruned skeleton can be updated
+ * locally instead of tagging the whole image again.
+ * <p>
+ * The neighbors of a voxel are listed in the order in which AnalyzeSkeleton_
+ * scans the 3x3x3 neighborhood (x, then y, then z offset), grouped in the nine
+ * columns of x and y offsets.
+ */
+class SkeletonVoxelGraph
+{
+	/** image width */
+	private final int width;
+	/** image height */
+	private final int height;
+	/** image depth */
+	private final int depth;
+	/** linear image index (x + y * width + z * width * height) of each voxel, ascending */
+	private final long[] position;
+	/** first voxel of each image row (y + z * height) */
+	private final int[] rowStart;
+	/** tag of each voxel (END_POINT, JUNCTION, SLAB, or 0 if removed from the tagged image) */
+	private final byte[] tag;
+	/** start of the neighbors of each voxel in neighbor and column */
+	private final int[] start;
+	/** neighbor voxels */
+	private final int[] neighbor;
+	/** column of the neighbor in the 3x3x3 neighborhood ((dx + 1) * 3 + dy + 1) */
+	private final byte[] column;
+	/** number of neighbors of each voxel that have not been removed */
+	private final int[] numberOfNeighbors;
+	/** voxels removed from the skeleton image */
+	private final BitSet removed;
+	/** removed voxels and voxels whose number of neighbors changed since the last call of clearChanged() */
+	private final BitSet changed;
+	/** voxels in the order in which AnalyzeSkeleton_ tags the image (z, then x, then y), null until first requested */
+	private int[] scanOrder = null;
+	/** visited flags */
+	private final BitSet visited;
+
+	// --------------------------------------------------------------------------
+	/**
+	 * Create the graph of the non-zero voxels of a skeleton image. All voxels
+	 * are tagged by their number of neighbors (END_POINT for less than 2 neighbors,
+	 * JUNCTION for more than 2 neighbors, SLAB otherwise).
+	 *
+	 * @param skeleton skeleton image
+	 */
+	SkeletonVoxelGraph(ImageStack skeleton)
+	{
+		this.width = skeleton.getWidth();
+		this.height = skeleton.getHeight();
+		this.depth = skeleton.getSize();
+		final long sliceSize = (long) this.width * this.height;
+
+		// voxels in image order
+		long[] positions = new long[1024];
+		int n = 0;
+		for(int z = 0; z < this.depth; z++)
+		{
+			final byte[] pixels = (byte[]) skeleton.getPixels(z + 1);
+			for(int i = 0; i < pixels.length; i++)
+				if(pixels[i] != 0)
+				{
+					if(n == positions.length)
+						positions = Arrays.copyOf(positions, 2 * n);
+					positions[n++] = z * sliceSize + i;
+				}
+		}
+		this.position = Arrays.copyOf(positions, n);
+
+		this.rowStart = new int[this.height * this.depth + 1];
+		for(int v = 0; v < n; v++)
+			this.rowStart[(int) (this.position[v] / this.width) + 1]++;
+		for(int row = 0; row < this.height * this.depth; row++)
+			this.rowStart[row + 1] += this.rowStart[row];
+
+		// adjacency lists
+		this.start = new int[n + 1];
+		int[] neighbors = new int[Math.max(16, 2 * n)];
+		byte[] columns = new byte[neighbors.length];
+		int k = 0;
+		for(int v = 0; v < n; v++)
+		{
+			this.start[v] = k;
+			final int x = getX(v), y = getY(v), z = getZ(v);
+			for(int dx = -1; dx < 2; dx++)
+				for(int dy = -1; dy < 2; dy++)
+					for(int dz = -1; dz < 2; dz++)
+					{
+						if(dx == 0 && dy == 0 && dz == 0)
+							continue;
+						final int u = find(x + dx, y + dy, z + dz);
+						if(u < 0)
+							continue;
+						if(k == neighbors.length)
+						{
+							neighbors = Arrays.copyOf(neighbors, 2 * k);
+							columns = Arrays.copyOf(columns, 2 * k);
+						}
+						neighbors[k] = u;
+						columns[k++] = (byte) ((dx + 1) * 3 + dy + 1);
+					}
+		}
+		this.start[n] = k;
+		this.neighbor = Arrays.copyOf(neighbors, k);
+		this.column = Arrays.copyOf(columns, k);
+
+		this.numberOfNeighbors = new int[n];
+		this.tag = new byte[n];
+		for(int v = 0; v < n; v++)
+		{
+			this.numberOfNeighbors[v] = this.start[v + 1] - this.start[v];
+			this.tag[v] = getTagByNumberOfNeighbors(this.numberOfNeighbors[v]);
+		}
+
+		this.removed = new BitSet(n);
+		this.changed = new BitSet(n);
+		this.visited = new BitSet(n);
+	}
+
+	/**
+	 * @param numOfNeighbors number of skeleton voxels in the 26-neighborhood
+	 * @return END_POINT for less than 2 neighbors, JUNCTION for more than 2 neighbors, SLAB otherwise
+	 */
+	static byte getTagByNumberOfNeighbors(int numOfNeighbors)
+	{
+		if(numOfNeighbors < 2)
+			return AnalyzeSkeleton_.END_POINT;
+		else if(numOfNeighbors > 2)
+			return AnalyzeSkeleton_.JUNCTION;
+		return AnalyzeSkeleton_.SLAB;
+	}
+
+	/**
+	 * @return number of voxels
+	 */
+	int size()
+	{
+		return this.position.length;
+	}
+
+	/**
+	 * @return the voxel at the given coordinates, -1 if it is not a skeleton voxel
+	 */
+	int find(int x, int y, int z)
+	{
+		if(x < 0 || x >= this.width || y < 0 || y >= this.height || z < 0 || z >= this.depth)
+			return -1;
+		final int row = y + z * this.height;
+		final long p = x + row * (long) this.width;
+		for(int v = this.rowStart[row]; v < this.rowStart[row + 1]; v++)
+			if(this.position[v] == p)
+				return v;
+		return -1;
+	}
+
+	/**
+	 * @return the voxel at the given point, -1 if it is not a skeleton voxel
+	 */
+	int find(Point p)
+	{
+		return find(p.x, p.y, p.z);
+	}
+
+	int getX(int v)
+	{
+		return (int) (this.position[v] % this.width);
+	}
+
+	int getY(int v)
+	{
+		return (int) (this.position[v] / this.width % this.height);
+	}
+
+	int getZ(int v)
+	{
+		return (int) (this.position[v] / ((long) this.width * this.height));
+	}
+
+	/**
+	 * @return new point with the coordinates of the voxel
+	 */
+	Point getPoint(int v)
+	{
+		return new Point(getX(v), getY(v), getZ(v));
+	}
+
+	/**
+	 * @return number of skeleton voxels in the 26-neighborhood of the voxel that have not been removed
+	 */
+	int getNumberOfNeighbors(int v)
+	{
+		return this.numberOfNeighbors[v];
+	}
+
+	byte getTag(int v)
+	{
+		return this.tag[v];
+	}
+
+	void setTag(int v, byte tag)
+	{
+		this.tag[v] = tag;
+	}
+
+	/**
+	 * @return false if the voxel was removed from the skeleton image
+	 */
+	boolean isPresent(int v)
+	{
+		return !this.removed.get(v);
+	}
+
+	/**
+	 * Mark a voxel as removed from the skeleton image and update the number of
+	 * neighbors of the adjacent voxels.
+	 */
+	void remove(int v)
+	{
+		if(this.removed.get(v))
+			return;
+		this.removed.set(v);
+		this.changed.set(v);
+		for(int k = this.start[v]; k < this.start[v + 1]; k++)
+		{
+			final int u = this.neighbor[k];
+			this.numberOfNeighbors[u]--;
+			this.changed.set(u);
+		}
+	}
+
+	/**
+	 * @return removed voxels and voxels whose number of neighbors changed since the last call of clearChanged()
+	 */
+	BitSet getChanged()
+	{
+		return this.changed;
+	}
+
+	void clearChanged()
+	{
+		this.changed.clear();
+	}
+
+	/**
+	 * @return voxels in the order in which AnalyzeSkeleton_ tags the image (z, then x, then y)
+	 */
+	int[] getScanOrder()
+	{
+		if(this.scanOrder != null)
+			return this.scanOrder;
+
+		// counting sort by (z, x), voxels of the same column stay in y order
+		final int n = this.position.length;
+		final int[] count = new int[this.depth * this.width + 1];
+		for(int v = 0; v < n; v++)
+			count[getZ(v) * this.width + getX(v) + 1]++;
+		for(int i = 1; i < count.length; i++)
+			count[i] += count[i - 1];
+		this.scanOrder = new int[n];
+		for(int v = 0; v < n; v++)
+			this.scanOrder[count[getZ(v) * this.width + getX(v)]++] = v;
+		return this.scanOrder;
+	}
+
+	boolean isVisited(int v)
+	{
+		return this.visited.get(v);
+	}
+
+	void setVisited(int v, boolean b)
+	{
+		this.visited.set(v, b);
+	}
+
+	void resetVisited()
+	{
+		this.visited.clear();
+	}
+
+	// --------------------------------------------------------------------------
+	/**
+	 * Find the next unvisited neighbor as AnalyzeSkeleton_ does when scanning the
+	 * 3x3x3 neighborhood: in each column the first matching neighbor is taken, and
+	 * the last column with a matching neighbor wins.
+	 *
+	 * @param v voxel
+	 * @param junctionsOnly only consider junction neighbors
+	 * @return unvisited neighbor, -1 if none
+	 */
+	int getNextUnvisitedNeighbor(int v, boolean junctionsOnly)
+	{
+		int found = -1;
+		for(int k = this.start[v]; k < this.start[v + 1]; k++)
+		{
+			final int u = this.neighbor[k];
+			if(this.removed.get(u) || this.visited.get(u))
+				continue;
+			if(junctionsOnly && this.tag[u] != AnalyzeSkeleton_.JUNCTION)
+				continue;
+			if(found < 0 || this.column[k] != this.column[found])
+				found = k;
+		}
+		return found < 0 ? -1 : this.neighbor[found];
+	}
+
+	/**
+	 * Find the next visited junction neighbor that does not belong to a vertex,
+	 * in the scan order of getNextUnvisitedNeighbor(int, boolean).
+	 *
+	 * @param v voxel
+	 * @param exclude vertex whose points are excluded
+	 * @return visited junction neighbor, -1 if none
+	 */
+	int getVisitedJunctionNeighbor(int v, Vertex exclude)
+	{
+		int found = -1;
+		for(int k = this.start[v]; k < this.start[v + 1]; k++)
+		{
+			final int u = this.neighbor[k];
+			if(this.removed.get(u) || !this.visited.get(u) || this.tag[u] != AnalyzeSkeleton_.JUNCTION)
+				continue;
+			if(found >= 0 && this.column[k] == this.column[found])
+				continue;
+			if(exclude.getPoints().contains(getPoint(u)))
+				continue;
+			found = k;
+		}
+		return found < 0 ? -1 : this.neighbor[found];
+	}
+
+	/**
+	 * @return number of neighbors tagged as slab or end point
+	 */
+	int getNumberOfBranchNeighbors(int v)
+	{
+		int n = 0;
+		for(int k = this.start[v]; k < this.start[v + 1]; k++)
+		{
+			final byte t = this.tag[this.neighbor[k]];
+			if(t == AnalyzeSkeleton_.SLAB || t == AnalyzeSkeleton_.END_POINT)
+				n++;
+		}
+		return n;
+	}
+}
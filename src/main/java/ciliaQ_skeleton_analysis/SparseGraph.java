@@ -0,0 +1,331 @@
+/*
+ * #%L
+ * AnalyzeSkeleton_ plugin for ImageJ.
+ * %%
+ * Copyright (C) 2008 - 2016 Ignacio Arganda-Carreras.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ciliaQ_skeleton_analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Adjacency lists of a graph, indexed like the vertex list of the graph,
+ * for shortest path calculations without a distance matrix. Parallel edges are merged:
+ * as in the adjacency matrix of the warshall algorithm, the length of a vertex pair is
+ * the length of the last edge listed for it, while the shortest edge (the first one
+ * in case of equal lengths) is used to trace a path.
+ */
+class SparseGraph
+{
+	/** vertices of the graph */
+	private final Vertex[] vertices;
+	/** start of the neighbors of each vertex in neighbor, length and edge */
+	private final int[] start;
+	/** neighbor vertex indices */
+	private final int[] neighbor;
+	/** length to the neighbor */
+	private final double[] length;
+	/** shortest edge to the neighbor */
+	private final Edge[] edge;
+	/** flag for acyclic and connected graphs */
+	private boolean tree = false;
+
+	private SparseGraph(Vertex[] vertices, int[] start, int[] neighbor, double[] length, Edge[] edge)
+	{
+		this.vertices = vertices;
+		this.start = start;
+		this.neighbor = neighbor;
+		this.length = length;
+		this.edge = edge;
+	}
+
+	// --------------------------------------------------------------------------
+	/**
+	 * Create adjacency lists from a graph.
+	 *
+	 * @param graph the graph
+	 * @return null if the graph contains self-loops, edges with a length that is not
+	 * positive, or edges to vertices that are not part of the graph
+	 */
+	static SparseGraph create(Graph graph)
+	{
+		ArrayList<Vertex> vertexList = graph.getVertices();
+		ArrayList<Edge> edgeList = graph.getEdges();
+		final int n = vertexList.size();
+
+		IdentityHashMap<Vertex, Integer> index = new IdentityHashMap<Vertex, Integer>(2 * n);
+		for(int i = 0; i < n; i++)
+			index.put(vertexList.get(i), i);
+
+		// merge parallel edges into vertex pairs
+		HashMap<Long, Integer> pairOfKey = new HashMap<Long, Integer>(2 * edgeList.size());
+		int nPairs = 0;
+		int[] pairV1 = new int[edgeList.size()];
+		int[] pairV2 = new int[edgeList.size()];
+		double[] pairLength = new double[edgeList.size()];
+		Edge[] pairEdge = new Edge[edgeList.size()];
+		for(Edge e : edgeList)
+		{
+			Integer v1 = index.get(e.getV1());
+			Integer v2 = index.get(e.getV2());
+			if(v1 == null || v2 == null || v1.intValue() == v2.intValue())
+				return null;
+			if(!(e.getLength() > 0) || Double.isInfinite(e.getLength()))
+				return null;
+
+			long key = (long) Math.min(v1, v2) * n + Math.max(v1, v2);
+			Integer pair = pairOfKey.get(key);
+			if(pair == null)
+			{
+				pair = nPairs++;
+				pairOfKey.put(key, pair);
+				pairV1[pair] = v1;
+				pairV2[pair] = v2;
+				pairEdge[pair] = e;
+			}
+			else if(e.getLength() < pairEdge[pair].getLength())
+				pairEdge[pair] = e;
+			pairLength[pair] = e.getLength();
+		}
+
+		// adjacency lists in compressed form
+		int[] start = new int[n + 1];
+		for(int p = 0; p < nPairs; p++)
+		{
+			start[pairV1[p] + 1]++;
+			start[pairV2[p] + 1]++;
+		}
+		for(int i = 0; i < n; i++)
+			start[i + 1] += start[i];
+		int[] fill = Arrays.copyOf(start, n);
+		int[] neighbor = new int[2 * nPairs];
+		double[] length = new double[2 * nPairs];
+		Edge[] edge = new Edge[2 * nPairs];
+		for(int p = 0; p < nPairs; p++)
+		{
+			neighbor[fill[pairV1[p]]] = pairV2[p];
+			length[fill[pairV1[p]]] = pairLength[p];
+			edge[fill[pairV1[p]]++] = pairEdge[p];
+			neighbor[fill[pairV2[p]]] = pairV1[p];
+			length[fill[pairV2[p]]] = pairLength[p];
+			edge[fill[pairV2[p]]++] = pairEdge[p];
+		}
+
+		SparseGraph sparse = new SparseGraph(vertexList.toArray(new Vertex[n]), start, neighbor, length, edge);
+		sparse.tree = nPairs == n - 1 && sparse.isConnected();
+		return sparse;
+	}
+
+	int size()
+	{
+		return this.vertices.length;
+	}
+
+	Vertex getVertex(int v)
+	{
+		return this.vertices[v];
+	}
+
+	/**
+	 * @return true if the graph is connected and has no cycles
+	 */
+	boolean isTree()
+	{
+		return this.tree;
+	}
+
+	/**
+	 * @return the shortest edge between two adjacent vertices, null if they are not adjacent
+	 */
+	Edge getShortestEdge(int v1, int v2)
+	{
+		for(int k = this.start[v1]; k < this.start[v1 + 1]; k++)
+			if(this.neighbor[k] == v2)
+				return this.edge[k];
+		return null;
+	}
+
+	/**
+	 * @return the length between two adjacent vertices, infinity if they are not adjacent
+	 */
+	double getLength(int v1, int v2)
+	{
+		for(int k = this.start[v1]; k < this.start[v1 + 1]; k++)
+			if(this.neighbor[k] == v2)
+				return this.length[k];
+		return Double.POSITIVE_INFINITY;
+	}
+
+	// --------------------------------------------------------------------------
+	/**
+	 * Calculate the distances from a vertex to all vertices of a tree.
+	 *
+	 * @param source the source vertex
+	 * @param distance array to store the distance of each vertex
+	 * @param parent array to store the predecessor of each vertex on the path from the source (-1 for the source)
+	 */
+	void treeDistances(int source, double[] distance, int[] parent)
+	{
+		int[] stack = new int[size()];
+		int stackSize = 0;
+		distance[source] = 0;
+		parent[source] = -1;
+		stack[stackSize++] = source;
+		while(stackSize > 0)
+		{
+			int v = stack[--stackSize];
+			for(int k = this.start[v]; k < this.start[v + 1]; k++)
+			{
+				int u = this.neighbor[k];
+				if(u == parent[v])
+					continue;
+				parent[u] = v;
+				distance[u] = distance[v] + this.length[k];
+				stack[stackSize++] = u;
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------
+	/**
+	 * Calculate the shortest paths from a vertex to all vertices (Dijkstra's algorithm).
+	 *
+	 * @param source the source vertex
+	 * @param distance array to store the distance of each vertex (infinity if not reachable)
+	 * @param predecessor array to store the predecessor of each vertex on the shortest path from the source (-1 if none)
+	 */
+	void dijkstra(int source, double[] distance, int[] predecessor)
+	{
+		Arrays.fill(distance, Double.POSITIVE_INFINITY);
+		Arrays.fill(predecessor, -1);
+		boolean[] done = new boolean[size()];
+
+		// binary heap of (distance, vertex) entries, outdated entries are skipped
+		double[] heapKey = new double[this.neighbor.length + 1];
+		int[] heapVertex = new int[this.neighbor.length + 1];
+		int heapSize = 0;
+
+		distance[source] = 0;
+		heapKey[heapSize] = 0;
+		heapVertex[heapSize++] = source;
+		while(heapSize > 0)
+		{
+			int v = heapVertex[0];
+			heapSize--;
+			double lastKey = heapKey[heapSize];
+			int lastVertex = heapVertex[heapSize];
+			int i = 0;
+			while(2 * i + 1 < heapSize)
+			{
+				int child = 2 * i + 1;
+				if(child + 1 < heapSize && heapKey[child + 1] < heapKey[child])
+					child++;
+				if(heapKey[child] >= lastKey)
+					break;
+				heapKey[i] = heapKey[child];
+				heapVertex[i] = heapVertex[child];
+				i = child;
+			}
+			heapKey[i] = lastKey;
+			heapVertex[i] = lastVertex;
+
+			if(done[v])
+				continue;
+			done[v] = true;
+
+			for(int k = this.start[v]; k < this.start[v + 1]; k++)
+			{
+				int u = this.neighbor[k];
+				double d = distance[v] + this.length[k];
+				if(d < distance[u])
+				{
+					distance[u] = d;
+					predecessor[u] = v;
+					i = heapSize++;
+					while(i > 0 && heapKey[(i - 1) / 2] > d)
+					{
+						heapKey[i] = heapKey[(i - 1) / 2];
+						heapVertex[i] = heapVertex[(i - 1) / 2];
+						i = (i - 1) / 2;
+					}
+					heapKey[i] = d;
+					heapVertex[i] = u;
+				}
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------
+	/**
+	 * Calculate the length of a path in a tree as the warshall algorithm does:
+	 * the warshall algorithm finds the path between its ends when the candidate vertex
+	 * is the interior vertex with the highest index, and adds up the lengths from the
+	 * start to that vertex and from that vertex to the end.
+	 *
+	 * @param path vertex indices of the path
+	 * @param from index of the start of the path in path
+	 * @param to index of the end of the path in path
+	 * @return length of the path
+	 */
+	double warshallPathLength(int[] path, int from, int to)
+	{
+		if(to - from < 1)
+			return 0;
+		if(to - from == 1)
+			return getLength(path[from], path[to]);
+		int m = from + 1;
+		for(int k = from + 2; k < to; k++)
+			if(path[k] > path[m])
+				m = k;
+		return warshallPathLength(path, from, m) + warshallPathLength(path, m, to);
+	}
+
+	/**
+	 * @return true if all vertices can be reached from the first vertex
+	 */
+	private boolean isConnected()
+	{
+		final int n = size();
+		if(n == 0)
+			return true;
+		boolean[] reached = new boolean[n];
+		int[] stack = new int[n];
+		int stackSize = 0;
+		int nReached = 1;
+		reached[0] = true;
+		stack[stackSize++] = 0;
+		while(stackSize > 0)
+		{
+			int v = stack[--stackSize];
+			for(int k = this.start[v]; k < this.start[v + 1]; k++)
+			{
+				int u = this.neighbor[k];
+				if(!reached[u])
+				{
+					reached[u] = true;
+					nReached++;
+					stack[stackSize++] = u;
+				}
+			}
+		}
+		return nReached == n;
+	}
+}
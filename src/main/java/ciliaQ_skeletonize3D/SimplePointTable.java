@@ -0,0 +1,83 @@
+package ciliaQ_skeletonize3D;
+
+/**
+ * Skeletonize3D plugin for ImageJ(C).
+ * Copyright (C) 2008 Ignacio Arganda-Carreras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+/**
+ * Lookup table of the simple point check [Lee94] for all 2^26 configurations of the
+ * 26-neighborhood, shared by all instances in the JVM. The table is allocated on first
+ * use (16 MB) and filled lazily: each configuration is labeled once by
+ * Skeletonize3D_.isSimplePoint(byte[], int[]) when it is first encountered, later checks
+ * of the same configuration are a single lookup.
+ * <p>
+ * Each configuration takes two bits (known, simple). Bits are only ever set, and both
+ * bits of a configuration are set by the same write, so concurrent updates of a table
+ * entry may only lose results (which are then computed again), but never produce wrong ones.
+ */
+class SimplePointTable
+{
+	/** two bits per configuration, 16 configurations per entry */
+	private static class Holder
+	{
+		static final int[] TABLE = new int[1 << 22];
+	}
+
+	private SimplePointTable()
+	{
+	}
+
+	/**
+	 * @param neighborhood 27-voxel neighborhood
+	 * @return configuration of the 26 neighbors (bit i for neighbors 0-12, bit i-1 for neighbors 14-26)
+	 */
+	static int getConfiguration(byte[] neighborhood)
+	{
+		int configuration = 0;
+		for(int i = 0; i < 13; i++)
+			if(neighborhood[i] == 1)
+				configuration |= 1 << i;
+		for(int i = 14; i < 27; i++)
+			if(neighborhood[i] == 1)
+				configuration |= 1 << (i - 1);
+		return configuration;
+	}
+
+	/**
+	 * Check if the center voxel of a neighborhood is a simple point.
+	 *
+	 * @param neighborhood 27-voxel neighborhood
+	 * @param cube labeling buffer of length 26, used if the configuration is not known yet
+	 * @param lee94 instance providing the simple point check
+	 * @return true if the point is simple
+	 */
+	static boolean isSimplePoint(byte[] neighborhood, int[] cube, Skeletonize3D_ lee94)
+	{
+		final int[] table = Holder.TABLE;
+		final int configuration = getConfiguration(neighborhood);
+		final int entry = configuration >>> 4;
+		final int shift = (configuration & 15) << 1;
+		final int bits = table[entry] >>> shift;
+		if((bits & 1) != 0)
+			return (bits & 2) != 0;
+
+		boolean simple = lee94.isSimplePoint(neighborhood, cube);
+		table[entry] |= (simple ? 3 : 1) << shift;
+		return simple;
+	}
+}
@@ -64,6 +64,12 @@ public class Skeletonize3D_ implements PlugInFilter
 	private ImageStack inputImage = null;
     /** number of iterations thinning took */
 	private int iterations;
+	/** number of threads used for thinning */
+	private int nrOfThreads = 1;
+	/** flag to look up simple points in the shared lookup table */
+	private boolean useSimplePointTable = false;
+	/** scratch memory for thinning, null to allocate it for each run */
+	private ThinningWorkspace workspace = null;
 	
 	/* -----------------------------------------------------------------------*/
 	/**
@@ -138,10 +144,37 @@ public class Skeletonize3D_ implements PlugInFilter
 	/* -----------------------------------------------------------------------*/
 	/**
 	 * Post processing for computing thinning.
+	 * The thinning is computed by a {@link ThinningEngine} on a padded copy
+	 * of the image, with the same result as {@link #computeThinImageLegacy(ImageStack)}.
 	 * 
 	 * @param outputImage output image stack
 	 */
 	public void computeThinImage(ImageStack outputImage) 
+	{
+		final long paddedSize = (long) (outputImage.getWidth() + 2) * (outputImage.getHeight() + 2) * (outputImage.getSize() + 2);
+		if( paddedSize > Integer.MAX_VALUE - 8 )
+		{
+			// padded copy does not fit into a single array
+			computeThinImageLegacy(outputImage);
+			return;
+		}
+		
+		IJ.showStatus("Computing thin image ...");
+		ThinningEngine engine = new ThinningEngine(outputImage, this, useSimplePointTable,
+				workspace != null ? workspace : new ThinningWorkspace());
+		iterations = engine.thin(nrOfThreads);
+		engine.writeTo(outputImage);
+		IJ.showStatus("Computed thin image.");
+	} /* end computeThinImage */
+	
+	/* -----------------------------------------------------------------------*/
+	/**
+	 * Post processing for computing thinning, scanning the whole image
+	 * for each border type (reference implementation of [Lee94]).
+	 * 
+	 * @param outputImage output image stack
+	 */
+	public void computeThinImageLegacy(ImageStack outputImage) 
 	{
 		IJ.showStatus("Computing thin image ...");
 						
@@ -271,7 +304,7 @@ public class Skeletonize3D_ implements PlugInFilter
 		}
 
 		IJ.showStatus("Computed thin image.");
-	} /* end computeThinImage */	
+	} /* end computeThinImageLegacy */	
 	
 	
 	/**
@@ -494,7 +527,7 @@ public class Skeletonize3D_ implements PlugInFilter
 	 * 
 	 * @param LUT Euler LUT
 	 */
-	private void fillEulerLUT(int[] LUT) 
+	void fillEulerLUT(int[] LUT) 
 	{
 		LUT[1]  =  1;
 		LUT[3]  = -1;
@@ -861,9 +894,20 @@ public class Skeletonize3D_ implements PlugInFilter
 	 * @return true or false if the point is simple or not
 	 */
 	private boolean isSimplePoint(byte[] neighbors) 
+	{
+		return isSimplePoint(neighbors, new int[26]);
+	}
+	
+	/**
+	 * Check if current point is a Simple Point, using a given array for the labeling.
+	 * 
+	 * @param neighbors neighbor pixels of the point
+	 * @param cube array of length 26 to store the labels (overwritten)
+	 * @return true or false if the point is simple or not
+	 */
+	boolean isSimplePoint(byte[] neighbors, int[] cube) 
 	{
 		// copy neighbors for labeling
-		int cube[] = new int[26];
 		int i;
 		for( i = 0; i < 13; i++ )  // i =  0..12 -> cube[0..12]
 			cube[i] = neighbors[i];
@@ -1300,4 +1344,27 @@ public class Skeletonize3D_ implements PlugInFilter
 		return iterations;
 	}
 
+	/**
+	 * @param nrOfThreads	Number of threads used to find the deletable points of large images (default 1)
+	 */
+	public void setNumberOfThreads(int nrOfThreads) {
+		this.nrOfThreads = Math.max(1, nrOfThreads);
+	}
+
+	/**
+	 * @param useSimplePointTable	Look up simple points in a lookup table shared by all instances,
+	 * 								which takes 16 MB once and is filled while thinning (default false)
+	 */
+	public void setUseSimplePointTable(boolean useSimplePointTable) {
+		this.useSimplePointTable = useSimplePointTable;
+	}
+
+	/**
+	 * @param workspace	Scratch memory reused for thinning many images in the same thread,
+	 * 					null to allocate it for each run (default null)
+	 */
+	public void setWorkspace(ThinningWorkspace workspace) {
+		this.workspace = workspace;
+	}
+
 } /* end skeletonize3D */
\ No newline at end of file
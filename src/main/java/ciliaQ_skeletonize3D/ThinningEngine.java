@@ -0,0 +1,421 @@
+package ciliaQ_skeletonize3D;
+
+/**
+ * Skeletonize3D plugin for ImageJ(C).
+ * Copyright (C) 2008 Ignacio Arganda-Carreras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+import ij.ImageStack;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Thinning engine for the 3D thinning algorithm from Lee et al. [Lee94],
+ * producing the same result as Skeletonize3D_.computeThinImageLegacy(ImageStack).
+ * <p>
+ * The image is copied into a single byte array that is padded with a background
+ * border of one voxel, so that the 6- and 26-neighbors of each voxel are reached by
+ * precomputed index offsets without border checks. Only border voxels (foreground
+ * voxels with a background 6-neighbor) are kept in a list, which is sorted in image
+ * order before each pass. Voxels that become border voxels by deletion of a neighbor
+ * are added to the list, so each pass only visits the current border voxels.
+ * Candidates are collected and re-checked in image order, as in the original algorithm.
+ * Candidates of large borders may be collected by several threads, the re-checking
+ * and deletion of the candidates stays sequential.
+ */
+class ThinningEngine
+{
+	/** minimum number of border voxels to collect the candidates with several threads */
+	static final int MIN_PARALLEL_BORDER_SIZE = 4096;
+
+	/** image width */
+	private final int width;
+	/** image height */
+	private final int height;
+	/** image depth */
+	private final int depth;
+	/** width of the padded volume */
+	private final int paddedWidth;
+	/** size of a slice in the padded volume */
+	private final int paddedSliceSize;
+	/** padded volume */
+	private final byte[] volume;
+
+	/** offsets to the 27 voxels of the 3x3x3 neighborhood, in the order of Skeletonize3D_.getNeighborhood(...) */
+	private final int[] neighborhoodOffsets = new int[27];
+	/** offsets to the 6-neighbor checked for each border type (1 = N, 2 = S, 3 = E, 4 = W, 5 = U, 6 = B) */
+	private final int[] borderOffsets = new int[7];
+	/** number of border types checked (4 for 2D images) */
+	private final int borderTypes;
+
+	/** Euler LUT [Lee94] */
+	private final int[] eulerLUT;
+	/** provider of the simple point and Euler invariance checks */
+	private final Skeletonize3D_ lee94;
+	/** flag to look up simple points in the shared SimplePointTable */
+	private final boolean useSimplePointTable;
+
+	/** border voxels (indices in the padded volume) */
+	private int[] border;
+	/** number of border voxels */
+	private int borderSize = 0;
+	/** number of border voxels that are sorted in image order */
+	private int sortedBorderSize = 0;
+	/** flags of voxels that are in the border list */
+	private final boolean[] inBorder;
+
+	/** reused neighborhood of the current voxel */
+	private final byte[] neighborhood;
+	/** reused labeling cube for the simple point check */
+	private final int[] cube;
+	/** workspace providing the scratch memory */
+	private final ThinningWorkspace workspace;
+
+	/**
+	 * Copy an image into the padded volume.
+	 *
+	 * @param image binary image stack (foreground voxels have value 1)
+	 * @param lee94 instance providing the simple point and Euler invariance checks
+	 * @param useSimplePointTable look up simple points in the shared SimplePointTable
+	 * @param workspace workspace providing the volume, the border list and the LUT
+	 */
+	ThinningEngine(ImageStack image, Skeletonize3D_ lee94, boolean useSimplePointTable, ThinningWorkspace workspace)
+	{
+		this.width = image.getWidth();
+		this.height = image.getHeight();
+		this.depth = image.getSize();
+		this.paddedWidth = this.width + 2;
+		this.paddedSliceSize = this.paddedWidth * (this.height + 2);
+		final int size = this.paddedSliceSize * (this.depth + 2);
+		this.workspace = workspace;
+		this.volume = workspace.getVolume(size);
+		this.inBorder = workspace.getBorderFlags(size);
+		this.lee94 = lee94;
+		this.useSimplePointTable = useSimplePointTable;
+		this.eulerLUT = workspace.getEulerLUT(lee94);
+		this.neighborhood = workspace.getNeighborhoodBuffer();
+		this.cube = workspace.getCubeBuffer();
+
+		for(int z = 0; z < this.depth; z++)
+		{
+			byte[] pixels = (byte[]) image.getPixels(z + 1);
+			for(int y = 0; y < this.height; y++)
+				System.arraycopy(pixels, y * this.width, this.volume, index(0, y, z), this.width);
+		}
+
+		int i = 0;
+		for(int dz = -1; dz <= 1; dz++)
+			for(int dy = -1; dy <= 1; dy++)
+				for(int dx = -1; dx <= 1; dx++)
+					this.neighborhoodOffsets[i++] = dz * this.paddedSliceSize + dy * this.paddedWidth + dx;
+
+		this.borderOffsets[1] = -this.paddedWidth;		// North
+		this.borderOffsets[2] = this.paddedWidth;		// South
+		this.borderOffsets[3] = 1;						// East
+		this.borderOffsets[4] = -1;						// West
+		this.borderOffsets[5] = this.paddedSliceSize;	// Up
+		this.borderOffsets[6] = -this.paddedSliceSize;	// Bottom
+		this.borderTypes = this.depth > 1 ? 6 : 4;
+
+		// initial border voxels, in image order
+		this.border = workspace.getBorderList();
+		for(int z = 0; z < this.depth; z++)
+			for(int y = 0; y < this.height; y++)
+				for(int x = 0, v = index(0, y, z); x < this.width; x++, v++)
+					if(this.volume[v] == 1 && isBorderVoxel(v))
+						addToBorder(v);
+		this.sortedBorderSize = this.borderSize;
+	}
+
+	/**
+	 * @return index of a voxel in the padded volume
+	 */
+	private int index(int x, int y, int z)
+	{
+		return (z + 1) * this.paddedSliceSize + (y + 1) * this.paddedWidth + (x + 1);
+	}
+
+	/**
+	 * @return true if any of the checked 6-neighbors is background
+	 */
+	private boolean isBorderVoxel(int v)
+	{
+		for(int b = 1; b <= this.borderTypes; b++)
+			if(this.volume[v + this.borderOffsets[b]] <= 0)
+				return true;
+		return false;
+	}
+
+	private void addToBorder(int v)
+	{
+		if(this.borderSize == this.border.length)
+			this.border = Arrays.copyOf(this.border, 2 * this.border.length);
+		this.border[this.borderSize++] = v;
+		this.inBorder[v] = true;
+	}
+
+	/**
+	 * Thin the volume (Lee94).
+	 *
+	 * @param nrOfThreads number of threads used to collect the candidates of large borders
+	 * @return number of iterations
+	 */
+	int thin(int nrOfThreads)
+	{
+		ExecutorService pool = null;
+		if(nrOfThreads > 1)
+			pool = Executors.newFixedThreadPool(nrOfThreads);
+		try
+		{
+			return thin(pool, nrOfThreads);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Thinning was interrupted.", e);
+		}
+		finally
+		{
+			if(pool != null)
+				pool.shutdownNow();
+			this.workspace.setBorderList(this.border);
+		}
+	}
+
+	private int thin(ExecutorService pool, int nrOfThreads) throws InterruptedException
+	{
+		int[] candidates;
+		int iterations = 0;
+
+		// Loop through the image several times until there is no change.
+		int unchangedBorders = 0;
+		while( unchangedBorders < 6 )  // loop until no change for all the six border types
+		{
+			unchangedBorders = 0;
+			iterations++;
+			for( int currentBorder = 1; currentBorder <= 6; currentBorder++)
+			{
+				if(currentBorder > this.borderTypes)
+				{
+					// Up and Bottom borders are not checked for 2D images
+					unchangedBorders++;
+					continue;
+				}
+				sortBorder();
+				final int offset = this.borderOffsets[currentBorder];
+
+				// collect simple border points of the current type
+				if(pool != null && this.borderSize >= MIN_PARALLEL_BORDER_SIZE)
+					candidates = collectCandidates(pool, nrOfThreads, offset);
+				else
+					candidates = collectCandidates(0, this.borderSize, offset, this.neighborhood, this.cube);
+
+				// sequential re-checking to preserve connectivity when
+				// deleting in a parallel way
+				boolean noChange = true;
+				for(int v : candidates)
+				{
+					fillNeighborhood(v, this.neighborhood);
+					if( isSimplePoint( this.neighborhood, this.cube ) )
+					{
+						this.volume[v] = 0;
+						noChange = false;
+						// 6-neighbors of the deleted voxel become border voxels
+						for(int b = 1; b <= 6; b++)
+						{
+							int u = v + this.borderOffsets[b];
+							if(this.volume[u] == 1 && !this.inBorder[u])
+								addToBorder(u);
+						}
+					}
+				}
+
+				if( noChange )
+					unchangedBorders++;
+			}
+		}
+		return iterations;
+	}
+
+	/**
+	 * Collect the simple border points of a border type in a part of the border list.
+	 * The volume is only read, so that parts of the border list can be processed concurrently.
+	 *
+	 * @param from first index in the border list
+	 * @param to index after the last index in the border list
+	 * @param offset offset to the 6-neighbor of the border type
+	 * @param neighborhood buffer for the neighborhood
+	 * @param cube buffer for the simple point check
+	 * @return candidates in image order
+	 */
+	private int[] collectCandidates(int from, int to, int offset, byte[] neighborhood, int[] cube)
+	{
+		int[] candidates = new int[Math.max(16, (to - from) / 4)];
+		int nCandidates = 0;
+		for(int i = from; i < to; i++)
+		{
+			int v = this.border[i];
+			if( this.volume[v] != 1 || this.volume[v + offset] > 0 )
+				continue;
+			if( isEndPoint(v) )
+				continue;
+			fillNeighborhood(v, neighborhood);
+			if( !this.lee94.isEulerInvariant( neighborhood, this.eulerLUT ) )
+				continue;
+			if( !isSimplePoint( neighborhood, cube ) )
+				continue;
+			if(nCandidates == candidates.length)
+				candidates = Arrays.copyOf(candidates, 2 * candidates.length);
+			candidates[nCandidates++] = v;
+		}
+		return Arrays.copyOf(candidates, nCandidates);
+	}
+
+	/**
+	 * Collect the simple border points of a border type concurrently: the sorted border list is split
+	 * into consecutive parts (slabs of the volume) and the candidates of the parts are joined in order,
+	 * so that the candidates are the same as when collected by a single thread.
+	 *
+	 * @param pool thread pool
+	 * @param nrOfThreads number of parts
+	 * @param offset offset to the 6-neighbor of the border type
+	 * @return candidates in image order
+	 */
+	private int[] collectCandidates(ExecutorService pool, int nrOfThreads, final int offset) throws InterruptedException
+	{
+		ArrayList<Future<int[]>> tasks = new ArrayList<Future<int[]>>(nrOfThreads);
+		for(int part = 0; part < nrOfThreads; part++)
+		{
+			final int from = (int) ((long) this.borderSize * part / nrOfThreads);
+			final int to = (int) ((long) this.borderSize * (part + 1) / nrOfThreads);
+			tasks.add(pool.submit(new Callable<int[]>()
+			{
+				@Override
+				public int[] call()
+				{
+					return collectCandidates(from, to, offset, new byte[27], new int[26]);
+				}
+			}));
+		}
+
+		int[][] parts = new int[nrOfThreads][];
+		int nCandidates = 0;
+		for(int part = 0; part < nrOfThreads; part++)
+		{
+			try
+			{
+				parts[part] = tasks.get(part).get();
+			}
+			catch(ExecutionException e)
+			{
+				throw new RuntimeException("Collecting thinning candidates failed.", e.getCause());
+			}
+			nCandidates += parts[part].length;
+		}
+		int[] candidates = new int[nCandidates];
+		nCandidates = 0;
+		for(int part = 0; part < nrOfThreads; part++)
+		{
+			System.arraycopy(parts[part], 0, candidates, nCandidates, parts[part].length);
+			nCandidates += parts[part].length;
+		}
+		return candidates;
+	}
+
+	/**
+	 * Remove deleted voxels from the border list and merge the voxels added
+	 * since the last pass into the sorted part of the list.
+	 */
+	private void sortBorder()
+	{
+		int n = 0;
+		int sorted = 0;
+		for(int i = 0; i < this.borderSize; i++)
+		{
+			int v = this.border[i];
+			if(this.volume[v] != 1)
+			{
+				this.inBorder[v] = false;
+				continue;
+			}
+			if(i < this.sortedBorderSize)
+				sorted++;
+			this.border[n++] = v;
+		}
+		if(sorted < n)
+		{
+			Arrays.sort(this.border, sorted, n);
+			int[] merged = this.workspace.getMergeBuffer(n);
+			int a = 0, b = sorted, m = 0;
+			while(a < sorted && b < n)
+				merged[m++] = this.border[a] < this.border[b] ? this.border[a++] : this.border[b++];
+			while(a < sorted)
+				merged[m++] = this.border[a++];
+			while(b < n)
+				merged[m++] = this.border[b++];
+			System.arraycopy(merged, 0, this.border, 0, n);
+		}
+		this.borderSize = n;
+		this.sortedBorderSize = n;
+	}
+
+	/**
+	 * @return true if the voxel has exactly one foreground voxel in its 26-neighborhood
+	 */
+	private boolean isEndPoint(int v)
+	{
+		int numberOfNeighbors = -1;   // -1 and not 0 because the center pixel will be counted as well
+		for(int i = 0; i < 27; i++)
+			if(this.volume[v + this.neighborhoodOffsets[i]] == 1)
+				numberOfNeighbors++;
+		return numberOfNeighbors == 1;
+	}
+
+	private boolean isSimplePoint(byte[] neighborhood, int[] cube)
+	{
+		if(this.useSimplePointTable)
+			return SimplePointTable.isSimplePoint(neighborhood, cube, this.lee94);
+		return this.lee94.isSimplePoint(neighborhood, cube);
+	}
+
+	private void fillNeighborhood(int v, byte[] neighborhood)
+	{
+		for(int i = 0; i < 27; i++)
+			neighborhood[i] = this.volume[v + this.neighborhoodOffsets[i]];
+	}
+
+	/**
+	 * Copy the thinned volume into an image stack.
+	 *
+	 * @param image image stack of the same size as the input image
+	 */
+	void writeTo(ImageStack image)
+	{
+		for(int z = 0; z < this.depth; z++)
+		{
+			byte[] pixels = (byte[]) image.getPixels(z + 1);
+			for(int y = 0; y < this.height; y++)
+				System.arraycopy(this.volume, index(0, y, z), pixels, y * this.width, this.width);
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package ciliaQ_skeletonize3D;
+
+/**
+ * Skeletonize3D plugin for ImageJ(C).
+ * Copyright (C) 2008 Ignacio Arganda-Carreras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+import java.util.Arrays;
+
+/**
+ * Scratch memory of the thinning engine that can be reused for thinning many images
+ * one after another: the padded volume, the border flags and the border lists only grow
+ * when an image needs more space than any image before, and the Euler LUT is filled once.
+ * <p>
+ * A workspace must not be used by several threads at the same time. Pass it to
+ * Skeletonize3D_.setWorkspace(ThinningWorkspace) before running the plugin.
+ */
+public class ThinningWorkspace
+{
+	/** padded volume */
+	private byte[] volume = new byte[0];
+	/** flags of voxels that are in the border list */
+	private boolean[] inBorder = new boolean[0];
+	/** border list */
+	private int[] border = new int[1024];
+	/** buffer for merging the border list */
+	private int[] mergeBuffer = new int[0];
+	/** Euler LUT [Lee94], null until first requested */
+	private int[] eulerLUT = null;
+	/** neighborhood buffer */
+	private final byte[] neighborhood = new byte[27];
+	/** labeling cube for the simple point check */
+	private final int[] cube = new int[26];
+
+	/**
+	 * @param size required number of voxels
+	 * @return volume with at least the required number of voxels, the first size voxels are 0
+	 */
+	byte[] getVolume(int size)
+	{
+		if(this.volume.length < size)
+			this.volume = new byte[size];
+		else
+			Arrays.fill(this.volume, 0, size, (byte) 0);
+		return this.volume;
+	}
+
+	/**
+	 * @param size required number of flags
+	 * @return flags with at least the required length, the first size flags are false
+	 */
+	boolean[] getBorderFlags(int size)
+	{
+		if(this.inBorder.length < size)
+			this.inBorder = new boolean[size];
+		else
+			Arrays.fill(this.inBorder, 0, size, false);
+		return this.inBorder;
+	}
+
+	/**
+	 * @return border list of the last thinning (contents are undefined)
+	 */
+	int[] getBorderList()
+	{
+		return this.border;
+	}
+
+	/**
+	 * Keep a border list that has been grown during thinning for the next image.
+	 */
+	void setBorderList(int[] border)
+	{
+		if(border.length > this.border.length)
+			this.border = border;
+	}
+
+	/**
+	 * @param size required length
+	 * @return buffer with at least the required length (contents are undefined)
+	 */
+	int[] getMergeBuffer(int size)
+	{
+		if(this.mergeBuffer.length < size)
+			this.mergeBuffer = new int[Math.max(size, 2 * this.mergeBuffer.length)];
+		return this.mergeBuffer;
+	}
+
+	/**
+	 * @param lee94 instance providing the LUT
+	 * @return Euler LUT [Lee94]
+	 */
+	int[] getEulerLUT(Skeletonize3D_ lee94)
+	{
+		if(this.eulerLUT == null)
+		{
+			this.eulerLUT = new int[256];
+			lee94.fillEulerLUT(this.eulerLUT);
+		}
+		return this.eulerLUT;
+	}
+
+	byte[] getNeighborhoodBuffer()
+	{
+		return this.neighborhood;
+	}
+
+	int[] getCubeBuffer()
+	{
+		return this.cube;
+	}
+}